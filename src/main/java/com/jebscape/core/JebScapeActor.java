@@ -42,10 +42,14 @@ public class JebScapeActor
 	private static final int MAX_CHAT_MESSAGE_TIME = 6; // number of game ticks that chat message will be visible above player's head
 	private int remainingOverheadChatMessageTime;
 	
+	// coordinates are kept as plain ints so that queueing a target each tick doesn't allocate
 	private static class Target
 	{
-		public WorldPoint worldDestinationPosition;
-		public LocalPoint localDestinationPosition;
+		public int worldX;
+		public int worldY;
+		public int plane;
+		public int localX;
+		public int localY;
 		public int tileMovementSpeed;
 		public int jauDestinationOrientation;
 		public int primaryAnimationID;
@@ -123,11 +127,10 @@ public class JebScapeActor
 		}
 	}
 	
-	public void spawn(WorldPoint position, int jauOrientation)
+	public void spawn(int worldX, int worldY, int plane, int jauOrientation)
 	{
-		LocalPoint localPosition = LocalPoint.fromWorld(client, position);
-		if (localPosition != null && client.getPlane() == position.getPlane())
-			rlObject.setLocation(localPosition, position.getPlane());
+		if (isInScene(worldX, worldY) && client.getPlane() == plane)
+			rlObject.setLocation(new LocalPoint(toLocalX(worldX), toLocalY(worldY)), plane);
 		else
 			return;
 		rlObject.setOrientation(jauOrientation);
@@ -135,7 +138,7 @@ public class JebScapeActor
 		rlObject.setAnimation(animationPoses[POSE_ANIM.IDLE.ordinal()]);
 		rlObject.setShouldLoop(true);
 		rlObject.setActive(true);
-		this.plane = position.getPlane();
+		this.plane = plane;
 		this.currentAnimationID = -1;
 		this.currentMovementSpeed = 0;
 		this.currentTargetIndex = 0;
@@ -176,7 +179,48 @@ public class JebScapeActor
 	
 	public WorldPoint getWorldLocation()
 	{
-		return targetQueueSize > 0 ? targetQueue[currentTargetIndex].worldDestinationPosition : WorldPoint.fromLocal(client, rlObject.getLocation());
+		if (targetQueueSize > 0)
+		{
+			Target target = targetQueue[currentTargetIndex];
+			return new WorldPoint(target.worldX, target.worldY, target.plane);
+		}
+		
+		return WorldPoint.fromLocal(client, rlObject.getLocation());
+	}
+	
+	// the same conversions as LocalPoint.fromWorld() and WorldPoint.fromLocal(), without making a new point each time
+	private boolean isInScene(int worldX, int worldY)
+	{
+		int sceneX = worldX - client.getBaseX();
+		int sceneY = worldY - client.getBaseY();
+		return sceneX >= 0 && sceneY >= 0 && sceneX < Perspective.SCENE_SIZE && sceneY < Perspective.SCENE_SIZE;
+	}
+	
+	// as LocalPoint.isInScene() checks it
+	private static boolean isLocalInScene(int localX, int localY)
+	{
+		final int sceneLocalSize = Perspective.SCENE_SIZE << Perspective.LOCAL_COORD_BITS;
+		return localX >= 0 && localY >= 0 && localX < sceneLocalSize && localY < sceneLocalSize;
+	}
+	
+	private int toLocalX(int worldX)
+	{
+		return ((worldX - client.getBaseX()) << Perspective.LOCAL_COORD_BITS) + Perspective.LOCAL_HALF_TILE_SIZE;
+	}
+	
+	private int toLocalY(int worldY)
+	{
+		return ((worldY - client.getBaseY()) << Perspective.LOCAL_COORD_BITS) + Perspective.LOCAL_HALF_TILE_SIZE;
+	}
+	
+	private int toWorldX(int localX)
+	{
+		return (localX >>> Perspective.LOCAL_COORD_BITS) + client.getBaseX();
+	}
+	
+	private int toWorldY(int localY)
+	{
+		return (localY >>> Perspective.LOCAL_COORD_BITS) + client.getBaseY();
 	}
 	
 	public LocalPoint getLocalLocation()
@@ -200,15 +244,15 @@ public class JebScapeActor
 	}
 	
 	public void setName(String name)
+	{
+		setName(name, world != 0 ? "[W" + world + "] " + name : name);
+	}
+	
+	// for when the label has been worked out ahead of time, as JebScapeNameCache does
+	public void setName(String name, String overheadText)
 	{
 		this.actorName = name;
-		
-		if (world != 0)
-			overheadText = "[W" + world + "] ";
-		else
-			overheadText = "";
-		
-		overheadText += name;
+		this.overheadText = overheadText;
 	}
 	
 	public String getName()
@@ -246,12 +290,12 @@ public class JebScapeActor
 	// This is not set up for pathfinding to the final destination of distant targets (you will just move there directly)
 	// It will, however, handle nearby collision detection (1-2 tiles away from you) under certain scenarios
 	// jauOrientation is not used if isInteracting is false; it will instead default to the angle being moved towards
-	public void moveTo(WorldPoint worldPosition, int jauOrientation, int primaryAnimationID, boolean isInteracting, boolean isPoseAnimation, boolean isInstanced, int gameTick)
+	public void moveTo(int worldX, int worldY, int plane, int jauOrientation, int primaryAnimationID, boolean isInteracting, boolean isPoseAnimation, boolean isInstanced, int gameTick)
 	{
 		// respawn this actor if it was previously despawned
 		if (!rlObject.isActive())
 		{
-			spawn(worldPosition, jauOrientation);
+			spawn(worldX, worldY, plane, jauOrientation);
 			
 			// if still not active, just exit
 			if (!rlObject.isActive())
@@ -264,42 +308,53 @@ public class JebScapeActor
 		
 		int prevTargetIndex = (currentTargetIndex + targetQueueSize - 1) % MAX_TARGET_QUEUE_SIZE;
 		int newTargetIndex = (currentTargetIndex + targetQueueSize) % MAX_TARGET_QUEUE_SIZE;
-		LocalPoint localPosition = LocalPoint.fromWorld(client, worldPosition);
-		
-		if (localPosition == null)
+		if (!isInScene(worldX, worldY) || client.getPlane() != plane)
 			return;
 		
+		int localX = toLocalX(worldX);
+		int localY = toLocalY(worldY);
+		int sceneX = localX >>> Perspective.LOCAL_COORD_BITS;
+		int sceneY = localY >>> Perspective.LOCAL_COORD_BITS;
+		
 		// use current position if nothing is in queue
-		WorldPoint prevWorldPosition;
+		int prevWorldX;
+		int prevWorldY;
+		int prevPlane;
 		if (targetQueueSize++ > 0)
 		{
-			prevWorldPosition = targetQueue[prevTargetIndex].worldDestinationPosition;
+			prevWorldX = targetQueue[prevTargetIndex].worldX;
+			prevWorldY = targetQueue[prevTargetIndex].worldY;
+			prevPlane = targetQueue[prevTargetIndex].plane;
 			// TODO: check if a different primaryAnimationID exists; if so, modify the old one with our new one (hopefully this prevents the extra tick of animation repeating)
 		}
 		else
 		{
-			prevWorldPosition = WorldPoint.fromLocal(client, rlObject.getLocation());
+			LocalPoint currentPosition = rlObject.getLocation();
+			prevWorldX = toWorldX(currentPosition.getX());
+			prevWorldY = toWorldY(currentPosition.getY());
+			prevPlane = client.getPlane();
 		}
 		
-		int distance = prevWorldPosition.distanceTo(worldPosition);
+		// as WorldPoint.distanceTo() measures it
+		int distance = prevPlane != plane ? Integer.MAX_VALUE : Math.max(Math.abs(worldX - prevWorldX), Math.abs(worldY - prevWorldY));
 		if (distance > 0 && distance <= 2)
 		{
-			int dx = worldPosition.getX() - prevWorldPosition.getX();
-			int dy = worldPosition.getY() - prevWorldPosition.getY();
+			int dx = worldX - prevWorldX;
+			int dy = worldY - prevWorldY;
 			
 			boolean useMidPointTile = false;
 			
 			if (distance == 1 && dx != 0 && dy != 0) // test for blockage along diagonal
 			{
 				// if blocked diagonally, go around in an L shape (2 options)
-				int[][] colliders = client.getCollisionMaps()[worldPosition.getPlane()].getFlags();
+				int[][] colliders = client.getCollisionMaps()[plane].getFlags();
 				final int diagonalTest = BLOCKING_DIRECTIONS_5x5[CENTER_INDEX_5X5 - dy][CENTER_INDEX_5X5 + dx];
 				final int axisXTest = BLOCKING_DIRECTIONS_5x5[CENTER_INDEX_5X5][CENTER_INDEX_5X5 + dx] | BLOCKING_DIRECTIONS_5x5[CENTER_INDEX_5X5 + dy][CENTER_INDEX_5X5] | CollisionDataFlag.BLOCK_MOVEMENT_FULL;
 				final int axisYTest = BLOCKING_DIRECTIONS_5x5[CENTER_INDEX_5X5 - dy][CENTER_INDEX_5X5] | BLOCKING_DIRECTIONS_5x5[CENTER_INDEX_5X5][CENTER_INDEX_5X5 - dx] | CollisionDataFlag.BLOCK_MOVEMENT_FULL;
 				
-				int diagonalFlag = colliders[localPosition.getSceneX()][localPosition.getSceneY()];
-				int axisXFlag = colliders[localPosition.getSceneX()][localPosition.getSceneY() - dy];
-				int axisYFlag = colliders[localPosition.getSceneX() - dx][localPosition.getSceneY()];
+				int diagonalFlag = colliders[sceneX][sceneY];
+				int axisXFlag = colliders[sceneX][sceneY - dy];
+				int axisYFlag = colliders[sceneX - dx][sceneY];
 				
 				if ((axisXFlag & axisXTest) != 0 || (axisYFlag & axisYTest) != 0 || (diagonalFlag & diagonalTest) != 0)
 				{
@@ -317,16 +372,16 @@ public class JebScapeActor
 			else if (distance == 2 && Math.abs(Math.abs(dy) - Math.abs(dx)) == 1) // test for blockage along knight-style moves
 			{
 				useMidPointTile = true; // we will always need a midpoint for these types of moves
-				int[][] colliders = client.getCollisionMaps()[worldPosition.getPlane()].getFlags();
+				int[][] colliders = client.getCollisionMaps()[plane].getFlags();
 				final int diagonalTest = BLOCKING_DIRECTIONS_5x5[CENTER_INDEX_5X5 - dy][CENTER_INDEX_5X5 + dx];
 				final int axisXTest = BLOCKING_DIRECTIONS_5x5[CENTER_INDEX_5X5][CENTER_INDEX_5X5 + dx] | BLOCKING_DIRECTIONS_5x5[CENTER_INDEX_5X5 + dy][CENTER_INDEX_5X5] | CollisionDataFlag.BLOCK_MOVEMENT_FULL;
 				final int axisYTest = BLOCKING_DIRECTIONS_5x5[CENTER_INDEX_5X5 - dy][CENTER_INDEX_5X5] | BLOCKING_DIRECTIONS_5x5[CENTER_INDEX_5X5][CENTER_INDEX_5X5 - dx] | CollisionDataFlag.BLOCK_MOVEMENT_FULL;
 				
 				int dxSign = Integer.signum(dx);
 				int dySign = Integer.signum(dy);
-				int diagonalFlag = colliders[localPosition.getSceneX()][localPosition.getSceneY()];
-				int axisXFlag = colliders[localPosition.getSceneX()][localPosition.getSceneY() - Integer.signum(dySign)];
-				int axisYFlag = colliders[localPosition.getSceneX() - Integer.signum(dxSign)][localPosition.getSceneY()];
+				int diagonalFlag = colliders[sceneX][sceneY];
+				int axisXFlag = colliders[sceneX][sceneY - Integer.signum(dySign)];
+				int axisYFlag = colliders[sceneX - Integer.signum(dxSign)][sceneY];
 				
 				// do we go straight or diagonal? test straight first and fall back to diagonal if it fails
 				// priority is West > East > South > North > Southwest > Southeast > Northwest > Northeast
@@ -356,20 +411,24 @@ public class JebScapeActor
 			
 			if (useMidPointTile)
 			{
-				WorldPoint midPoint = new WorldPoint(prevWorldPosition.getX() + dx, prevWorldPosition.getY() + dy, prevWorldPosition.getPlane());
+				int midPointX = prevWorldX + dx;
+				int midPointY = prevWorldY + dy;
 				
 				// handle rotation if we have no interacting target
 				if (!isInteracting)
 				{
 					// the actor needs to look in the direction being moved toward
 					// the distance between these points should be guaranteed to be 1 here
-					dx = midPoint.getX() - prevWorldPosition.getX();
-					dy = midPoint.getY() - prevWorldPosition.getY();
+					dx = midPointX - prevWorldX;
+					dy = midPointY - prevWorldY;
 					jauOrientation = JAU_DIRECTIONS_5X5[CENTER_INDEX_5X5 - dy][CENTER_INDEX_5X5 + dx];
 				}
 				
-				this.targetQueue[newTargetIndex].worldDestinationPosition = midPoint;
-				this.targetQueue[newTargetIndex].localDestinationPosition = LocalPoint.fromWorld(client, midPoint);
+				this.targetQueue[newTargetIndex].worldX = midPointX;
+				this.targetQueue[newTargetIndex].worldY = midPointY;
+				this.targetQueue[newTargetIndex].plane = prevPlane;
+				this.targetQueue[newTargetIndex].localX = toLocalX(midPointX);
+				this.targetQueue[newTargetIndex].localY = toLocalY(midPointY);
 				this.targetQueue[newTargetIndex].tileMovementSpeed = distance;
 				this.targetQueue[newTargetIndex].jauDestinationOrientation = jauOrientation;
 				this.targetQueue[newTargetIndex].primaryAnimationID = primaryAnimationID;
@@ -380,7 +439,8 @@ public class JebScapeActor
 				this.targetQueue[newTargetIndex].gameTick = gameTick;
 				
 				newTargetIndex = (currentTargetIndex + targetQueueSize++) % MAX_TARGET_QUEUE_SIZE;
-				prevWorldPosition = midPoint;
+				prevWorldX = midPointX;
+				prevWorldY = midPointY;
 			}
 			
 			// handle rotation if we have no interacting target
@@ -388,14 +448,17 @@ public class JebScapeActor
 			{
 				// the actor needs to look in the direction being moved toward
 				// the distance between these points may be up to 2
-				dx = worldPosition.getX() - prevWorldPosition.getX();
-				dy = worldPosition.getY() - prevWorldPosition.getY();
+				dx = worldX - prevWorldX;
+				dy = worldY - prevWorldY;
 				jauOrientation = JAU_DIRECTIONS_5X5[CENTER_INDEX_5X5 - dy][CENTER_INDEX_5X5 + dx];
 			}
 		}
 		
-		this.targetQueue[newTargetIndex].worldDestinationPosition = worldPosition;
-		this.targetQueue[newTargetIndex].localDestinationPosition = localPosition;
+		this.targetQueue[newTargetIndex].worldX = worldX;
+		this.targetQueue[newTargetIndex].worldY = worldY;
+		this.targetQueue[newTargetIndex].plane = plane;
+		this.targetQueue[newTargetIndex].localX = localX;
+		this.targetQueue[newTargetIndex].localY = localY;
 		this.targetQueue[newTargetIndex].tileMovementSpeed = distance;
 		this.targetQueue[newTargetIndex].jauDestinationOrientation = jauOrientation;
 		this.targetQueue[newTargetIndex].primaryAnimationID = primaryAnimationID;
@@ -423,11 +486,12 @@ public class JebScapeActor
 		{
 			if (targetQueueSize > 0)
 			{
-				int targetPlane = targetQueue[currentTargetIndex].worldDestinationPosition.getPlane();
-				LocalPoint targetPosition = targetQueue[currentTargetIndex].localDestinationPosition;
+				int targetPlane = targetQueue[currentTargetIndex].plane;
+				int targetX = targetQueue[currentTargetIndex].localX;
+				int targetY = targetQueue[currentTargetIndex].localY;
 				int targetOrientation = targetQueue[currentTargetIndex].jauDestinationOrientation;
 				
-				if (client.getPlane() != targetPlane || plane != targetPlane || targetPosition == null || !targetPosition.isInScene() || targetOrientation < 0)
+				if (client.getPlane() != targetPlane || plane != targetPlane || !isLocalInScene(targetX, targetY) || targetOrientation < 0)
 				{
 					// this actor is no longer in a visible area, so let's despawn it
 					despawn();
@@ -479,8 +543,8 @@ public class JebScapeActor
 				
 				LocalPoint currentPosition = rlObject.getLocation();
 				int currentOrientation = rlObject.getOrientation();
-				int dx = targetPosition.getX() - currentPosition.getX();
-				int dy = targetPosition.getY() - currentPosition.getY();
+				int dx = targetX - currentPosition.getX();
+				int dy = targetY - currentPosition.getY();
 				
 				// are we not where we need to be?
 				if (dx != 0 || dy != 0)
@@ -518,8 +582,8 @@ public class JebScapeActor
 					}
 					
 					currentPosition = rlObject.getLocation();
-					dx = targetPosition.getX() - currentPosition.getX();
-					dy = targetPosition.getY() - currentPosition.getY();
+					dx = targetX - currentPosition.getX();
+					dy = targetY - currentPosition.getY();
 				}
 				
 				// compute the turn we need to make
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.Arrays;
+
+// remembers the last appearance and cape seen on each player by their packed name, and how often they've been seen, across sessions
+// a ghost can then be built as soon as its name turns up instead of waiting on the next odd tick, and regulars built ahead at login
+// bounded; once full, whoever was seen longest ago makes way, found by a scan as it only happens on meeting someone new
+// entries sit in fixed arrays, found through an open addressed table kept at most half full; removals shift later slots back
+// file layout (little endian):
+// 4 bytes magic
+// 4 bytes format version
+// 4 bytes game cache revision; packed body parts and item IDs only mean the same within one
+// 4 bytes number of entries
+// then per entry, least recently seen first: 3 x 4 bytes packed name, 4 x 4 bytes packed appearance, 4 bytes cape ID, 4 bytes times seen
+public class JebScapeAppearanceCache
+{
+	public static final int MAGIC = 0x4150534A; // "JSPA"
+	public static final int FORMAT_VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	public static final int ENTRY_SIZE = 9 * 4;
+	public static final int DEFAULT_CAPACITY = 2048;
+	private static final int EMPTY = -1;
+	
+	private final int capacity;
+	private final int[] table; // entry indices
+	private final int tableMask;
+	private final int[] names; // 3 words per entry
+	private final int[] appearances; // 4 words per entry
+	private final int[] capeIDs;
+	private final int[] timesSeen;
+	private final long[] lastSeen;
+	private int numEntries;
+	private long clock; // advanced on every sighting
+	private boolean isDirty; // anything changed since read or last encoded
+	private long numLookups;
+	private long numHits;
+	
+	public JebScapeAppearanceCache(int capacity)
+	{
+		this.capacity = Math.max(1, capacity);
+		int tableSize = 1;
+		while (tableSize < this.capacity * 2)
+			tableSize <<= 1;
+		this.table = new int[tableSize];
+		this.tableMask = tableSize - 1;
+		this.names = new int[this.capacity * 3];
+		this.appearances = new int[this.capacity * 4];
+		this.capeIDs = new int[this.capacity];
+		this.timesSeen = new int[this.capacity];
+		this.lastSeen = new long[this.capacity];
+		clear();
+	}
+	
+	// the entry for this name, or -1 if there is none
+	public int find(int packedName0, int packedName1, int packedName2)
+	{
+		this.numLookups++;
+		int entry = table[findSlot(packedName0, packedName1, packedName2)];
+		if (entry != EMPTY)
+			this.numHits++;
+		return entry;
+	}
+	
+	// counts another sighting of someone already known
+	public void onSeen(int entry)
+	{
+		this.timesSeen[entry]++;
+		this.lastSeen[entry] = ++clock;
+		this.isDirty = true;
+	}
+	
+	// copies 4 words of packed appearance into dest from destIdx
+	public void getAppearance(int entry, int[] dest, int destIdx)
+	{
+		System.arraycopy(appearances, entry * 4, dest, destIdx, 4);
+	}
+	
+	public int getCapeID(int entry)
+	{
+		return capeIDs[entry];
+	}
+	
+	public int getTimesSeen(int entry)
+	{
+		return timesSeen[entry];
+	}
+	
+	// remembers how this player last looked, taking 4 words of packed appearance from appearanceIdx
+	public void put(int packedName0, int packedName1, int packedName2, int[] appearance, int appearanceIdx, int capeID)
+	{
+		int entry = add(packedName0, packedName1, packedName2);
+		System.arraycopy(appearance, appearanceIdx, appearances, entry * 4, 4);
+		this.capeIDs[entry] = capeID;
+		this.lastSeen[entry] = ++clock;
+		this.isDirty = true;
+	}
+	
+	// takes in everyone from the other cache, as if they had just been seen here; for whoever's in both, the other's appearance wins
+	public void putAll(JebScapeAppearanceCache other)
+	{
+		for (int otherEntry : other.getEntriesByLastSeen())
+		{
+			int entry = add(other.names[otherEntry * 3], other.names[otherEntry * 3 + 1], other.names[otherEntry * 3 + 2]);
+			System.arraycopy(other.appearances, otherEntry * 4, appearances, entry * 4, 4);
+			this.capeIDs[entry] = other.capeIDs[otherEntry];
+			this.timesSeen[entry] += other.timesSeen[otherEntry];
+			this.lastSeen[entry] = ++clock;
+			this.isDirty = true;
+		}
+	}
+	
+	// fills entries with up to entries.length of those seen most often, most often first; returns how many
+	public int getMostSeen(int[] entries)
+	{
+		int numFound = 0;
+		if (entries.length == 0)
+			return 0;
+		
+		for (int entry = 0; entry < numEntries; entry++)
+		{
+			// insertion into a short sorted list; only a few dozen are ever asked for
+			if (numFound == entries.length && timesSeen[entries[numFound - 1]] >= timesSeen[entry])
+				continue;
+			
+			int i = numFound < entries.length ? numFound++ : numFound - 1;
+			while (i > 0 && timesSeen[entries[i - 1]] < timesSeen[entry])
+			{
+				entries[i] = entries[i - 1];
+				i--;
+			}
+			entries[i] = entry;
+		}
+		return numFound;
+	}
+	
+	public void clear()
+	{
+		Arrays.fill(table, EMPTY);
+		this.numEntries = 0;
+		this.clock = 0;
+		this.isDirty = false;
+	}
+	
+	public int size()
+	{
+		return numEntries;
+	}
+	
+	// whether there's anything to save since it was read or last encoded
+	public boolean isDirty()
+	{
+		return isDirty;
+	}
+	
+	public long getNumLookups()
+	{
+		return numLookups;
+	}
+	
+	public long getNumHits()
+	{
+		return numHits;
+	}
+	
+	// as a percentage
+	public int getHitRate()
+	{
+		return numLookups == 0 ? 0 : (int)(numHits * 100 / numLookups);
+	}
+	
+	// a snapshot to be written out later, so that the file itself can be written off the client thread; no longer dirty after
+	public ByteBuffer encode(int revision)
+	{
+		this.isDirty = false;
+		ByteBuffer file = ByteBuffer.allocate(HEADER_SIZE + numEntries * ENTRY_SIZE);
+		file.order(ByteOrder.LITTLE_ENDIAN);
+		file.putInt(MAGIC);
+		file.putInt(FORMAT_VERSION);
+		file.putInt(revision);
+		file.putInt(numEntries);
+		for (int entry : getEntriesByLastSeen())
+		{
+			file.putInt(names[entry * 3]);
+			file.putInt(names[entry * 3 + 1]);
+			file.putInt(names[entry * 3 + 2]);
+			for (int i = 0; i < 4; i++)
+				file.putInt(appearances[entry * 4 + i]);
+			file.putInt(capeIDs[entry]);
+			file.putInt(timesSeen[entry]);
+		}
+		file.flip();
+		return file;
+	}
+	
+	// written to a file of its own beside it first, so neither a crash part way through nor another write at once leaves a broken file behind
+	public static void write(Path path, ByteBuffer file) throws IOException
+	{
+		Path directory = path.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		Path tempPath = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+		try
+		{
+			try (FileChannel fileChannel = FileChannel.open(tempPath, StandardOpenOption.WRITE))
+			{
+				while (file.hasRemaining())
+					fileChannel.write(file);
+			}
+			
+			try
+			{
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(tempPath);
+		}
+	}
+	
+	// an empty cache if there's no file for this revision, or it can't be trusted
+	public static JebScapeAppearanceCache read(Path path, int revision, int capacity)
+	{
+		JebScapeAppearanceCache appearanceCache = new JebScapeAppearanceCache(capacity);
+		try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if (fileChannel.size() < HEADER_SIZE)
+				return appearanceCache;
+			
+			MappedByteBuffer file = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+			file.order(ByteOrder.LITTLE_ENDIAN);
+			if (file.getInt() != MAGIC || file.getInt() != FORMAT_VERSION || file.getInt() != revision)
+				return appearanceCache;
+			int numEntries = file.getInt();
+			if (numEntries < 0 || file.remaining() < (long)numEntries * ENTRY_SIZE)
+				return appearanceCache;
+			
+			for (int i = 0; i < numEntries; i++)
+			{
+				int entry = appearanceCache.add(file.getInt(), file.getInt(), file.getInt());
+				for (int k = 0; k < 4; k++)
+					appearanceCache.appearances[entry * 4 + k] = file.getInt();
+				appearanceCache.capeIDs[entry] = file.getInt();
+				appearanceCache.timesSeen[entry] = Math.max(0, file.getInt());
+				appearanceCache.lastSeen[entry] = ++appearanceCache.clock;
+			}
+		}
+		catch (IOException e)
+		{
+			appearanceCache.clear();
+		}
+		return appearanceCache;
+	}
+	
+	// the entry for this name, added with nothing seen yet if new; evicts whoever was seen longest ago if full
+	private int add(int packedName0, int packedName1, int packedName2)
+	{
+		int slot = findSlot(packedName0, packedName1, packedName2);
+		if (table[slot] != EMPTY)
+			return table[slot];
+		
+		int entry;
+		if (numEntries < capacity)
+		{
+			entry = numEntries++;
+		}
+		else
+		{
+			entry = 0;
+			for (int i = 1; i < numEntries; i++)
+				if (lastSeen[i] < lastSeen[entry])
+					entry = i;
+			removeSlot(findSlot(names[entry * 3], names[entry * 3 + 1], names[entry * 3 + 2]));
+			slot = findSlot(packedName0, packedName1, packedName2); // the removal may have shifted where it goes
+		}
+		
+		this.names[entry * 3] = packedName0;
+		this.names[entry * 3 + 1] = packedName1;
+		this.names[entry * 3 + 2] = packedName2;
+		this.timesSeen[entry] = 0;
+		this.table[slot] = entry;
+		return entry;
+	}
+	
+	private int[] getEntriesByLastSeen()
+	{
+		// each entry's index rides below its last sighting, so a plain sort of longs orders them; sightings never get near the top bits
+		int indexBits = 32 - Integer.numberOfLeadingZeros(capacity);
+		long indexMask = (1L << indexBits) - 1;
+		long[] keys = new long[numEntries];
+		for (int i = 0; i < numEntries; i++)
+			keys[i] = (lastSeen[i] << indexBits) | i;
+		Arrays.sort(keys);
+		
+		int[] sortedEntries = new int[numEntries];
+		for (int i = 0; i < numEntries; i++)
+			sortedEntries[i] = (int)(keys[i] & indexMask);
+		return sortedEntries;
+	}
+	
+	// the slot holding this name, or else the empty slot where it would go
+	private int findSlot(int packedName0, int packedName1, int packedName2)
+	{
+		int slot = JebScapeNameCache.hash(0, packedName0, packedName1, packedName2) & tableMask;
+		while (table[slot] != EMPTY)
+		{
+			int nameIdx = table[slot] * 3;
+			if (names[nameIdx] == packedName0 && names[nameIdx + 1] == packedName1 && names[nameIdx + 2] == packedName2)
+				return slot;
+			slot = (slot + 1) & tableMask;
+		}
+		return slot;
+	}
+	
+	private void removeSlot(int slot)
+	{
+		// pull back any later slots of the same run that would otherwise no longer be found past the gap
+		this.table[slot] = EMPTY;
+		int gap = slot;
+		for (int i = (slot + 1) & tableMask; table[i] != EMPTY; i = (i + 1) & tableMask)
+		{
+			int nameIdx = table[i] * 3;
+			int home = JebScapeNameCache.hash(0, names[nameIdx], names[nameIdx + 1], names[nameIdx + 2]) & tableMask;
+			boolean isHomeAfterGap = gap <= i ? (home > gap && home <= i) : (home > gap || home <= i);
+			if (isHomeAfterGap)
+				continue;
+			
+			this.table[gap] = table[i];
+			this.table[i] = EMPTY;
+			gap = i;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+// declares the layout of a 32-bit protocol word, one field after another starting from the lowest bit
+// a field is handed back as an int holding its shift (low 8 bits) and width (next 8 bits), so that when kept
+// in a static final the JIT folds get/pack/set down to the same shift and mask as writing them out by hand
+// see JebScapeProtocol for the words actually sent
+public final class JebScapeBitCodec
+{
+	private final String name;
+	private int numBits;
+	
+	public JebScapeBitCodec(String name)
+	{
+		this.name = name;
+	}
+	
+	public int field(int width)
+	{
+		if (width <= 0 || numBits + width > 32)
+			throw new IllegalStateException(name + " has no room left for a " + width + " bit field at bit " + numBits);
+		
+		int field = numBits | (width << 8);
+		this.numBits += width;
+		return field;
+	}
+	
+	// bits nobody reads yet; the field is still handed back so that they can be filled as the protocol asks
+	public int reserved(int width)
+	{
+		return field(width);
+	}
+	
+	public int getNumBits()
+	{
+		return numBits;
+	}
+	
+	// every word is meant to be spoken for in full, reserved bits included
+	public JebScapeBitCodec verify()
+	{
+		if (numBits != 32)
+			throw new IllegalStateException(name + " only lays out " + numBits + "/32 bits");
+		return this;
+	}
+	
+	public static int shift(int field)
+	{
+		return field & 0xFF;
+	}
+	
+	public static int width(int field)
+	{
+		return field >>> 8;
+	}
+	
+	// unshifted
+	public static int mask(int field)
+	{
+		return -1 >>> (32 - (field >>> 8));
+	}
+	
+	public static int get(int field, int word)
+	{
+		return (word >>> shift(field)) & mask(field);
+	}
+	
+	public static boolean isSet(int field, int word)
+	{
+		return get(field, word) != 0;
+	}
+	
+	// the value moved into place, to be or'd together with the word's other fields
+	public static int pack(int field, int value)
+	{
+		return (value & mask(field)) << shift(field);
+	}
+	
+	public static int pack(int field, boolean value)
+	{
+		return (value ? 0x1 : 0x0) << shift(field);
+	}
+	
+	// the word with just this field replaced
+	public static int set(int field, int word, int value)
+	{
+		return (word & ~fill(field)) | pack(field, value);
+	}
+	
+	// every bit of the field set, as reserved bits are sent
+	public static int fill(int field)
+	{
+		return mask(field) << shift(field);
+	}
+}
@@ -99,15 +99,47 @@ public interface JebScapeConfig extends Config
 		return true;
 	}
 	
-	@ConfigSection(
+	@Range(
+			min = 16,
+			max = 256
+	)
+	@ConfigItem(
 			position = 2,
+			keyName = "maxGhosts",
+			name = "Max Ghosts",
+			description = "The most ghosts to show at once. In crowded places, only the nearest are shown.",
+			section = megaserverSection
+	)
+	default int maxGhosts()
+	{
+		return 64;
+	}
+	
+	@Range(
+			min = 1,
+			max = 15
+	)
+	@ConfigItem(
+			position = 3,
+			keyName = "ghostInterestRadius",
+			name = "Ghost View Distance",
+			description = "How many tiles around you to look for ghosts.",
+			section = megaserverSection
+	)
+	default int ghostInterestRadius()
+	{
+		return 15;
+	}
+	
+	@ConfigSection(
+			position = 4,
 			name = "Live Hiscores",
 			description = "Tracks post-200m XP gains and rank changes every tick. Requires JebScape account to participate."
 	)
 	String liveHiscoresSection = "liveHiscoresSection";
 	
 	@ConfigItem(
-			position = 3,
+			position = 5,
 			keyName = "hideLiveHiscores",
 			name = "Hide Live Hiscores",
 			description = "Uncheck this to make live hiscores visible again.",
@@ -119,7 +151,7 @@ public interface JebScapeConfig extends Config
 	}
 	
 	@ConfigItem(
-			position = 4,
+			position = 6,
 			keyName = "selectSkillLiveHiscores",
 			name = "Select Skill",
 			description = "Select the skill to watch.",
@@ -135,7 +167,7 @@ public interface JebScapeConfig extends Config
 			max = 99996
 	)
 	@ConfigItem(
-			position = 5,
+			position = 7,
 			keyName = "startRankLiveHiscores",
 			name = "Rank",
 			description = "Enter the starting rank being watched.",
@@ -145,4 +177,88 @@ public interface JebScapeConfig extends Config
 	{
 		return 1;
 	}
-}
+	
+	@ConfigSection(
+			position = 8,
+			name = "Network",
+			description = "Advanced settings for the connection to the JebScape server.",
+			closedByDefault = true
+	)
+	String networkSection = "networkSection";
+	
+	@ConfigItem(
+			position = 9,
+			keyName = "useReceiveThread",
+			name = "Background Receive Thread",
+			description = "Receive server data on a background thread as soon as it arrives rather than once per game tick.",
+			section = networkSection
+	)
+	default boolean useReceiveThread()
+	{
+		return false;
+	}
+	
+	@ConfigItem(
+			position = 10,
+			keyName = "useJitterBuffer",
+			name = "Smooth Ghost Movement",
+			description = "Hold server updates back by an adaptive delay so ghosts move once per tick even on unstable connections.",
+			section = networkSection
+	)
+	default boolean useJitterBuffer()
+	{
+		return false;
+	}
+	
+	@ConfigItem(
+			position = 11,
+			keyName = "useSubTickProcessing",
+			name = "Sub-Tick Ghost Updates",
+			description = "Move ghosts as soon as server data arrives rather than waiting for the next game tick. Has no effect whilst smoothing ghost movement.",
+			section = networkSection
+	)
+	default boolean useSubTickProcessing()
+	{
+		return false;
+	}
+	
+	@ConfigItem(
+			position = 12,
+			keyName = "useParity",
+			name = "Recover Lost Packets",
+			description = "Ask the server for an extra parity packet each tick so that a lost packet can be rebuilt. Takes effect on the next login.",
+			section = networkSection
+	)
+	default boolean useParity()
+	{
+		return false;
+	}
+	
+	@ConfigItem(
+			position = 13,
+			keyName = "showTelemetryOverlay",
+			name = "Show Connection Stats",
+			description = "Show a debug panel graphing round trip time, jitter, packet loss and bandwidth.",
+			section = networkSection
+	)
+	default boolean showTelemetryOverlay()
+	{
+		return false;
+	}
+	
+	@Range(
+			min = 1,
+			max = 64
+	)
+	@ConfigItem(
+			position = 14,
+			keyName = "modelPartCacheSize",
+			name = "Model Part Cache (MB)",
+			description = "How much memory to keep the parts ghost models are built from in. Lower this on clients short of memory.",
+			section = networkSection
+	)
+	default int modelPartCacheSize()
+	{
+		return 8;
+	}
+}
\ No newline at end of file
@@ -24,30 +24,61 @@
  */
 package com.jebscape.core;
 
+import java.io.*;
 import java.net.*;
 import java.nio.channels.*;
 import java.nio.charset.*;
+import java.nio.file.*;
+import com.jebscape.core.JebScapeProtocol.ChatHeader;
+import com.jebscape.core.JebScapeProtocol.LoginHeader;
+import com.jebscape.core.JebScapeProtocol.ServerHeader;
 
 public class JebScapeConnection
 {
-	private DatagramChannel chatChannel;
-	private InetSocketAddress chatAddress;
+	private JebScapeEndpointManager endpoints;
+	private DatagramChannel chatChannel; // the active endpoint's channel as of the latest call from the client thread; null if not ready
+	private int receivingEndpoint; // index of the endpoint the packet being processed came from
+	private String loginName = "";
+	
+	// with more than one endpoint, a session that goes quiet or lossy is moved to whichever endpoint answers best
+	private static final int FAILOVER_SILENT_TICKS = 4;
+	private static final int FAILOVER_LOSS_PERCENT = 50;
+	private static final long FAILOVER_PROBE_INTERVAL_NANOS = 6_000_000_000L;
+	private boolean needsFailover;
+	private long lastFailoverProbeNanos;
 
 	private boolean isChatLoggedIn;
 	// ticks are tracked as a cyclic value between 0 and TICKS_UNTIL_LOGOUT
 	private int currentChatTick; // value representing the current tick the client thinks we should be on
 	private int lastReceivedChatTick; // value representing the latest tick we've received from the server
 	public static final int TICKS_UNTIL_LOGOUT = 16;
+	// the server starts us off with room for 64 ghosts (4 packets of 16) and we make room for more as it sends them
+	// the header's 4 bit packet id caps this at 16 packets (256 ghosts) per tick
 	public static final int CHAT_SERVER_PACKETS_PER_TICK = 4;
+	public static final int MAX_CHAT_SERVER_PACKETS_PER_TICK = 16;
+	private int chatServerPacketCapacity;
 	private long accountHash;
 	private long chatAccountKey;
 	private boolean isChatUsingKey;
 	private static final byte[] EMPTY_BYTES = new byte[96];
 	private int chatSessionID = -1;
-	private int chatServerPacketsReceived = 0x0000; // 1 bit per server packet
 	private int chatNumOnlinePlayers = 0;
 	
 	private static final int PROTOCOL_VERSION = 4;
+	// v5 frames are compact and variable in length; we ask for them when preferred, dropping back to v4 if they go unanswered
+	private static final int MAX_UNANSWERED_COMPACT_LOGINS = 2;
+	private int preferredProtocolVersion = PROTOCOL_VERSION;
+	private int chatProtocolVersion = PROTOCOL_VERSION;
+	private int numUnansweredLogins;
+	private JebScapeFrameDecoder frameDecoder = new JebScapeFrameDecoder();
+	private JebScapePacket expandedPacket = new JebScapePacket();
+	
+	// optional loss recovery; asked for at login, after which the server may follow each tick with an xor parity packet
+	private boolean useParity = false;
+	private boolean isParityRequested = false;
+	private boolean isRecoveredPacket = false; // whilst decoding a rebuilt packet, which never crossed the wire
+	private JebScapeParityDecoder parityDecoder = new JebScapeParityDecoder();
+	private JebScapePacket recoveredPacket = new JebScapePacket();
 	private static final int EMPTY_PACKET = 0x0;
 	private static final int LOGIN_PACKET = 0x1;
 	private static final int GAME_PACKET = 0x2;
@@ -58,19 +89,76 @@ public class JebScapeConnection
 
 	private JebScapePacket chatClientPacket = new JebScapePacket();
 	private JebScapePacket chatServerPacket = new JebScapePacket();
-	private JebScapeServerData[][] chatServerData = new JebScapeServerData[TICKS_UNTIL_LOGOUT][CHAT_SERVER_PACKETS_PER_TICK];
+	private JebScapeServerData[][] chatServerData = new JebScapeServerData[TICKS_UNTIL_LOGOUT][MAX_CHAT_SERVER_PACKETS_PER_TICK];
 	private int[] numChatServerPacketsSent = new int[TICKS_UNTIL_LOGOUT];
+	private int[] chatServerPacketsReceived = new int[TICKS_UNTIL_LOGOUT]; // 1 bit per server packet id, per tick
+	private int receivedChatTicks = 0x0000; // 1 bit per tick currently holding data in the receive window
+	private int arrivedChatTicks = 0x0000; // 1 bit per tick that has received data since the last game tick
+	private int readyChatTicks = 0x0000; // 1 bit per tick handed over to be played out this game tick
+	private long[] chatTickArrivalNanos = new long[TICKS_UNTIL_LOGOUT]; // when the first packet of each tick in the receive window arrived
+	
+	// optional sub-tick mode; newly arrived ticks are handed over on client ticks (~20ms) rather than waiting on the next game tick
+	private boolean useSubTickProcessing = false;
+	
+	// optional playout mode; ticks are held back by an adaptive delay and released one per game tick
+	private boolean useJitterBuffer = false;
+	private JebScapeJitterBuffer jitterBuffer = new JebScapeJitterBuffer(TICKS_UNTIL_LOGOUT);
+	
+	private JebScapeTelemetry telemetry = new JebScapeTelemetry();
+	private static final int MOVEMENT_CLIENT_BYTES = 48; // header, core data and game sub data; the rest is extra chat data
+	private static final int MOVEMENT_SERVER_BYTES = 28 * JebScapeServerData.DATA_BLOCK_SIZE * 4; // everything before the chat/hiscores blocks
+	
+	// offline profiling; traffic can be recorded to a log and later replayed in place of the socket
+	private JebScapePacketCapture capture;
+	private JebScapeReplayDriver replay;
+	
+	// optional background receive mode; packets are handed over through receiveRing
+	private static final int RECEIVE_RING_SIZE = TICKS_UNTIL_LOGOUT * MAX_CHAT_SERVER_PACKETS_PER_TICK;
+	private boolean useReceiveThread = false;
+	private JebScapeReceiver receiver;
+	private DatagramChannel receiverChannel;
+	private int receiverEndpoint;
+	private JebScapePacketRing receiveRing;
+	private long receiveLatencyNanos; // smoothed time between a datagram arriving and being handed to the decoder
+	private long maxReceiveLatencyNanos; // worst case seen during the most recent tick
+	
+	// the chat server can be pointed elsewhere (e.g. a local test server) with -Djebscape.chatServer=host:port
+	// several endpoints may be given, separated by commas, in which case the best one is chosen when logging in
+	public static final String CHAT_SERVER_PROPERTY = "jebscape.chatServer";
+	public static final String DEFAULT_CHAT_SERVER_HOST = "chat.jebscape.com";
+	public static final int DEFAULT_CHAT_SERVER_PORT = 43597;
+	// and may be asked for the compact v5 framing with -Djebscape.protocolVersion=5
+	public static final String PROTOCOL_VERSION_PROPERTY = "jebscape.protocolVersion";
 	
 	public void init() throws Exception
 	{
-		chatAddress = new InetSocketAddress("chat.jebscape.com", 43597);
+		setPreferredProtocolVersion(Integer.getInteger(PROTOCOL_VERSION_PROPERTY, PROTOCOL_VERSION));
 		
-		// local test server connection
-		//chatAddress = new InetSocketAddress("192.168.1.148", 43597);
-
-		chatChannel = DatagramChannel.open(StandardProtocolFamily.INET);
-		chatChannel.configureBlocking(false);
-		chatChannel.bind(null);
+		String[] chatServers = System.getProperty(CHAT_SERVER_PROPERTY, DEFAULT_CHAT_SERVER_HOST).split(",");
+		InetSocketAddress[] chatAddresses = new InetSocketAddress[chatServers.length];
+		for (int i = 0; i < chatServers.length; i++)
+		{
+			String chatServer = chatServers[i].trim();
+			int separatorIndex = chatServer.lastIndexOf(':');
+			if (separatorIndex > 0)
+				chatAddresses[i] = InetSocketAddress.createUnresolved(chatServer.substring(0, separatorIndex), Integer.parseInt(chatServer.substring(separatorIndex + 1)));
+			else
+				chatAddresses[i] = InetSocketAddress.createUnresolved(chatServer, DEFAULT_CHAT_SERVER_PORT);
+		}
+		
+		init(chatAddresses);
+	}
+	
+	public void init(String host, int port) throws Exception
+	{
+		init(InetSocketAddress.createUnresolved(host, port));
+	}
+	
+	// nothing here touches the network; hosts are resolved and connected to in the background once connect() is called
+	public void init(InetSocketAddress... chatAddresses) throws Exception
+	{
+		endpoints = new JebScapeEndpointManager(chatAddresses);
+		chatChannel = null;
 
 		isChatLoggedIn = false;
 
@@ -78,57 +166,101 @@ public class JebScapeConnection
 
 		chatServerPacket.init(CHAT_SERVER_PACKET_SIZE);
 		chatServerPacket.erase();
+		expandedPacket.init(CHAT_SERVER_PACKET_SIZE);
+		recoveredPacket.init(CHAT_SERVER_PACKET_SIZE);
+		
+		receiveRing = new JebScapePacketRing(RECEIVE_RING_SIZE, CHAT_SERVER_PACKET_SIZE);
 
-		for (int i = 0; i < TICKS_UNTIL_LOGOUT; i++)
-			for (int j = 0; j < CHAT_SERVER_PACKETS_PER_TICK; j++)
+		chatServerPacketCapacity = 0;
+		ensureChatServerPacketCapacity(CHAT_SERVER_PACKETS_PER_TICK);
+	}
+	
+	// only ever grows; the extra room stays around for the next crowd
+	private void ensureChatServerPacketCapacity(int numPackets)
+	{
+		for (int j = chatServerPacketCapacity; j < numPackets; j++)
+			for (int i = 0; i < TICKS_UNTIL_LOGOUT; i++)
 				chatServerData[i][j] = new JebScapeServerData();
+		this.chatServerPacketCapacity = Math.max(chatServerPacketCapacity, numPackets);
 	}
 	
+	// how many packets per tick getRecentChatServerData() has room for; any beyond getNumChatServerPacketsSent() are empty
+	public int getChatServerPacketCapacity()
+	{
+		return chatServerPacketCapacity;
+	}
+	
+	// never blocks; returns whether the channel is ready right now, otherwise it will be connected in the background
 	public boolean connect()
 	{
-		boolean connected;
-		
-		try
-		{
-			if (!chatChannel.isConnected())
-				chatChannel.connect(chatAddress);
-			
-			// we don't care as much if the game server cannot connect, so let's proceed regardless
-			connected = chatChannel.isConnected();
-		}
-		catch (Exception e)
-		{
-			connected = false;
-		}
-		
-		return connected;
+		// we don't care as much if the game server cannot connect, so let's proceed regardless
+		endpoints.connectAll();
+		endpoints.switchFromUnreadyActive();
+		return isConnected();
+	}
+	
+	// drops the channels and resolves the servers again, e.g. after they have stopped answering our logins
+	public void reconnect()
+	{
+		for (int i = 0; i < endpoints.size(); i++)
+			endpoints.get(i).connector.reconnect();
+		this.chatChannel = null;
 	}
 	
 	public void disconnect()
 	{
 		isChatLoggedIn = false;
 		chatSessionID = -1;
-		
-		try
-		{
-			if (chatChannel.isConnected())
-				chatChannel.disconnect();
-		}
-		catch (Exception e)
-		{}
+		stopReceiver();
+		endpoints.closeAll();
+		chatChannel = null;
+	}
+	
+	// takes effect from the next login; anything other than 5 means v4
+	public void setPreferredProtocolVersion(int version)
+	{
+		this.preferredProtocolVersion = version == JebScapeFrameDecoder.PROTOCOL_VERSION ? version : PROTOCOL_VERSION;
+		this.numUnansweredLogins = 0;
+	}
+	
+	// the version agreed upon by the server for the current session
+	public int getProtocolVersion()
+	{
+		return chatProtocolVersion;
+	}
+	
+	public JebScapeConnector.State getConnectionState()
+	{
+		return endpoints.getActive().getState();
+	}
+	
+	public JebScapeEndpointManager getEndpoints()
+	{
+		return endpoints;
+	}
+	
+	// picks up whatever channel the active endpoint currently has ready
+	private boolean isConnected()
+	{
+		this.chatChannel = endpoints.getActive().getChannel();
+		return chatChannel != null && chatChannel.isConnected();
+	}
+	
+	// hands a failed channel back to the connector to be replaced after a backoff
+	private void onChannelError()
+	{
+		endpoints.getActive().onChannelError(chatChannel);
+		this.chatChannel = null;
 	}
 
 	public boolean isChatLoggedIn()
 	{
-		return chatChannel.isConnected() && isChatLoggedIn;
+		return (isConnected() || replay != null) && isChatLoggedIn;
 	}
 	
 	public boolean login(long accountHash, long chatAccountKey, boolean useKey, String accountName)
 	{
-		if (!chatChannel.isConnected())
-			connect();
-			
-		if (!chatChannel.isConnected() || accountName.length() > 12)
+		if (!connect() || accountName.length() > 12)
 			return false;
 		
 		this.accountHash = accountHash; // 8 bytes
@@ -139,68 +271,91 @@ public class JebScapeConnection
 		{
 			this.chatAccountKey = chatAccountKey; // 8 bytes
 			this.isChatUsingKey = useKey;
-			chatServerPacketsReceived = 0xFFFF;
-			
-			// set the header
-			// 2 bits login identifier
-			// 17 bits last known game session id
-			// 1 bit isUsingKey (if false, will log in as guest only)
-			// 8 bits protocol version
-			// 4 bits reserved
-			int loginPacketHeader = LOGIN_PACKET & 0x3;					// 2/32 bits
-			loginPacketHeader |= (chatSessionID & 0x1FFFF) << 2;		// 19/32 bits
-			loginPacketHeader |= (isChatUsingKey ? 0x1 : 0x0) << 19;	// 20/32 bits
-			loginPacketHeader |= (PROTOCOL_VERSION & 0xFF) << 20;		// 28/32 bits
-			loginPacketHeader |= 0xF << 28;								// 32/32 bits
-			
-			byte[] nameBytes = accountName.getBytes(StandardCharsets.UTF_8);
-			int strLen = accountName.length();
-			long reserved = 0xFFFFFFFFFFFFFFFFL;
+			this.loginName = accountName;
+			success = sendLogin();
+		}
+		
+		return success;
+	}
+	
+	// sends our login to every endpoint with a channel ready; the best of those to answer becomes the active endpoint
+	private boolean sendLogin()
+	{
+		boolean success = false;
+		
+		// a server that doesn't speak v5 won't answer, so only keep asking for it for so long
+		int version = preferredProtocolVersion;
+		if (numUnansweredLogins >= MAX_UNANSWERED_COMPACT_LOGINS)
+			version = PROTOCOL_VERSION;
+		
+		// set the header
+		int loginPacketHeader = JebScapeBitCodec.pack(LoginHeader.TYPE, LOGIN_PACKET);
+		loginPacketHeader |= JebScapeBitCodec.pack(LoginHeader.SESSION_ID, chatSessionID);
+		loginPacketHeader |= JebScapeBitCodec.pack(LoginHeader.IS_USING_KEY, isChatUsingKey);
+		loginPacketHeader |= JebScapeBitCodec.pack(LoginHeader.PROTOCOL_VERSION, version);
+		loginPacketHeader |= JebScapeBitCodec.pack(LoginHeader.NO_PARITY, !useParity);
+		loginPacketHeader |= JebScapeBitCodec.fill(LoginHeader.RESERVED);
+		this.isParityRequested = useParity;
+		
+		byte[] nameBytes = loginName.getBytes(StandardCharsets.UTF_8);
+		int strLen = Math.min(nameBytes.length, 12);
+		long reserved = 0xFFFFFFFFFFFFFFFFL;
+		
+		chatClientPacket.buffer.clear();
+		chatClientPacket.buffer.putInt(loginPacketHeader);								// 4/144 bytes
+		chatClientPacket.buffer.putLong(accountHash);									// 12/144 bytes
+		chatClientPacket.buffer.putLong(chatAccountKey);								// 20/144 bytes
+		chatClientPacket.buffer.put(nameBytes, 0, strLen);						// up to 32/144 bytes
+		if (strLen < 12)
+			chatClientPacket.buffer.put(EMPTY_BYTES, 0, 12 - strLen);		// 32/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 40/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 48/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 56/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 64/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 72/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 80/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 88/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 96/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 104/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 112/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 120/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 128/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 136/144 bytes
+		chatClientPacket.buffer.putLong(reserved);										// 144/144 bytes
+		
+		long now = System.nanoTime();
+		endpoints.startProbe(now);
+		for (int i = 0; i < endpoints.size(); i++)
+		{
+			DatagramChannel channel = endpoints.getChannel(i);
+			if (channel == null)
+				continue;
 			
 			try
 			{
-				chatClientPacket.buffer.clear();
-				chatClientPacket.buffer.putInt(loginPacketHeader);								// 4/144 bytes
-				chatClientPacket.buffer.putLong(accountHash);									// 12/144 bytes
-				chatClientPacket.buffer.putLong(chatAccountKey);								// 20/144 bytes
-				chatClientPacket.buffer.put(nameBytes, 0, strLen);						// up to 32/144 bytes
-				if (strLen < 12)
-					chatClientPacket.buffer.put(EMPTY_BYTES, 0, 12 - strLen);		// 32/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 40/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 48/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 56/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 64/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 72/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 80/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 88/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 96/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 104/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 112/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 120/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 128/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 136/144 bytes
-				chatClientPacket.buffer.putLong(reserved);										// 144/144 bytes
 				chatClientPacket.buffer.rewind();
-				
-				success = chatChannel.write(chatClientPacket.buffer) == CHAT_CLIENT_PACKET_SIZE;
+				if (channel.write(chatClientPacket.buffer) == CHAT_CLIENT_PACKET_SIZE)
+				{
+					endpoints.onProbeSent(i, now);
+					telemetry.onBytesSent(JebScapeTelemetry.CHANNEL_ADMIN, CHAT_CLIENT_PACKET_SIZE);
+					success = true;
+				}
 			}
 			catch (Exception e)
 			{
-				try
-				{
-					chatChannel = DatagramChannel.open(StandardProtocolFamily.INET);
-					chatChannel.configureBlocking(false);
-					chatChannel.bind(null);
-					chatChannel.connect(chatAddress);
-					success = chatChannel.write(chatClientPacket.buffer) == CHAT_CLIENT_PACKET_SIZE;
-				}
-				catch (Exception exception)
-				{
-					return false;
-				}
+				endpoints.get(i).connector.onChannelError(channel);
 			}
 		}
 		
+		isConnected();
+		if (success)
+		{
+			this.numUnansweredLogins++;
+			if (capture != null)
+				capture.record(JebScapePacketCapture.DIRECTION_OUT, currentChatTick, chatClientPacket.buffer, CHAT_CLIENT_PACKET_SIZE, System.nanoTime());
+			telemetry.onLoginSent(now);
+		}
+		
 		return success;
 	}
 	
@@ -211,6 +366,46 @@ public class JebScapeConnection
 		lastReceivedChatTick = 0;
 		chatSessionID = -1;
 		chatNumOnlinePlayers = 0;
+		
+		resetReceiveWindow();
+	}
+	
+	private void resetReceiveWindow()
+	{
+		// anything still held back will never be played out, so drop it now
+		clearChatTicks(receivedChatTicks);
+		receivedChatTicks = 0;
+		readyChatTicks = 0;
+		jitterBuffer.reset();
+		parityDecoder.reset();
+		telemetry.reset();
+	}
+	
+	private void applyLoginAck(int sessionID, long key, boolean isUsingKey, int tick, int numOnlinePlayers, int protocolVersion, long ackNanos, boolean isNewEndpoint)
+	{
+		if (!isChatLoggedIn || isNewEndpoint || protocolVersion != chatProtocolVersion)
+		{
+			// a different server won't share our tick timing, so start afresh
+			if (isChatLoggedIn)
+				resetReceiveWindow();
+			
+			// place the initial tick timing info here to serve as a baseline
+			this.currentChatTick = tick;
+			this.lastReceivedChatTick = tick;
+			frameDecoder.reset();
+			parityDecoder.reset();
+		}
+		
+		// settling for v4 when we'd asked for v5 keeps us on v4 rather than asking again each login
+		this.chatProtocolVersion = protocolVersion;
+		if (protocolVersion == preferredProtocolVersion)
+			this.numUnansweredLogins = 0;
+		this.isChatLoggedIn = true;
+		this.isChatUsingKey = isUsingKey; // if we made a request to log in with a key that was denied, it may allow us in as a guest anyway
+		this.chatAccountKey = isUsingKey ? key : 0;
+		this.chatSessionID = sessionID;
+		this.chatNumOnlinePlayers = numOnlinePlayers;
+		telemetry.onLoginAck(ackNanos);
 	}
 	
 	public long getAccountHash()
@@ -225,7 +420,7 @@ public class JebScapeConnection
 		return isChatLoggedIn && !isChatUsingKey;
 	}
 	
-	// returns data on all packets received in this tick, but may include late packets from previous ticks
+	// returns data on all packets held in the receive window; only ticks flagged as ready should be played out
 	// start processing from one after lastReceivedChatTick until one wraps around back to lastReceivedChatTick
 	public JebScapeServerData[][] getRecentChatServerData()
 	{
@@ -236,6 +431,42 @@ public class JebScapeConnection
 	{
 		return numChatServerPacketsSent;
 	}
+	
+	// bitmask of the ticks currently holding any data (bit n represents tick n)
+	public int getReceivedChatTicks()
+	{
+		return receivedChatTicks;
+	}
+	
+	public boolean hasReceivedChatTick(int tick)
+	{
+		return ((receivedChatTicks >>> tick) & 0x1) == 0x1;
+	}
+	
+	// bitmask of the ticks to be played out this game tick (bit n represents tick n)
+	// without the jitter buffer this is everything received since the last game tick, late packets included
+	public int getReadyChatTicks()
+	{
+		return readyChatTicks;
+	}
+	
+	public boolean isChatTickReady(int tick)
+	{
+		return ((readyChatTicks >>> tick) & 0x1) == 0x1;
+	}
+	
+	// bitmask of the packet ids received for a given tick (bit n represents packet id n)
+	public int getChatServerPacketsReceived(int tick)
+	{
+		return chatServerPacketsReceived[tick];
+	}
+	
+	// bitmask of the packet ids the server sent for a given tick that have not (yet) arrived
+	public int getChatServerPacketsLost(int tick)
+	{
+		int packetsSentMask = (1 << numChatServerPacketsSent[tick]) - 1;
+		return packetsSentMask & ~chatServerPacketsReceived[tick];
+	}
 
 	public int getLastReceivedChatTick()
 	{
@@ -252,11 +483,198 @@ public class JebScapeConnection
 		return chatNumOnlinePlayers;
 	}
 	
+	// when enabled, a background thread drains the socket as soon as datagrams arrive instead of once per game tick
+	public void setUseReceiveThread(boolean useReceiveThread)
+	{
+		this.useReceiveThread = useReceiveThread;
+		if (!useReceiveThread)
+			stopReceiver();
+	}
+	
+	public boolean isUsingReceiveThread()
+	{
+		return receiver != null && receiver.isRunning();
+	}
+	
+	public long getReceiveLatencyNanos()
+	{
+		return receiveLatencyNanos;
+	}
+	
+	public long getMaxReceiveLatencyNanos()
+	{
+		return maxReceiveLatencyNanos;
+	}
+	
+	// when enabled, received ticks are held back by an adaptive playout delay so they come out once per game tick
+	public void setUseJitterBuffer(boolean useJitterBuffer)
+	{
+		if (this.useJitterBuffer != useJitterBuffer)
+			jitterBuffer.reset();
+		this.useJitterBuffer = useJitterBuffer;
+	}
+	
+	public boolean isUsingJitterBuffer()
+	{
+		return useJitterBuffer;
+	}
+	
+	// when enabled, the next login asks the server for a parity packet each tick so that any one lost packet can be rebuilt
+	public void setUseParity(boolean useParity)
+	{
+		this.useParity = useParity;
+	}
+	
+	public boolean isUsingParity()
+	{
+		return useParity;
+	}
+	
+	// packets rebuilt from parity rather than received
+	public long getNumPacketsRecovered()
+	{
+		return parityDecoder.getNumPacketsRecovered();
+	}
+	
+	// when enabled, onClientTick() picks up server ticks as they arrive; the jitter buffer takes precedence whilst it's in use
+	public void setUseSubTickProcessing(boolean useSubTickProcessing)
+	{
+		this.useSubTickProcessing = useSubTickProcessing;
+	}
+	
+	public boolean isUsingSubTickProcessing()
+	{
+		return useSubTickProcessing && !useJitterBuffer;
+	}
+	
+	public int getPlayoutDelayTicks()
+	{
+		return useJitterBuffer ? jitterBuffer.getPlayoutDelayTicks() : 0;
+	}
+	
+	// p95 deviation of server tick arrivals from the expected 600ms cadence
+	public long getArrivalJitterNanos()
+	{
+		return jitterBuffer.getJitterNanos();
+	}
+	
+	// packets that arrived after their tick had already been played out
+	public long getNumLateDrops()
+	{
+		return jitterBuffer.getNumLateDrops();
+	}
+	
+	// game ticks on which there was no server tick available to play out
+	public long getNumPlayoutUnderruns()
+	{
+		return jitterBuffer.getNumUnderruns();
+	}
+	
+	// buffered ticks thrown away to catch back up after falling too far behind
+	public long getNumSkippedTicks()
+	{
+		return jitterBuffer.getNumSkippedTicks();
+	}
+	
+	public JebScapeTelemetry getTelemetry()
+	{
+		return telemetry;
+	}
+	
+	// records all traffic from here on to a memory-mapped log, replacing any capture already running
+	public void startCapture(Path path) throws IOException
+	{
+		stopCapture();
+		this.capture = new JebScapePacketCapture(path, JebScapePacketCapture.DEFAULT_CAPACITY);
+	}
+	
+	public void stopCapture()
+	{
+		if (capture == null)
+			return;
+		
+		try
+		{
+			capture.close();
+		}
+		catch (Exception e)
+		{
+			// nothing more to do if it won't close cleanly
+		}
+		
+		this.capture = null;
+	}
+	
+	public JebScapePacketCapture getCapture()
+	{
+		return capture;
+	}
+	
+	// replaces the socket with a recorded log until it runs out and the session times out
+	// the recorded session is picked up as-is, so nothing needs to be sent to log in
+	public void startReplay(JebScapeReplayDriver replay, long accountHash)
+	{
+		stopReceiver();
+		logout();
+		
+		this.replay = replay;
+		this.accountHash = accountHash;
+		this.isChatLoggedIn = true;
+		this.chatSessionID = replay.getFirstRecordedChatSessionID();
+		this.isChatUsingKey = replay.getFirstRecordedIsUsingKey();
+		this.currentChatTick = replay.getFirstRecordedTick();
+		this.lastReceivedChatTick = replay.getFirstRecordedTick();
+	}
+	
+	public void stopReplay()
+	{
+		if (replay == null)
+			return;
+		
+		this.replay = null;
+		logout();
+	}
+	
+	public boolean isReplaying()
+	{
+		return replay != null;
+	}
+	
+	public long getNumReceivePacketsDropped()
+	{
+		return receiver != null ? receiver.getNumPacketsDropped() : 0;
+	}
+	
+	private void startReceiver()
+	{
+		stopReceiver();
+		
+		receiver = new JebScapeReceiver(chatChannel, receiveRing, CHAT_SERVER_PACKET_SIZE);
+		receiverChannel = chatChannel;
+		receiverEndpoint = endpoints.getActiveIndex();
+		if (!receiver.start())
+		{
+			receiver = null;
+			receiverChannel = null;
+		}
+	}
+	
+	private void stopReceiver()
+	{
+		if (receiver != null)
+		{
+			receiver.stop();
+			receiver = null;
+			receiverChannel = null;
+		}
+	}
+	
 	// must be 3 ints (12 bytes); extraChatData is limited to size of 96 bytes (24 ints)
-	public boolean sendGameData(int[] coreData, int[] gameSubData, byte[] extraChatData)
+	// returns the number of bytes sent, or 0 if the packet could not be sent
+	public int sendGameData(int[] coreData, int[] gameSubData, byte[] extraChatData)
 	{
-		if (!chatChannel.isConnected())
-			return false;
+		if (replay == null && !isConnected())
+			return 0;
 		
 		long reserved = 0xFFFFFFFFFFFFFFFFL;
 		int bytesWritten = 0;
@@ -264,16 +682,11 @@ public class JebScapeConnection
 		if (isChatLoggedIn)
 		{
 			// set the header
-			// 2 bits chat identifier
-			// 17 bits last known chat session id
-			// 1 bit isUsingKey
-			// 4 bits current tick
-			// 8 bits reserved
-			int packetHeader = CHAT_PACKET & 0x3;				// 2/32 bits
-			packetHeader |= (chatSessionID & 0x1FFFF) << 2;		// 19/32 bits
-			packetHeader |= (isChatUsingKey ? 0x1 : 0x0) << 19;	// 20/32 bits
-			packetHeader |= (currentChatTick & 0xF) << 20;		// 24/32 bits
-			packetHeader |= 0xFF << 24;							// 32/32 bits
+			int packetHeader = JebScapeBitCodec.pack(ChatHeader.TYPE, CHAT_PACKET);
+			packetHeader |= JebScapeBitCodec.pack(ChatHeader.SESSION_ID, chatSessionID);
+			packetHeader |= JebScapeBitCodec.pack(ChatHeader.IS_USING_KEY, isChatUsingKey);
+			packetHeader |= JebScapeBitCodec.pack(ChatHeader.TICK, currentChatTick);
+			packetHeader |= JebScapeBitCodec.fill(ChatHeader.RESERVED);
 			
 			int bytesLength = extraChatData.length;
 			// cut it short if too long
@@ -299,105 +712,59 @@ public class JebScapeConnection
 					chatClientPacket.buffer.put(EMPTY_BYTES, 0, 96 - bytesLength);	// 144/144 bytes
 				chatClientPacket.buffer.rewind();
 				
-				bytesWritten += chatChannel.write(chatClientPacket.buffer);
+				// the server in a replay is only a recording, so there's no one to send to
+				bytesWritten += replay != null ? CHAT_CLIENT_PACKET_SIZE : chatChannel.write(chatClientPacket.buffer);
 			}
 			catch (Exception e)
 			{
-				try
-				{
-					chatChannel = DatagramChannel.open(StandardProtocolFamily.INET);
-					chatChannel.configureBlocking(false);
-					chatChannel.bind(null);
-					chatChannel.connect(chatAddress);
-					bytesWritten += chatChannel.write(chatClientPacket.buffer);
-				}
-				catch (Exception exception)
-				{
-					return false;
-				}
+				onChannelError();
+				return 0;
 			}
 		}
 		
-		return bytesWritten == (CHAT_CLIENT_PACKET_SIZE);
+		if (bytesWritten != CHAT_CLIENT_PACKET_SIZE)
+			return 0;
+		
+		if (capture != null)
+			capture.record(JebScapePacketCapture.DIRECTION_OUT, currentChatTick, chatClientPacket.buffer, CHAT_CLIENT_PACKET_SIZE, System.nanoTime());
+		telemetry.onChatPacketSent(currentChatTick, System.nanoTime());
+		telemetry.onBytesSent(JebScapeTelemetry.CHANNEL_MOVEMENT, MOVEMENT_CLIENT_BYTES);
+		telemetry.onBytesSent(JebScapeTelemetry.getExtraDataChannel(coreData[0] & 0xFF), CHAT_CLIENT_PACKET_SIZE - MOVEMENT_CLIENT_BYTES);
+		return bytesWritten;
 	}
 	
 	public void onGameTick()
 	{
-		if (!chatChannel.isConnected())
+		// if our endpoint has lost its channel, carry on with another whilst it recovers
+		if (replay == null && endpoints.switchFromUnreadyActive() && isChatLoggedIn)
+			this.needsFailover = true;
+		
+		if (replay == null && !isConnected())
 			return;
 		
-		// start from scratch on the data we're working with
-		for (int i = 0; i < TICKS_UNTIL_LOGOUT; i++)
-		{
-			numChatServerPacketsSent[i] = 0;
-			for (int j = 0; j < CHAT_SERVER_PACKETS_PER_TICK; j++)
-				chatServerData[i][j].clear();
-		}
+		// start from scratch on the ticks that have been played out, but keep anything still being held back
+		clearReadyChatTicks();
 
-		try
+		// (re)start the receiver if it has been requested, has died, or the channel has since been replaced
+		if (useReceiveThread && replay == null && (receiver == null || !receiver.isRunning() || receiverChannel != chatChannel))
+			startReceiver();
+		
+		long now = System.nanoTime();
+		this.maxReceiveLatencyNanos = 0;
+		receiveChatServerPackets(now);
+		
+		// once every endpoint we sent our login to has answered (or had long enough to), go with the best
+		if (replay == null && endpoints.isProbeComplete(now))
 		{
-			// let's look into what server communications we've received...
-			int bytesReceived;
-			do
+			int prevActiveIndex = endpoints.getActiveIndex();
+			int bestIndex = endpoints.finishProbe();
+			if (bestIndex >= 0)
 			{
-				chatServerPacket.erase();
-				chatServerPacket.buffer.clear();
-				bytesReceived = chatChannel.read(chatServerPacket.buffer);
-				chatServerPacket.buffer.rewind();
-				
-				if (bytesReceived == CHAT_SERVER_PACKET_SIZE)
-				{
-					int packetHeader = chatServerPacket.buffer.getInt();
-					
-					// validate packet header (similar schema as game packet)
-					// 2 bits type identifier
-					// 17 bits session id
-					// 1 bit isUsingKey; logged in (0) as guest w/o key or (1) as secured account w/ key
-					// 4 bits current tick
-					// 4 bits number of packets sent this tick
-					// 4 bits packet id
-					int newPacketType = packetHeader & 0x3;							// 2/32 bits
-					int newSessionID = (packetHeader >>> 2) & 0x1FFFF;				// 19/32 bits
-					boolean newIsUsingKey = ((packetHeader >>> 19) & 0x1) == 0x1;	// 20/32 bits
-					int newTick = (packetHeader >>> 20) & 0xF;						// 24/32 bits
-					int newNumPacketsSent = (packetHeader >>> 24) & 0xF;			// 28/32 bits
-					int newPacketID = (packetHeader >>> 28) & 0xF;					// 32/32 bits
-					
-					if (newPacketType == LOGIN_PACKET)
-					{
-						long newKey = chatServerPacket.buffer.getLong();
-						int version = chatServerPacket.buffer.getInt();
-						
-						if (version == PROTOCOL_VERSION)
-						{
-							// we've received an ACK from the server for our login request
-							if (!isChatLoggedIn)
-							{
-								// place the initial tick timing info here to serve as a baseline
-								this.currentChatTick = newTick;
-								this.lastReceivedChatTick = newTick;
-							}
-							
-							this.isChatLoggedIn = true;
-							this.isChatUsingKey = newIsUsingKey; // if we made a request to log in with a key that was denied, it may allow us in as a guest anyway
-							this.chatAccountKey = newIsUsingKey ? newKey : 0;
-							this.chatSessionID = newSessionID;
-							this.chatNumOnlinePlayers = chatServerPacket.buffer.getInt((26 * JebScapeServerData.DATA_BLOCK_SIZE + 3) * 4);
-						}
-					}
-					
-					if (isChatLoggedIn && newPacketType == CHAT_PACKET && chatSessionID == newSessionID)
-					{
-						// place the latest tick info here
-						chatServerData[newTick][newPacketID].setData(chatServerPacket);
-						numChatServerPacketsSent[newTick] = newNumPacketsSent + 1; // we store in the range of 0-15 to represent 1-16
-					}
-				}
-			} while (bytesReceived > 0);
-		}
-		catch (Exception e)
-		{
-			// not really sure what we want to do here...
+				JebScapeEndpointManager.Endpoint endpoint = endpoints.get(bestIndex);
+				applyLoginAck(endpoint.ackSessionID, endpoint.ackKey, endpoint.ackIsUsingKey, endpoint.ackTick, endpoint.ackNumOnlinePlayers,
+						endpoint.ackProtocolVersion, endpoints.getProbeAckNanos(bestIndex), bestIndex != prevActiveIndex);
+				isConnected();
+			}
 		}
 
 		if (isChatLoggedIn)
@@ -410,19 +777,37 @@ public class JebScapeConnection
 				// start at the last received tick and move forward from there
 				// we include it in case some late packets arrive
 				int tick = (prevReceivedChatTick + i) % TICKS_UNTIL_LOGOUT;
-				if (numChatServerPacketsSent[tick] > 0)
+				if (((arrivedChatTicks >>> tick) & 0x1) == 0x1)
 				{
 					this.currentChatTick = tick;
 					this.lastReceivedChatTick = tick;
 				}
 			}
-
-			// let's analyze what packets are missing from the most recent chat tick received
-			// TODO: not currently used; reanalyze to determine if this is necessary
-			this.chatServerPacketsReceived = 0;
-			if (numChatServerPacketsSent[lastReceivedChatTick] > 0)
-				for (int packetID = 0; packetID < CHAT_SERVER_PACKETS_PER_TICK; packetID++)
-					this.chatServerPacketsReceived = (!chatServerData[lastReceivedChatTick][packetID].isEmpty() ? 0x1 : 0x0) << packetID;
+			
+			if (useJitterBuffer)
+			{
+				int releasedTick = jitterBuffer.release(receivedChatTicks, lastReceivedChatTick);
+				if (releasedTick >= 0)
+					this.readyChatTicks = 0x1 << releasedTick;
+				
+				// anything left behind the playout point after skipping ahead will never be played out
+				int skippedTicks = 0;
+				for (int tick = 0; tick < TICKS_UNTIL_LOGOUT; tick++)
+				{
+					if (tick != releasedTick && hasReceivedChatTick(tick) && jitterBuffer.isLate(tick))
+					{
+						skippedTicks |= 0x1 << tick;
+						jitterBuffer.onSkippedTick();
+					}
+				}
+				clearChatTicks(skippedTicks);
+				receivedChatTicks &= ~skippedTicks;
+			}
+			else
+			{
+				this.readyChatTicks = receivedChatTicks;
+			}
+			onChatTicksReady(System.nanoTime());
 
 			// increment current tick to prepare for the next payload
 			// the gap between currentGameTick and lastReceivedGameTick shall grow if no packets are received
@@ -431,6 +816,313 @@ public class JebScapeConnection
 			// if we've cycled around back to the beginning, we've timed out
 			if (currentChatTick == lastReceivedChatTick)
 				logout();
+			else if (replay == null && endpoints.size() > 1)
+				checkFailover(now);
+		}
+		
+		// anything picked up on client ticks since the last game tick has been accounted for above
+		this.arrivedChatTicks = 0;
+		
+		// once a replay has run dry and timed out, go back to the live server
+		if (replay != null && replay.isFinished() && !isChatLoggedIn)
+			this.replay = null;
+		
+		telemetry.onGameTick();
+	}
+	
+	// polls for server ticks that have arrived since the last game or client tick, without allocating
+	// returns true if any were handed over, in which case they're to be played out straight away
+	public boolean onClientTick()
+	{
+		// everything handed over previously has been played out by now
+		clearReadyChatTicks();
+		
+		if (!isChatLoggedIn || replay != null || !isUsingSubTickProcessing())
+			return false;
+		
+		receiveChatServerPackets(System.nanoTime());
+		
+		// whatever has turned up for the session in full is played out now; the game tick still keeps track of timeouts
+		// a tick caught part way through arriving is left for a later client tick, or the game tick if it never completes,
+		// as otherwise the rest of its packets would turn up as the same tick all over again
+		int ticks = receivedChatTicks;
+		for (int tick = 0; ticks != 0; tick++, ticks >>>= 1)
+			if ((ticks & 0x1) == 0x1 && getChatServerPacketsLost(tick) == 0)
+				this.readyChatTicks |= 0x1 << tick;
+		if (readyChatTicks == 0)
+			return false;
+		
+		onChatTicksReady(System.nanoTime());
+		return true;
+	}
+	
+	private void clearReadyChatTicks()
+	{
+		clearChatTicks(readyChatTicks);
+		receivedChatTicks &= ~readyChatTicks;
+		readyChatTicks = 0;
+	}
+	
+	// how long each tick being handed over has waited since its first packet arrived
+	private void onChatTicksReady(long now)
+	{
+		int ticks = readyChatTicks;
+		for (int tick = 0; ticks != 0; tick++, ticks >>>= 1)
+			if ((ticks & 0x1) == 0x1 && chatTickArrivalNanos[tick] != 0)
+				telemetry.onChatTickPlayedOut(now - chatTickArrivalNanos[tick]);
+	}
+	
+	// pulls in everything that has arrived, from the receiver thread, the replay or straight off the sockets
+	private void receiveChatServerPackets(long now)
+	{
+		// the receiver thread may have already pulled packets off the socket for us
+		JebScapePacket receivedPacket;
+		while ((receivedPacket = receiveRing.peek()) != null)
+		{
+			long latency = now - receivedPacket.receivedNanos;
+			this.receiveLatencyNanos += (latency - receiveLatencyNanos) / 16;
+			this.maxReceiveLatencyNanos = Math.max(maxReceiveLatencyNanos, latency);
+			
+			receivedPacket.buffer.rewind();
+			this.receivingEndpoint = receiverEndpoint;
+			JebScapePacket replacementPacket = processChatServerPacket(receivedPacket, receivedPacket.buffer.limit());
+			if (replacementPacket != receivedPacket)
+				receiveRing.replace(replacementPacket);
+			receiveRing.release();
 		}
+		
+		if (replay != null)
+		{
+			replay.onGameTick(now);
+			while (replay.poll(now, chatServerPacket))
+				chatServerPacket = processChatServerPacket(chatServerPacket, chatServerPacket.buffer.limit());
+		}
+		else
+		{
+			for (int i = 0; i < endpoints.size(); i++)
+			{
+				// the receiver thread takes care of the active endpoint whilst it's running
+				DatagramChannel channel = endpoints.getChannel(i);
+				if (channel == null || (channel == receiverChannel && receiver != null && receiver.isRunning()))
+					continue;
+				
+				this.receivingEndpoint = i;
+				try
+				{
+					// let's look into what server communications we've received...
+					int bytesReceived;
+					do
+					{
+						chatServerPacket.buffer.clear();
+						bytesReceived = channel.read(chatServerPacket.buffer);
+						chatServerPacket.receivedNanos = System.nanoTime();
+						chatServerPacket.buffer.rewind();
+						chatServerPacket = processChatServerPacket(chatServerPacket, bytesReceived);
+					} while (bytesReceived > 0);
+				}
+				catch (Exception e)
+				{
+					// most likely the server is unreachable (e.g. port unreachable), so start over on a fresh channel
+					endpoints.get(i).connector.onChannelError(channel);
+				}
+			}
+			
+			isConnected();
+		}
+	}
+	
+	// with the active endpoint gone quiet or lossy, ask them all to pick the session back up and move to the best
+	private void checkFailover(long now)
+	{
+		if (endpoints.isProbing() || now - lastFailoverProbeNanos < FAILOVER_PROBE_INTERVAL_NANOS)
+			return;
+		
+		int silentTicks = Math.floorMod(currentChatTick - lastReceivedChatTick, TICKS_UNTIL_LOGOUT);
+		if (needsFailover || silentTicks >= FAILOVER_SILENT_TICKS || telemetry.getRecentLossPercent() >= FAILOVER_LOSS_PERCENT)
+		{
+			// our session id goes along with the login so that it can be resumed
+			sendLogin();
+			this.lastFailoverProbeNanos = now;
+			this.needsFailover = false;
+		}
+	}
+	
+	private void clearChatTicks(int ticks)
+	{
+		// only touch the slots that were actually filled
+		for (int tick = 0; ticks != 0; tick++, ticks >>>= 1)
+		{
+			if ((ticks & 0x1) == 0)
+				continue;
+			
+			int packetsReceived = chatServerPacketsReceived[tick];
+			for (int packetID = 0; packetsReceived != 0; packetID++, packetsReceived >>>= 1)
+				if ((packetsReceived & 0x1) == 0x1)
+					chatServerData[tick][packetID].clear();
+			
+			numChatServerPacketsSent[tick] = 0;
+			chatServerPacketsReceived[tick] = 0;
+		}
+	}
+	
+	// returns the packet the caller should continue receiving into
+	// accepted packets are kept by the receive window, in which case a spare packet of the same size is returned
+	private JebScapePacket processChatServerPacket(JebScapePacket packet, int bytesReceived)
+	{
+		if (capture != null && replay == null && bytesReceived >= 4)
+			capture.record(JebScapePacketCapture.DIRECTION_IN, JebScapeBitCodec.get(ServerHeader.TICK, packet.buffer.getInt(0)), packet.buffer, bytesReceived, packet.receivedNanos);
+		
+		// with parity on, every chat packet of our session is folded into its tick's parity before being decoded as usual
+		if (isParityRequested && isChatLoggedIn && bytesReceived > 4 && isFromActiveEndpoint())
+		{
+			int packetHeader = packet.buffer.getInt(0);
+			if (JebScapeBitCodec.get(ServerHeader.TYPE, packetHeader) == CHAT_PACKET && chatSessionID == JebScapeBitCodec.get(ServerHeader.SESSION_ID, packetHeader))
+			{
+				boolean isParity = JebScapeParityDecoder.isParityPacket(packetHeader);
+				boolean isRecoverable = parityDecoder.add(packet.buffer, bytesReceived, packetHeader);
+				if (isParity)
+					telemetry.onBytesReceived(JebScapeTelemetry.CHANNEL_MOVEMENT, bytesReceived);
+				else
+					packet = decodeChatServerPacket(packet, bytesReceived);
+				
+				if (isRecoverable)
+				{
+					// the lost packet goes through just as if it had arrived alongside this one
+					recoveredPacket.buffer.clear();
+					int length = parityDecoder.recover(JebScapeBitCodec.get(ServerHeader.TICK, packetHeader), recoveredPacket.buffer, chatProtocolVersion == JebScapeFrameDecoder.PROTOCOL_VERSION);
+					if (length > 0)
+					{
+						recoveredPacket.receivedNanos = packet.receivedNanos;
+						this.isRecoveredPacket = true;
+						this.recoveredPacket = decodeChatServerPacket(recoveredPacket, length);
+						this.isRecoveredPacket = false;
+					}
+				}
+				
+				return packet;
+			}
+		}
+		
+		return decodeChatServerPacket(packet, bytesReceived);
+	}
+	
+	private JebScapePacket decodeChatServerPacket(JebScapePacket packet, int bytesReceived)
+	{
+		// v5 chat frames are first expanded into the v4 layout; only those of our own session may touch the decoder's state
+		if (chatProtocolVersion == JebScapeFrameDecoder.PROTOCOL_VERSION && bytesReceived >= JebScapeFrameDecoder.FRAME_HEADER_SIZE)
+		{
+			int packetHeader = packet.buffer.getInt(0);
+			if (JebScapeBitCodec.get(ServerHeader.TYPE, packetHeader) == CHAT_PACKET)
+			{
+				if (isChatLoggedIn && isFromActiveEndpoint() && chatSessionID == JebScapeBitCodec.get(ServerHeader.SESSION_ID, packetHeader))
+				{
+					expandedPacket.buffer.clear();
+					if (frameDecoder.expand(packet.buffer, bytesReceived, expandedPacket.buffer))
+					{
+						int extraBytes = frameDecoder.getNumExtraBytes();
+						expandedPacket.receivedNanos = packet.receivedNanos;
+						this.expandedPacket = processServerPacket(expandedPacket, CHAT_SERVER_PACKET_SIZE, bytesReceived - extraBytes, extraBytes);
+					}
+				}
+				
+				return packet;
+			}
+		}
+		
+		return processServerPacket(packet, bytesReceived, MOVEMENT_SERVER_BYTES, CHAT_SERVER_PACKET_SIZE - MOVEMENT_SERVER_BYTES);
+	}
+	
+	// only the endpoint we've settled on gets to feed us ticks; the others are merely standing by
+	private boolean isFromActiveEndpoint()
+	{
+		return replay != null || receivingEndpoint == endpoints.getActiveIndex();
+	}
+	
+	// handles a packet in the v4 layout; the byte counts are what it actually cost on the wire, for telemetry
+	private JebScapePacket processServerPacket(JebScapePacket packet, int bytesReceived, int movementBytes, int extraBytes)
+	{
+		if (bytesReceived == CHAT_SERVER_PACKET_SIZE)
+		{
+			int packetHeader = packet.buffer.getInt();
+			
+			// validate packet header (similar schema as game packet)
+			int newPacketType = JebScapeBitCodec.get(ServerHeader.TYPE, packetHeader);
+			int newSessionID = JebScapeBitCodec.get(ServerHeader.SESSION_ID, packetHeader);
+			boolean newIsUsingKey = JebScapeBitCodec.isSet(ServerHeader.IS_USING_KEY, packetHeader);
+			int newTick = JebScapeBitCodec.get(ServerHeader.TICK, packetHeader);
+			int newNumPacketsSent = JebScapeBitCodec.get(ServerHeader.NUM_PACKETS_SENT, packetHeader);
+			int newPacketID = JebScapeBitCodec.get(ServerHeader.PACKET_ID, packetHeader);
+			
+			if (newPacketType == LOGIN_PACKET)
+			{
+				long newKey = packet.buffer.getLong();
+				int version = packet.buffer.getInt();
+				
+				if (version == PROTOCOL_VERSION || version == JebScapeFrameDecoder.PROTOCOL_VERSION)
+				{
+					telemetry.onBytesReceived(JebScapeTelemetry.CHANNEL_ADMIN, bytesReceived);
+					int newNumOnlinePlayers = packet.buffer.getInt((26 * JebScapeServerData.DATA_BLOCK_SIZE + 3) * 4);
+					
+					// we've received an ACK from the server for our login request
+					if (replay != null)
+					{
+						applyLoginAck(newSessionID, newKey, newIsUsingKey, newTick, newNumOnlinePlayers, version, packet.receivedNanos, false);
+					}
+					else if (endpoints.onProbeAck(receivingEndpoint, packet.receivedNanos))
+					{
+						// hold on to it until every endpoint has had its chance to answer
+						JebScapeEndpointManager.Endpoint endpoint = endpoints.get(receivingEndpoint);
+						endpoint.connector.onChannelVerified();
+						endpoint.ackSessionID = newSessionID;
+						endpoint.ackKey = newKey;
+						endpoint.ackIsUsingKey = newIsUsingKey;
+						endpoint.ackTick = newTick;
+						endpoint.ackNumOnlinePlayers = newNumOnlinePlayers;
+						endpoint.ackProtocolVersion = version;
+					}
+					else if (receivingEndpoint == endpoints.getActiveIndex())
+					{
+						applyLoginAck(newSessionID, newKey, newIsUsingKey, newTick, newNumOnlinePlayers, version, packet.receivedNanos, false);
+					}
+				}
+			}
+			
+			if (isChatLoggedIn && isFromActiveEndpoint() && newPacketType == CHAT_PACKET && chatSessionID == newSessionID && newPacketID <= newNumPacketsSent)
+			{
+				ensureChatServerPacketCapacity(newNumPacketsSent + 1);
+				
+				// a rebuilt packet cost nothing on the wire and still counts as lost, as far as the link itself goes
+				if (!isRecoveredPacket)
+				{
+					int cmdFlags = packet.buffer.getInt(4) & 0xFF; // block 0 holds the header followed by the player core data
+					telemetry.onBytesReceived(JebScapeTelemetry.CHANNEL_MOVEMENT, movementBytes);
+					telemetry.onBytesReceived(JebScapeTelemetry.getExtraDataChannel(cmdFlags), extraBytes);
+					telemetry.onChatPacketReceived(newTick, newNumPacketsSent + 1, newPacketID, packet.receivedNanos);
+				}
+				
+				if (useJitterBuffer && jitterBuffer.isLate(newTick))
+				{
+					// its turn has already been played out
+					jitterBuffer.onLateDrop();
+					return packet;
+				}
+				
+				// the first packet of each new tick feeds the arrival histogram
+				if (((receivedChatTicks >>> newTick) & 0x1) == 0)
+				{
+					jitterBuffer.onTickArrived(newTick, packet.receivedNanos);
+					this.chatTickArrivalNanos[newTick] = packet.receivedNanos;
+				}
+				
+				// place the latest tick info here
+				numChatServerPacketsSent[newTick] = newNumPacketsSent + 1; // we store in the range of 0-15 to represent 1-16
+				chatServerPacketsReceived[newTick] |= 0x1 << newPacketID;
+				receivedChatTicks |= 0x1 << newTick;
+				arrivedChatTicks |= 0x1 << newTick;
+				return chatServerData[newTick][newPacketID].swapData(packet);
+			}
+		}
+		
+		return packet;
 	}
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.net.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+
+// owns the chat channel, resolving and (re)connecting it on a background thread
+// the client thread only ever sees a ready channel or none at all, so a dead server or slow DNS never stalls a frame
+public class JebScapeConnector
+{
+	public enum State
+	{
+		DISCONNECTED,
+		RESOLVING,
+		CONNECTING,
+		READY,
+		BACKOFF,
+		CLOSED
+	}
+	
+	private static final long MIN_BACKOFF_MS = 500;
+	private static final long MAX_BACKOFF_MS = 30_000;
+	
+	private final String host;
+	private final int port;
+	private final ScheduledExecutorService executor;
+	private volatile State state = State.DISCONNECTED;
+	private volatile DatagramChannel channel; // only set once connected
+	private volatile InetSocketAddress address;
+	private volatile boolean isClosed;
+	private volatile int numFailedAttempts; // reset only once the server has actually answered, since connecting over UDP always succeeds
+	
+	public JebScapeConnector(String host, int port)
+	{
+		this.host = host;
+		this.port = port;
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "JebScape Connector");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	// random delay of up to min(max, base * 2^attempt), so that many clients losing the server at once don't all return in lockstep
+	public static long getBackoffDelay(int attempt, long base, long max)
+	{
+		long limit = Math.min(max, base << Math.min(attempt, 30));
+		return limit / 2 + ThreadLocalRandom.current().nextLong(limit / 2 + 1);
+	}
+	
+	public String getHost()
+	{
+		return host;
+	}
+	
+	public int getPort()
+	{
+		return port;
+	}
+	
+	public State getState()
+	{
+		return state;
+	}
+	
+	// null unless READY
+	public DatagramChannel getChannel()
+	{
+		return channel;
+	}
+	
+	// the address last resolved, or null if it has yet to be
+	public InetSocketAddress getAddress()
+	{
+		return address;
+	}
+	
+	// safe to call every tick; does nothing if already connected or on the way there
+	public void connect()
+	{
+		if (state != State.DISCONNECTED)
+			return;
+		
+		setState(State.RESOLVING);
+		submit(0);
+	}
+	
+	// report that the server has answered on the current channel, so any future failure starts backing off afresh
+	public void onChannelVerified()
+	{
+		this.numFailedAttempts = 0;
+	}
+	
+	// report a channel that has failed in use; it is closed and replaced after a backoff
+	public void onChannelError(DatagramChannel failedChannel)
+	{
+		if (failedChannel == null || failedChannel != channel)
+			return; // already dealt with
+		
+		this.channel = null;
+		setState(State.BACKOFF);
+		execute(() ->
+		{
+			closeQuietly(failedChannel);
+			scheduleRetry();
+		});
+	}
+	
+	// drop the current channel and resolve the host again from scratch, e.g. if the server has stopped answering
+	public void reconnect()
+	{
+		if (state != State.READY)
+			return;
+		
+		DatagramChannel oldChannel = channel;
+		this.channel = null;
+		setState(State.RESOLVING);
+		execute(() ->
+		{
+			closeQuietly(oldChannel);
+			attempt();
+		});
+	}
+	
+	public void close()
+	{
+		DatagramChannel oldChannel;
+		synchronized (this)
+		{
+			this.isClosed = true;
+			this.state = State.CLOSED;
+			oldChannel = channel;
+			this.channel = null;
+		}
+		
+		executor.shutdownNow();
+		closeQuietly(oldChannel);
+	}
+	
+	private void submit(long delayMs)
+	{
+		try
+		{
+			executor.schedule(this::attempt, delayMs, TimeUnit.MILLISECONDS);
+		}
+		catch (RejectedExecutionException e)
+		{
+			// closed
+		}
+	}
+	
+	private void execute(Runnable task)
+	{
+		try
+		{
+			executor.execute(task);
+		}
+		catch (RejectedExecutionException e)
+		{
+			// closed
+		}
+	}
+	
+	private void attempt()
+	{
+		if (isClosed)
+			return;
+		
+		DatagramChannel newChannel = null;
+		try
+		{
+			setState(State.RESOLVING);
+			InetSocketAddress newAddress = new InetSocketAddress(host, port);
+			if (newAddress.isUnresolved())
+				throw new UnknownHostException(host);
+			this.address = newAddress;
+			
+			setState(State.CONNECTING);
+			newChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+			newChannel.configureBlocking(false);
+			newChannel.bind(null);
+			newChannel.connect(newAddress);
+			
+			synchronized (this)
+			{
+				// we may have been closed whilst connecting
+				if (isClosed)
+				{
+					closeQuietly(newChannel);
+					return;
+				}
+				
+				this.channel = newChannel;
+				this.state = State.READY;
+			}
+		}
+		catch (Exception e)
+		{
+			closeQuietly(newChannel);
+			if (!isClosed)
+				scheduleRetry();
+		}
+	}
+	
+	private void scheduleRetry()
+	{
+		setState(State.BACKOFF);
+		submit(getBackoffDelay(numFailedAttempts++, MIN_BACKOFF_MS, MAX_BACKOFF_MS));
+	}
+	
+	private synchronized void setState(State state)
+	{
+		if (!isClosed)
+			this.state = state;
+	}
+	
+	private static void closeQuietly(DatagramChannel channel)
+	{
+		if (channel == null)
+			return;
+		
+		try
+		{
+			channel.close();
+		}
+		catch (Exception e)
+		{
+			// it's going away regardless
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.util.Arrays;
+
+// keeps just what ghost models are built from out of each item and kit definition, so that each is only decoded once per cache revision
+// items keep their male and female models, recolours and retextures; kits keep their body part, models, recolours and retextures
+// held in flat arrays indexed by ID that grow to the highest ID seen; nothing here touches the client, which the model loader does instead
+public class JebScapeDefinitionCache
+{
+	private static final byte UNKNOWN = 0;
+	private static final byte LOADED = 1;
+	private static final byte MISSING = 2; // no data in the cache, so there's no point asking again
+	public static final int MODELS_PER_GENDER = 3;
+	
+	private int revision = -1;
+	
+	private byte[] itemStates = new byte[0];
+	private int[] itemModels = new int[0]; // 3 male then 3 female per item, -1 where there are none
+	private short[][] itemColorFind = new short[0][];
+	private short[][] itemColorReplace = new short[0][];
+	private short[][] itemTextureFind = new short[0][];
+	private short[][] itemTextureReplace = new short[0][];
+	
+	private byte[] kitStates = new byte[0];
+	private int[] kitBodyParts = new int[0];
+	private int[][] kitModels = new int[0][];
+	private short[][] kitColorFind = new short[0][];
+	private short[][] kitColorReplace = new short[0][];
+	private short[][] kitTextureFind = new short[0][];
+	private short[][] kitTextureReplace = new short[0][];
+	
+	private long numLookups;
+	private long numHits;
+	private long numDecodes;
+	private long decodeNanos;
+	
+	// forgets everything if the game cache has been updated since we last looked
+	public boolean validate(int revision)
+	{
+		if (revision == this.revision)
+			return true;
+		
+		clear();
+		this.revision = revision;
+		return false;
+	}
+	
+	public void clear()
+	{
+		Arrays.fill(itemStates, UNKNOWN);
+		Arrays.fill(kitStates, UNKNOWN);
+		Arrays.fill(itemColorFind, null);
+		Arrays.fill(itemColorReplace, null);
+		Arrays.fill(itemTextureFind, null);
+		Arrays.fill(itemTextureReplace, null);
+		Arrays.fill(kitModels, null);
+		Arrays.fill(kitColorFind, null);
+		Arrays.fill(kitColorReplace, null);
+		Arrays.fill(kitTextureFind, null);
+		Arrays.fill(kitTextureReplace, null);
+		this.revision = -1;
+	}
+	
+	// true if the item has been decoded before, whether or not it turned out to exist
+	public boolean hasItem(int itemID)
+	{
+		this.numLookups++;
+		boolean isKnown = itemID < itemStates.length && itemStates[itemID] != UNKNOWN;
+		if (isKnown)
+			this.numHits++;
+		return isKnown;
+	}
+	
+	public boolean isItemMissing(int itemID)
+	{
+		return itemID >= itemStates.length || itemStates[itemID] != LOADED;
+	}
+	
+	// definition may be null if the item has no data; decodeNanos is what it took to load and decode, for the stats
+	public void putItem(int itemID, RuneLiteItemDefinition definition, long decodeNanos)
+	{
+		ensureItemCapacity(itemID + 1);
+		this.numDecodes++;
+		this.decodeNanos += decodeNanos;
+		if (definition == null)
+		{
+			this.itemStates[itemID] = MISSING;
+			return;
+		}
+		
+		int modelIdx = itemID * MODELS_PER_GENDER * 2;
+		itemModels[modelIdx] = definition.maleModel0;
+		itemModels[modelIdx + 1] = definition.maleModel1;
+		itemModels[modelIdx + 2] = definition.maleModel2;
+		itemModels[modelIdx + 3] = definition.femaleModel0;
+		itemModels[modelIdx + 4] = definition.femaleModel1;
+		itemModels[modelIdx + 5] = definition.femaleModel2;
+		itemColorFind[itemID] = definition.colorFind;
+		itemColorReplace[itemID] = definition.colorReplace;
+		itemTextureFind[itemID] = definition.textureFind;
+		itemTextureReplace[itemID] = definition.textureReplace;
+		this.itemStates[itemID] = LOADED;
+	}
+	
+	// index 0-2; -1 if there's no model there
+	public int getItemModel(int itemID, int gender, int index)
+	{
+		return itemModels[itemID * MODELS_PER_GENDER * 2 + (gender == 1 ? MODELS_PER_GENDER : 0) + index];
+	}
+	
+	public short[] getItemColorFind(int itemID)
+	{
+		return itemColorFind[itemID];
+	}
+	
+	public short[] getItemColorReplace(int itemID)
+	{
+		return itemColorReplace[itemID];
+	}
+	
+	public short[] getItemTextureFind(int itemID)
+	{
+		return itemTextureFind[itemID];
+	}
+	
+	public short[] getItemTextureReplace(int itemID)
+	{
+		return itemTextureReplace[itemID];
+	}
+	
+	public boolean hasKit(int kitID)
+	{
+		this.numLookups++;
+		boolean isKnown = kitID < kitStates.length && kitStates[kitID] != UNKNOWN;
+		if (isKnown)
+			this.numHits++;
+		return isKnown;
+	}
+	
+	public boolean isKitMissing(int kitID)
+	{
+		return kitID >= kitStates.length || kitStates[kitID] != LOADED;
+	}
+	
+	public void putKit(int kitID, RuneLiteKitDefinition definition, long decodeNanos)
+	{
+		ensureKitCapacity(kitID + 1);
+		this.numDecodes++;
+		this.decodeNanos += decodeNanos;
+		if (definition == null)
+		{
+			this.kitStates[kitID] = MISSING;
+			return;
+		}
+		
+		kitBodyParts[kitID] = definition.bodyPartId;
+		kitModels[kitID] = definition.models != null ? definition.models : new int[0];
+		kitColorFind[kitID] = definition.recolorToFind;
+		kitColorReplace[kitID] = definition.recolorToReplace;
+		kitTextureFind[kitID] = definition.retextureToFind;
+		kitTextureReplace[kitID] = definition.retextureToReplace;
+		this.kitStates[kitID] = LOADED;
+	}
+	
+	public int getKitBodyPart(int kitID)
+	{
+		return kitBodyParts[kitID];
+	}
+	
+	public int[] getKitModels(int kitID)
+	{
+		return kitModels[kitID];
+	}
+	
+	public short[] getKitColorFind(int kitID)
+	{
+		return kitColorFind[kitID];
+	}
+	
+	public short[] getKitColorReplace(int kitID)
+	{
+		return kitColorReplace[kitID];
+	}
+	
+	public short[] getKitTextureFind(int kitID)
+	{
+		return kitTextureFind[kitID];
+	}
+	
+	public short[] getKitTextureReplace(int kitID)
+	{
+		return kitTextureReplace[kitID];
+	}
+	
+	public long getNumLookups()
+	{
+		return numLookups;
+	}
+	
+	public long getNumHits()
+	{
+		return numHits;
+	}
+	
+	public long getNumDecodes()
+	{
+		return numDecodes;
+	}
+	
+	// the average time taken to load and decode a definition on a miss
+	public long getAverageDecodeNanos()
+	{
+		return numDecodes == 0 ? 0 : decodeNanos / numDecodes;
+	}
+	
+	// as a percentage
+	public int getHitRate()
+	{
+		return numLookups == 0 ? 0 : (int)(numHits * 100 / numLookups);
+	}
+	
+	private void ensureItemCapacity(int numItems)
+	{
+		if (numItems <= itemStates.length)
+			return;
+		
+		int capacity = Math.max(numItems, itemStates.length * 2);
+		this.itemStates = Arrays.copyOf(itemStates, capacity);
+		this.itemModels = Arrays.copyOf(itemModels, capacity * MODELS_PER_GENDER * 2);
+		this.itemColorFind = Arrays.copyOf(itemColorFind, capacity);
+		this.itemColorReplace = Arrays.copyOf(itemColorReplace, capacity);
+		this.itemTextureFind = Arrays.copyOf(itemTextureFind, capacity);
+		this.itemTextureReplace = Arrays.copyOf(itemTextureReplace, capacity);
+	}
+	
+	private void ensureKitCapacity(int numKits)
+	{
+		if (numKits <= kitStates.length)
+			return;
+		
+		int capacity = Math.max(numKits, kitStates.length * 2);
+		this.kitStates = Arrays.copyOf(kitStates, capacity);
+		this.kitBodyParts = Arrays.copyOf(kitBodyParts, capacity);
+		this.kitModels = Arrays.copyOf(kitModels, capacity);
+		this.kitColorFind = Arrays.copyOf(kitColorFind, capacity);
+		this.kitColorReplace = Arrays.copyOf(kitColorReplace, capacity);
+		this.kitTextureFind = Arrays.copyOf(kitTextureFind, capacity);
+		this.kitTextureReplace = Arrays.copyOf(kitTextureReplace, capacity);
+	}
+}
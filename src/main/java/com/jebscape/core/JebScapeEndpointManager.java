@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.net.*;
+import java.nio.channels.*;
+
+// keeps a connector per chat server endpoint and decides which one to use
+// endpoints are probed together by sending each the same login, then ranked by how quickly and reliably they answer
+public class JebScapeEndpointManager
+{
+	private static final long PROBE_WINDOW_NANOS = 1_200_000_000L; // 2 ticks for the slower endpoints to answer
+	private static final long LOSS_PENALTY_NANOS = 10_000_000L; // 10ms of score per percent of probes unanswered
+	
+	public static class Endpoint
+	{
+		public final JebScapeConnector connector;
+		public long smoothedRttNanos;
+		public int numProbesSent;
+		public int numProbesAnswered;
+		
+		// what the endpoint answered with, to be applied if it wins
+		public int ackSessionID;
+		public long ackKey;
+		public boolean ackIsUsingKey;
+		public int ackTick;
+		public int ackNumOnlinePlayers;
+		public int ackProtocolVersion;
+		
+		// the outcome of the current probe
+		private boolean isProbed;
+		private long probeSentNanos;
+		private boolean hasAck;
+		private long ackNanos;
+		
+		private Endpoint(InetSocketAddress address)
+		{
+			this.connector = new JebScapeConnector(address.getHostString(), address.getPort());
+		}
+		
+		public int getLossPercent()
+		{
+			return numProbesSent == 0 ? 0 : (numProbesSent - numProbesAnswered) * 100 / numProbesSent;
+		}
+		
+		// lower is better; endpoints we've never heard from rank last
+		public long getScore()
+		{
+			if (numProbesAnswered == 0)
+				return Long.MAX_VALUE;
+			return smoothedRttNanos + getLossPercent() * LOSS_PENALTY_NANOS;
+		}
+	}
+	
+	private final Endpoint[] endpoints;
+	private int activeIndex;
+	private boolean isProbing;
+	private long probeStartNanos;
+	
+	public JebScapeEndpointManager(InetSocketAddress[] addresses)
+	{
+		this.endpoints = new Endpoint[addresses.length];
+		for (int i = 0; i < addresses.length; i++)
+			endpoints[i] = new Endpoint(addresses[i]);
+	}
+	
+	public int size()
+	{
+		return endpoints.length;
+	}
+	
+	public Endpoint get(int index)
+	{
+		return endpoints[index];
+	}
+	
+	public int getActiveIndex()
+	{
+		return activeIndex;
+	}
+	
+	public JebScapeConnector getActive()
+	{
+		return endpoints[activeIndex].connector;
+	}
+	
+	public DatagramChannel getChannel(int index)
+	{
+		return endpoints[index].connector.getChannel();
+	}
+	
+	public void connectAll()
+	{
+		for (Endpoint endpoint : endpoints)
+			endpoint.connector.connect();
+	}
+	
+	public void closeAll()
+	{
+		for (Endpoint endpoint : endpoints)
+			endpoint.connector.close();
+		this.isProbing = false;
+	}
+	
+	// if the active endpoint has lost its channel, move over to the best one that still has one
+	// returns true if the active endpoint changed
+	public boolean switchFromUnreadyActive()
+	{
+		if (getChannel(activeIndex) != null)
+			return false;
+		
+		int bestIndex = -1;
+		for (int i = 0; i < endpoints.length; i++)
+			if (getChannel(i) != null && (bestIndex < 0 || endpoints[i].getScore() < endpoints[bestIndex].getScore()))
+				bestIndex = i;
+		
+		if (bestIndex < 0)
+			return false;
+		
+		this.activeIndex = bestIndex;
+		return true;
+	}
+	
+	public boolean isProbing()
+	{
+		return isProbing;
+	}
+	
+	public long getProbeStartNanos()
+	{
+		return probeStartNanos;
+	}
+	
+	// a login resent whilst a probe is still underway joins it rather than starting the window over
+	public void startProbe(long nowNanos)
+	{
+		if (isProbing)
+			return;
+		
+		this.isProbing = true;
+		this.probeStartNanos = nowNanos;
+		for (Endpoint endpoint : endpoints)
+		{
+			endpoint.isProbed = false;
+			endpoint.hasAck = false;
+		}
+	}
+	
+	public void onProbeSent(int index, long nowNanos)
+	{
+		Endpoint endpoint = endpoints[index];
+		if (endpoint.hasAck)
+			return;
+		
+		endpoint.isProbed = true;
+		endpoint.probeSentNanos = nowNanos;
+		endpoint.numProbesSent++;
+	}
+	
+	// returns whether the ack belongs to the current probe
+	public boolean onProbeAck(int index, long nowNanos)
+	{
+		Endpoint endpoint = endpoints[index];
+		if (!isProbing || !endpoint.isProbed || endpoint.hasAck)
+			return false;
+		
+		long rtt = nowNanos - endpoint.probeSentNanos;
+		endpoint.smoothedRttNanos = endpoint.numProbesAnswered == 0 ? rtt : endpoint.smoothedRttNanos + (rtt - endpoint.smoothedRttNanos) / 4;
+		endpoint.numProbesAnswered++;
+		endpoint.hasAck = true;
+		endpoint.ackNanos = nowNanos;
+		return true;
+	}
+	
+	public boolean hasProbeAck(int index)
+	{
+		return isProbing && endpoints[index].hasAck;
+	}
+	
+	public long getProbeAckNanos(int index)
+	{
+		return endpoints[index].ackNanos;
+	}
+	
+	// complete once every endpoint probed has answered, or the rest have had long enough
+	public boolean isProbeComplete(long nowNanos)
+	{
+		if (!isProbing)
+			return false;
+		
+		boolean isAllAnswered = true;
+		for (Endpoint endpoint : endpoints)
+			isAllAnswered &= !endpoint.isProbed || endpoint.hasAck;
+		
+		return isAllAnswered || nowNanos - probeStartNanos >= PROBE_WINDOW_NANOS;
+	}
+	
+	// ends the probe, making the best endpoint to have answered the active one
+	// returns its index, or -1 if no one answered
+	public int finishProbe()
+	{
+		this.isProbing = false;
+		
+		int bestIndex = -1;
+		for (int i = 0; i < endpoints.length; i++)
+			if (endpoints[i].hasAck && (bestIndex < 0 || endpoints[i].getScore() < endpoints[bestIndex].getScore()))
+				bestIndex = i;
+		
+		if (bestIndex >= 0)
+			this.activeIndex = bestIndex;
+		
+		return bestIndex;
+	}
+}
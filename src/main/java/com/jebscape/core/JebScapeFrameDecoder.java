@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.nio.*;
+import com.jebscape.core.JebScapeProtocol.GhostMovement;
+import com.jebscape.core.JebScapeProtocol.ServerHeader;
+
+// expands a protocol v5 chat frame back into the fixed v4 layout of 34 blocks so that everything downstream reads it as before
+// v5 frames only carry what's actually there: despawned ghosts, unchanged ghost blocks and empty chat all cost nothing
+//
+// frame layout (little-endian):
+// 4 bytes header (same bits as v4)
+// 2 bytes frame length, header included; must match the datagram length
+// then any number of sections, each 1 byte tag + 2 bytes length + payload:
+// SECTION_CORE:	12 bytes; block 0 words 1-3
+// SECTION_GHOSTS:	2 bytes mask of ghosts present (of the 16 per packet)
+//					2 bytes mask of those present carrying their ghost block
+//					4 bytes movement per present ghost, in slot order
+//					16 bytes ghost block per flagged ghost, in slot order
+// SECTION_BLOCKS:	1 byte block index + 16 bytes, repeated; any other block with data in it (e.g. 26)
+// SECTION_EXTRA:	96 bytes; blocks 28-33 (chat or live hiscores)
+//
+// a present ghost without its block keeps the last one received for its slot and tick parity
+// so that a lost change doesn't linger, the server repeats each changed block over the next few ticks of the same parity
+// and resends every ghost block in full on the first two ticks of each cycle
+public class JebScapeFrameDecoder
+{
+	public static final int PROTOCOL_VERSION = 5;
+	public static final int FRAME_HEADER_SIZE = 6;
+	public static final int SECTION_HEADER_SIZE = 3;
+	public static final int SECTION_CORE = 0x1;
+	public static final int SECTION_GHOSTS = 0x2;
+	public static final int SECTION_BLOCKS = 0x3;
+	public static final int SECTION_EXTRA = 0x4;
+	
+	public static final int GHOSTS_PER_PACKET = 16;
+	public static final int NUM_SLOTS = JebScapeConnection.MAX_CHAT_SERVER_PACKETS_PER_TICK * GHOSTS_PER_PACKET;
+	public static final int EXTRA_BLOCK_IDX = 28;
+	public static final int NUM_EXTRA_BLOCKS = 6;
+	private static final int BLOCK_BYTES = JebScapeServerData.DATA_BLOCK_SIZE * 4;
+	
+	// last ghost block seen per slot, separately for odd (appearance) and even (world and name) ticks
+	private final int[] ghostBlocks = new int[NUM_SLOTS * 2 * JebScapeServerData.DATA_BLOCK_SIZE];
+	private final boolean[] hasGhostBlock = new boolean[NUM_SLOTS * 2];
+	private int numExtraBytes;
+	
+	public void reset()
+	{
+		for (int i = 0; i < hasGhostBlock.length; i++)
+			hasGhostBlock[i] = false;
+	}
+	
+	// bytes of the most recently expanded frame that belonged to the extra (chat or hiscores) section
+	public int getNumExtraBytes()
+	{
+		return numExtraBytes;
+	}
+	
+	// expands the frame of the given length in src into dst, which must be at least 544 bytes
+	// returns false if the frame is malformed, in which case dst is left in an unspecified state
+	public boolean expand(ByteBuffer src, int length, ByteBuffer dst)
+	{
+		this.numExtraBytes = 0;
+		if (length < FRAME_HEADER_SIZE || length > src.capacity() || (src.getShort(4) & 0xFFFF) != length)
+			return false;
+		
+		int header = src.getInt(0);
+		int tick = JebScapeBitCodec.get(ServerHeader.TICK, header);
+		int packetID = JebScapeBitCodec.get(ServerHeader.PACKET_ID, header);
+		if (packetID >= JebScapeConnection.MAX_CHAT_SERVER_PACKETS_PER_TICK)
+			return false;
+		
+		// start with every block empty and every ghost despawned
+		for (int i = 0; i < JebScapeServerData.PACKET_SIZE; i += 8)
+			dst.putLong(i, 0L);
+		dst.putInt(0, header);
+		for (int sectionID = 0; sectionID < 4; sectionID++)
+			for (int j = 0; j < JebScapeServerData.DATA_BLOCK_SIZE; j++)
+				dst.putInt(blockOffset(sectionID * 5 + 1, j), GhostMovement.DESPAWNED);
+		
+		boolean hasGhosts = false;
+		int offset = FRAME_HEADER_SIZE;
+		while (offset < length)
+		{
+			if (offset + SECTION_HEADER_SIZE > length)
+				return false;
+			
+			int tag = src.get(offset) & 0xFF;
+			int sectionLength = src.getShort(offset + 1) & 0xFFFF;
+			offset += SECTION_HEADER_SIZE;
+			int end = offset + sectionLength;
+			if (end > length)
+				return false;
+			
+			switch (tag)
+			{
+				case SECTION_CORE:
+					if (sectionLength != 12)
+						return false;
+					for (int i = 0; i < 3; i++)
+						dst.putInt(blockOffset(0, i + 1), src.getInt(offset + i * 4));
+					break;
+				case SECTION_GHOSTS:
+					if (!expandGhosts(src, offset, end, dst, packetID, tick))
+						return false;
+					hasGhosts = true;
+					break;
+				case SECTION_BLOCKS:
+					if (sectionLength % (BLOCK_BYTES + 1) != 0)
+						return false;
+					for (int pos = offset; pos < end; pos += BLOCK_BYTES + 1)
+					{
+						int blockIdx = src.get(pos) & 0xFF;
+						if (blockIdx == 0 || blockIdx >= JebScapeServerData.NUM_DATA_BLOCKS)
+							return false;
+						copyBlock(src, pos + 1, dst, blockIdx);
+					}
+					break;
+				case SECTION_EXTRA:
+					if (sectionLength != NUM_EXTRA_BLOCKS * BLOCK_BYTES)
+						return false;
+					for (int i = 0; i < NUM_EXTRA_BLOCKS; i++)
+						copyBlock(src, offset + i * BLOCK_BYTES, dst, EXTRA_BLOCK_IDX + i);
+					this.numExtraBytes = SECTION_HEADER_SIZE + sectionLength;
+					break;
+				default:
+					// sections we don't know of yet are skipped over
+					break;
+			}
+			
+			offset = end;
+		}
+		
+		// a frame without a ghost section has every ghost in it despawned
+		if (!hasGhosts)
+			for (int slot = packetID * GHOSTS_PER_PACKET; slot < (packetID + 1) * GHOSTS_PER_PACKET; slot++)
+				forgetGhost(slot);
+		
+		return true;
+	}
+	
+	private boolean expandGhosts(ByteBuffer src, int offset, int end, ByteBuffer dst, int packetID, int tick)
+	{
+		if (offset + 4 > end)
+			return false;
+		
+		int presentMask = src.getShort(offset) & 0xFFFF;
+		int blockMask = src.getShort(offset + 2) & 0xFFFF;
+		if ((blockMask & ~presentMask) != 0 || end - offset != 4 + Integer.bitCount(presentMask) * 4 + Integer.bitCount(blockMask) * BLOCK_BYTES)
+			return false;
+		
+		int movementPos = offset + 4;
+		int blockPos = movementPos + Integer.bitCount(presentMask) * 4;
+		int parity = tick & 0x1;
+		for (int i = 0; i < GHOSTS_PER_PACKET; i++)
+		{
+			int slot = packetID * GHOSTS_PER_PACKET + i;
+			if (((presentMask >>> i) & 0x1) == 0)
+			{
+				forgetGhost(slot);
+				continue;
+			}
+			
+			// ghosts are split across 4 sections of 5 blocks: 1 block of movement for 4 ghosts, then a block for each of them
+			int sectionID = i / JebScapeServerData.DATA_BLOCK_SIZE;
+			int j = i % JebScapeServerData.DATA_BLOCK_SIZE;
+			int ghostDataBlockIdx = sectionID * 5 + 1;
+			int blockIdx = ghostDataBlockIdx + j + 1;
+			dst.putInt(blockOffset(ghostDataBlockIdx, j), src.getInt(movementPos));
+			movementPos += 4;
+			
+			int cacheIdx = slot * 2 + parity;
+			int cacheOffset = cacheIdx * JebScapeServerData.DATA_BLOCK_SIZE;
+			if (((blockMask >>> i) & 0x1) == 0x1)
+			{
+				for (int k = 0; k < JebScapeServerData.DATA_BLOCK_SIZE; k++)
+					ghostBlocks[cacheOffset + k] = src.getInt(blockPos + k * 4);
+				hasGhostBlock[cacheIdx] = true;
+				blockPos += BLOCK_BYTES;
+			}
+			
+			if (hasGhostBlock[cacheIdx])
+				for (int k = 0; k < JebScapeServerData.DATA_BLOCK_SIZE; k++)
+					dst.putInt(blockOffset(blockIdx, k), ghostBlocks[cacheOffset + k]);
+		}
+		
+		return true;
+	}
+	
+	private void forgetGhost(int slot)
+	{
+		hasGhostBlock[slot * 2] = false;
+		hasGhostBlock[slot * 2 + 1] = false;
+	}
+	
+	private static void copyBlock(ByteBuffer src, int srcOffset, ByteBuffer dst, int blockIdx)
+	{
+		int dstOffset = blockOffset(blockIdx, 0);
+		dst.putLong(dstOffset, src.getLong(srcOffset));
+		dst.putLong(dstOffset + 8, src.getLong(srcOffset + 8));
+	}
+	
+	private static int blockOffset(int blockIdx, int index)
+	{
+		return (blockIdx * JebScapeServerData.DATA_BLOCK_SIZE + index) * 4;
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import com.jebscape.core.JebScapeProtocol.*;
+
+// one server tick's worth of ghost packets unpacked into flat arrays, ready for MegaserverMod to hand to its actors
+// decoding only reads the packets and writes these arrays, so it needs no Client and may run on whichever thread has the data
+// the arrays are public to be read in place; only decode() should write to them, and they only ever grow
+public class JebScapeGhostFrame
+{
+	public static final int GHOSTS_PER_PACKET = 16;
+	public static final int NUM_EXTRA_BLOCKS = 6; // blocks 28-33 carry chat or live hiscores rather than ghosts
+	public static final int FIRST_EXTRA_BLOCK = JebScapeServerData.NUM_DATA_BLOCKS - NUM_EXTRA_BLOCKS;
+	
+	// what became of each ghost slot this tick
+	public static final int ABSENT = 0; // its packet was lost or has yet to arrive, so it carries on from its last known state
+	public static final int DESPAWNED = 1;
+	public static final int PRESENT = 2;
+	
+	// flag bits, for both players and ghosts
+	public static final int IS_INTERACTING = 0x1;
+	public static final int IS_POSE_ANIMATION = 0x2;
+	public static final int IS_INSTANCED = 0x4;
+	
+	public int chatTick;
+	public int numPackets;
+	public int numPacketsSent;
+	public int packetsReceived;
+	public boolean hasAppearance; // odd ticks carry equipment, even ticks carry world, cape and name
+	
+	// per packet: where the server believes the player to be, which is what its ghosts are placed relative to
+	public int[] cmdFlags = new int[0];
+	public int[] playerWorld = new int[0];
+	public int[] playerX = new int[0];
+	public int[] playerY = new int[0];
+	public int[] playerPlane = new int[0];
+	public int[] playerOrientation = new int[0]; // packed; JAU / 32
+	public int[] playerAnimationID = new int[0];
+	public int[] playerFlags = new int[0];
+	public int[] extraWords = new int[0]; // NUM_EXTRA_BLOCKS blocks of 4 words per packet, left packed
+	
+	// per ghost slot
+	public int[] state = new int[0];
+	public int[] dx = new int[0]; // from 15 tiles SW of the packet's player position
+	public int[] dy = new int[0];
+	public int[] orientation = new int[0]; // packed; JAU / 32
+	public int[] animationID = new int[0];
+	public int[] flags = new int[0];
+	public int[] appearance = new int[0]; // 4 packed equipment words per ghost, on odd ticks only
+	public int[] world = new int[0]; // on even ticks only
+	public int[] capeID = new int[0]; // on even ticks only
+	public int[] nameKey = new int[0]; // 3 packed name words per ghost, on even ticks only
+	
+	private int capacity; // in packets
+	
+	// only ever grows
+	public void ensureCapacity(int numPackets)
+	{
+		if (numPackets <= capacity)
+			return;
+		
+		int numGhosts = numPackets * GHOSTS_PER_PACKET;
+		this.cmdFlags = new int[numPackets];
+		this.playerWorld = new int[numPackets];
+		this.playerX = new int[numPackets];
+		this.playerY = new int[numPackets];
+		this.playerPlane = new int[numPackets];
+		this.playerOrientation = new int[numPackets];
+		this.playerAnimationID = new int[numPackets];
+		this.playerFlags = new int[numPackets];
+		this.extraWords = new int[numPackets * NUM_EXTRA_BLOCKS * JebScapeServerData.DATA_BLOCK_SIZE];
+		this.state = new int[numGhosts];
+		this.dx = new int[numGhosts];
+		this.dy = new int[numGhosts];
+		this.orientation = new int[numGhosts];
+		this.animationID = new int[numGhosts];
+		this.flags = new int[numGhosts];
+		this.appearance = new int[numGhosts * 4];
+		this.world = new int[numGhosts];
+		this.capeID = new int[numGhosts];
+		this.nameKey = new int[numGhosts * 3];
+		this.capacity = numPackets;
+	}
+	
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	public boolean isPacketReceived(int packetID)
+	{
+		return packetID < numPacketsSent && ((packetsReceived >>> packetID) & 0x1) != 0;
+	}
+	
+	// reads one of blocks 28-33 of a received packet
+	public int getExtraBlock(int packetID, int blockIdx, int index)
+	{
+		return extraWords[(packetID * NUM_EXTRA_BLOCKS + blockIdx - FIRST_EXTRA_BLOCK) * JebScapeServerData.DATA_BLOCK_SIZE + index];
+	}
+	
+	// unpacks the first numPackets packets of a tick; any beyond numPacketsSent mark their ghosts as despawned
+	public void decode(JebScapeServerData[] packets, int numPackets, int numPacketsSent, int packetsReceived, int chatTick)
+	{
+		ensureCapacity(numPackets);
+		this.chatTick = chatTick;
+		this.numPackets = numPackets;
+		this.numPacketsSent = numPacketsSent;
+		this.packetsReceived = packetsReceived;
+		this.hasAppearance = (chatTick & 0x1) == 0x1;
+		
+		for (int packetID = 0; packetID < numPackets; packetID++)
+		{
+			int firstGhostID = packetID * GHOSTS_PER_PACKET;
+			if (packetID >= numPacketsSent || !isPacketReceived(packetID))
+			{
+				int ghostState = packetID >= numPacketsSent ? DESPAWNED : ABSENT;
+				for (int ghostID = firstGhostID; ghostID < firstGhostID + GHOSTS_PER_PACKET; ghostID++)
+					state[ghostID] = ghostState;
+				continue;
+			}
+			
+			decodePacket(packets[packetID], packetID);
+		}
+	}
+	
+	private void decodePacket(JebScapeServerData data, int packetID)
+	{
+		// the core data; see JebScapeProtocol for the layout
+		int coreWorld = data.getBlock(0, 1);
+		int corePosition = data.getBlock(0, 2);
+		int coreAnimation = data.getBlock(0, 3);
+		cmdFlags[packetID] = JebScapeBitCodec.get(CoreWorld.CMD_FLAGS, coreWorld);
+		playerWorld[packetID] = JebScapeBitCodec.get(CoreWorld.WORLD, coreWorld);
+		playerPlane[packetID] = JebScapeBitCodec.get(CoreWorld.PLANE, coreWorld);
+		playerX[packetID] = JebScapeBitCodec.get(CorePosition.X, corePosition);
+		playerY[packetID] = JebScapeBitCodec.get(CorePosition.Y, corePosition);
+		playerOrientation[packetID] = JebScapeBitCodec.get(CoreAnimation.ORIENTATION, coreAnimation);
+		playerAnimationID[packetID] = JebScapeBitCodec.get(CoreAnimation.ANIMATION_ID, coreAnimation);
+		int packetFlags = JebScapeBitCodec.isSet(CoreAnimation.IS_INTERACTING, coreAnimation) ? IS_INTERACTING : 0;
+		packetFlags |= JebScapeBitCodec.isSet(CoreAnimation.IS_POSE_ANIMATION, coreAnimation) ? IS_POSE_ANIMATION : 0;
+		packetFlags |= JebScapeBitCodec.isSet(CoreWorld.IS_INSTANCED, coreWorld) ? IS_INSTANCED : 0;
+		playerFlags[packetID] = packetFlags;
+		
+		// 16 ghosts per packet, split across 4 sections (5 blocks each): a movement block, then one block per ghost
+		for (int sectionID = 0; sectionID < 4; sectionID++)
+		{
+			int ghostDataBlockIdx = sectionID * 5 + 1; // 1, 6, 11, 16
+			for (int j = 0; j < JebScapeServerData.DATA_BLOCK_SIZE; j++)
+			{
+				int ghostID = (packetID * GHOSTS_PER_PACKET) + (sectionID * JebScapeServerData.DATA_BLOCK_SIZE) + j;
+				int ghostData = data.getBlock(ghostDataBlockIdx, j);
+				if (GhostMovement.isDespawned(ghostData))
+				{
+					state[ghostID] = DESPAWNED;
+					continue;
+				}
+				
+				state[ghostID] = PRESENT;
+				dx[ghostID] = JebScapeBitCodec.get(GhostMovement.DX, ghostData);
+				dy[ghostID] = JebScapeBitCodec.get(GhostMovement.DY, ghostData);
+				orientation[ghostID] = JebScapeBitCodec.get(GhostMovement.ORIENTATION, ghostData);
+				animationID[ghostID] = JebScapeBitCodec.get(GhostMovement.ANIMATION_ID, ghostData);
+				int ghostFlags = JebScapeBitCodec.isSet(GhostMovement.IS_INTERACTING, ghostData) ? IS_INTERACTING : 0;
+				ghostFlags |= JebScapeBitCodec.isSet(GhostMovement.IS_POSE_ANIMATION, ghostData) ? IS_POSE_ANIMATION : 0;
+				flags[ghostID] = ghostFlags | (packetFlags & IS_INSTANCED);
+				
+				int blockIdx = ghostDataBlockIdx + j + 1;
+				if (hasAppearance)
+				{
+					for (int k = 0; k < 4; k++)
+						appearance[ghostID * 4 + k] = data.getBlock(blockIdx, k);
+				}
+				else
+				{
+					int worldWord = data.getBlock(blockIdx, 0);
+					world[ghostID] = JebScapeBitCodec.get(GhostWorld.WORLD, worldWord);
+					capeID[ghostID] = JebScapeBitCodec.get(GhostWorld.CAPE_ID, worldWord);
+					for (int k = 0; k < 3; k++)
+						nameKey[ghostID * 3 + k] = data.getBlock(blockIdx, k + 1);
+				}
+			}
+		}
+		
+		// chat or live hiscores, left for the apply stage to make sense of
+		if ((cmdFlags[packetID] & (MegaserverMod.MEGASERVER_MOVEMENT_UPDATE_CMD | MegaserverMod.LIVE_HISCORES_STATS_UPDATE_CMD)) == 0)
+			return;
+		int extraIdx = packetID * NUM_EXTRA_BLOCKS * JebScapeServerData.DATA_BLOCK_SIZE;
+		for (int blockIdx = FIRST_EXTRA_BLOCK; blockIdx < JebScapeServerData.NUM_DATA_BLOCKS; blockIdx++)
+			for (int k = 0; k < JebScapeServerData.DATA_BLOCK_SIZE; k++)
+				extraWords[extraIdx++] = data.getBlock(blockIdx, k);
+	}
+}
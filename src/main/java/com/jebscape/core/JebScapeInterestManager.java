@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+// decides which of the ghosts the server sends us actually get rendered once there are more of them than our budget
+// ghosts are ranked by their distance from the player, with those we haven't heard from in a while falling behind
+// ranking is a counting sort over small integer scores, so it neither allocates nor grows worse than linearly
+public class JebScapeInterestManager
+{
+	public static final int MAX_INTEREST_RADIUS = 15; // ghost positions are sent as 5 bit offsets around the player
+	private static final int MAX_DISTANCE = 63;
+	private static final int MAX_AGE = 15;
+	private static final int AGE_WEIGHT = 2; // each tick gone unheard counts as this many tiles further away
+	private static final int NUM_SCORES = MAX_DISTANCE + MAX_AGE * AGE_WEIGHT + 1;
+	
+	private int capacity;
+	private int[] distances = new int[0];
+	private int[] lastSeenTicks = new int[0];
+	private boolean[] isSeen = new boolean[0];
+	private boolean[] isInBudget = new boolean[0];
+	private final int[] scoreCounts = new int[NUM_SCORES];
+	private int budget = Integer.MAX_VALUE;
+	private int numInBudget;
+	
+	// only ever grows
+	public void ensureCapacity(int numGhosts)
+	{
+		if (numGhosts <= capacity)
+			return;
+		
+		int[] newDistances = new int[numGhosts];
+		int[] newLastSeenTicks = new int[numGhosts];
+		boolean[] newIsSeen = new boolean[numGhosts];
+		boolean[] newIsInBudget = new boolean[numGhosts];
+		System.arraycopy(distances, 0, newDistances, 0, capacity);
+		System.arraycopy(lastSeenTicks, 0, newLastSeenTicks, 0, capacity);
+		System.arraycopy(isSeen, 0, newIsSeen, 0, capacity);
+		System.arraycopy(isInBudget, 0, newIsInBudget, 0, capacity);
+		this.distances = newDistances;
+		this.lastSeenTicks = newLastSeenTicks;
+		this.isSeen = newIsSeen;
+		this.isInBudget = newIsInBudget;
+		this.capacity = numGhosts;
+	}
+	
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	public void reset()
+	{
+		for (int i = 0; i < capacity; i++)
+		{
+			isSeen[i] = false;
+			isInBudget[i] = false;
+		}
+		this.numInBudget = 0;
+	}
+	
+	// distance in tiles from the player; tick is any counter that goes up by one each game tick
+	public void onGhostSeen(int ghostID, int distance, int tick)
+	{
+		distances[ghostID] = Math.min(distance, MAX_DISTANCE);
+		lastSeenTicks[ghostID] = tick;
+		isSeen[ghostID] = true;
+	}
+	
+	public void onGhostDespawned(int ghostID)
+	{
+		isSeen[ghostID] = false;
+		if (isInBudget[ghostID])
+		{
+			isInBudget[ghostID] = false;
+			numInBudget--;
+		}
+	}
+	
+	public boolean isInBudget(int ghostID)
+	{
+		return isInBudget[ghostID];
+	}
+	
+	// a ghost we've only just heard of may take any room left over until it's ranked on the next allocate()
+	public boolean tryAdmit(int ghostID)
+	{
+		if (isInBudget[ghostID])
+			return true;
+		if (numInBudget >= budget)
+			return false;
+		
+		isInBudget[ghostID] = true;
+		numInBudget++;
+		return true;
+	}
+	
+	public int getNumInBudget()
+	{
+		return numInBudget;
+	}
+	
+	// hands the budget out to the nearest and most recently heard from ghosts; returns how many made it
+	public int allocate(int budget, int tick)
+	{
+		this.budget = budget;
+		for (int i = 0; i < NUM_SCORES; i++)
+			scoreCounts[i] = 0;
+		
+		int numSeen = 0;
+		for (int i = 0; i < capacity; i++)
+		{
+			if (!isSeen[i])
+				continue;
+			
+			scoreCounts[getScore(i, tick)]++;
+			numSeen++;
+		}
+		
+		// everyone fits, so there's nothing to rank
+		if (numSeen <= budget)
+		{
+			for (int i = 0; i < capacity; i++)
+				isInBudget[i] = isSeen[i];
+			this.numInBudget = numSeen;
+			return numSeen;
+		}
+		
+		// find the score at which the budget runs out; ties at that score go to the lowest ids
+		int cutoffScore = 0;
+		int numBelowCutoff = 0;
+		while (numBelowCutoff + scoreCounts[cutoffScore] < budget)
+			numBelowCutoff += scoreCounts[cutoffScore++];
+		int numAtCutoff = budget - numBelowCutoff;
+		
+		this.numInBudget = 0;
+		for (int i = 0; i < capacity; i++)
+		{
+			boolean isIn = false;
+			if (isSeen[i])
+			{
+				int score = getScore(i, tick);
+				isIn = score < cutoffScore || (score == cutoffScore && numAtCutoff-- > 0);
+			}
+			isInBudget[i] = isIn;
+			numInBudget += isIn ? 1 : 0;
+		}
+		
+		return numInBudget;
+	}
+	
+	// those already being rendered get a tile's grace so that ghosts at the edge of the budget don't flicker in and out
+	private int getScore(int ghostID, int tick)
+	{
+		int age = Math.max(0, Math.min(MAX_AGE, tick - lastSeenTicks[ghostID]));
+		int score = distances[ghostID] + age * AGE_WEIGHT - (isInBudget[ghostID] ? 1 : 0);
+		return Math.max(0, score);
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+// holds server ticks back by an adaptive playout delay so that exactly one is released per client game tick
+// the delay is chosen from a histogram of how late each server tick arrives relative to the 600ms cadence
+public class JebScapeJitterBuffer
+{
+	private static final long TICK_NANOS = 600_000_000L;
+	private static final long BUCKET_NANOS = 10_000_000L; // 10ms per histogram bucket
+	private static final int MAX_PLAYOUT_DELAY_TICKS = 3;
+	private static final int NUM_BUCKETS = (int)(MAX_PLAYOUT_DELAY_TICKS * TICK_NANOS / BUCKET_NANOS) + 1; // 0-1800ms; the last bucket also holds anything later
+	private static final int NUM_SAMPLES = 64; // sliding window of server ticks the histogram covers
+	private static final int TARGET_PERCENTILE = 95;
+	private static final int MAX_TICKS_BEHIND = 2; // how far beyond the playout delay we may lag before skipping ahead
+	
+	private final int numTicks;
+	private final int[] histogram = new int[NUM_BUCKETS];
+	private final int[] samples = new int[NUM_SAMPLES]; // bucket index of each sample, oldest overwritten first
+	private int numSamples;
+	private int sampleIndex;
+	private int prevArrivedTick = -1;
+	private long prevArrivedNanos;
+	private int lastReleasedTick = -1;
+	private int playoutDelayTicks;
+	private long jitterNanos; // p95 lateness over the sliding window
+	private long numLateDrops;
+	private long numUnderruns;
+	private long numSkippedTicks;
+	
+	public JebScapeJitterBuffer(int numTicks)
+	{
+		this.numTicks = numTicks;
+	}
+	
+	public void reset()
+	{
+		this.prevArrivedTick = -1;
+		this.lastReleasedTick = -1;
+	}
+	
+	// call on the first packet received for each new server tick
+	public void onTickArrived(int tick, long arrivalNanos)
+	{
+		if (prevArrivedTick >= 0)
+		{
+			int ticksElapsed = Math.floorMod(tick - prevArrivedTick, numTicks);
+			
+			// only consider ticks moving forward; anything else arrived out of order and is already late
+			if (ticksElapsed > 0 && ticksElapsed < numTicks / 2)
+			{
+				long lateness = Math.abs((arrivalNanos - prevArrivedNanos) - ticksElapsed * TICK_NANOS);
+				addSample((int)Math.min(NUM_BUCKETS - 1, lateness / BUCKET_NANOS));
+				this.prevArrivedTick = tick;
+				this.prevArrivedNanos = arrivalNanos;
+			}
+		}
+		else
+		{
+			this.prevArrivedTick = tick;
+			this.prevArrivedNanos = arrivalNanos;
+		}
+	}
+	
+	// a tick is late if its turn for playout has already come and gone
+	public boolean isLate(int tick)
+	{
+		return lastReleasedTick >= 0 && Math.floorMod(lastReleasedTick - tick, numTicks) < numTicks / 2;
+	}
+	
+	public void onLateDrop()
+	{
+		this.numLateDrops++;
+	}
+	
+	public void onSkippedTick()
+	{
+		this.numSkippedTicks++;
+	}
+	
+	// call once per client game tick; heldTicks has 1 bit per tick currently buffered
+	// returns the tick whose data should be played out now, or -1 if we are still buffering or the tick never arrived
+	public int release(int heldTicks, int newestTick)
+	{
+		if (heldTicks == 0 && lastReleasedTick < 0)
+			return -1;
+		
+		if (lastReleasedTick < 0)
+		{
+			// not yet started; wait until enough ticks have been buffered to cover the playout delay
+			int oldestTick = newestTick;
+			for (int i = 1; i < numTicks / 2; i++)
+			{
+				int tick = Math.floorMod(newestTick - i, numTicks);
+				if (((heldTicks >>> tick) & 0x1) == 0x1)
+					oldestTick = tick;
+			}
+			
+			if (Math.floorMod(newestTick - oldestTick, numTicks) < playoutDelayTicks)
+				return -1;
+			
+			this.lastReleasedTick = oldestTick;
+			return oldestTick;
+		}
+		
+		int ticksBuffered = Math.floorMod(newestTick - lastReleasedTick, numTicks);
+		if (ticksBuffered >= numTicks / 2)
+			ticksBuffered = 0; // newestTick is behind us, so nothing new has been received
+		
+		// hold on to what we have until the playout delay has been covered
+		if (ticksBuffered <= playoutDelayTicks)
+		{
+			if (ticksBuffered == 0)
+				this.numUnderruns++;
+			return -1;
+		}
+		
+		// we've fallen too far behind (e.g. after a stall), so jump ahead to keep latency bounded
+		if (ticksBuffered > playoutDelayTicks + MAX_TICKS_BEHIND)
+			this.lastReleasedTick = Math.floorMod(newestTick - playoutDelayTicks - 1, numTicks);
+		
+		this.lastReleasedTick = (lastReleasedTick + 1) % numTicks;
+		if (((heldTicks >>> lastReleasedTick) & 0x1) == 0)
+		{
+			this.numUnderruns++;
+			return -1;
+		}
+		
+		return lastReleasedTick;
+	}
+	
+	public int getPlayoutDelayTicks()
+	{
+		return playoutDelayTicks;
+	}
+	
+	public long getJitterNanos()
+	{
+		return jitterNanos;
+	}
+	
+	public long getNumLateDrops()
+	{
+		return numLateDrops;
+	}
+	
+	public long getNumUnderruns()
+	{
+		return numUnderruns;
+	}
+	
+	public long getNumSkippedTicks()
+	{
+		return numSkippedTicks;
+	}
+	
+	private void addSample(int bucket)
+	{
+		if (numSamples == NUM_SAMPLES)
+			this.histogram[samples[sampleIndex]]--;
+		else
+			this.numSamples++;
+		
+		this.samples[sampleIndex] = bucket;
+		this.histogram[bucket]++;
+		this.sampleIndex = (sampleIndex + 1) % NUM_SAMPLES;
+		
+		// walk the histogram up to the target percentile
+		int threshold = (numSamples * TARGET_PERCENTILE + 99) / 100;
+		int count = 0;
+		int percentileBucket = 0;
+		for (; percentileBucket < NUM_BUCKETS; percentileBucket++)
+		{
+			count += histogram[percentileBucket];
+			if (count >= threshold)
+				break;
+		}
+		
+		this.jitterNanos = percentileBucket * BUCKET_NANOS;
+		this.playoutDelayTicks = (int)Math.min(MAX_PLAYOUT_DELAY_TICKS, (jitterNanos + TICK_NANOS - 1) / TICK_NANOS);
+	}
+}
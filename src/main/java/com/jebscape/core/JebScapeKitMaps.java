@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+// which kits are the hair, jaw and arms styles for each gender, in kit ID order, and where each kit sits within its list
+// ghosts send their body parts as positions in these lists, so they must match what everyone else built from the same game cache
+// built once from every kit definition, then kept on disk per game cache revision so that later startups needn't decode any
+// file layout (little endian):
+// 4 bytes magic
+// 4 bytes format version
+// 4 bytes game cache revision
+// 4 bytes number of kit IDs covered
+// 6 x 4 bytes list lengths; male hair, jaw, arms, then female hair, jaw, arms
+// then the kit IDs of each list in that same order
+public class JebScapeKitMaps
+{
+	public static final int MAGIC = 0x4D4B534A; // "JSKM"
+	public static final int FORMAT_VERSION = 1;
+	public static final int HEADER_SIZE = 16 + 6 * 4;
+	public static final int MALE = 0;
+	public static final int FEMALE = 1;
+	private static final int MAX_HAIR_KITS = 128;
+	private static final int MAX_JAW_KITS = 32;
+	private static final int MAX_ARMS_KITS = 32;
+	
+	// as kits number their body parts
+	private static final int MALE_HAIR = 0;
+	private static final int MALE_JAW = 1;
+	private static final int MALE_ARMS = 3;
+	private static final int FEMALE_HAIR = 7;
+	private static final int FEMALE_JAW = 8;
+	private static final int FEMALE_ARMS = 10;
+	
+	public final int[][] hairKits = new int[2][MAX_HAIR_KITS];
+	public final int[][] jawKits = new int[2][MAX_JAW_KITS];
+	public final int[][] armsKits = new int[2][MAX_ARMS_KITS];
+	public final int[] numHairKits = new int[2];
+	public final int[] numJawKits = new int[2];
+	public final int[] numArmsKits = new int[2];
+	public final int[] kitIDtoBodyPart;
+	
+	public JebScapeKitMaps(int numKitIDs)
+	{
+		this.kitIDtoBodyPart = new int[numKitIDs];
+		
+		// maintain a null state for arms but not hair or jaw
+		armsKits[MALE][numArmsKits[MALE]++] = -1;
+		armsKits[FEMALE][numArmsKits[FEMALE]++] = -1;
+	}
+	
+	// kits must be added in ID order; those of any other body part are ignored
+	public void add(int kitID, int bodyPartID)
+	{
+		if (bodyPartID == MALE_HAIR)
+			hairKits[MALE][numHairKits[MALE]++] = kitID;
+		else if (bodyPartID == MALE_JAW)
+			jawKits[MALE][numJawKits[MALE]++] = kitID;
+		else if (bodyPartID == MALE_ARMS)
+			armsKits[MALE][numArmsKits[MALE]++] = kitID;
+		else if (bodyPartID == FEMALE_HAIR)
+			hairKits[FEMALE][numHairKits[FEMALE]++] = kitID;
+		else if (bodyPartID == FEMALE_JAW)
+			jawKits[FEMALE][numJawKits[FEMALE]++] = kitID;
+		else if (bodyPartID == FEMALE_ARMS)
+			armsKits[FEMALE][numArmsKits[FEMALE]++] = kitID;
+	}
+	
+	// fills in where each kit sits within its list, once they've all been added
+	public void finish()
+	{
+		for (int gender = MALE; gender <= FEMALE; gender++)
+		{
+			for (int i = 0; i < numHairKits[gender]; i++)
+				kitIDtoBodyPart[hairKits[gender][i]] = i;
+			for (int i = 0; i < numJawKits[gender]; i++)
+				kitIDtoBodyPart[jawKits[gender][i]] = i;
+			for (int i = 1; i < numArmsKits[gender]; i++)
+				kitIDtoBodyPart[armsKits[gender][i]] = i;
+		}
+	}
+	
+	// null if there's no file for this revision, or it can't be trusted
+	public static JebScapeKitMaps read(Path path, int revision, int numKitIDs)
+	{
+		try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if (fileChannel.size() < HEADER_SIZE)
+				return null;
+			
+			MappedByteBuffer file = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+			file.order(ByteOrder.LITTLE_ENDIAN);
+			if (file.getInt() != MAGIC || file.getInt() != FORMAT_VERSION || file.getInt() != revision || file.getInt() != numKitIDs)
+				return null;
+			
+			JebScapeKitMaps kitMaps = new JebScapeKitMaps(numKitIDs);
+			int[][][] lists = { kitMaps.hairKits, kitMaps.jawKits, kitMaps.armsKits };
+			int[][] lengths = { kitMaps.numHairKits, kitMaps.numJawKits, kitMaps.numArmsKits };
+			for (int gender = MALE; gender <= FEMALE; gender++)
+			{
+				for (int list = 0; list < lists.length; list++)
+				{
+					int length = file.getInt();
+					if (length < 0 || length > lists[list][gender].length)
+						return null;
+					lengths[list][gender] = length;
+				}
+			}
+			
+			for (int gender = MALE; gender <= FEMALE; gender++)
+			{
+				for (int list = 0; list < lists.length; list++)
+				{
+					int[] kitIDs = lists[list][gender];
+					for (int i = 0; i < lengths[list][gender]; i++)
+					{
+						kitIDs[i] = file.getInt();
+						if (kitIDs[i] >= numKitIDs || (kitIDs[i] < 0 && !(list == 2 && i == 0)))
+							return null;
+					}
+				}
+			}
+			
+			kitMaps.finish();
+			return kitMaps;
+		}
+		catch (IOException | BufferUnderflowException e)
+		{
+			return null;
+		}
+	}
+	
+	// written to the side first, so a crash part way through never leaves a broken file behind
+	public void write(Path path, int revision) throws IOException
+	{
+		ByteBuffer file = ByteBuffer.allocate(HEADER_SIZE + (MAX_HAIR_KITS + MAX_JAW_KITS + MAX_ARMS_KITS) * 2 * 4);
+		file.order(ByteOrder.LITTLE_ENDIAN);
+		file.putInt(MAGIC);
+		file.putInt(FORMAT_VERSION);
+		file.putInt(revision);
+		file.putInt(kitIDtoBodyPart.length);
+		
+		int[][][] lists = { hairKits, jawKits, armsKits };
+		int[][] lengths = { numHairKits, numJawKits, numArmsKits };
+		for (int gender = MALE; gender <= FEMALE; gender++)
+			for (int list = 0; list < lists.length; list++)
+				file.putInt(lengths[list][gender]);
+		for (int gender = MALE; gender <= FEMALE; gender++)
+			for (int list = 0; list < lists.length; list++)
+				for (int i = 0; i < lengths[list][gender]; i++)
+					file.putInt(lists[list][gender][i]);
+		file.flip();
+		
+		Files.createDirectories(path.toAbsolutePath().getParent());
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel fileChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			while (file.hasRemaining())
+				fileChannel.write(file);
+		}
+		try
+		{
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
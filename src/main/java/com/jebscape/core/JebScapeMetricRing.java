@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+// fixed-size history of samples; once full, each new sample overwrites the oldest
+public class JebScapeMetricRing
+{
+	private final long[] values;
+	private int head; // index the next sample will be written to
+	private int size;
+	private long sum;
+	
+	public JebScapeMetricRing(int capacity)
+	{
+		this.values = new long[capacity];
+	}
+	
+	public void add(long value)
+	{
+		if (size == values.length)
+			this.sum -= values[head];
+		else
+			this.size++;
+		
+		this.values[head] = value;
+		this.sum += value;
+		this.head = (head + 1) % values.length;
+	}
+	
+	// index 0 is the oldest sample held
+	public long get(int index)
+	{
+		return values[(head - size + index + values.length) % values.length];
+	}
+	
+	public long getLatest()
+	{
+		return size == 0 ? 0 : get(size - 1);
+	}
+	
+	public long getMax()
+	{
+		long max = 0;
+		for (int i = 0; i < size; i++)
+			max = Math.max(max, values[i]);
+		return max;
+	}
+	
+	public long getSum()
+	{
+		return sum;
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public int capacity()
+	{
+		return values.length;
+	}
+	
+	public void clear()
+	{
+		this.head = 0;
+		this.size = 0;
+		this.sum = 0;
+	}
+}
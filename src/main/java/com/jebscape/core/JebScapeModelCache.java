@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.util.Arrays;
+
+// remembers fully built ghost models by a 64 bit hash of everything they were built from, so that ghosts dressed alike share one,
+// and the component models they're merged from by model ID, so that each part is only loaded from the game cache once
+// bounded both by how many it holds and by an estimate of the memory they take up; the one used longest ago goes first
+// entries sit in fixed arrays linked most recent first, found through an open addressed table kept at most half full
+// generic only so that it may be exercised without a RuneLite client
+public class JebScapeModelCache<T>
+{
+	public static final int DEFAULT_MAX_ENTRIES = 256;
+	public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+	private static final int NONE = -1;
+	
+	private final int maxEntries;
+	private long maxBytes;
+	private final long[] keys;
+	private final Object[] values;
+	private final int[] sizes;
+	private final int[] prev; // towards the most recently used
+	private final int[] next; // towards the least recently used
+	private final int[] table; // entry indices; NONE if empty
+	private final int tableMask;
+	private int head = NONE;
+	private int tail = NONE;
+	private int freeHead; // unused entries, chained through next
+	private int numEntries;
+	private long numBytes;
+	private long numLookups;
+	private long numHits;
+	private long numEvictions;
+	
+	public JebScapeModelCache(int maxEntries, long maxBytes)
+	{
+		this.maxEntries = Math.max(1, maxEntries);
+		this.maxBytes = maxBytes;
+		this.keys = new long[this.maxEntries];
+		this.values = new Object[this.maxEntries];
+		this.sizes = new int[this.maxEntries];
+		this.prev = new int[this.maxEntries];
+		this.next = new int[this.maxEntries];
+		
+		int tableSize = 1;
+		while (tableSize < this.maxEntries * 2)
+			tableSize <<= 1;
+		this.table = new int[tableSize];
+		this.tableMask = tableSize - 1;
+		clear();
+	}
+	
+	// null if not held; a hit becomes the most recently used
+	@SuppressWarnings("unchecked")
+	public T get(long key)
+	{
+		this.numLookups++;
+		int slot = find(key);
+		int entry = table[slot];
+		if (entry == NONE)
+			return null;
+		
+		this.numHits++;
+		moveToFront(entry);
+		return (T)values[entry];
+	}
+	
+	// evicts as many as it takes to fit; anything larger than the whole budget is simply not held
+	public void put(long key, T value, int numValueBytes)
+	{
+		int slot = find(key);
+		if (table[slot] != NONE)
+			remove(slot);
+		if (numValueBytes > maxBytes)
+			return;
+		
+		while (numEntries == maxEntries || numBytes + numValueBytes > maxBytes)
+		{
+			remove(find(keys[tail]));
+			this.numEvictions++;
+		}
+		
+		int entry = freeHead;
+		this.freeHead = next[entry];
+		this.keys[entry] = key;
+		this.values[entry] = value;
+		this.sizes[entry] = numValueBytes;
+		this.numEntries++;
+		this.numBytes += numValueBytes;
+		this.table[find(key)] = entry;
+		
+		this.prev[entry] = NONE;
+		this.next[entry] = head;
+		if (head != NONE)
+			this.prev[head] = entry;
+		this.head = entry;
+		if (tail == NONE)
+			this.tail = entry;
+	}
+	
+	// evicts down to the new budget straight away if it's smaller
+	public void setMaxBytes(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+		while (numBytes > maxBytes)
+		{
+			remove(find(keys[tail]));
+			this.numEvictions++;
+		}
+	}
+	
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+	
+	public void clear()
+	{
+		Arrays.fill(table, NONE);
+		Arrays.fill(values, null);
+		for (int i = 0; i < maxEntries; i++)
+			this.next[i] = i + 1 < maxEntries ? i + 1 : NONE;
+		this.freeHead = 0;
+		this.head = NONE;
+		this.tail = NONE;
+		this.numEntries = 0;
+		this.numBytes = 0;
+	}
+	
+	public int size()
+	{
+		return numEntries;
+	}
+	
+	public long getNumBytes()
+	{
+		return numBytes;
+	}
+	
+	public long getNumLookups()
+	{
+		return numLookups;
+	}
+	
+	public long getNumHits()
+	{
+		return numHits;
+	}
+	
+	public long getNumEvictions()
+	{
+		return numEvictions;
+	}
+	
+	// as a percentage
+	public int getHitRate()
+	{
+		return numLookups == 0 ? 0 : (int)(numHits * 100 / numLookups);
+	}
+	
+	public void resetStats()
+	{
+		this.numLookups = 0;
+		this.numHits = 0;
+		this.numEvictions = 0;
+	}
+	
+	// the slot holding this key, or else the empty slot where it would go
+	private int find(long key)
+	{
+		int slot = mix(key) & tableMask;
+		while (table[slot] != NONE && keys[table[slot]] != key)
+			slot = (slot + 1) & tableMask;
+		return slot;
+	}
+	
+	private void remove(int slot)
+	{
+		int entry = table[slot];
+		unlink(entry);
+		this.values[entry] = null;
+		this.numEntries--;
+		this.numBytes -= sizes[entry];
+		this.next[entry] = freeHead;
+		this.freeHead = entry;
+		
+		// pull back any later slots of the same run that would otherwise no longer be found past the gap
+		this.table[slot] = NONE;
+		int gap = slot;
+		for (int i = (slot + 1) & tableMask; table[i] != NONE; i = (i + 1) & tableMask)
+		{
+			int home = mix(keys[table[i]]) & tableMask;
+			boolean isHomeAfterGap = gap <= i ? (home > gap && home <= i) : (home > gap || home <= i);
+			if (isHomeAfterGap)
+				continue;
+			
+			this.table[gap] = table[i];
+			this.table[i] = NONE;
+			gap = i;
+		}
+	}
+	
+	private void moveToFront(int entry)
+	{
+		if (entry == head)
+			return;
+		
+		unlink(entry);
+		this.prev[entry] = NONE;
+		this.next[entry] = head;
+		this.prev[head] = entry;
+		this.head = entry;
+	}
+	
+	private void unlink(int entry)
+	{
+		if (prev[entry] != NONE)
+			this.next[prev[entry]] = next[entry];
+		else
+			this.head = next[entry];
+		
+		if (next[entry] != NONE)
+			this.prev[next[entry]] = prev[entry];
+		else
+			this.tail = prev[entry];
+	}
+	
+	// the keys are already hashes, but fold the top half in so the table needn't trust their low bits
+	private static int mix(long key)
+	{
+		key ^= key >>> 33;
+		key *= 0xFF51AFD7ED558CCDL;
+		key ^= key >>> 33;
+		return (int)key;
+	}
+}
@@ -24,39 +24,23 @@
  */
 package com.jebscape.core;
 
+import java.io.*;
+import java.nio.file.*;
+import java.util.function.BooleanSupplier;
+import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.*;
+import net.runelite.client.RuneLite;
+import net.runelite.client.callback.ClientThread;
 
+@Slf4j
 public class JebScapeModelLoader
 {
-	private enum BodyPart
-	{
-		MALE_HAIR,
-		MALE_JAW,
-		MALE_TORSO,
-		MALE_ARMS,
-		MALE_HANDS,
-		MALE_LEGS,
-		MALE_FEET,
-		FEMALE_HAIR,
-		FEMALE_JAW,
-		FEMALE_TORSO,
-		FEMALE_ARMS,
-		FEMALE_HANDS,
-		FEMALE_LEGS,
-		FEMALE_FEET
-	}
-
-	private static int[][] hairKitMap = new int[2][128];
-	private static int[][] jawKitMap = new int[2][32];
-	private static int[][] armsKitMap = new int[2][32];
-	private static int NUM_KIT_IDS = PlayerComposition.ITEM_OFFSET - PlayerComposition.KIT_OFFSET;
-	public static int[] kitIDtoBodyPartMap = new int[NUM_KIT_IDS];
-	private static int numMaleHairKits = 0;
-	private static int numMaleJawKits = 0;
-	private static int numMaleArmsKits = 0;
-	private static int numFemaleHairKits = 0;
-	private static int numFemaleJawKits = 0;
-	private static int numFemaleArmsKits = 0;
+	private static final int NUM_KIT_IDS = PlayerComposition.ITEM_OFFSET - PlayerComposition.KIT_OFFSET;
+	private static final String KIT_MAPS_DIRECTORY = "jebscape";
+	private volatile JebScapeKitMaps kitMaps; // null until read from disk or built in the background
+	private volatile int kitMapsGeneration; // so that a slow build from before a restart never replaces a newer one
+	private volatile long kitMapsNanos;
+	private volatile boolean isKitMapsFromDisk;
 	
 	private static final short[] BODY_COLOURS_1_SOURCE = new short[]{
 			6798, 8741, 25238, 4626, 4550
@@ -88,6 +72,7 @@ public class JebScapeModelLoader
 	private static final int DEFAULT_FEMALE_GHOST_CAPE = 3194;
 	
 	private static final int KIT_CONFIG_TYPE = 3;
+	private static final int KIT_LOAD_BATCH_SIZE = 64; // kits loaded per client tick whilst building the kit maps
 	private RuneLiteKitLoader kitLoader = new RuneLiteKitLoader();
 	
 	private static final int ITEM_CONFIG_TYPE = 10;
@@ -96,88 +81,163 @@ public class JebScapeModelLoader
 	private static final int NUM_MODEL_DATA = 38;
 	private ModelData[] modelData = new ModelData[NUM_MODEL_DATA];
 	private int[] modelIDs = new int[NUM_MODEL_DATA];
+	private static final int VERTEX_BYTES = 3 * 4;
+	private static final int FACE_BYTES = 6 * 4 + 4;
+	private JebScapeModelCache<Model> modelCache = new JebScapeModelCache<>(JebScapeModelCache.DEFAULT_MAX_ENTRIES, JebScapeModelCache.DEFAULT_MAX_BYTES);
+	private JebScapeDefinitionCache definitionCache = new JebScapeDefinitionCache();
+	// parts are only ever read once cached; anything recoloured is cloned first
+	private static final int MAX_MODEL_PARTS = 1024;
+	private static final int DEFAULT_MODEL_PART_CACHE_MB = 8;
+	private JebScapeModelCache<ModelData> partCache = new JebScapeModelCache<>(MAX_MODEL_PARTS, DEFAULT_MODEL_PART_CACHE_MB * 1024L * 1024);
 	
-	public void init(Client client)
+	public void init(Client client, ClientThread clientThread)
 	{
 		this.client = client;
 		this.gameDB = client.getIndexConfig();
-
-		this.numMaleHairKits = 0;
-		this.numMaleJawKits = 0;
-		this.numMaleArmsKits = 0;
-		this.numFemaleHairKits = 0;
-		this.numFemaleJawKits = 0;
-		this.numFemaleArmsKits = 0;
+		modelCache.clear();
+		partCache.clear();
+		definitionCache.validate(client.getRevision());
 		
-		for (int i = 0; i < NUM_KIT_IDS; i++)
-			kitIDtoBodyPartMap[i] = 0;
-
-		// maintain a null state for arms but not hair or jaw
-		armsKitMap[0][numMaleArmsKits++] = -1;
-		armsKitMap[1][numFemaleArmsKits++] = -1;
-
-		for (int i = 0; i < NUM_KIT_IDS; i++)
+		// working out the kit maps means decoding every kit, which is too slow to hold the client thread for
+		this.kitMaps = null;
+		int generation = ++kitMapsGeneration;
+		int revision = client.getRevision();
+		IndexDataBase gameDB = this.gameDB;
+		long startNanos = System.nanoTime();
+		startKitMapsThread(() -> readKitMaps(clientThread, gameDB, revision, generation, startNanos));
+	}
+	
+	// ghosts' body parts can't be sent or shown until this is true
+	public boolean isKitMapsReady()
+	{
+		return kitMaps != null;
+	}
+	
+	// how long the kit maps took from init to be read, or loaded a batch per client tick and built, and which it was
+	public long getKitMapsNanos()
+	{
+		return kitMapsNanos;
+	}
+	
+	public boolean isKitMapsFromDisk()
+	{
+		return isKitMapsFromDisk;
+	}
+	
+	// where the kit's style sits amongst those of its body part
+	public int getBodyPartID(int kitID)
+	{
+		return kitMaps.kitIDtoBodyPart[kitID];
+	}
+	
+	public static Path getKitMapsPath(int revision)
+	{
+		return RuneLite.RUNELITE_DIR.toPath().resolve(KIT_MAPS_DIRECTORY).resolve("kitmaps-" + revision + ".bin");
+	}
+	
+	private static void startKitMapsThread(Runnable runnable)
+	{
+		Thread thread = new Thread(runnable, "JebScape Kit Maps");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	// runs on its own thread; only what's passed in is touched until the result is handed over
+	private void readKitMaps(ClientThread clientThread, IndexDataBase gameDB, int revision, int generation, long startNanos)
+	{
+		JebScapeKitMaps loadedKitMaps = JebScapeKitMaps.read(getKitMapsPath(revision), revision, NUM_KIT_IDS);
+		if (loadedKitMaps != null)
 		{
-			byte[] kitData;
-			try
-			{
-				kitData = gameDB.loadData(KIT_CONFIG_TYPE, i);
-			}
-			catch (Exception e)
-			{
-				break;
-			}
-
-			if (kitData != null)
+			setKitMaps(loadedKitMaps, true, generation, startNanos);
+			return;
+		}
+		
+		// the game cache may only be read on the client thread, so the raw kits are loaded a batch per client tick,
+		// then handed back to a thread of their own to be decoded and written out
+		byte[][] kitData = new byte[NUM_KIT_IDS][];
+		clientThread.invoke(new BooleanSupplier()
+		{
+			private int nextKitID;
+			
+			@Override
+			public boolean getAsBoolean()
 			{
-				RuneLiteKitDefinition kitDefinition = kitLoader.load(i, kitData);
-
-				if (kitDefinition.bodyPartId == BodyPart.MALE_HAIR.ordinal())
-					hairKitMap[0][numMaleHairKits++] = i;
-				else if (kitDefinition.bodyPartId == BodyPart.MALE_JAW.ordinal())
-					jawKitMap[0][numMaleJawKits++] = i;
-				else if (kitDefinition.bodyPartId == BodyPart.MALE_ARMS.ordinal())
-					armsKitMap[0][numMaleArmsKits++] = i;
-				else if (kitDefinition.bodyPartId == BodyPart.FEMALE_HAIR.ordinal())
-					hairKitMap[1][numFemaleHairKits++] = i;
-				else if (kitDefinition.bodyPartId == BodyPart.FEMALE_JAW.ordinal())
-					jawKitMap[1][numFemaleJawKits++] = i;
-				else if (kitDefinition.bodyPartId == BodyPart.FEMALE_ARMS.ordinal())
-					armsKitMap[1][numFemaleArmsKits++] = i;
+				if (generation != kitMapsGeneration)
+					return true;
+				
+				int endKitID = Math.min(NUM_KIT_IDS, nextKitID + KIT_LOAD_BATCH_SIZE);
+				for (; nextKitID < endKitID; nextKitID++)
+				{
+					try
+					{
+						kitData[nextKitID] = gameDB.loadData(KIT_CONFIG_TYPE, nextKitID);
+					}
+					catch (Exception e)
+					{
+						// no kits past this one
+						nextKitID = NUM_KIT_IDS;
+						break;
+					}
+				}
+				
+				if (nextKitID < NUM_KIT_IDS)
+					return false;
+				
+				startKitMapsThread(() -> writeKitMaps(kitData, revision, generation, startNanos));
+				return true;
 			}
-		}
-
-		// male
-		for (int i = 0; i < numMaleHairKits; i++)
-			kitIDtoBodyPartMap[hairKitMap[0][i]] = i;
-		for (int i = 0; i < numMaleJawKits; i++)
-			kitIDtoBodyPartMap[jawKitMap[0][i]] = i;
-		for (int i = 1; i < numMaleArmsKits; i++)
-			kitIDtoBodyPartMap[armsKitMap[0][i]] = i;
-
-		// female
-		for (int i = 0; i < numFemaleHairKits; i++)
-			kitIDtoBodyPartMap[hairKitMap[1][i]] = i;
-		for (int i = 0; i < numFemaleJawKits; i++)
-			kitIDtoBodyPartMap[jawKitMap[1][i]] = i;
-		for (int i = 1; i < numFemaleArmsKits; i++)
-			kitIDtoBodyPartMap[armsKitMap[1][i]] = i;
+		});
 	}
-
-	public int packBodyParts(int[] bodyPartIDs, int gender)
+	
+	// runs on its own thread, once every kit has been loaded
+	private void writeKitMaps(byte[][] kitData, int revision, int generation, long startNanos)
 	{
-		int packedData = bodyPartIDs[0];
-
-		if (gender != 1) // if male
+		JebScapeKitMaps builtKitMaps = buildKitMaps(kitData);
+		try
 		{
-			packedData += bodyPartIDs[1] * numMaleHairKits;
-			packedData += bodyPartIDs[2] * numMaleHairKits * numMaleJawKits;
+			builtKitMaps.write(getKitMapsPath(revision), revision);
 		}
-		else
+		catch (IOException e)
 		{
-			packedData += bodyPartIDs[1] * numFemaleHairKits;
-			packedData += bodyPartIDs[2] * numFemaleHairKits * numFemaleJawKits;
+			log.warn("Unable to save JebScape kit maps", e);
 		}
+		
+		setKitMaps(builtKitMaps, false, generation, startNanos);
+	}
+	
+	private void setKitMaps(JebScapeKitMaps loadedKitMaps, boolean isFromDisk, int generation, long startNanos)
+	{
+		if (generation != kitMapsGeneration)
+			return;
+		
+		this.kitMapsNanos = System.nanoTime() - startNanos;
+		this.isKitMapsFromDisk = isFromDisk;
+		this.kitMaps = loadedKitMaps;
+		log.debug("JebScape kit maps {} in {}ms", isFromDisk ? "read" : "built", kitMapsNanos / 1_000_000);
+	}
+	
+	// a null entry is a kit that isn't there
+	static JebScapeKitMaps buildKitMaps(byte[][] kitData)
+	{
+		RuneLiteKitLoader kitLoader = new RuneLiteKitLoader();
+		JebScapeKitMaps builtKitMaps = new JebScapeKitMaps(NUM_KIT_IDS);
+		for (int kitID = 0; kitID < kitData.length; kitID++)
+		{
+			if (kitData[kitID] != null)
+				builtKitMaps.add(kitID, kitLoader.load(kitID, kitData[kitID]).bodyPartId);
+		}
+		
+		builtKitMaps.finish();
+		return builtKitMaps;
+	}
+
+	public int packBodyParts(int[] bodyPartIDs, int gender)
+	{
+		JebScapeKitMaps kitMaps = this.kitMaps;
+		int genderIndex = gender == 1 ? JebScapeKitMaps.FEMALE : JebScapeKitMaps.MALE;
+		int packedData = bodyPartIDs[0];
+		packedData += bodyPartIDs[1] * kitMaps.numHairKits[genderIndex];
+		packedData += bodyPartIDs[2] * kitMaps.numHairKits[genderIndex] * kitMaps.numJawKits[genderIndex];
 
 		return packedData;
 	}
@@ -185,22 +245,13 @@ public class JebScapeModelLoader
 	private static int[] unpackedBodyParts = new int[3];
 	public int[] unpackBodyParts(int packedBodyParts, int gender)
 	{
-		if (gender != 1) // if male
-		{
-			unpackedBodyParts[0] = packedBodyParts % numMaleHairKits;
-			packedBodyParts /= numMaleHairKits;
-			unpackedBodyParts[1] = packedBodyParts % numMaleJawKits;
-			packedBodyParts /= numMaleJawKits;
-			unpackedBodyParts[2] = packedBodyParts % numMaleArmsKits;
-		}
-		else
-		{
-			unpackedBodyParts[0] = packedBodyParts % numFemaleHairKits;
-			packedBodyParts /= numFemaleHairKits;
-			unpackedBodyParts[1] = packedBodyParts % numFemaleJawKits;
-			packedBodyParts /= numFemaleJawKits;
-			unpackedBodyParts[2] = packedBodyParts % numFemaleArmsKits;
-		}
+		JebScapeKitMaps kitMaps = this.kitMaps;
+		int genderIndex = gender == 1 ? JebScapeKitMaps.FEMALE : JebScapeKitMaps.MALE;
+		unpackedBodyParts[0] = packedBodyParts % kitMaps.numHairKits[genderIndex];
+		packedBodyParts /= kitMaps.numHairKits[genderIndex];
+		unpackedBodyParts[1] = packedBodyParts % kitMaps.numJawKits[genderIndex];
+		packedBodyParts /= kitMaps.numJawKits[genderIndex];
+		unpackedBodyParts[2] = packedBodyParts % kitMaps.numArmsKits[genderIndex];
 
 		return unpackedBodyParts;
 	}
@@ -248,6 +299,7 @@ public class JebScapeModelLoader
 		{
 			this.gameDB = client.getIndexConfig();
 		}
+		validateDefinitions();
 		
 		Player player = client.getLocalPlayer();
 		PlayerComposition playerComposition = player.getPlayerComposition();
@@ -264,45 +316,33 @@ public class JebScapeModelLoader
 			if (equipmentIds[i] > PlayerComposition.ITEM_OFFSET)
 			{
 				int itemID = equipmentIds[i] - PlayerComposition.ITEM_OFFSET;
-				byte[] itemData = gameDB.loadData(ITEM_CONFIG_TYPE, itemID);
-
-				if (itemData != null)
+				if (loadItemDefinition(itemID))
 				{
-					RuneLiteItemDefinition itemDefinition = itemLoader.load(itemID, itemData);
 					int startingCount = numModelIDs;
-					if (gender == 1)
+					for (int modelIndex = 0; modelIndex < JebScapeDefinitionCache.MODELS_PER_GENDER; modelIndex++)
 					{
-						if (itemDefinition.femaleModel0 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.femaleModel0;
-						if (itemDefinition.femaleModel1 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.femaleModel1;
-						if (itemDefinition.femaleModel2 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.femaleModel2;
-					}
-					else
-					{
-						if (itemDefinition.maleModel0 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.maleModel0;
-						if (itemDefinition.maleModel1 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.maleModel1;
-						if (itemDefinition.maleModel2 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.maleModel2;
+						int modelID = definitionCache.getItemModel(itemID, gender, modelIndex);
+						if (modelID >= 0)
+							modelIDs[numModelIDs++] = modelID;
 					}
 				
+					short[] colorFind = definitionCache.getItemColorFind(itemID);
+					short[] colorReplace = definitionCache.getItemColorReplace(itemID);
 					for (int modelIndex = startingCount; modelIndex < numModelIDs; modelIndex++)
 					{
-						modelData[modelIndex] = client.loadModelData(modelIDs[modelIndex]);
-						if (itemDefinition.colorFind != null)
+						modelData[modelIndex] = loadModelPart(modelIDs[modelIndex]);
+						if (colorFind != null && modelData[modelIndex] != null)
 						{
-							int numToRecolor = itemDefinition.colorFind.length;
+							modelData[modelIndex] = modelData[modelIndex].cloneColors();
+							int numToRecolor = colorFind.length;
 							for (int recolorIndex = 0; recolorIndex < numToRecolor; recolorIndex++)
 							{
-								short replaceColor = itemDefinition.colorReplace[recolorIndex];
+								short replaceColor = colorReplace[recolorIndex];
 								if (overrides != null && overrides.length >= i && overrides[i].getColorToReplaceWith() != null && overrides[i].getColorToReplaceWith().length >= 0)
 								{
 									replaceColor = overrides[i].getColorToReplaceWith()[recolorIndex];
 								}
-								modelData[modelIndex].recolor(itemDefinition.colorFind[recolorIndex], replaceColor);
+								modelData[modelIndex].recolor(colorFind[recolorIndex], replaceColor);
 							}
 						}
 					}
@@ -311,29 +351,33 @@ public class JebScapeModelLoader
 			else if (equipmentIds[i] >= PlayerComposition.KIT_OFFSET)
 			{
 				int kitID = equipmentIds[i] - PlayerComposition.KIT_OFFSET;
-				byte[] kitData = gameDB.loadData(KIT_CONFIG_TYPE, kitID);
-
-				if (kitData != null)
+				if (loadKitDefinition(kitID))
 				{
-					RuneLiteKitDefinition kitDefinition = kitLoader.load(kitID, kitData);
-					for (int j = 0; j < kitDefinition.models.length; j++)
+					int[] kitModels = definitionCache.getKitModels(kitID);
+					short[] recolorToFind = definitionCache.getKitColorFind(kitID);
+					short[] recolorToReplace = definitionCache.getKitColorReplace(kitID);
+					int bodyPartId = definitionCache.getKitBodyPart(kitID);
+					for (int j = 0; j < kitModels.length; j++)
 					{
-						modelIDs[numModelIDs] = kitDefinition.models[j];
-						modelData[numModelIDs] = client.loadModelData(modelIDs[numModelIDs]);
+						modelIDs[numModelIDs] = kitModels[j];
+						// kits are always recoloured to the player's chosen colours
+						modelData[numModelIDs] = loadModelPart(modelIDs[numModelIDs]);
+						if (modelData[numModelIDs] != null)
+							modelData[numModelIDs] = modelData[numModelIDs].cloneColors();
 
-						if (kitDefinition.recolorToFind != null)
+						if (recolorToFind != null)
 						{
-							int numToRecolor = kitDefinition.recolorToFind.length;
+							int numToRecolor = recolorToFind.length;
 							for (int recolorIndex = 0; recolorIndex < numToRecolor; recolorIndex++)
 							{
-								modelData[numModelIDs].recolor(kitDefinition.recolorToFind[recolorIndex], kitDefinition.recolorToReplace[recolorIndex]);
+								modelData[numModelIDs].recolor(recolorToFind[recolorIndex], recolorToReplace[recolorIndex]);
 							}
 						}
 
 						final int[] bodyPartMap = { 0, 0, 1, 1, 4, 2, 3 };
-						if (kitDefinition.bodyPartId >= 0)
+						if (bodyPartId >= 0)
 						{
-							recolourKitModel(modelData[numModelIDs], bodyPartMap[kitDefinition.bodyPartId], colorIDs);
+							recolourKitModel(modelData[numModelIDs], bodyPartMap[bodyPartId], colorIDs);
 						}
 
 						numModelIDs++;
@@ -383,7 +427,146 @@ public class JebScapeModelLoader
 	
 	private int[] kitIDs = new int[3];
 	
+	// ghosts dressed alike share the same model, including our own
 	public Model loadPlayerGhostRenderable(int[] equipmentIDs, int[] bodyPartIDs, int gender, int capeID)
+	{
+		validateDefinitions();
+		long key = hashAppearance(equipmentIDs, bodyPartIDs, gender, capeID);
+		Model model = modelCache.get(key);
+		if (model == null)
+		{
+			model = buildPlayerGhostRenderable(equipmentIDs, bodyPartIDs, gender, capeID);
+			modelCache.put(key, model, estimateModelBytes(model));
+		}
+		return model;
+	}
+	
+	// for debugging how often ghosts are dressed alike
+	public JebScapeModelCache<Model> getModelCache()
+	{
+		return modelCache;
+	}
+	
+	public JebScapeDefinitionCache getDefinitionCache()
+	{
+		return definitionCache;
+	}
+	
+	// for tuning how much memory is kept for model parts
+	public JebScapeModelCache<ModelData> getPartCache()
+	{
+		return partCache;
+	}
+	
+	public void setPartCacheSize(int megabytes)
+	{
+		partCache.setMaxBytes(Math.max(1, megabytes) * 1024L * 1024);
+	}
+	
+	// a game update can change what any item looks like, so anything built from the old definitions has to go too
+	private void validateDefinitions()
+	{
+		if (!definitionCache.validate(client.getRevision()))
+		{
+			modelCache.clear();
+			partCache.clear();
+		}
+	}
+	
+	// the same parts turn up in most ghosts, not least the filler and the capes, so only load each from the game cache once
+	// must not be modified, as the next ghost built from it would be too
+	private ModelData loadModelPart(int modelID)
+	{
+		ModelData part = partCache.get(modelID);
+		if (part == null)
+		{
+			part = client.loadModelData(modelID);
+			if (part != null)
+				partCache.put(modelID, part, estimateModelBytes(part.getVerticesCount(), part.getFaceCount()));
+		}
+		return part;
+	}
+	
+	// decodes the item the first time it's asked for; false if it doesn't exist or couldn't be loaded
+	private boolean loadItemDefinition(int itemID)
+	{
+		if (!definitionCache.hasItem(itemID))
+		{
+			long startNanos = System.nanoTime();
+			byte[] itemData;
+			try
+			{
+				itemData = gameDB.loadData(ITEM_CONFIG_TYPE, itemID);
+			}
+			catch (Exception e)
+			{
+				return false; // try again next time rather than remembering it as missing
+			}
+			
+			RuneLiteItemDefinition itemDefinition = itemData != null ? itemLoader.load(itemID, itemData, RuneLiteItemLoader.GHOST_FIELDS) : null;
+			definitionCache.putItem(itemID, itemDefinition, System.nanoTime() - startNanos);
+		}
+		
+		return !definitionCache.isItemMissing(itemID);
+	}
+	
+	private boolean loadKitDefinition(int kitID)
+	{
+		if (!definitionCache.hasKit(kitID))
+		{
+			long startNanos = System.nanoTime();
+			byte[] kitData;
+			try
+			{
+				kitData = gameDB.loadData(KIT_CONFIG_TYPE, kitID);
+			}
+			catch (Exception e)
+			{
+				return false;
+			}
+			
+			RuneLiteKitDefinition kitDefinition = kitData != null ? kitLoader.load(kitID, kitData) : null;
+			definitionCache.putKit(kitID, kitDefinition, System.nanoTime() - startNanos);
+		}
+		
+		return !definitionCache.isKitMissing(kitID);
+	}
+	
+	static long hashAppearance(int[] equipmentIDs, int[] bodyPartIDs, int gender, int capeID)
+	{
+		long hash = mix(gender);
+		hash = mix(hash ^ capeID);
+		for (int i = 0; i < equipmentIDs.length; i++)
+			hash = mix(hash ^ equipmentIDs[i]);
+		for (int i = 0; i < bodyPartIDs.length; i++)
+			hash = mix(hash ^ bodyPartIDs[i]);
+		return hash;
+	}
+	
+	// murmur3's 64 bit finaliser, after folding in a constant so that a run of zeroes doesn't stay zero
+	private static long mix(long hash)
+	{
+		hash += 0x9E3779B97F4A7C15L;
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		return hash ^ (hash >>> 33);
+	}
+	
+	// a lit model holds 3 coordinates per vertex, and 3 vertex indices and 3 lit colours per face, besides the odd byte here and there
+	// an unlit part holds a little less per face, but near enough to weigh it the same way
+	private static int estimateModelBytes(Model model)
+	{
+		return estimateModelBytes(model.getVerticesCount(), model.getFaceCount());
+	}
+	
+	private static int estimateModelBytes(int numVertices, int numFaces)
+	{
+		return numVertices * VERTEX_BYTES + numFaces * FACE_BYTES;
+	}
+	
+	private Model buildPlayerGhostRenderable(int[] equipmentIDs, int[] bodyPartIDs, int gender, int capeID)
 	{
 		if (gameDB == null)
 		{
@@ -397,86 +580,44 @@ public class JebScapeModelLoader
 			if (equipmentIDs[i] > PlayerComposition.ITEM_OFFSET)
 			{
 				int itemID = equipmentIDs[i] - PlayerComposition.ITEM_OFFSET;
-				byte[] itemData;
-				try
+				if (loadItemDefinition(itemID))
 				{
-					itemData = gameDB.loadData(ITEM_CONFIG_TYPE, itemID);
-				}
-				catch (Exception e)
-				{
-					continue;
-				}
-
-				if (itemData != null)
-				{
-					RuneLiteItemDefinition itemDefinition = itemLoader.load(itemID, itemData);
-					if (gender == 1)
+					for (int modelIndex = 0; modelIndex < JebScapeDefinitionCache.MODELS_PER_GENDER; modelIndex++)
 					{
-						if (itemDefinition.femaleModel0 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.femaleModel0;
-						if (itemDefinition.femaleModel1 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.femaleModel1;
-						if (itemDefinition.femaleModel2 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.femaleModel2;
-					}
-					else
-					{
-						if (itemDefinition.maleModel0 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.maleModel0;
-						if (itemDefinition.maleModel1 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.maleModel1;
-						if (itemDefinition.maleModel2 >= 0)
-							modelIDs[numModelIDs++] = itemDefinition.maleModel2;
+						int modelID = definitionCache.getItemModel(itemID, gender, modelIndex);
+						if (modelID >= 0)
+							modelIDs[numModelIDs++] = modelID;
 					}
 				}
 			}
 			else if (equipmentIDs[i] >= PlayerComposition.KIT_OFFSET)
 			{
 				int kitID = equipmentIDs[i] - PlayerComposition.KIT_OFFSET;
-				byte[] kitData;
-				try
-				{
-					kitData = gameDB.loadData(KIT_CONFIG_TYPE, kitID);
-				}
-				catch (Exception e)
-				{
-					continue;
-				}
-
-				if (kitData != null)
+				if (loadKitDefinition(kitID))
 				{
-					RuneLiteKitDefinition kitDefinition = kitLoader.load(kitID, kitData);
-					for (int j = 0; j < kitDefinition.models.length; j++)
+					int[] kitModels = definitionCache.getKitModels(kitID);
+					for (int j = 0; j < kitModels.length; j++)
 					{
-						modelIDs[numModelIDs++] = kitDefinition.models[j];
+						modelIDs[numModelIDs++] = kitModels[j];
 					}
 				}
 			}
 		}
 
-		int genderIndex = gender == 1 ? 1 : 0;
-		kitIDs[0] = hairKitMap[genderIndex][bodyPartIDs[0]];
-		kitIDs[1] = jawKitMap[genderIndex][bodyPartIDs[1]];
-		kitIDs[2] = armsKitMap[genderIndex][bodyPartIDs[2]];
+		JebScapeKitMaps kitMaps = this.kitMaps;
+		int genderIndex = gender == 1 ? JebScapeKitMaps.FEMALE : JebScapeKitMaps.MALE;
+		kitIDs[0] = kitMaps.hairKits[genderIndex][bodyPartIDs[0]];
+		kitIDs[1] = kitMaps.jawKits[genderIndex][bodyPartIDs[1]];
+		kitIDs[2] = kitMaps.armsKits[genderIndex][bodyPartIDs[2]];
 
 		for (int i = 0; i < kitIDs.length; i++)
 		{
-			byte[] kitData;
-			try
-			{
-				kitData = gameDB.loadData(KIT_CONFIG_TYPE, kitIDs[i]);
-			}
-			catch (Exception e)
-			{
-				continue;
-			}
-
-			if (kitData != null)
+			if (loadKitDefinition(kitIDs[i]))
 			{
-				RuneLiteKitDefinition kitDefinition = kitLoader.load(kitIDs[i], kitData);
-				for (int j = 0; j < kitDefinition.models.length; j++)
+				int[] kitModels = definitionCache.getKitModels(kitIDs[i]);
+				for (int j = 0; j < kitModels.length; j++)
 				{
-					modelIDs[numModelIDs++] = kitDefinition.models[j];
+					modelIDs[numModelIDs++] = kitModels[j];
 				}
 			}
 		}
@@ -490,7 +631,7 @@ public class JebScapeModelLoader
 		
 		for (int i = 0; i < numModelIDs; i++)
 		{
-			modelData[i] = client.loadModelData(modelIDs[i]);
+			modelData[i] = loadModelPart(modelIDs[i]);
 		}
 		int numCapeFaces = modelData[numModelIDs - 1].getFaceColors().length;
 		
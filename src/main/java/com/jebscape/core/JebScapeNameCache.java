@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.nio.charset.StandardCharsets;
+import com.jebscape.core.JebScapeProtocol.PackedBytes;
+
+// remembers the names the server has sent us, keyed by the world and the 3 packed words they arrive as
+// each entry keeps the decoded name along with the overhead label shown for it, so a hit costs neither decoding nor concatenation
+// entries sit in sets of 4 by hash; once a set is full, the one used longest ago is replaced, so it never grows past its capacity
+public class JebScapeNameCache
+{
+	public static final int DEFAULT_CAPACITY = 1024;
+	private static final int WAYS = 4;
+	
+	private final int numSets;
+	private final int[] keys; // 4 words per entry: world, then the packed name
+	private final boolean[] isUsed;
+	private final long[] lastUsed;
+	private final String[] names;
+	private final String[] overheadTexts;
+	private final byte[] nameBytes = new byte[12];
+	private long useCounter;
+	private long numLookups;
+	private long numHits;
+	private long numEvictions;
+	
+	// capacity is rounded up to a power of 2, and to at least one full set
+	public JebScapeNameCache(int capacity)
+	{
+		int numSets = 1;
+		while (numSets * WAYS < capacity)
+			numSets <<= 1;
+		this.numSets = numSets;
+		this.keys = new int[numSets * WAYS * 4];
+		this.isUsed = new boolean[numSets * WAYS];
+		this.lastUsed = new long[numSets * WAYS];
+		this.names = new String[numSets * WAYS];
+		this.overheadTexts = new String[numSets * WAYS];
+	}
+	
+	// returns the entry holding this name, decoding it first if it isn't already held
+	// an entry is only good until the next lookup, which may evict it; keep the strings rather than the index
+	public int lookup(int world, int packedName0, int packedName1, int packedName2)
+	{
+		this.numLookups++;
+		this.useCounter++;
+		
+		int firstEntry = (hash(world, packedName0, packedName1, packedName2) & (numSets - 1)) * WAYS;
+		
+		int victim = firstEntry;
+		for (int entry = firstEntry; entry < firstEntry + WAYS; entry++)
+		{
+			if (!isUsed[entry])
+			{
+				victim = entry;
+				continue;
+			}
+			
+			int keyIdx = entry * 4;
+			if (keys[keyIdx] == world && keys[keyIdx + 1] == packedName0 && keys[keyIdx + 2] == packedName1 && keys[keyIdx + 3] == packedName2)
+			{
+				this.numHits++;
+				this.lastUsed[entry] = useCounter;
+				return entry;
+			}
+			
+			if (isUsed[victim] && lastUsed[entry] < lastUsed[victim])
+				victim = entry;
+		}
+		
+		if (isUsed[victim])
+			this.numEvictions++;
+		
+		int keyIdx = victim * 4;
+		keys[keyIdx] = world;
+		keys[keyIdx + 1] = packedName0;
+		keys[keyIdx + 2] = packedName1;
+		keys[keyIdx + 3] = packedName2;
+		
+		String name = decodeName(packedName0, packedName1, packedName2);
+		
+		this.names[victim] = name;
+		this.overheadTexts[victim] = world != 0 ? "[W" + world + "] " + name : name;
+		this.isUsed[victim] = true;
+		this.lastUsed[victim] = useCounter;
+		return victim;
+	}
+	
+	// for names shown without a world, such as on the live hiscores; these take no entry, so never evict a ghost's name
+	// whoever calls this should keep the name for as long as the packed words stay the same, as MegaserverMod does per rank
+	public String decodeName(int packedName0, int packedName1, int packedName2)
+	{
+		PackedBytes.toBytes(packedName0, nameBytes, 0);
+		PackedBytes.toBytes(packedName1, nameBytes, 4);
+		PackedBytes.toBytes(packedName2, nameBytes, 8);
+		return new String(nameBytes, StandardCharsets.UTF_8).trim();
+	}
+	
+	// names tend to differ in only a byte or two, so every word is mixed in fully before picking a set
+	static int hash(int world, int packedName0, int packedName1, int packedName2)
+	{
+		int hash = mix(world);
+		hash = mix(hash ^ packedName0);
+		hash = mix(hash ^ packedName1);
+		return mix(hash ^ packedName2);
+	}
+	
+	// murmur3's finaliser
+	private static int mix(int hash)
+	{
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		hash *= 0xC2B2AE35;
+		return hash ^ (hash >>> 16);
+	}
+	
+	public String getName(int entry)
+	{
+		return names[entry];
+	}
+	
+	public String getOverheadText(int entry)
+	{
+		return overheadTexts[entry];
+	}
+	
+	public int getCapacity()
+	{
+		return isUsed.length;
+	}
+	
+	public long getNumLookups()
+	{
+		return numLookups;
+	}
+	
+	public long getNumHits()
+	{
+		return numHits;
+	}
+	
+	public long getNumEvictions()
+	{
+		return numEvictions;
+	}
+	
+	// as a percentage of all lookups so far
+	public int getHitRate()
+	{
+		return numLookups == 0 ? 0 : (int)(numHits * 100 / numLookups);
+	}
+	
+	// entries are kept, as names don't go stale; only the counts start over
+	public void resetStats()
+	{
+		this.numLookups = 0;
+		this.numHits = 0;
+		this.numEvictions = 0;
+	}
+}
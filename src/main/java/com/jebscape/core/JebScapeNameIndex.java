@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.util.Arrays;
+
+// finds which ghost slot holds a given (world, packed name), so that chat can be routed without decoding or comparing strings
+// open addressing with linear probing, kept at most half full; removals shift later entries back rather than leaving tombstones
+public class JebScapeNameIndex
+{
+	private static final int EMPTY = -1;
+	
+	private int mask;
+	private int[] keys = new int[0]; // 4 words per entry: world, then the packed name
+	private int[] ghostIDs = new int[0];
+	private int size;
+	
+	public JebScapeNameIndex(int numGhosts)
+	{
+		ensureCapacity(numGhosts);
+	}
+	
+	// only ever grows
+	public void ensureCapacity(int numGhosts)
+	{
+		int numEntries = 1;
+		while (numEntries < numGhosts * 2)
+			numEntries <<= 1;
+		if (numEntries <= ghostIDs.length)
+			return;
+		
+		int[] oldKeys = keys;
+		int[] oldGhostIDs = ghostIDs;
+		this.keys = new int[numEntries * 4];
+		this.ghostIDs = new int[numEntries];
+		Arrays.fill(ghostIDs, EMPTY);
+		this.mask = numEntries - 1;
+		this.size = 0;
+		
+		for (int i = 0; i < oldGhostIDs.length; i++)
+			if (oldGhostIDs[i] != EMPTY)
+				put(oldGhostIDs[i], oldKeys[i * 4], oldKeys[i * 4 + 1], oldKeys[i * 4 + 2], oldKeys[i * 4 + 3]);
+	}
+	
+	// a name is only ever held by one ghost at a time; whoever was last given it wins
+	public void put(int ghostID, int world, int packedName0, int packedName1, int packedName2)
+	{
+		int i = find(world, packedName0, packedName1, packedName2);
+		if (ghostIDs[i] == EMPTY)
+		{
+			int keyIdx = i * 4;
+			keys[keyIdx] = world;
+			keys[keyIdx + 1] = packedName0;
+			keys[keyIdx + 2] = packedName1;
+			keys[keyIdx + 3] = packedName2;
+			this.size++;
+		}
+		ghostIDs[i] = ghostID;
+	}
+	
+	// returns the ghost slot holding this name, or -1 if none does
+	public int get(int world, int packedName0, int packedName1, int packedName2)
+	{
+		return ghostIDs[find(world, packedName0, packedName1, packedName2)];
+	}
+	
+	// only removes the name if it is still this ghost's, as it may have since been handed to another
+	public void remove(int ghostID, int world, int packedName0, int packedName1, int packedName2)
+	{
+		int i = find(world, packedName0, packedName1, packedName2);
+		if (ghostIDs[i] != ghostID)
+			return;
+		
+		ghostIDs[i] = EMPTY;
+		this.size--;
+		
+		// pull back any later entries of the same run that would otherwise no longer be found past the gap
+		int gap = i;
+		for (int j = (i + 1) & mask; ghostIDs[j] != EMPTY; j = (j + 1) & mask)
+		{
+			int keyIdx = j * 4;
+			int home = JebScapeNameCache.hash(keys[keyIdx], keys[keyIdx + 1], keys[keyIdx + 2], keys[keyIdx + 3]) & mask;
+			
+			// move it only if its home doesn't lie cyclically within (gap, j]
+			boolean isHomeAfterGap = gap <= j ? (home > gap && home <= j) : (home > gap || home <= j);
+			if (isHomeAfterGap)
+				continue;
+			
+			System.arraycopy(keys, keyIdx, keys, gap * 4, 4);
+			ghostIDs[gap] = ghostIDs[j];
+			ghostIDs[j] = EMPTY;
+			gap = j;
+		}
+	}
+	
+	public void clear()
+	{
+		Arrays.fill(ghostIDs, EMPTY);
+		this.size = 0;
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	// the entry holding this key, or else the empty entry where it would go
+	private int find(int world, int packedName0, int packedName1, int packedName2)
+	{
+		int i = JebScapeNameCache.hash(world, packedName0, packedName1, packedName2) & mask;
+		while (ghostIDs[i] != EMPTY)
+		{
+			int keyIdx = i * 4;
+			if (keys[keyIdx] == world && keys[keyIdx + 1] == packedName0 && keys[keyIdx + 2] == packedName1 && keys[keyIdx + 3] == packedName2)
+				return i;
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+}
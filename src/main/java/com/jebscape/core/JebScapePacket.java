@@ -29,6 +29,7 @@ import java.nio.*;
 public class JebScapePacket
 {
 	public ByteBuffer buffer;
+	public long receivedNanos; // System.nanoTime() at which the datagram was read off the socket
 	private byte emptyBuffer[];
 	
 	public void init(int size)
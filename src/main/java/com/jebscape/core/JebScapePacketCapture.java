@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+// appends every datagram sent and received to a memory-mapped log for later replay
+// file layout (little endian):
+// 4 bytes magic
+// 4 bytes format version
+// 8 bytes end offset; updated after every record so that a log cut short by a crash is still readable up to there
+// then one record per datagram:
+// 1 byte direction
+// 1 byte tick
+// 2 bytes payload length
+// 8 bytes System.nanoTime() when sent or received
+// payload
+public class JebScapePacketCapture implements Closeable
+{
+	public static final int MAGIC = 0x5043534A; // "JSCP"
+	public static final int FORMAT_VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_HEADER_SIZE = 12;
+	public static final int END_OFFSET_POSITION = 8;
+	public static final int DIRECTION_IN = 0;
+	public static final int DIRECTION_OUT = 1;
+	public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024; // several hours of a busy session
+	
+	private final FileChannel fileChannel;
+	private final MappedByteBuffer log;
+	private long numRecords;
+	private long numRecordsDropped; // once the log fills up, further records are thrown away
+	
+	public JebScapePacketCapture(Path path, long capacity) throws IOException
+	{
+		this.fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.log = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(capacity, Integer.MAX_VALUE));
+		log.order(ByteOrder.LITTLE_ENDIAN);
+		
+		log.putInt(MAGIC);
+		log.putInt(FORMAT_VERSION);
+		log.putLong(HEADER_SIZE);
+	}
+	
+	// records bytes 0 to length of the buffer, leaving its position and limit untouched
+	public void record(int direction, int tick, ByteBuffer payload, int length, long nanos)
+	{
+		if (log.remaining() < RECORD_HEADER_SIZE + length)
+		{
+			this.numRecordsDropped++;
+			return;
+		}
+		
+		log.put((byte)direction);
+		log.put((byte)tick);
+		log.putShort((short)length);
+		log.putLong(nanos);
+		
+		int position = payload.position();
+		int limit = payload.limit();
+		payload.limit(length);
+		payload.position(0);
+		log.put(payload);
+		payload.limit(limit);
+		payload.position(position);
+		
+		log.putLong(END_OFFSET_POSITION, log.position());
+		this.numRecords++;
+	}
+	
+	public long getNumRecords()
+	{
+		return numRecords;
+	}
+	
+	public long getNumRecordsDropped()
+	{
+		return numRecordsDropped;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		log.force();
+		
+		try
+		{
+			// trim the unused space; some platforms won't allow this whilst mapped, in which case the end offset still applies
+			fileChannel.truncate(log.position());
+		}
+		catch (IOException e)
+		{
+		}
+		
+		fileChannel.close();
+	}
+}
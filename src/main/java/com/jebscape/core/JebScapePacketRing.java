@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.util.concurrent.atomic.*;
+
+// single-producer/single-consumer ring of preallocated packets
+// the producer (network thread) claims a slot, fills it and publishes it
+// the consumer (client thread) peeks at the oldest published slot and releases it once done
+public class JebScapePacketRing
+{
+	private final JebScapePacket[] slots;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong(0); // next slot to be published by the producer
+	private final AtomicLong tail = new AtomicLong(0); // next slot to be consumed by the consumer
+	private long cachedHead = 0; // consumer's last view of head
+	private long cachedTail = 0; // producer's last view of tail
+	
+	// capacity must be a power of 2
+	public JebScapePacketRing(int capacity, int packetSize)
+	{
+		slots = new JebScapePacket[capacity];
+		mask = capacity - 1;
+		
+		for (int i = 0; i < capacity; i++)
+		{
+			slots[i] = new JebScapePacket();
+			slots[i].init(packetSize);
+		}
+	}
+	
+	// producer only; returns null if the ring is full
+	public JebScapePacket claim()
+	{
+		long currentHead = head.get();
+		if (currentHead - cachedTail >= slots.length)
+		{
+			cachedTail = tail.get();
+			if (currentHead - cachedTail >= slots.length)
+				return null;
+		}
+		
+		return slots[(int)currentHead & mask];
+	}
+	
+	// producer only; makes the most recently claimed slot visible to the consumer
+	public void publish()
+	{
+		head.lazySet(head.get() + 1);
+	}
+	
+	// consumer only; returns null if nothing has been published
+	public JebScapePacket peek()
+	{
+		long currentTail = tail.get();
+		if (currentTail >= cachedHead)
+		{
+			cachedHead = head.get();
+			if (currentTail >= cachedHead)
+				return null;
+		}
+		
+		return slots[(int)currentTail & mask];
+	}
+	
+	// consumer only; exchanges the packet in the most recently peeked slot for another of the same size
+	// this lets the consumer keep the received packet without copying it
+	public void replace(JebScapePacket packet)
+	{
+		slots[(int)tail.get() & mask] = packet;
+	}
+	
+	// consumer only; hands the most recently peeked slot back to the producer
+	public void release()
+	{
+		tail.lazySet(tail.get() + 1);
+	}
+	
+	public int size()
+	{
+		return (int)(head.get() - tail.get());
+	}
+}
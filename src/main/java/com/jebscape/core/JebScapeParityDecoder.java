@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.nio.*;
+import com.jebscape.core.JebScapeProtocol.ServerHeader;
+
+// rebuilds a single lost chat packet per server tick from the xor parity packet the server sends alongside them when asked
+// works on the datagrams as they arrive on the wire, so it covers compact v5 frames just the same as v4 packets
+//
+// parity packet layout (little-endian):
+// 4 bytes header; same bits as the tick's other packets, with the packet id set to the number of packets sent
+// then the xor of every other packet of the tick from byte 4 onwards, those shorter than the longest padded with 0s
+//
+// as the packet id only has 4 bits, a tick of 16 packets has no room left for its parity packet and goes without
+public class JebScapeParityDecoder
+{
+	private static final int NUM_TICKS = JebScapeConnection.TICKS_UNTIL_LOGOUT;
+	private static final int MAX_PACKET_SIZE = JebScapeServerData.PACKET_SIZE;
+	
+	private final ByteBuffer[] xorBodies = new ByteBuffer[NUM_TICKS]; // running xor of everything received per tick
+	private final int[] packetsAdded = new int[NUM_TICKS]; // 1 bit per packet id; the bit after the last is the parity packet
+	private final int[] headers = new int[NUM_TICKS]; // of any packet added, to rebuild the lost one's from
+	private int activeTicks; // 1 bit per tick currently being collected
+	private long numPacketsRecovered;
+	
+	public JebScapeParityDecoder()
+	{
+		for (int tick = 0; tick < NUM_TICKS; tick++)
+			xorBodies[tick] = ByteBuffer.allocate(MAX_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	public void reset()
+	{
+		for (int tick = 0; tick < NUM_TICKS; tick++)
+			clearTick(tick);
+		this.activeTicks = 0;
+	}
+	
+	public static boolean isParityPacket(int packetHeader)
+	{
+		int numPacketsSent = JebScapeBitCodec.get(ServerHeader.NUM_PACKETS_SENT, packetHeader) + 1;
+		int packetID = JebScapeBitCodec.get(ServerHeader.PACKET_ID, packetHeader);
+		return packetID == numPacketsSent;
+	}
+	
+	// folds a packet of our session into its tick's running xor; duplicates are ignored
+	// returns true if exactly one packet of the tick is now missing and the parity packet is in, so it can be recovered
+	public boolean add(ByteBuffer src, int length, int packetHeader)
+	{
+		if (length <= 4 || length > MAX_PACKET_SIZE)
+			return false;
+		
+		int tick = JebScapeBitCodec.get(ServerHeader.TICK, packetHeader);
+		int numPacketsSent = JebScapeBitCodec.get(ServerHeader.NUM_PACKETS_SENT, packetHeader) + 1;
+		int packetID = JebScapeBitCodec.get(ServerHeader.PACKET_ID, packetHeader);
+		
+		// whatever is left over from half a cycle ago is too old to still be waiting on
+		if (((activeTicks >>> tick) & 0x1) == 0)
+		{
+			int staleTick = (tick + NUM_TICKS / 2) % NUM_TICKS;
+			clearTick(tick);
+			clearTick(staleTick);
+			this.activeTicks = (activeTicks | (0x1 << tick)) & ~(0x1 << staleTick);
+		}
+		
+		if (((packetsAdded[tick] >>> packetID) & 0x1) == 0x1)
+			return false;
+		
+		ByteBuffer xorBody = xorBodies[tick];
+		int i = 4;
+		for (; i + 8 <= length; i += 8)
+			xorBody.putLong(i, xorBody.getLong(i) ^ src.getLong(i));
+		for (; i < length; i++)
+			xorBody.put(i, (byte)(xorBody.get(i) ^ src.get(i)));
+		
+		this.packetsAdded[tick] |= 0x1 << packetID;
+		this.headers[tick] = packetHeader;
+		
+		int dataMask = (0x1 << numPacketsSent) - 1;
+		boolean hasParity = ((packetsAdded[tick] >>> numPacketsSent) & 0x1) == 0x1;
+		return hasParity && Integer.bitCount(packetsAdded[tick] & dataMask) == numPacketsSent - 1;
+	}
+	
+	// writes the missing packet of the given tick into dst and returns its length, or 0 if it can't be
+	// v5 frames carry their own length, whereas v4 packets are always full size
+	public int recover(int tick, ByteBuffer dst, boolean isCompact)
+	{
+		int packetHeader = headers[tick];
+		int numPacketsSent = JebScapeBitCodec.get(ServerHeader.NUM_PACKETS_SENT, packetHeader) + 1;
+		int missingMask = ~packetsAdded[tick] & ((0x1 << numPacketsSent) - 1);
+		if (Integer.bitCount(missingMask) != 1)
+			return 0;
+		
+		ByteBuffer xorBody = xorBodies[tick];
+		int packetID = Integer.numberOfTrailingZeros(missingMask);
+		int length = isCompact ? xorBody.getShort(4) & 0xFFFF : MAX_PACKET_SIZE;
+		if (length <= 4 || length > MAX_PACKET_SIZE)
+			return 0;
+		
+		dst.putInt(0, JebScapeBitCodec.set(ServerHeader.PACKET_ID, packetHeader, packetID));
+		for (int i = 4; i < length; i++)
+			dst.put(i, xorBody.get(i));
+		
+		// should the original still turn up, it will be decoded again but won't be added here twice
+		this.packetsAdded[tick] |= missingMask;
+		this.numPacketsRecovered++;
+		return length;
+	}
+	
+	public long getNumPacketsRecovered()
+	{
+		return numPacketsRecovered;
+	}
+	
+	private void clearTick(int tick)
+	{
+		ByteBuffer xorBody = xorBodies[tick];
+		for (int i = 0; i < MAX_PACKET_SIZE; i += 8)
+			xorBody.putLong(i, 0L);
+		this.packetsAdded[tick] = 0;
+	}
+}
@@ -26,6 +26,7 @@ package com.jebscape.core;
 
 import com.google.inject.Provides;
 
+import java.nio.file.*;
 import javax.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.*;
@@ -58,6 +59,8 @@ public class JebScapePlugin extends Plugin
 	@Inject
 	private JebScapeProfilePinOverlay profilePinOverlay;
 	@Inject
+	private JebScapeTelemetryOverlay telemetryOverlay;
+	@Inject
 	private ClientThread clientThread;
 	@Inject
 	private JebScapeConfig config;
@@ -73,8 +76,18 @@ public class JebScapePlugin extends Plugin
 	private long accountKeySalt = 0;
 	private boolean replaceAccountKeySalt = false;
 	private int loginTimeout = 0;
+	private int loginRetries = 0; // unanswered logins in a row, used to back off
+	private static final int MIN_LOGIN_RETRY_TICKS = 4;
+	private static final int MAX_LOGIN_RETRY_TICKS = 100;
+	private static final int LOGIN_RETRIES_BEFORE_RECONNECT = 4;
 	private int loginAttempts = 0;
 	
+	// offline profiling; start with -Djebscape.capture=<file> to record, or -Djebscape.replay=<file> to play a recording back
+	private static final String CAPTURE_PROPERTY = "jebscape.capture";
+	private static final String REPLAY_PROPERTY = "jebscape.replay";
+	private static final String REPLAY_SPEED_PROPERTY = "jebscape.replaySpeed"; // 0 replays one recorded tick per game tick
+	private JebScapeReplayDriver pendingReplay;
+	
 	private final static int NUM_HASH_SALT_PAIRS = 4;
 	private static class AccountHashSaltPair
 	{
@@ -90,18 +103,50 @@ public class JebScapePlugin extends Plugin
 		log.info("JebScape has started!");
 		
 		server.init();
-		if (!server.connect())
-			log.debug("ERROR: JebScape datagram channel failed to connect.");
+		server.setUseReceiveThread(config.useReceiveThread());
+		server.setUseJitterBuffer(config.useJitterBuffer());
+		server.setUseSubTickProcessing(config.useSubTickProcessing());
+		server.setUseParity(config.useParity());
+		server.connect(); // resolves and connects in the background
+		
+		if (System.getProperty(CAPTURE_PROPERTY) != null)
+		{
+			try
+			{
+				server.startCapture(Paths.get(System.getProperty(CAPTURE_PROPERTY)));
+			}
+			catch (Exception e)
+			{
+				log.warn("Unable to start JebScape packet capture", e);
+			}
+		}
+		
+		if (System.getProperty(REPLAY_PROPERTY) != null)
+		{
+			try
+			{
+				pendingReplay = new JebScapeReplayDriver(Paths.get(System.getProperty(REPLAY_PROPERTY)));
+				pendingReplay.setSpeed(Double.parseDouble(System.getProperty(REPLAY_SPEED_PROPERTY, "1")));
+			}
+			catch (Exception e)
+			{
+				log.warn("Unable to load JebScape packet replay", e);
+			}
+		}
 		
 		actorIndicatorOverlay.init(client);
 		minimapOverlay.init(client);
 		liveHiscoresOverlay.init(client);
 		profilePinOverlay.init(client, this);
+		telemetryOverlay.init(server, megaserverMod);
+		if (config.showTelemetryOverlay())
+			telemetryOverlay.show();
 		
 		overlayManager.add(actorIndicatorOverlay);
 		overlayManager.add(minimapOverlay);
 		overlayManager.add(liveHiscoresOverlay);
 		overlayManager.add(profilePinOverlay);
+		overlayManager.add(telemetryOverlay);
 		
 		for (int i = 0; i < NUM_HASH_SALT_PAIRS; i++)
 		{
@@ -113,7 +158,7 @@ public class JebScapePlugin extends Plugin
 		clientThread.invoke(() ->
 		{
 			useMegaserverMod = true;
-			megaserverMod.init(client, server, actorIndicatorOverlay, minimapOverlay, liveHiscoresOverlay, chatMessageManager, configManager);
+			megaserverMod.init(client, clientThread, server, actorIndicatorOverlay, minimapOverlay, liveHiscoresOverlay, chatMessageManager, configManager);
 			
 			if (configManager.getConfiguration("jebscape", "showSelfGhost", boolean.class))
 				megaserverMod.showSelfGhost();
@@ -128,6 +173,9 @@ public class JebScapePlugin extends Plugin
 			JebScapeConfig.JebScapeSkill skill = configManager.getConfiguration("jebscape", "selectSkillLiveHiscores", JebScapeConfig.JebScapeSkill.class);
 			megaserverMod.setLiveHiscoresSkillType(skill.ordinal());
 			megaserverMod.setLiveHiscoresStartRank(configManager.getConfiguration("jebscape", "startRankLiveHiscores", int.class));
+			megaserverMod.setMaxRenderedGhosts(config.maxGhosts());
+			megaserverMod.setInterestRadius(config.ghostInterestRadius());
+			megaserverMod.setModelPartCacheSize(config.modelPartCacheSize());
 		});
 	}
 	
@@ -139,6 +187,8 @@ public class JebScapePlugin extends Plugin
 			server.logout();
 			megaserverMod.resetPost200mXpAccumulators();
 			megaserverMod.stop();
+			megaserverMod.saveAppearanceCache();
+			megaserverMod.shutDownAppearanceCache();
 		});
 		
 		for (int i = 0; i < NUM_HASH_SALT_PAIRS; i++)
@@ -151,9 +201,14 @@ public class JebScapePlugin extends Plugin
 		this.chatAccountKey = 0;
 		this.accountKeySalt = 0;
 		this.loginTimeout = 0;
+		this.loginRetries = 0;
 		this.replaceAccountKeySalt = false;
 		
+		server.stopCapture();
+		this.pendingReplay = null;
+		
 		profilePinOverlay.cleanup();
+		overlayManager.remove(telemetryOverlay);
 		overlayManager.remove(profilePinOverlay);
 		overlayManager.remove(liveHiscoresOverlay);
 		overlayManager.remove(minimapOverlay);
@@ -173,7 +228,9 @@ public class JebScapePlugin extends Plugin
 			profilePinOverlay.hide();
 			liveHiscoresOverlay.setContainsData(false);
 			megaserverMod.resetPost200mXpAccumulators();
+			megaserverMod.saveAppearanceCache();
 			this.loginTimeout = 0;
+			this.loginRetries = 0;
 			this.accountKeySalt = 0;
 		}
 		else if (gameStateChanged.getGameState() != GameState.LOGGED_IN)
@@ -279,6 +336,53 @@ public class JebScapePlugin extends Plugin
 			{
 				megaserverMod.setLiveHiscoresStartRank(config.startRankLiveHiscores());
 			}
+			
+			if (configChanged.getKey().contentEquals("maxGhosts"))
+			{
+				clientThread.invoke(() -> megaserverMod.setMaxRenderedGhosts(config.maxGhosts()));
+			}
+			
+			if (configChanged.getKey().contentEquals("ghostInterestRadius"))
+			{
+				clientThread.invoke(() -> megaserverMod.setInterestRadius(config.ghostInterestRadius()));
+			}
+			
+			if (configChanged.getKey().contentEquals("modelPartCacheSize"))
+			{
+				clientThread.invoke(() -> megaserverMod.setModelPartCacheSize(config.modelPartCacheSize()));
+			}
+			
+			if (configChanged.getKey().contentEquals("useReceiveThread"))
+			{
+				clientThread.invoke(() -> server.setUseReceiveThread(config.useReceiveThread()));
+			}
+			
+			if (configChanged.getKey().contentEquals("useJitterBuffer"))
+			{
+				clientThread.invoke(() -> server.setUseJitterBuffer(config.useJitterBuffer()));
+			}
+			
+			if (configChanged.getKey().contentEquals("useSubTickProcessing"))
+			{
+				clientThread.invoke(() -> server.setUseSubTickProcessing(config.useSubTickProcessing()));
+			}
+			
+			if (configChanged.getKey().contentEquals("useParity"))
+			{
+				clientThread.invoke(() -> server.setUseParity(config.useParity()));
+			}
+			
+			if (configChanged.getKey().contentEquals("showTelemetryOverlay"))
+			{
+				if (config.showTelemetryOverlay())
+				{
+					telemetryOverlay.show();
+				}
+				else
+				{
+					telemetryOverlay.hide();
+				}
+			}
 		}
 	}
 	
@@ -448,7 +552,7 @@ public class JebScapePlugin extends Plugin
 			// only log in whilst using standard profile to avoid cross-contamination of stats
 			this.useAccountKey = rsProfileType == RuneScapeProfileType.STANDARD;
 			
-			// TODO: Consider processing received data from the JebScape server at a faster pace using onClientTick()
+			// with sub-tick processing on, most data will have already been picked up by onClientTick()
 			server.onGameTick();
 
 			if (!server.isChatLoggedIn())
@@ -465,11 +569,28 @@ public class JebScapePlugin extends Plugin
 				// whether we disconnected or just haven't started yet, this should be reset
 				megaserverMod.resetPost200mXpAccumulators();
 
-				if (loginTimeout <= 0)
+				if (!megaserverMod.isReady())
+				{
+					// ghosts' body parts can't be read or sent until the kit maps have been loaded in the background
+				}
+				else if (pendingReplay != null)
+				{
+					// play the recording back in place of logging in
+					server.startReplay(pendingReplay, client.getAccountHash());
+					this.pendingReplay = null;
+				}
+				else if (loginTimeout <= 0)
 				{
 					// log in as a guest
-					server.login(client.getAccountHash(), chatAccountKey, useAccountKey, Text.sanitize(client.getLocalPlayer().getName()));
-					loginTimeout = 4; // wait 4 ticks before attempting to log in again
+					if (server.login(client.getAccountHash(), chatAccountKey, useAccountKey, Text.sanitize(client.getLocalPlayer().getName())))
+					{
+						// if the server keeps ignoring us, it may have moved, so look it up again every so often
+						if (++loginRetries % LOGIN_RETRIES_BEFORE_RECONNECT == 0)
+							server.reconnect();
+					}
+					
+					// wait longer after each attempt so that a dead server isn't hammered forever
+					loginTimeout = (int)JebScapeConnector.getBackoffDelay(loginRetries, MIN_LOGIN_RETRY_TICKS, MAX_LOGIN_RETRY_TICKS);
 				}
 				else
 				{
@@ -482,6 +603,7 @@ public class JebScapePlugin extends Plugin
 				int gameDataBytesSent = 0;
 				
 				// we're logged in, let's play!
+				this.loginRetries = 0;
 				if (!megaserverMod.isActive())
 					megaserverMod.start();
 				
@@ -686,6 +808,10 @@ public class JebScapePlugin extends Plugin
 	@Subscribe
 	public void onClientTick(ClientTick clientTick)
 	{
+		// play out server ticks as soon as they arrive, rather than up to a game tick later
+		if (megaserverMod.isActive() && client.getAccountHash() == server.getAccountHash() && server.onClientTick())
+			megaserverMod.processChatServerData();
+		
 		megaserverMod.onClientTick(clientTick);
 	}
 	
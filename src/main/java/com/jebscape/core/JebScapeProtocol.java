@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+// every 32-bit word of the chat server protocol (v4, and v5 once expanded), laid out field by field in wire order
+// words are little-endian on the wire; the fields within each are listed from the lowest bit up
+public final class JebScapeProtocol
+{
+	// first word of a login request from the client
+	public static final class LoginHeader
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("LoginHeader");
+		public static final int TYPE = CODEC.field(2);
+		public static final int SESSION_ID = CODEC.field(17); // last known, so that it may be resumed
+		public static final int IS_USING_KEY = CODEC.field(1); // if not, will log in as guest only
+		public static final int PROTOCOL_VERSION = CODEC.field(8);
+		public static final int NO_PARITY = CODEC.field(1); // cleared to ask for a parity packet each tick; older clients always leave it set
+		public static final int RESERVED = CODEC.reserved(3);
+		static { CODEC.verify(); }
+	}
+	
+	// first word of a chat packet from the client
+	public static final class ChatHeader
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("ChatHeader");
+		public static final int TYPE = CODEC.field(2);
+		public static final int SESSION_ID = CODEC.field(17);
+		public static final int IS_USING_KEY = CODEC.field(1);
+		public static final int TICK = CODEC.field(4);
+		public static final int RESERVED = CODEC.reserved(8);
+		static { CODEC.verify(); }
+	}
+	
+	// first word of every packet from the server, login acks included
+	public static final class ServerHeader
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("ServerHeader");
+		public static final int TYPE = CODEC.field(2);
+		public static final int SESSION_ID = CODEC.field(17);
+		public static final int IS_USING_KEY = CODEC.field(1); // logged in as guest w/o key (0) or as secured account w/ key (1)
+		public static final int TICK = CODEC.field(4);
+		public static final int NUM_PACKETS_SENT = CODEC.field(4); // stored as 0-15 to represent 1-16
+		public static final int PACKET_ID = CODEC.field(4);
+		static { CODEC.verify(); }
+	}
+	
+	// core data word 0; sent by the client, then echoed back by the server in block 0
+	public static final class CoreWorld
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("CoreWorld");
+		public static final int CMD_FLAGS = CODEC.field(8); // MEGASERVER_MOVEMENT_UPDATE_CMD etc.
+		public static final int IS_PVP = CODEC.field(1);
+		public static final int IS_INSTANCED = CODEC.field(1);
+		public static final int INTEREST_RADIUS = CODEC.field(6); // in tiles, how far around us the server should look for ghosts
+		public static final int WORLD = CODEC.field(14);
+		public static final int PLANE = CODEC.field(2);
+		static { CODEC.verify(); }
+	}
+	
+	// core data word 1; also the frame of reference for ghost positions
+	public static final class CorePosition
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("CorePosition");
+		public static final int X = CODEC.field(16);
+		public static final int Y = CODEC.field(16);
+		static { CODEC.verify(); }
+	}
+	
+	// core data word 2; the server only echoes the animation half back
+	public static final class CoreAnimation
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("CoreAnimation");
+		public static final int GHOST_PACKETS_WANTED = CODEC.field(5); // 16 ghosts each; 0 leaves it up to the server
+		public static final int CAPE_ID = CODEC.field(5);
+		public static final int ORIENTATION = CODEC.field(6); // packed; JAU / 32
+		public static final int ANIMATION_ID = CODEC.field(14);
+		public static final int IS_INTERACTING = CODEC.field(1);
+		public static final int IS_POSE_ANIMATION = CODEC.field(1);
+		static { CODEC.verify(); }
+	}
+	
+	// one per ghost in blocks 1, 6, 11 and 16
+	public static final class GhostMovement
+	{
+		public static final int DESPAWNED = 0x3FF; // dx and dy both all 1s
+		
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("GhostMovement");
+		public static final int DX = CODEC.field(5); // from 15 tiles SW of where the server believes the player to be
+		public static final int DY = CODEC.field(5);
+		public static final int ORIENTATION = CODEC.field(6);
+		public static final int ANIMATION_ID = CODEC.field(14);
+		public static final int IS_INTERACTING = CODEC.field(1);
+		public static final int IS_POSE_ANIMATION = CODEC.field(1);
+		static { CODEC.verify(); }
+		
+		public static boolean isDespawned(int word)
+		{
+			return (word & DESPAWNED) == DESPAWNED;
+		}
+	}
+	
+	// game sub data words 0-2, and a ghost's block words 0-2 on odd ticks
+	public static final class EquipmentPair
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("EquipmentPair");
+		public static final int FIRST = CODEC.field(16);
+		public static final int SECOND = CODEC.field(16);
+		static { CODEC.verify(); }
+	}
+	
+	// game sub data word 3, and a ghost's block word 3 on odd ticks
+	public static final class EquipmentBody
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("EquipmentBody");
+		public static final int EQUIPMENT_ID = CODEC.field(16);
+		public static final int BODY_PARTS = CODEC.field(15); // packed by JebScapeModelLoader
+		public static final int IS_FEMALE = CODEC.field(1);
+		static { CODEC.verify(); }
+	}
+	
+	// a ghost's block word 0 on even ticks; words 1-3 hold its name
+	public static final class GhostWorld
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("GhostWorld");
+		public static final int WORLD = CODEC.field(14);
+		public static final int CAPE_ID = CODEC.field(5);
+		public static final int RESERVED = CODEC.reserved(13);
+		static { CODEC.verify(); }
+	}
+	
+	// names and chat messages are packed 4 UTF-8 bytes to a word, first byte lowest
+	public static final class PackedBytes
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("PackedBytes");
+		public static final int BYTE_0 = CODEC.field(8);
+		public static final int BYTE_1 = CODEC.field(8);
+		public static final int BYTE_2 = CODEC.field(8);
+		public static final int BYTE_3 = CODEC.field(8);
+		static { CODEC.verify(); }
+		
+		public static void toBytes(int word, byte[] dst, int offset)
+		{
+			dst[offset] = (byte)JebScapeBitCodec.get(BYTE_0, word);
+			dst[offset + 1] = (byte)JebScapeBitCodec.get(BYTE_1, word);
+			dst[offset + 2] = (byte)JebScapeBitCodec.get(BYTE_2, word);
+			dst[offset + 3] = (byte)JebScapeBitCodec.get(BYTE_3, word);
+		}
+	}
+	
+	// live hiscores block 28 word 0
+	public static final class HiscoresRanks
+	{
+		public static final int NOT_MONITORED = 0x7;
+		
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("HiscoresRanks");
+		public static final int MONITORED_RANK_OFFSET = CODEC.field(3); // ranks 0-4; all 1 bits mean none is monitored
+		public static final int START_RANK = CODEC.field(17); // the ranks we pass down are offset by this
+		public static final int LEVEL = CODEC.field(12); // of the first rank
+		static { CODEC.verify(); }
+	}
+	
+	// live hiscores block 28 words 1 and 2; the levels of ranks 1-2 and 3-4
+	public static final class HiscoresLevels
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("HiscoresLevels");
+		public static final int FIRST_LEVEL = CODEC.field(12);
+		public static final int SECOND_LEVEL = CODEC.field(12);
+		public static final int RESERVED = CODEC.reserved(8);
+		static { CODEC.verify(); }
+	}
+	
+	// live hiscores block 28 word 3
+	public static final class HiscoresSkill
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("HiscoresSkill");
+		public static final int SKILL_TYPE = CODEC.field(5);
+		public static final int RESERVED = CODEC.reserved(2);
+		public static final int[] UPPER_XP = { CODEC.field(5), CODEC.field(5), CODEC.field(5), CODEC.field(5), CODEC.field(5) }; // bits 31-35 of each rank's xp
+		static { CODEC.verify(); }
+	}
+	
+	// live hiscores blocks 29-33 word 0, one per rank; words 1-3 hold the player's name
+	public static final class HiscoresEntry
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("HiscoresEntry");
+		public static final int XP = CODEC.field(31); // lower bits; the upper ones are in HiscoresSkill
+		public static final int IS_ONLINE = CODEC.field(1);
+		static { CODEC.verify(); }
+	}
+	
+	// each skill's xp in the client's extra chat data when sending stats rather than a chat message
+	// three 24 bit values ride along 1 bit per skill, starting with the first
+	public static final class SkillXp
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("SkillXp");
+		public static final int XP = CODEC.field(29); // includes any accumulated past 200m
+		public static final int USER_INPUT_A = CODEC.field(1); // reserved for custom JebScape skill
+		public static final int USER_INPUT_B = CODEC.field(1); // reserved for upper bits of custom JebScape skill & monitored player data
+		public static final int USER_INPUT_C = CODEC.field(1); // HiscoresRequest
+		static { CODEC.verify(); }
+	}
+	
+	// user input C; what the client wants to see on the live hiscores
+	public static final class HiscoresRequest
+	{
+		private static final JebScapeBitCodec CODEC = new JebScapeBitCodec("HiscoresRequest");
+		public static final int START_RANK = CODEC.field(17);
+		public static final int SKILL_TYPE = CODEC.field(7);
+		public static final int UNUSED = CODEC.reserved(8); // only 24 skills to carry it
+		static { CODEC.verify(); }
+	}
+	
+	private JebScapeProtocol()
+	{
+	}
+}
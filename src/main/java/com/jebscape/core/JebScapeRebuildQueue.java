@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+// ghosts waiting on a new model, handed out nearest first so that rebuilds can be spread over several frames
+// a ghost asked for again whilst still waiting keeps its place and original request time; it'll simply be built from its latest data
+// also keeps a histogram of how long each waited, from being asked for to being rebuilt, in the same way as the jitter buffer
+public class JebScapeRebuildQueue
+{
+	private static final int NUM_SAMPLES = 256;
+	private static final long BUCKET_NANOS = 1_000_000L; // 1ms
+	private static final int NUM_BUCKETS = 1001; // the last catches anything a second or over
+	
+	private int capacity;
+	private boolean[] isPending = new boolean[0];
+	private long[] requestNanos = new long[0];
+	private int[] distances = new int[0];
+	private int[] pendingIDs = new int[0]; // unordered; removals swap the last one in
+	private int[] pendingIndices = new int[0];
+	private int numPending;
+	
+	private final int[] samples = new int[NUM_SAMPLES];
+	private final int[] histogram = new int[NUM_BUCKETS];
+	private int sampleIndex;
+	private int numSamples;
+	private long numRebuilds;
+	
+	public JebScapeRebuildQueue(int numGhosts)
+	{
+		ensureCapacity(numGhosts);
+	}
+	
+	// only ever grows
+	public void ensureCapacity(int numGhosts)
+	{
+		if (numGhosts <= capacity)
+			return;
+		
+		boolean[] newIsPending = new boolean[numGhosts];
+		long[] newRequestNanos = new long[numGhosts];
+		int[] newDistances = new int[numGhosts];
+		int[] newPendingIDs = new int[numGhosts];
+		int[] newPendingIndices = new int[numGhosts];
+		System.arraycopy(isPending, 0, newIsPending, 0, capacity);
+		System.arraycopy(requestNanos, 0, newRequestNanos, 0, capacity);
+		System.arraycopy(distances, 0, newDistances, 0, capacity);
+		System.arraycopy(pendingIDs, 0, newPendingIDs, 0, numPending);
+		System.arraycopy(pendingIndices, 0, newPendingIndices, 0, capacity);
+		this.isPending = newIsPending;
+		this.requestNanos = newRequestNanos;
+		this.distances = newDistances;
+		this.pendingIDs = newPendingIDs;
+		this.pendingIndices = newPendingIndices;
+		this.capacity = numGhosts;
+	}
+	
+	public void request(int ghostID, int distance, long nowNanos)
+	{
+		this.distances[ghostID] = distance;
+		if (isPending[ghostID])
+			return;
+		
+		this.isPending[ghostID] = true;
+		this.requestNanos[ghostID] = nowNanos;
+		this.pendingIndices[ghostID] = numPending;
+		this.pendingIDs[numPending++] = ghostID;
+	}
+	
+	// ghosts keep moving whilst they wait, so their priority is kept up to date
+	public void setDistance(int ghostID, int distance)
+	{
+		this.distances[ghostID] = distance;
+	}
+	
+	public void cancel(int ghostID)
+	{
+		if (!isPending[ghostID])
+			return;
+		
+		this.isPending[ghostID] = false;
+		int index = pendingIndices[ghostID];
+		int lastID = pendingIDs[--numPending];
+		this.pendingIDs[index] = lastID;
+		this.pendingIndices[lastID] = index;
+	}
+	
+	// takes the nearest waiting ghost, or whichever of those has waited longest; -1 if none are waiting
+	public int poll()
+	{
+		int bestID = -1;
+		for (int i = 0; i < numPending; i++)
+		{
+			int ghostID = pendingIDs[i];
+			if (bestID < 0 || distances[ghostID] < distances[bestID]
+					|| (distances[ghostID] == distances[bestID] && requestNanos[ghostID] < requestNanos[bestID]))
+				bestID = ghostID;
+		}
+		
+		if (bestID >= 0)
+			cancel(bestID);
+		return bestID;
+	}
+	
+	public boolean isPending(int ghostID)
+	{
+		return ghostID < capacity && isPending[ghostID];
+	}
+	
+	// call once the ghost handed out by poll() has its new model
+	public void onRebuilt(int ghostID, long nowNanos)
+	{
+		int bucket = (int)Math.min(NUM_BUCKETS - 1, Math.max(0, nowNanos - requestNanos[ghostID]) / BUCKET_NANOS);
+		if (numSamples == NUM_SAMPLES)
+			this.histogram[samples[sampleIndex]]--;
+		else
+			this.numSamples++;
+		
+		this.samples[sampleIndex] = bucket;
+		this.histogram[bucket]++;
+		this.sampleIndex = (sampleIndex + 1) % NUM_SAMPLES;
+		this.numRebuilds++;
+	}
+	
+	// over the last 256 rebuilds, to the nearest millisecond
+	public long getLatencyPercentileNanos(int percentile)
+	{
+		if (numSamples == 0)
+			return 0;
+		
+		// walk the histogram up to the percentile
+		int threshold = Math.max(1, (numSamples * percentile + 99) / 100);
+		int count = 0;
+		int bucket = 0;
+		for (; bucket < NUM_BUCKETS - 1; bucket++)
+		{
+			count += histogram[bucket];
+			if (count >= threshold)
+				break;
+		}
+		return bucket * BUCKET_NANOS;
+	}
+	
+	public int getNumPending()
+	{
+		return numPending;
+	}
+	
+	public long getNumRebuilds()
+	{
+		return numRebuilds;
+	}
+	
+	// forgets whoever is waiting, but not how long those before them waited
+	public void clear()
+	{
+		for (int i = 0; i < numPending; i++)
+			this.isPending[pendingIDs[i]] = false;
+		this.numPending = 0;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.nio.*;
+import java.nio.channels.*;
+
+// drains the chat channel continuously on a background thread rather than once per game tick
+// each datagram is timestamped on arrival and handed to the client thread through a lock-free ring
+public class JebScapeReceiver implements Runnable
+{
+	private static final long SELECT_TIMEOUT_MS = 100;
+	
+	private final DatagramChannel channel;
+	private final JebScapePacketRing ring;
+	private final ByteBuffer overflowBuffer;
+	private Selector selector;
+	private Thread thread;
+	private volatile boolean isRunning;
+	private volatile long numPacketsDropped; // written only by the receiver thread
+	
+	public JebScapeReceiver(DatagramChannel channel, JebScapePacketRing ring, int packetSize)
+	{
+		this.channel = channel;
+		this.ring = ring;
+		this.overflowBuffer = ByteBuffer.allocateDirect(packetSize);
+	}
+	
+	public boolean start()
+	{
+		try
+		{
+			selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
+		}
+		catch (Exception e)
+		{
+			closeSelector();
+			return false;
+		}
+		
+		isRunning = true;
+		thread = new Thread(this, "JebScape Receiver");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+	
+	// only returns once the thread has exited, so that a receiver started after it never shares the ring with it
+	// the thread never blocks for longer than a select, which the wakeup cuts short anyway
+	public void stop()
+	{
+		isRunning = false;
+		
+		if (thread == null)
+			return;
+		
+		selector.wakeup();
+		boolean isInterrupted = false;
+		while (thread.isAlive())
+		{
+			try
+			{
+				thread.join();
+			}
+			catch (InterruptedException e)
+			{
+				isInterrupted = true;
+			}
+		}
+		
+		if (isInterrupted)
+			Thread.currentThread().interrupt();
+		thread = null;
+	}
+	
+	public boolean isRunning()
+	{
+		return isRunning;
+	}
+	
+	public long getNumPacketsDropped()
+	{
+		return numPacketsDropped;
+	}
+	
+	@Override
+	public void run()
+	{
+		try
+		{
+			while (isRunning)
+			{
+				if (selector.select(SELECT_TIMEOUT_MS) == 0 || !channel.isConnected())
+				{
+					selector.selectedKeys().clear();
+					continue;
+				}
+				
+				selector.selectedKeys().clear();
+				
+				// keep reading until the socket has nothing left for us
+				while (isRunning)
+				{
+					JebScapePacket packet = ring.claim();
+					if (packet == null)
+					{
+						// the client thread has fallen behind; discard rather than block the socket
+						overflowBuffer.clear();
+						if (channel.read(overflowBuffer) <= 0)
+							break;
+						numPacketsDropped++;
+						continue;
+					}
+					
+					packet.buffer.clear();
+					int bytesReceived = channel.read(packet.buffer);
+					if (bytesReceived <= 0)
+						break;
+					
+					packet.receivedNanos = System.nanoTime();
+					packet.buffer.flip();
+					ring.publish();
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			// the channel has been closed or replaced; the connection will start a new receiver if needed
+		}
+		finally
+		{
+			isRunning = false;
+			closeSelector();
+		}
+	}
+	
+	private void closeSelector()
+	{
+		try
+		{
+			if (selector != null)
+				selector.close();
+		}
+		catch (Exception e)
+		{}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import com.jebscape.core.JebScapeProtocol.ServerHeader;
+
+// feeds a log recorded by JebScapePacketCapture back into a JebScapeConnection in place of the socket
+// at a speed of 0, each game tick replays exactly one recorded game tick (delimited by the packets we sent), as fast as ticks are driven
+// otherwise packets are released according to their recorded timestamps, scaled by the speed
+public class JebScapeReplayDriver
+{
+	private final MappedByteBuffer log;
+	private final int endOffset;
+	private final int firstRecordedChatSessionID;
+	private final boolean firstRecordedIsUsingKey;
+	private final int firstRecordedTick;
+	private double speed = 1.0;
+	private long startNanos;
+	private long firstRecordedNanos;
+	private boolean isStarted;
+	private boolean isTickComplete; // when replaying by tick, set once we reach the end of the current recorded tick
+	private long numPacketsReplayed;
+	
+	public JebScapeReplayDriver(Path path) throws IOException
+	{
+		try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			this.log = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+		}
+		log.order(ByteOrder.LITTLE_ENDIAN);
+		
+		if (log.getInt(0) != JebScapePacketCapture.MAGIC || log.getInt(4) != JebScapePacketCapture.FORMAT_VERSION)
+			throw new IOException("Not a JebScape packet capture: " + path);
+		
+		this.endOffset = (int)log.getLong(JebScapePacketCapture.END_OFFSET_POSITION);
+		log.position(JebScapePacketCapture.HEADER_SIZE);
+		log.limit(endOffset);
+		
+		// a capture may start part way into a session, so find the session to pick up from
+		int sessionID = -1;
+		boolean isUsingKey = false;
+		int tick = 0;
+		for (int offset = JebScapePacketCapture.HEADER_SIZE; offset < endOffset; offset += JebScapePacketCapture.RECORD_HEADER_SIZE + (log.getShort(offset + 2) & 0xFFFF))
+		{
+			if (log.get(offset) == JebScapePacketCapture.DIRECTION_IN && (log.getShort(offset + 2) & 0xFFFF) >= 4)
+			{
+				int packetHeader = log.getInt(offset + JebScapePacketCapture.RECORD_HEADER_SIZE);
+				sessionID = JebScapeBitCodec.get(ServerHeader.SESSION_ID, packetHeader);
+				isUsingKey = JebScapeBitCodec.isSet(ServerHeader.IS_USING_KEY, packetHeader);
+				tick = JebScapeBitCodec.get(ServerHeader.TICK, packetHeader);
+				break;
+			}
+		}
+		
+		this.firstRecordedChatSessionID = sessionID;
+		this.firstRecordedIsUsingKey = isUsingKey;
+		this.firstRecordedTick = tick;
+	}
+	
+	// 1.0 replays in real time, 2.0 twice as fast and so on; 0 replays one recorded game tick per game tick
+	public void setSpeed(double speed)
+	{
+		this.speed = speed;
+	}
+	
+	public double getSpeed()
+	{
+		return speed;
+	}
+	
+	public boolean isFinished()
+	{
+		return log.position() >= endOffset;
+	}
+	
+	public long getNumPacketsReplayed()
+	{
+		return numPacketsReplayed;
+	}
+	
+	public int getFirstRecordedChatSessionID()
+	{
+		return firstRecordedChatSessionID;
+	}
+	
+	public boolean getFirstRecordedIsUsingKey()
+	{
+		return firstRecordedIsUsingKey;
+	}
+	
+	public int getFirstRecordedTick()
+	{
+		return firstRecordedTick;
+	}
+	
+	// call once per game tick before polling
+	public void onGameTick(long nowNanos)
+	{
+		if (!isStarted)
+		{
+			this.isStarted = true;
+			this.startNanos = nowNanos;
+			this.firstRecordedNanos = isFinished() ? 0 : log.getLong(log.position() + 4);
+		}
+		
+		this.isTickComplete = false;
+	}
+	
+	// copies the next received datagram that is due into the packet, returning false once there are none left for now
+	public boolean poll(long nowNanos, JebScapePacket packet)
+	{
+		while (!isFinished() && !isTickComplete)
+		{
+			int offset = log.position();
+			int direction = log.get(offset);
+			int length = log.getShort(offset + 2) & 0xFFFF;
+			long recordedNanos = log.getLong(offset + 4);
+			
+			if (speed > 0 && (recordedNanos - firstRecordedNanos) / speed > nowNanos - startNanos)
+				return false; // not due yet
+			
+			int payloadOffset = offset + JebScapePacketCapture.RECORD_HEADER_SIZE;
+			log.position(payloadOffset + length);
+			
+			if (direction == JebScapePacketCapture.DIRECTION_OUT)
+			{
+				// we sent our data for the recorded tick, so everything after belongs to the next one
+				if (speed <= 0)
+					this.isTickComplete = true;
+				continue;
+			}
+			
+			if (length > packet.buffer.capacity())
+				continue;
+			
+			packet.buffer.clear();
+			for (int i = 0; i < length; i++)
+				packet.buffer.put(i, log.get(payloadOffset + i));
+			packet.buffer.limit(length);
+			packet.receivedNanos = nowNanos;
+			this.numPacketsReplayed++;
+			return true;
+		}
+		
+		return false;
+	}
+}
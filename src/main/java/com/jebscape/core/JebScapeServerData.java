@@ -24,31 +24,48 @@
  */
 package com.jebscape.core;
 
-// this class excludes the packet header and focuses on the remaining 124 of the total 128 bytes
+// flyweight view over a received 544 byte server packet; reads go straight to the packet's direct buffer
+// packets are handed over by swapping ownership rather than copying their contents
 public class JebScapeServerData
 {
 	public static final int DATA_BLOCK_SIZE = 4; // 4 bytes each
 	public static final int NUM_DATA_BLOCKS = 34; // 34 blocks at 4 bytes each (544 bytes)
-	public int[][] blocks = new int[NUM_DATA_BLOCKS][DATA_BLOCK_SIZE];	// 544/544 bytes
-
-	public void setData(JebScapePacket packet)
+	public static final int PACKET_SIZE = NUM_DATA_BLOCKS * DATA_BLOCK_SIZE * 4; // 544/544 bytes
+	private JebScapePacket packet = new JebScapePacket();
+	private boolean isEmpty = true;
+	
+	public JebScapeServerData()
 	{
-		packet.buffer.rewind();
-
-		for (int i = 0; i < NUM_DATA_BLOCKS; i++)
-			for (int j = 0; j < DATA_BLOCK_SIZE; j++)
-				blocks[i][j] = packet.buffer.getInt();
+		packet.init(PACKET_SIZE);
+	}
+	
+	// takes ownership of the received packet and returns the previously held one so that it may be reused
+	public JebScapePacket swapData(JebScapePacket receivedPacket)
+	{
+		JebScapePacket prevPacket = packet;
+		this.packet = receivedPacket;
+		this.isEmpty = false;
+		return prevPacket;
+	}
+	
+	public int getBlock(int blockIdx, int index)
+	{
+		return packet.buffer.getInt((blockIdx * DATA_BLOCK_SIZE + index) * 4);
+	}
+	
+	// nanoTime at which the underlying packet was received, if known
+	public long getReceivedNanos()
+	{
+		return packet.receivedNanos;
 	}
 	
 	void clear()
 	{
-		for (int i = 0; i < NUM_DATA_BLOCKS; i++)
-			for (int j = 0; j < DATA_BLOCK_SIZE; j++)
-				blocks[i][j] = 0;
+		this.isEmpty = true;
 	}
 	
 	public boolean isEmpty()
 	{
-		return blocks[0][0] == 0;
+		return isEmpty;
 	}
 }
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+// link quality statistics for the chat server connection
+// everything is sampled once per game tick into fixed-size rings so that nothing is allocated while running
+public class JebScapeTelemetry
+{
+	public static final int CHANNEL_MOVEMENT = 0; // headers, player core data and ghost data
+	public static final int CHANNEL_LIVE_HISCORES = 1;
+	public static final int CHANNEL_CHAT = 2;
+	public static final int CHANNEL_ADMIN = 3; // login and admin control traffic
+	public static final int NUM_CHANNELS = 4;
+	public static final int HISTORY_SIZE = 100; // 1 minute of game ticks
+	
+	private static final long TICK_NANOS = 600_000_000L;
+	private static final int NUM_TICKS = JebScapeConnection.TICKS_UNTIL_LOGOUT;
+	private static final int LOSS_GRACE_TICKS = NUM_TICKS / 2; // how long late packets are waited on before a tick's loss is tallied
+	
+	// loss, tallied per server tick once it is old enough that nothing more should arrive for it
+	private final int[] packetsExpected = new int[NUM_TICKS]; // number of packets the server reported sending
+	private final int[] packetsReceived = new int[NUM_TICKS]; // 1 bit per packet id
+	private int pendingTicks; // 1 bit per tick awaiting its tally
+	private int newestTick = -1;
+	private long newestTickNanos;
+	private long numPacketsExpected;
+	private long numPacketsLost;
+	private long numTicksLost; // server ticks where not a single packet arrived
+	private final JebScapeMetricRing lossHistory = new JebScapeMetricRing(HISTORY_SIZE); // percent lost per server tick
+	
+	// round trip time
+	// the login ack gives a clean sample, while game ticks are matched up by the tick number we send with our data
+	// the latter includes the wait for the server's next tick, so it runs somewhat higher than the network alone
+	private long loginSentNanos;
+	private long loginRttNanos;
+	private final long[] chatSentNanos = new long[NUM_TICKS];
+	private long smoothedRttNanos;
+	private long rttVarianceNanos;
+	private final JebScapeMetricRing rttHistory = new JebScapeMetricRing(HISTORY_SIZE);
+	
+	// inter-arrival jitter, in the style of RFC 3550 with server ticks standing in for sender timestamps
+	private long jitterNanos;
+	private final JebScapeMetricRing jitterHistory = new JebScapeMetricRing(HISTORY_SIZE);
+	
+	// playout latency; how long a server tick waits between its first packet arriving and being handed over to be played out
+	// this is what sub-tick processing cuts down, so the running average is kept to compare it against playing out on game ticks
+	// arrival is only timed precisely with the receive thread; otherwise it's when the packet was read off the socket
+	private long playoutLatencyNanos;
+	private long totalPlayoutLatencyNanos;
+	private long numTicksPlayedOut;
+	private final JebScapeMetricRing playoutLatencyHistory = new JebScapeMetricRing(HISTORY_SIZE);
+	
+	// bandwidth
+	private final long[] bytesInThisTick = new long[NUM_CHANNELS];
+	private final long[] bytesOutThisTick = new long[NUM_CHANNELS];
+	private final JebScapeMetricRing[] bytesInHistory = new JebScapeMetricRing[NUM_CHANNELS];
+	private final JebScapeMetricRing[] bytesOutHistory = new JebScapeMetricRing[NUM_CHANNELS];
+	
+	public JebScapeTelemetry()
+	{
+		for (int i = 0; i < NUM_CHANNELS; i++)
+		{
+			bytesInHistory[i] = new JebScapeMetricRing(HISTORY_SIZE);
+			bytesOutHistory[i] = new JebScapeMetricRing(HISTORY_SIZE);
+		}
+	}
+	
+	// maps the game command bitflags of a packet onto the channel its extra data belongs to
+	public static int getExtraDataChannel(int cmdFlags)
+	{
+		if ((cmdFlags & MegaserverMod.ADMIN_CONTROL_CMD) != 0)
+			return CHANNEL_ADMIN;
+		else if ((cmdFlags & MegaserverMod.LIVE_HISCORES_STATS_UPDATE_CMD) != 0)
+			return CHANNEL_LIVE_HISCORES;
+		else
+			return CHANNEL_CHAT;
+	}
+	
+	public void onBytesSent(int channel, int bytes)
+	{
+		this.bytesOutThisTick[channel] += bytes;
+	}
+	
+	public void onBytesReceived(int channel, int bytes)
+	{
+		this.bytesInThisTick[channel] += bytes;
+	}
+	
+	public void onLoginSent(long nanos)
+	{
+		this.loginSentNanos = nanos;
+	}
+	
+	public void onLoginAck(long nanos)
+	{
+		if (loginSentNanos != 0)
+		{
+			this.loginRttNanos = nanos - loginSentNanos;
+			this.loginSentNanos = 0;
+		}
+	}
+	
+	public void onChatPacketSent(int tick, long nanos)
+	{
+		this.chatSentNanos[tick] = nanos;
+	}
+	
+	public void onChatPacketReceived(int tick, int numPacketsSent, int packetID, long nanos)
+	{
+		int ticksAhead = newestTick < 0 ? 1 : Math.floorMod(tick - newestTick, NUM_TICKS);
+		if (ticksAhead == 0 || ticksAhead >= LOSS_GRACE_TICKS)
+		{
+			// a tick we've already seen, or one so late it has already been tallied
+			if (((pendingTicks >>> tick) & 0x1) == 0x1)
+			{
+				this.packetsExpected[tick] = numPacketsSent;
+				this.packetsReceived[tick] |= 0x1 << packetID;
+			}
+			return;
+		}
+		
+		// a new server tick; step forward over any ticks we've skipped, tallying those that have aged out
+		if (newestTick >= 0)
+		{
+			long ticksElapsedNanos = ticksAhead * TICK_NANOS;
+			long difference = Math.abs((nanos - newestTickNanos) - ticksElapsedNanos);
+			this.jitterNanos += (difference - jitterNanos) / 16;
+		}
+		
+		for (int i = 1; i <= ticksAhead; i++)
+		{
+			int steppedTick = newestTick < 0 ? tick : (newestTick + i) % NUM_TICKS;
+			tallyTick((steppedTick + LOSS_GRACE_TICKS) % NUM_TICKS);
+			this.pendingTicks |= 0x1 << steppedTick;
+		}
+		
+		this.newestTick = tick;
+		this.newestTickNanos = nanos;
+		this.packetsExpected[tick] = numPacketsSent;
+		this.packetsReceived[tick] = 0x1 << packetID;
+		
+		if (chatSentNanos[tick] != 0)
+		{
+			long rtt = nanos - chatSentNanos[tick];
+			this.chatSentNanos[tick] = 0;
+			
+			// anything longer than this has likely been matched to the wrong cycle of ticks
+			if (rtt > 0 && rtt < LOSS_GRACE_TICKS * TICK_NANOS)
+				addRttSample(rtt);
+		}
+	}
+	
+	public void onChatTickPlayedOut(long latencyNanos)
+	{
+		this.playoutLatencyNanos += (latencyNanos - playoutLatencyNanos) / 16;
+		this.totalPlayoutLatencyNanos += latencyNanos;
+		this.numTicksPlayedOut++;
+	}
+	
+	// call once per game tick after all packets have been received
+	public void onGameTick()
+	{
+		for (int i = 0; i < NUM_CHANNELS; i++)
+		{
+			bytesInHistory[i].add(bytesInThisTick[i]);
+			bytesOutHistory[i].add(bytesOutThisTick[i]);
+			this.bytesInThisTick[i] = 0;
+			this.bytesOutThisTick[i] = 0;
+		}
+		
+		rttHistory.add(smoothedRttNanos);
+		jitterHistory.add(jitterNanos);
+		playoutLatencyHistory.add(playoutLatencyNanos);
+	}
+	
+	// forget per-session state, but keep the running totals and history
+	public void reset()
+	{
+		this.pendingTicks = 0;
+		this.newestTick = -1;
+		this.loginSentNanos = 0;
+		for (int i = 0; i < NUM_TICKS; i++)
+			this.chatSentNanos[i] = 0;
+	}
+	
+	public long getSmoothedRttNanos()
+	{
+		return smoothedRttNanos;
+	}
+	
+	public long getRttVarianceNanos()
+	{
+		return rttVarianceNanos;
+	}
+	
+	public long getLoginRttNanos()
+	{
+		return loginRttNanos;
+	}
+	
+	public long getJitterNanos()
+	{
+		return jitterNanos;
+	}
+	
+	public long getPlayoutLatencyNanos()
+	{
+		return playoutLatencyNanos;
+	}
+	
+	public long getAveragePlayoutLatencyNanos()
+	{
+		return numTicksPlayedOut == 0 ? 0 : totalPlayoutLatencyNanos / numTicksPlayedOut;
+	}
+	
+	public long getNumPacketsExpected()
+	{
+		return numPacketsExpected;
+	}
+	
+	public long getNumPacketsLost()
+	{
+		return numPacketsLost;
+	}
+	
+	public long getNumTicksLost()
+	{
+		return numTicksLost;
+	}
+	
+	// percent of packets lost over the recent history
+	public int getRecentLossPercent()
+	{
+		return lossHistory.size() == 0 ? 0 : (int)(lossHistory.getSum() / lossHistory.size());
+	}
+	
+	// averaged over the recent history
+	public long getBytesInPerSecond(int channel)
+	{
+		return getBytesPerSecond(bytesInHistory[channel]);
+	}
+	
+	public long getBytesOutPerSecond(int channel)
+	{
+		return getBytesPerSecond(bytesOutHistory[channel]);
+	}
+	
+	public JebScapeMetricRing getLossHistory()
+	{
+		return lossHistory;
+	}
+	
+	public JebScapeMetricRing getRttHistory()
+	{
+		return rttHistory;
+	}
+	
+	public JebScapeMetricRing getJitterHistory()
+	{
+		return jitterHistory;
+	}
+	
+	public JebScapeMetricRing getPlayoutLatencyHistory()
+	{
+		return playoutLatencyHistory;
+	}
+	
+	public JebScapeMetricRing getBytesInHistory(int channel)
+	{
+		return bytesInHistory[channel];
+	}
+	
+	public JebScapeMetricRing getBytesOutHistory(int channel)
+	{
+		return bytesOutHistory[channel];
+	}
+	
+	private long getBytesPerSecond(JebScapeMetricRing history)
+	{
+		return history.size() == 0 ? 0 : history.getSum() * 1_000_000_000L / (history.size() * TICK_NANOS);
+	}
+	
+	private void tallyTick(int tick)
+	{
+		if (((pendingTicks >>> tick) & 0x1) == 0)
+			return;
+		
+		int lossPercent;
+		if (packetsReceived[tick] == 0)
+		{
+			// nothing arrived, so we can't know how many packets there were
+			this.numTicksLost++;
+			lossPercent = 100;
+		}
+		else
+		{
+			int expectedMask = (1 << packetsExpected[tick]) - 1;
+			int numLost = Integer.bitCount(expectedMask & ~packetsReceived[tick]);
+			this.numPacketsExpected += packetsExpected[tick];
+			this.numPacketsLost += numLost;
+			lossPercent = numLost * 100 / packetsExpected[tick];
+		}
+		
+		lossHistory.add(lossPercent);
+		this.pendingTicks &= ~(0x1 << tick);
+		this.packetsExpected[tick] = 0;
+		this.packetsReceived[tick] = 0;
+	}
+	
+	private void addRttSample(long rtt)
+	{
+		// smoothed the same way TCP does (RFC 6298)
+		if (smoothedRttNanos == 0)
+		{
+			this.smoothedRttNanos = rtt;
+			this.rttVarianceNanos = rtt / 2;
+		}
+		else
+		{
+			this.rttVarianceNanos += (Math.abs(smoothedRttNanos - rtt) - rttVarianceNanos) / 4;
+			this.smoothedRttNanos += (rtt - smoothedRttNanos) / 8;
+		}
+	}
+}
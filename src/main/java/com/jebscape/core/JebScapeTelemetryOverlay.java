@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.awt.*;
+import net.runelite.api.ModelData;
+import net.runelite.client.ui.overlay.*;
+
+// debug panel showing recent connection health as sparklines
+public class JebScapeTelemetryOverlay extends Overlay
+{
+	private static final int WIDTH = 200;
+	private static final int ROW_HEIGHT = 28;
+	private static final int PADDING = 4;
+	private static final int LABEL_HEIGHT = 12;
+	private static final int NUM_ROWS = 9;
+	private final Color backgroundColor = new Color(30, 30, 30, 180);
+	private final Color labelColor = new Color(5, 248, 242, 218);
+	private final Color lineColor = new Color(5, 248, 5, 218);
+	private final Color outLineColor = new Color(248, 180, 5, 218);
+	private final Dimension dimension = new Dimension(WIDTH, NUM_ROWS * ROW_HEIGHT + PADDING);
+	private final int[] xPoints = new int[JebScapeTelemetry.HISTORY_SIZE];
+	private final int[] yPoints = new int[JebScapeTelemetry.HISTORY_SIZE];
+	private final JebScapeMetricRing bytesInTotal = new JebScapeMetricRing(JebScapeTelemetry.HISTORY_SIZE);
+	private final JebScapeMetricRing bytesOutTotal = new JebScapeMetricRing(JebScapeTelemetry.HISTORY_SIZE);
+	private JebScapeConnection server;
+	private MegaserverMod megaserverMod;
+	private boolean isVisible;
+	
+	public void init(JebScapeConnection server, MegaserverMod megaserverMod)
+	{
+		this.server = server;
+		this.megaserverMod = megaserverMod;
+		this.isVisible = false;
+		
+		setPosition(OverlayPosition.TOP_LEFT);
+		setPriority(OverlayPriority.LOW);
+		setLayer(OverlayLayer.ABOVE_WIDGETS);
+	}
+	
+	public void hide()
+	{
+		this.isVisible = false;
+	}
+	
+	public void show()
+	{
+		this.isVisible = true;
+	}
+	
+	@Override
+	public Dimension render(Graphics2D graphics)
+	{
+		if (!isVisible || server == null)
+			return null;
+		
+		JebScapeTelemetry telemetry = server.getTelemetry();
+		
+		// the per channel histories are combined here so that bandwidth fits within one row each way
+		sumChannels(telemetry, bytesInTotal, true);
+		sumChannels(telemetry, bytesOutTotal, false);
+		
+		graphics.setColor(backgroundColor);
+		graphics.fillRect(0, 0, dimension.width, dimension.height);
+		
+		int y = PADDING;
+		drawRow(graphics, y, "RTT: " + telemetry.getSmoothedRttNanos() / 1_000_000 + "ms (login " + telemetry.getLoginRttNanos() / 1_000_000 + "ms)",
+				telemetry.getRttHistory(), null);
+		y += ROW_HEIGHT;
+		drawRow(graphics, y, "Jitter: " + telemetry.getJitterNanos() / 1_000_000 + "ms, delay " + server.getPlayoutDelayTicks() + " ticks",
+				telemetry.getJitterHistory(), null);
+		y += ROW_HEIGHT;
+		drawRow(graphics, y, "Playout: " + telemetry.getPlayoutLatencyNanos() / 1_000_000 + "ms" + (server.isUsingSubTickProcessing() ? " (sub-tick)" : ""),
+				telemetry.getPlayoutLatencyHistory(), null);
+		y += ROW_HEIGHT;
+		drawRow(graphics, y, "Loss: " + telemetry.getRecentLossPercent() + "% (" + telemetry.getNumTicksLost() + " ticks lost)",
+				telemetry.getLossHistory(), null);
+		y += ROW_HEIGHT;
+		drawRow(graphics, y, "In: " + getBytesPerSecond(telemetry, true) + " B/s  Out: " + getBytesPerSecond(telemetry, false) + " B/s",
+				bytesInTotal, bytesOutTotal);
+		y += ROW_HEIGHT;
+		drawRow(graphics, y, "Move " + telemetry.getBytesInPerSecond(JebScapeTelemetry.CHANNEL_MOVEMENT)
+				+ " Hiscores " + telemetry.getBytesInPerSecond(JebScapeTelemetry.CHANNEL_LIVE_HISCORES)
+				+ " Chat " + telemetry.getBytesInPerSecond(JebScapeTelemetry.CHANNEL_CHAT)
+				+ " Admin " + telemetry.getBytesInPerSecond(JebScapeTelemetry.CHANNEL_ADMIN),
+				null, null);
+		y += ROW_HEIGHT;
+		JebScapeRebuildQueue rebuildQueue = megaserverMod.getRebuildQueue();
+		drawRow(graphics, y, "Models p50/95/99: " + rebuildQueue.getLatencyPercentileNanos(50) / 1_000_000
+				+ "/" + rebuildQueue.getLatencyPercentileNanos(95) / 1_000_000
+				+ "/" + rebuildQueue.getLatencyPercentileNanos(99) / 1_000_000
+				+ "ms, " + rebuildQueue.getNumPending() + " waiting, " + megaserverMod.getModelCache().getHitRate() + "% shared",
+				null, null);
+		y += ROW_HEIGHT;
+		JebScapeModelCache<ModelData> partCache = megaserverMod.getPartCache();
+		drawRow(graphics, y, "Parts: " + partCache.getNumHits() + " hits, " + (partCache.getNumLookups() - partCache.getNumHits()) + " misses, "
+				+ partCache.getNumBytes() / 1024 + "/" + partCache.getMaxBytes() / 1024 + " KB",
+				null, null);
+		y += ROW_HEIGHT;
+		JebScapeAppearanceCache appearanceCache = megaserverMod.getAppearanceCache();
+		drawRow(graphics, y, "Appearances: " + appearanceCache.size() + " known, " + appearanceCache.getHitRate() + "% met before, "
+				+ megaserverMod.getNumAppearancesGuessedRight() + "/" + megaserverMod.getNumAppearancesGuessed() + " guessed right",
+				null, null);
+		
+		return dimension;
+	}
+	
+	private void drawRow(Graphics2D graphics, int y, String label, JebScapeMetricRing history, JebScapeMetricRing secondHistory)
+	{
+		graphics.setColor(labelColor);
+		graphics.drawString(label, PADDING, y + LABEL_HEIGHT - 2);
+		
+		// share a scale between both lines so they can be compared
+		long max = 1;
+		if (history != null)
+			max = Math.max(max, history.getMax());
+		if (secondHistory != null)
+			max = Math.max(max, secondHistory.getMax());
+		
+		if (history != null)
+			drawSparkline(graphics, y + LABEL_HEIGHT, history, max, lineColor);
+		if (secondHistory != null)
+			drawSparkline(graphics, y + LABEL_HEIGHT, secondHistory, max, outLineColor);
+	}
+	
+	private void drawSparkline(Graphics2D graphics, int y, JebScapeMetricRing history, long max, Color color)
+	{
+		int numPoints = history.size();
+		if (numPoints < 2)
+			return;
+		
+		int width = WIDTH - PADDING * 2;
+		int height = ROW_HEIGHT - LABEL_HEIGHT - PADDING;
+		for (int i = 0; i < numPoints; i++)
+		{
+			// right-align so that the latest sample is always at the same spot
+			xPoints[i] = PADDING + width - (numPoints - 1 - i) * width / (history.capacity() - 1);
+			yPoints[i] = y + height - (int)(history.get(i) * height / max);
+		}
+		
+		graphics.setColor(color);
+		graphics.drawPolyline(xPoints, yPoints, numPoints);
+	}
+	
+	private void sumChannels(JebScapeTelemetry telemetry, JebScapeMetricRing total, boolean isIncoming)
+	{
+		total.clear();
+		JebScapeMetricRing first = isIncoming ? telemetry.getBytesInHistory(0) : telemetry.getBytesOutHistory(0);
+		for (int i = 0; i < first.size(); i++)
+		{
+			long sum = 0;
+			for (int channel = 0; channel < JebScapeTelemetry.NUM_CHANNELS; channel++)
+				sum += isIncoming ? telemetry.getBytesInHistory(channel).get(i) : telemetry.getBytesOutHistory(channel).get(i);
+			total.add(sum);
+		}
+	}
+	
+	private long getBytesPerSecond(JebScapeTelemetry telemetry, boolean isIncoming)
+	{
+		long sum = 0;
+		for (int channel = 0; channel < JebScapeTelemetry.NUM_CHANNELS; channel++)
+			sum += isIncoming ? telemetry.getBytesInPerSecond(channel) : telemetry.getBytesOutPerSecond(channel);
+		return sum;
+	}
+}
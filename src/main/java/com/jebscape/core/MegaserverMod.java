@@ -24,29 +24,48 @@
  */
 package com.jebscape.core;
 
+import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.*;
 import net.runelite.api.coords.*;
 import net.runelite.api.events.*;
 import net.runelite.api.kit.*;
+import net.runelite.client.RuneLite;
 import net.runelite.client.chat.*;
+import net.runelite.client.callback.ClientThread;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.util.Text;
 
+import java.io.*;
+import java.nio.*;
 import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.Arrays;
+import java.util.concurrent.*;
+import com.jebscape.core.JebScapeProtocol.*;
 
+@Slf4j
 public class MegaserverMod
 {
-	public final int MEGASERVER_MOVEMENT_UPDATE_CMD = 0x1; // 0001
-	public final int LIVE_HISCORES_STATS_UPDATE_CMD = 0x2; // 0010
-	public final int ADMIN_CONTROL_CMD = 0x4; // 0100
-	private final int MAX_GHOSTS = 64;
+	public static final int MEGASERVER_MOVEMENT_UPDATE_CMD = 0x1; // 0001
+	public static final int LIVE_HISCORES_STATS_UPDATE_CMD = 0x2; // 0010
+	public static final int ADMIN_CONTROL_CMD = 0x4; // 0100
+	private static final int GHOSTS_PER_PACKET = JebScapeGhostFrame.GHOSTS_PER_PACKET;
+	private static final int MAX_GHOST_PACKETS_PER_TICK = JebScapeConnection.MAX_CHAT_SERVER_PACKETS_PER_TICK;
+	public static final int MAX_GHOSTS = MAX_GHOST_PACKETS_PER_TICK * GHOSTS_PER_PACKET;
+	private int numGhostSlots = JebScapeConnection.CHAT_SERVER_PACKETS_PER_TICK * GHOSTS_PER_PACKET; // grows with what the server sends
+	private int maxRenderedGhosts = 64;
+	private int interestRadius = JebScapeInterestManager.MAX_INTEREST_RADIUS;
+	private JebScapeInterestManager interestManager = new JebScapeInterestManager();
+	private int gameTickCount = 0;
+	private static final int JAU_PACKING_RATIO = 32;
 	private static final int NUM_SKILLS = 24; // includes upcoming Sailing skill
+	private static final Skill[] SKILLS = Skill.values(); // values() hands back a new copy every call
 	private int post200mXpAccumulator[] = new int[NUM_SKILLS];
 	private int skillTypeToTrack = 0;
 	private int startRankToTrack = 1;
 	private static final int NUM_RANKS = 5;
 	private String[] liveHiscoresPlayerNames = new String[NUM_RANKS];
+	private int[][] liveHiscoresNameData = new int[NUM_RANKS][3]; // packed, so that names are only looked up when they change
 	private int[] liveHiscoresLevels = new int[NUM_RANKS];
 	private long[] liveHiscoresXPs = new long[NUM_RANKS];
 	private boolean[] liveHiscoresOnlineStatuses = new boolean[NUM_RANKS];
@@ -54,16 +73,20 @@ public class MegaserverMod
 	private Client client;
 	private JebScapeConnection server;
 	private JebScapeLiveHiscoresOverlay liveHiscoresOverlay;
+	private JebScapeActorIndicatorOverlay indicatorOverlay;
+	private JebScapeMinimapOverlay minimapOverlay;
 	private ChatMessageManager chatMessageManager;
 	private ConfigManager configManager;
-	private JebScapeModelLoader modelLoader = new JebScapeModelLoader();
+	private final JebScapeModelLoader modelLoader;
 	private int[] coreData = new int[3];
 	private int[] gameSubData = new int[4];
 	private int playerCapeID = 31;
 	private int prevPlayerCapeID = 31;
 	private int prevChatTick = -1;
+	private int prevWorld = -1;
+	private boolean isPVP = false;
 	private boolean selfGhostDirty = true;
-	private boolean[] ghostsDirty = new boolean[MAX_GHOSTS];
+	private boolean[] ghostsDirty = new boolean[numGhostSlots];
 	private boolean showSelfGhost = false;
 	private int defaultMaleHairPartID = 0;
 	private int defaultMaleJawPartID = 0;
@@ -73,33 +96,75 @@ public class MegaserverMod
 	private int prevDefaultJawPartID = -1;
 	private Model defaultGhostModel;
 	private JebScapeActor selfGhost = new JebScapeActor();
-	private JebScapeActor[] ghosts = new JebScapeActor[MAX_GHOSTS];
+	private JebScapeActor[] ghosts = new JebScapeActor[numGhostSlots];
 	private int[] prevSelfGhostEquipmentIDs = new int[7];
 	private int[] prevSelfGhostBodyPartIDs = new int[3];
-	private int[][] prevGhostModelData = new int[MAX_GHOSTS][4];
-	private int[] prevGhostCapeID = new int[MAX_GHOSTS];
-	private int[] ghostCapeID = new int[MAX_GHOSTS];
-	private byte[] nameBytes = new byte[12];
+	private int[][] prevGhostModelData = new int[numGhostSlots][4];
+	private int[][] ghostNameData = new int[numGhostSlots][4]; // world then packed name, as last handed to the ghost
+	private JebScapeNameIndex nameIndex = new JebScapeNameIndex(numGhostSlots); // routes chat to whichever ghost holds the sender's name
+	private int[] prevGhostCapeID = new int[numGhostSlots];
+	private int[] ghostCapeID = new int[numGhostSlots];
+	private JebScapeNameCache nameCache = new JebScapeNameCache(JebScapeNameCache.DEFAULT_CAPACITY);
+	// how players we've met before last looked, so their ghosts needn't wait on the next odd tick to be built
+	private static final int NUM_WARMUP_PLAYERS = 32; // regulars whose models are built ahead at login
+	private JebScapeAppearanceCache appearanceCache = new JebScapeAppearanceCache(JebScapeAppearanceCache.DEFAULT_CAPACITY);
+	private volatile JebScapeAppearanceCache loadedAppearanceCache; // handed over by the thread reading it from disk
+	private boolean isAppearanceCacheRequested;
+	private boolean isAppearanceCacheLoaded; // nothing is saved until then, so as not to write over what's on disk
+	// reads and writes of the file go through the one thread, in order, so that no two ever overlap
+	// made on init and let go as the plugin shuts down, so that toggling it doesn't leave idle threads behind
+	private static final long APPEARANCE_CACHE_SHUTDOWN_MS = 2000; // for the last save to reach the disk should the client be exiting
+	private ExecutorService appearanceCacheExecutor;
+	private int[] warmupEntries = new int[NUM_WARMUP_PLAYERS];
+	private int numWarmupEntries;
+	private int[] warmupAppearance = new int[4];
+	private boolean[] isGhostAppearanceGuessed = new boolean[numGhostSlots];
+	private long numAppearancesGuessed;
+	private long numAppearancesGuessedRight;
+	private JebScapeGhostFrame ghostFrame = new JebScapeGhostFrame();
+	private static final long MODEL_REBUILD_BUDGET_NANOS = 2_000_000L; // per client tick; at least one ghost is always rebuilt
+	private JebScapeRebuildQueue rebuildQueue = new JebScapeRebuildQueue(numGhostSlots);
 	private byte[] chatBytes = new byte[80];
+	private ByteBuffer chatByteBuffer = ByteBuffer.wrap(chatBytes);
+	private CharBuffer chatMessageChars = CharBuffer.allocate(chatBytes.length);
+	private CharsetDecoder chatDecoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private byte[] extraChatData = new byte[96];
+	private ByteBuffer extraChatBuffer = ByteBuffer.wrap(extraChatData);
+	private CharBuffer chatChars = CharBuffer.allocate(extraChatData.length);
+	private CharsetEncoder chatEncoder = StandardCharsets.UTF_8.newEncoder();
 	private int[] equipmentIDs = new int[7];
 	private int[] bodyPartIDs = new int[3];
 	private String chatMessageToSend = "";
 	private int cmdType = 0;
 	private int cmdArg = 0;
 	
-	public void init(Client client, JebScapeConnection server, JebScapeActorIndicatorOverlay indicatorOverlay, JebScapeMinimapOverlay minimapOverlay, JebScapeLiveHiscoresOverlay liveHiscoresOverlay, ChatMessageManager chatMessageManager, ConfigManager configManager)
+	public MegaserverMod()
+	{
+		this(new JebScapeModelLoader());
+	}
+	
+	// the model loader is handed in so that tests can stand in for the game cache
+	MegaserverMod(JebScapeModelLoader modelLoader)
+	{
+		this.modelLoader = modelLoader;
+	}
+	
+	public void init(Client client, ClientThread clientThread, JebScapeConnection server, JebScapeActorIndicatorOverlay indicatorOverlay, JebScapeMinimapOverlay minimapOverlay, JebScapeLiveHiscoresOverlay liveHiscoresOverlay, ChatMessageManager chatMessageManager, ConfigManager configManager)
 	{
 		this.client = client;
 		this.server = server;
 		this.configManager = configManager;
 		
-		modelLoader.init(client);
+		modelLoader.init(client, clientThread);
 
-		for (int i = 0; i < MAX_GHOSTS; i++)
+		for (int i = 0; i < numGhostSlots; i++)
 		{
 			ghosts[i] = new JebScapeActor();
 		}
+		interestManager.ensureCapacity(numGhostSlots);
 
+		this.indicatorOverlay = indicatorOverlay;
+		this.minimapOverlay = minimapOverlay;
 		indicatorOverlay.setJebScapeActors(ghosts);
 		minimapOverlay.setJebScapeActors(ghosts);
 
@@ -107,6 +172,16 @@ public class MegaserverMod
 		liveHiscoresOverlay.setContainsData(false);
 		
 		this.chatMessageManager = chatMessageManager;
+		
+		if (appearanceCacheExecutor == null)
+		{
+			this.appearanceCacheExecutor = Executors.newSingleThreadExecutor(runnable ->
+			{
+				Thread thread = new Thread(runnable, "JebScape Appearances");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
 	}
 	
 	// must only be called once logged in
@@ -161,15 +236,24 @@ public class MegaserverMod
 			}
 		}
 
-		for (int i = 0; i < MAX_GHOSTS; i++)
+		for (int i = 0; i < numGhostSlots; i++)
 		{
 			ghosts[i].init(client, chatMessageManager);
 			this.prevGhostCapeID[i] = 31;
 			this.ghostCapeID[i] = 31;
 			this.ghostsDirty[i] = true;
 		}
+		interestManager.reset();
 
 		loadGhostRenderables();
+		
+		// only wanted once we're actually showing ghosts, so it's read then rather than with the plugin
+		if (!isAppearanceCacheRequested)
+		{
+			this.isAppearanceCacheRequested = true;
+			int revision = client.getRevision();
+			appearanceCacheExecutor.execute(() -> this.loadedAppearanceCache = JebScapeAppearanceCache.read(getAppearanceCachePath(), revision, JebScapeAppearanceCache.DEFAULT_CAPACITY));
+		}
 
 		this.isActive = true;
 	}
@@ -183,6 +267,7 @@ public class MegaserverMod
 		this.playerCapeID = 31;
 		this.prevPlayerCapeID = 31;
 		this.prevChatTick = -1;
+		this.prevWorld = -1;
 		this.selfGhostDirty = true;
 		this.chatMessageToSend = "";
 		
@@ -193,19 +278,31 @@ public class MegaserverMod
 		}
 		
 		selfGhost.despawn();
-		for (int i = 0; i < MAX_GHOSTS; i++)
+		interestManager.reset();
+		nameIndex.clear();
+		rebuildQueue.clear();
+		this.numWarmupEntries = 0;
+		Arrays.fill(isGhostAppearanceGuessed, false);
+		for (int i = 0; i < numGhostSlots; i++)
 		{
 			ghosts[i].despawn();
 			this.prevGhostModelData[i][0] = 0;
 			this.prevGhostModelData[i][1] = 0;
 			this.prevGhostModelData[i][2] = 0;
 			this.prevGhostModelData[i][3] = 0;
+			Arrays.fill(ghostNameData[i], 0);
 			this.prevGhostCapeID[i] = 31;
 			this.ghostCapeID[i] = 31;
 			this.ghostsDirty[i] = true;
 		}
 	}
 	
+	// false until everything needed to show ghosts has been loaded in the background
+	public boolean isReady()
+	{
+		return modelLoader.isKitMapsReady();
+	}
+	
 	public boolean isActive()
 	{
 		return isActive;
@@ -267,6 +364,101 @@ public class MegaserverMod
 	{
 		this.startRankToTrack = startRank;
 	}
+	
+	// for debugging how well names are being reused
+	public JebScapeNameCache getNameCache()
+	{
+		return nameCache;
+	}
+	
+	// for debugging how often ghosts share a model
+	public JebScapeModelCache<Model> getModelCache()
+	{
+		return modelLoader.getModelCache();
+	}
+	
+	// for debugging how often ghosts are built before their appearance arrives, and how often that's right
+	public JebScapeAppearanceCache getAppearanceCache()
+	{
+		return appearanceCache;
+	}
+	
+	public long getNumAppearancesGuessed()
+	{
+		return numAppearancesGuessed;
+	}
+	
+	public long getNumAppearancesGuessedRight()
+	{
+		return numAppearancesGuessedRight;
+	}
+	
+	// for tuning how much memory model parts are given
+	public JebScapeModelCache<ModelData> getPartCache()
+	{
+		return modelLoader.getPartCache();
+	}
+	
+	public void setModelPartCacheSize(int megabytes)
+	{
+		modelLoader.setPartCacheSize(megabytes);
+	}
+	
+	// for debugging how far behind ghost models are running
+	public JebScapeRebuildQueue getRebuildQueue()
+	{
+		return rebuildQueue;
+	}
+	
+	// beyond this many, only the nearest ghosts are shown; the server is also asked to send no more than this
+	public void setMaxRenderedGhosts(int maxRenderedGhosts)
+	{
+		this.maxRenderedGhosts = Math.max(1, Math.min(MAX_GHOSTS, maxRenderedGhosts));
+	}
+	
+	// how far around us, in tiles, the server should look for ghosts to send
+	public void setInterestRadius(int interestRadius)
+	{
+		this.interestRadius = Math.max(1, Math.min(JebScapeInterestManager.MAX_INTEREST_RADIUS, interestRadius));
+	}
+	
+	// the server may send more ghosts than we've room for after a crowd shows up, so make some more
+	private void ensureGhostCapacity(int numGhosts)
+	{
+		if (numGhosts <= numGhostSlots)
+			return;
+		
+		this.ghosts = Arrays.copyOf(ghosts, numGhosts);
+		this.ghostsDirty = Arrays.copyOf(ghostsDirty, numGhosts);
+		this.prevGhostModelData = Arrays.copyOf(prevGhostModelData, numGhosts);
+		this.ghostNameData = Arrays.copyOf(ghostNameData, numGhosts);
+		this.prevGhostCapeID = Arrays.copyOf(prevGhostCapeID, numGhosts);
+		this.ghostCapeID = Arrays.copyOf(ghostCapeID, numGhosts);
+		this.isGhostAppearanceGuessed = Arrays.copyOf(isGhostAppearanceGuessed, numGhosts);
+		for (int i = numGhostSlots; i < numGhosts; i++)
+		{
+			ghosts[i] = new JebScapeActor();
+			if (isActive)
+			{
+				ghosts[i].init(client, chatMessageManager);
+				ghosts[i].setDefaultModel(defaultGhostModel);
+				ghosts[i].setPoseAnimations(client.getLocalPlayer());
+			}
+			this.prevGhostModelData[i] = new int[4];
+			this.ghostNameData[i] = new int[4];
+			this.prevGhostCapeID[i] = 31;
+			this.ghostCapeID[i] = 31;
+			this.ghostsDirty[i] = true;
+		}
+		this.numGhostSlots = numGhosts;
+		interestManager.ensureCapacity(numGhosts);
+		nameIndex.ensureCapacity(numGhosts);
+		rebuildQueue.ensureCapacity(numGhosts);
+		
+		// the overlays hold on to the array itself, so hand them the new one
+		indicatorOverlay.setJebScapeActors(ghosts);
+		minimapOverlay.setJebScapeActors(ghosts);
+	}
 
 	// returns number of game data bytes sent
 	public int onGameTick()
@@ -274,372 +466,28 @@ public class MegaserverMod
 		// must occur before packets are unpacked
 		liveHiscoresOverlay.onGameTick();
 		
-		// analyze most recent data received from the server
-		JebScapeServerData[][] chatServerData = server.getRecentChatServerData();
-		int[] numChatPacketsSent = server.getNumChatServerPacketsSent();
-		int currentChatTick = server.getCurrentChatTick();
-		final int JAU_PACKING_RATIO = 32;
-		
-		// this will update up to 64 ghosts with up to 16 past ticks' worth of data
-		// doing this makes us more resilient to unpredictable network delays with either the OSRS server or JebScape server
-		// we start with the oldest data first...
-		for (int i = 0; i < server.TICKS_UNTIL_LOGOUT; i++)
+		// once read from disk, whoever's been met this session is folded in and the regulars queued to be built ahead
+		JebScapeAppearanceCache loaded = loadedAppearanceCache;
+		if (loaded != null && !isAppearanceCacheLoaded)
 		{
-			// start the cycle from the earliest tick we might have data on
-			int chatTick = (currentChatTick + i) % server.TICKS_UNTIL_LOGOUT;
-
-			// only bother if we've received any packets for this tick
-			if (numChatPacketsSent[chatTick] > 0)
-			{
-				boolean isFirstPacket = true;
-
-				for (int packetID = 0; packetID < server.CHAT_SERVER_PACKETS_PER_TICK; packetID++)
-				{
-					JebScapeServerData data = chatServerData[chatTick][packetID];
-					boolean emptyPacket = data.isEmpty();
-					boolean containsMegaserverCmd = false;
-					boolean containsLiveHiscoresCmd = false;
-					int playerWorldFlags = 0;
-					int playerWorld = 0;
-					int playerWorldLocationX = 0;
-					int playerWorldLocationY = 0;
-					int playerWorldLocationPlane = 0;
-					int playerPackedOrientation = 0;
-					int playerAnimationID = 0;
-					boolean playerIsInteracting = false;
-					boolean playerIsPoseAnimation = false;
-					boolean isInstanced = false;
-
-					// let's initialize our player position data
-					if (!emptyPacket)
-					{
-						// unpack the core data
-						// 8 bitflags for game command
-						// 1 bit isPVP
-						// 1 bit isInstanced
-						// 6 bits reserved
-						// 14 bits world
-						// 2 bits plane
-						containsMegaserverCmd = ((data.blocks[0][1] & 0xFF) & // bitflag, so let's just test the one bit
-								MEGASERVER_MOVEMENT_UPDATE_CMD) != 0;					// 8/32 bits
-						containsLiveHiscoresCmd = ((data.blocks[0][1] & 0xFF) & // bitflag, so let's just test the one bit
-								LIVE_HISCORES_STATS_UPDATE_CMD) != 0;					// 8/32 bits
-						playerWorldFlags = (data.blocks[0][1] >>> 8) & 0xFF;			// 16/32 bits
-						playerWorld = (data.blocks[0][1] >>> 16) & 0x3FFF;				// 30/32 bits
-						playerWorldLocationPlane = (data.blocks[0][1] >>> 30) & 0x3; 	// 32/32 bits
-
-						// 16 bits world X position
-						// 16 bits world Y position
-						playerWorldLocationX = (data.blocks[0][2] & 0xFFFF);			// 16/32 bits
-						playerWorldLocationY = ((data.blocks[0][2] >>> 16) & 0xFFFF);	// 32/32 bits
-
-						// 10 bits reserved
-						// 6 bits packedOrientation
-						// 14 bits animationID
-						// 1 bit isInteracting
-						// 1 bit isPoseAnimation
-						playerPackedOrientation = (data.blocks[0][3] >>> 10) & 0x3F;		// 16/32 bits
-						playerAnimationID = (data.blocks[0][3] >>> 16) & 0x3FFF;			// 30/32 bits
-						playerIsInteracting = ((data.blocks[0][3] >>> 30) & 0x1) == 0x1;	// 31/32 bits
-						playerIsPoseAnimation = ((data.blocks[0][3] >>> 31) & 0x1) == 0x1;	// 32/32 bits
-
-						// experimental implementation for instances
-						isInstanced = ((playerWorldFlags >>> 0x1) & 0x1) == 0x1;
-						if (client.isInInstancedRegion() && isInstanced)
-						{
-							// find the difference between the instance positions
-							WorldPoint currentPlayerWorldPosition = client.getLocalPlayer().getWorldLocation();
-							WorldPoint currentPlayerInstancePosition = WorldPoint.fromLocalInstance(client, LocalPoint.fromWorld(client, currentPlayerWorldPosition));
-							int dx = playerWorldLocationX - currentPlayerInstancePosition.getX();
-							int dy = playerWorldLocationY - currentPlayerInstancePosition.getY();
-
-							// add this difference to where our player happens to be located in normal world space
-							playerWorldLocationX = currentPlayerWorldPosition.getX() + dx;
-							playerWorldLocationY = currentPlayerWorldPosition.getY() + dy;
-							playerWorldLocationPlane = currentPlayerWorldPosition.getPlane();
-						}
-
-						// profile stats:
-						/*
-						if (packetID == 0)
-						{
-							int coreTickTime = data.blocks[26][0];
-							int totalTickTime = data.blocks[26][1];
-							int postTickTime = data.blocks[26][2];
-							int playerCount = data.blocks[26][3];
-							client.addChatMessage(ChatMessageType.TENSECTIMEOUT, "", "Core: " + coreTickTime + " Total: " + totalTickTime + " Post: " + postTickTime + " Players: " + playerCount, null);
-						}
-						//*/
-					}
-
-					if (playerWorld == client.getWorld())
-					{
-						if (isFirstPacket && showSelfGhost && prevChatTick != chatTick)
-						{
-							// handle updating self ghost here
-							WorldPoint ghostPosition = new WorldPoint(playerWorldLocationX, playerWorldLocationY, playerWorldLocationPlane);
-							selfGhost.moveTo(ghostPosition, playerPackedOrientation * JAU_PACKING_RATIO, playerAnimationID, playerIsInteracting, playerIsPoseAnimation, isInstanced, chatTick);
-							this.prevChatTick = chatTick; // this prevents packets with the same server gameTick across two different client gameTicks from repeating the same moveTo destination
-							isFirstPacket = false;
-						}
-
-						// all ghost positional data within a packet is relative to 15 tiles SW of where the server believes the player to be
-						playerWorldLocationX -= 15;
-						playerWorldLocationY -= 15;
-
-						// 16 ghosts per packet, split across 4 sections (5 blocks each)
-						for (int sectionID = 0; sectionID < 4; sectionID++)
-						{
-							int ghostDataBlockIdx = sectionID * 5 + 1; // 1, 6, 11, 16
-
-							// there are 4 ghosts per data block
-							for (int j = 0; j < JebScapeServerData.DATA_BLOCK_SIZE; j++)
-							{
-								int ghostID = (packetID * 16) + (sectionID * JebScapeServerData.DATA_BLOCK_SIZE) + j;
-
-								// all data outside the total range must necessarily have despawned ghosts
-								if (packetID >= numChatPacketsSent[chatTick])
-								{
-									ghosts[ghostID].despawn();
-									this.prevGhostModelData[ghostID][0] = 0;
-									this.prevGhostModelData[ghostID][1] = 0;
-									this.prevGhostModelData[ghostID][2] = 0;
-									this.prevGhostModelData[ghostID][3] = 0;
-									this.prevGhostCapeID[ghostID] = 31;
-									this.ghostCapeID[ghostID] = 31;
-								}
-								else if (!emptyPacket) // within range and not empty, so let's process
-								{
-									// each piece of ghost data is 4 bytes
-									int ghostData = data.blocks[ghostDataBlockIdx][j];
-
-									// if the values are 0x1F (31) for each dx and dy, then the ghost has despawned
-									// 10 bits combined for dx and dy; check first if despawned
-									boolean despawned = (ghostData & 0x3FF) == 0x3FF; // 10 bits (if dx and dy are both all 1s)
-
-									if (despawned)
-									{
-										ghosts[ghostID].despawn();
-										this.prevGhostModelData[ghostID][0] = 0;
-										this.prevGhostModelData[ghostID][1] = 0;
-										this.prevGhostModelData[ghostID][2] = 0;
-										this.prevGhostModelData[ghostID][3] = 0;
-										this.prevGhostCapeID[ghostID] = 31;
-										this.ghostCapeID[ghostID] = 31;
-									}
-									else
-									{
-										// not despawned, so let's extract the full data
-										// 5 bits dx
-										// 5 bits dy
-										// 6 bits packedOrientation
-										// 14 bits animationID
-										// 1 bit isInteracting
-										// 1 bit isPoseAnimation
-										int dx = ghostData & 0x1F;										// 5/32 bits
-										int dy = (ghostData >>> 5) & 0x1F;								// 10/32 bits
-										int packedOrientation = (ghostData >>> 10) & 0x3F;				// 16/32 bits
-										int animationID = (ghostData >>> 16) & 0x3FFF;					// 30/32 bits
-										boolean isInteracting = ((ghostData >>> 30) & 0x1) == 0x1;		// 31/32 bits
-										boolean isPoseAnimation = ((ghostData >>> 31) & 0x1) == 0x1;	// 32/32 bits
-
-										WorldPoint ghostPosition = new WorldPoint(playerWorldLocationX + dx, playerWorldLocationY + dy, playerWorldLocationPlane);
-										ghosts[ghostID].moveTo(ghostPosition, packedOrientation * JAU_PACKING_RATIO, animationID, isInteracting, isPoseAnimation, isInstanced, chatTick);
-										
-										int blockIdx = ghostDataBlockIdx + j + 1;
-
-										if ((chatTick & 0x1) == 0x1)
-										{
-											boolean modelDataChanged = data.blocks[blockIdx][0] != prevGhostModelData[ghostID][0];
-											modelDataChanged = modelDataChanged || (data.blocks[blockIdx][1] != prevGhostModelData[ghostID][1]);
-											modelDataChanged = modelDataChanged || (data.blocks[blockIdx][2] != prevGhostModelData[ghostID][2]);
-											modelDataChanged = modelDataChanged || (data.blocks[blockIdx][3] != prevGhostModelData[ghostID][3]);
-											modelDataChanged = modelDataChanged || ghostCapeID[ghostID] != prevGhostCapeID[ghostID];
-											modelDataChanged = modelDataChanged || ghostsDirty[ghostID];
-
-											this.prevGhostModelData[ghostID][0] = data.blocks[blockIdx][0];
-											this.prevGhostModelData[ghostID][1] = data.blocks[blockIdx][1];
-											this.prevGhostModelData[ghostID][2] = data.blocks[blockIdx][2];
-											this.prevGhostModelData[ghostID][3] = data.blocks[blockIdx][3];
-											this.prevGhostCapeID[ghostID] = ghostCapeID[ghostID];
-											ghostsDirty[ghostID] = false;
-
-											if (modelDataChanged)
-											{
-												// extract ghost model data
-												equipmentIDs[0] = data.blocks[blockIdx][0] & 0xFFFF;
-												equipmentIDs[1] = (data.blocks[blockIdx][0] >>> 16) & 0xFFFF;
-
-												equipmentIDs[2] = data.blocks[blockIdx][1] & 0xFFFF;
-												equipmentIDs[3] = (data.blocks[blockIdx][1] >>> 16) & 0xFFFF;
-
-												equipmentIDs[4] = data.blocks[blockIdx][2] & 0xFFFF;
-												equipmentIDs[5] = (data.blocks[blockIdx][2] >>> 16) & 0xFFFF;
-
-												equipmentIDs[6] = data.blocks[blockIdx][3] & 0xFFFF;
-												int isFemale = (data.blocks[blockIdx][3] >>> 31) & 0x1;
-												bodyPartIDs = modelLoader.unpackBodyParts((data.blocks[blockIdx][3] >>> 16) & 0x7FFF, isFemale);
-
-												Model ghostModel = modelLoader.loadPlayerGhostRenderable(equipmentIDs, bodyPartIDs, isFemale, ghostCapeID[ghostID]);
-												ghosts[ghostID].setModel(ghostModel);
-											}
-										}
-										else
-										{
-											// extract ghost world and name
-											int ghostWorld = data.blocks[blockIdx][0] & 0x3FFF;
-											ghosts[ghostID].setWorld(ghostWorld);
-											this.ghostCapeID[ghostID] = (data.blocks[blockIdx][0] >>> 14) & 0x1F;
-
-											nameBytes[0] = (byte)(data.blocks[blockIdx][1] & 0xFF);
-											nameBytes[1] = (byte)((data.blocks[blockIdx][1] >>> 8) & 0xFF);
-											nameBytes[2] = (byte)((data.blocks[blockIdx][1] >>> 16) & 0xFF);
-											nameBytes[3] = (byte)((data.blocks[blockIdx][1] >>> 24) & 0xFF);
-
-											nameBytes[4] = (byte)(data.blocks[blockIdx][2] & 0xFF);
-											nameBytes[5] = (byte)((data.blocks[blockIdx][2] >>> 8) & 0xFF);
-											nameBytes[6] = (byte)((data.blocks[blockIdx][2] >>> 16) & 0xFF);
-											nameBytes[7] = (byte)((data.blocks[blockIdx][2] >>> 24) & 0xFF);
-
-											nameBytes[8] = (byte)(data.blocks[blockIdx][3] & 0xFF);
-											nameBytes[9] = (byte)((data.blocks[blockIdx][3] >>> 8) & 0xFF);
-											nameBytes[10] = (byte)((data.blocks[blockIdx][3] >>> 16) & 0xFF);
-											nameBytes[11] = (byte)((data.blocks[blockIdx][3] >>> 24) & 0xFF);
-
-											ghosts[ghostID].setName(new String(nameBytes, StandardCharsets.UTF_8).trim());
-										}
-									}
-								}
-							}
-						}
-
-						if (containsMegaserverCmd) // contains chat messages (TODO: fix naming and how this command works so there's only 1 bit ever used)
-						{
-							// extract chat message
-							int ghostWorld = data.blocks[28][0];
-
-							if (ghostWorld != 0)
-							{
-								// a chat message exists, so let's extract the rest
-								nameBytes[0] = (byte)(data.blocks[28][1] & 0xFF);
-								nameBytes[1] = (byte)((data.blocks[28][1] >>> 8) & 0xFF);
-								nameBytes[2] = (byte)((data.blocks[28][1] >>> 16) & 0xFF);
-								nameBytes[3] = (byte)((data.blocks[28][1] >>> 24) & 0xFF);
-
-								nameBytes[4] = (byte)(data.blocks[28][2] & 0xFF);
-								nameBytes[5] = (byte)((data.blocks[28][2] >>> 8) & 0xFF);
-								nameBytes[6] = (byte)((data.blocks[28][2] >>> 16) & 0xFF);
-								nameBytes[7] = (byte)((data.blocks[28][2] >>> 24) & 0xFF);
-
-								nameBytes[8] = (byte)(data.blocks[28][3] & 0xFF);
-								nameBytes[9] = (byte)((data.blocks[28][3] >>> 8) & 0xFF);
-								nameBytes[10] = (byte)((data.blocks[28][3] >>> 16) & 0xFF);
-								nameBytes[11] = (byte)((data.blocks[28][3] >>> 24) & 0xFF);
-
-								String senderName = new String(nameBytes, StandardCharsets.UTF_8).trim();
-								// now let's see if we can find the corresponding ghost for this chat message
-								for (int ghostID = 0; ghostID < MAX_GHOSTS; ghostID++)
-								{
-									JebScapeActor ghost = ghosts[ghostID];
-									if (ghost.isActive())
-									{
-										String name = ghost.getName();
-										if (ghost.getWorld() == ghostWorld && name != null && name.contentEquals(senderName))
-										{
-											// we found our ghost, let's proceed
-											int index = 0;
-											for (int j = 29; j < 34; j++)
-											{
-												for (int k = 0; k < 4; k++)
-												{
-													chatBytes[index++] = (byte)(data.blocks[j][k] & 0xFF);
-													chatBytes[index++] = (byte)((data.blocks[j][k] >>> 8) & 0xFF);
-													chatBytes[index++] = (byte)((data.blocks[j][k] >>> 16) & 0xFF);
-													chatBytes[index++] = (byte)((data.blocks[j][k] >>> 24) & 0xFF);
-												}
-											}
-
-											ghosts[ghostID].setChatMessage(new String(chatBytes, StandardCharsets.UTF_8).trim());
-											break;
-										}
-									}
-								}
-							}
-						}
-						else if (containsLiveHiscoresCmd) // contains live hiscores data instead
-						{
-							// player coreData contains info on the current monitored player rather than oneself
-
-							// unpack the sub data
-							// 3 bits monitoredPlayerRankOffset (ranks 0-4; all 1 bits mean none is monitored)
-							// 17 bits startingRank (the ranks we pass down are offset by this)
-							// 12 bits liveHiscoresLevels[0]
-							int monitoredPlayerRankOffset = data.blocks[28][0] & 0x7;		// 3/32 bits
-							int startRank = (data.blocks[28][0] >>> 3) & 0x1FFFF;			// 20/32 bits
-							liveHiscoresLevels[0] = (data.blocks[28][0] >>> 20) & 0xFFF;	// 32/32 bits
-
-							// 12 bits liveHiscoresLevels[1]
-							// 12 bits liveHiscoresLevels[2]
-							// 8 bits reserved
-							liveHiscoresLevels[1] = data.blocks[28][1] & 0xFFF;				// 12/32 bits
-							liveHiscoresLevels[2] = (data.blocks[28][1] >>> 12) & 0xFFF;	// 24/32 bits
-
-							// 12 bits liveHiscoresLevels[3]
-							// 12 bits liveHiscoresLevels[4]
-							// 8 bits reserved
-							liveHiscoresLevels[3] = data.blocks[28][2] & 0xFFF;				// 12/32 bits
-							liveHiscoresLevels[4] = (data.blocks[28][2] >>> 12) & 0xFFF;	// 24/32 bits
-
-							// 5 bits skill type
-							// 2 bits reserved
-							// 25 bits for Overall upperXPs; 5 bits each
-							// 2 bits reserved
-							int skillType = data.blocks[28][3] & 0x5F;								// 5/32 bits
-							//int reserved = (data.subDataBlocks[0][3] >>> 5) & 0x3;				// 7/32 bits
-							liveHiscoresXPs[0] = (long)((data.blocks[28][3] >>> 7) & 0x1F) << 31;	// 12/32 bits
-							liveHiscoresXPs[1] = (long)((data.blocks[28][3] >>> 12) & 0x1F) << 31;	// 17/32 bits
-							liveHiscoresXPs[2] = (long)((data.blocks[28][3] >>> 17) & 0x1F) << 31;	// 22/32 bits
-							liveHiscoresXPs[3] = (long)((data.blocks[28][3] >>> 22) & 0x1F) << 31;	// 27/32 bits
-							liveHiscoresXPs[4] = (long)((data.blocks[28][3] >>> 27) & 0x1F) << 31;	// 32/32 bits
-
-							for (int j = 0; j < NUM_RANKS; j++)
-							{
-								int blockIdx = j + 29;
-								liveHiscoresXPs[j] |= data.blocks[blockIdx][0] & 0x7FFFFFFF;				// 31/32 bits
-								liveHiscoresOnlineStatuses[j] = ((data.blocks[blockIdx][0] >>> 31) == 0x1);	// 32/32 bits
-
-								nameBytes[0] = (byte)(data.blocks[blockIdx][1] & 0xFF);
-								nameBytes[1] = (byte)((data.blocks[blockIdx][1] >>> 8) & 0xFF);
-								nameBytes[2] = (byte)((data.blocks[blockIdx][1] >>> 16) & 0xFF);
-								nameBytes[3] = (byte)((data.blocks[blockIdx][1] >>> 24) & 0xFF);
-
-								nameBytes[4] = (byte)(data.blocks[blockIdx][2] & 0xFF);
-								nameBytes[5] = (byte)((data.blocks[blockIdx][2] >>> 8) & 0xFF);
-								nameBytes[6] = (byte)((data.blocks[blockIdx][2] >>> 16) & 0xFF);
-								nameBytes[7] = (byte)((data.blocks[blockIdx][2] >>> 24) & 0xFF);
-
-								nameBytes[8] = (byte)(data.blocks[blockIdx][3] & 0xFF);
-								nameBytes[9] = (byte)((data.blocks[blockIdx][3] >>> 8) & 0xFF);
-								nameBytes[10] = (byte)((data.blocks[blockIdx][3] >>> 16) & 0xFF);
-								nameBytes[11] = (byte)((data.blocks[blockIdx][3] >>> 24) & 0xFF);
-
-								liveHiscoresPlayerNames[j] = new String(nameBytes, StandardCharsets.UTF_8).trim();
-							}
-
-							liveHiscoresOverlay.updateSkillHiscoresData(skillType, startRank, liveHiscoresPlayerNames, liveHiscoresLevels, liveHiscoresXPs, liveHiscoresOnlineStatuses);
-
-							if (startRank == 1 && liveHiscoresPlayerNames[0].contentEquals(client.getLocalPlayer().getName()))
-							{
-								// if our player is rank 1 in a skill, let's update their capeID accordingly
-								// set to female max cape if rank 1 Overall is female
-								this.playerCapeID = (skillType == 0 && client.getLocalPlayer().getPlayerComposition().getGender() == 1) ? JebScapeModelLoader.femaleMaxCapeID : skillType;
-							}
-						}
-					}
-				}
-			}
+			loaded.putAll(appearanceCache);
+			this.appearanceCache = loaded;
+			this.loadedAppearanceCache = null;
+			this.isAppearanceCacheLoaded = true;
+			this.numWarmupEntries = appearanceCache.getMostSeen(warmupEntries);
 		}
 		
+		// rank what we knew of as of last tick; anyone new may take whatever room is left over
+		this.gameTickCount++;
+		interestManager.allocate(maxRenderedGhosts, gameTickCount);
+		for (int ghostID = 0; ghostID < numGhostSlots; ghostID++)
+			if (!interestManager.isInBudget(ghostID) && ghosts[ghostID].isActive())
+				hideGhost(ghostID);
+		
+		// analyze most recent data received from the server
+		processChatServerData();
+		int currentChatTick = server.getCurrentChatTick();
+		
 		// now let's send our data to the server for the current tick
 		Player player = client.getLocalPlayer();
 		WorldPoint position = player.getWorldLocation();
@@ -656,43 +504,36 @@ public class MegaserverMod
 		}
 		boolean isInteracting = player.getInteracting() != null;
 		int packedOrientation = player.getOrientation() / JAU_PACKING_RATIO;
-		boolean isPVP = WorldType.isPvpWorld(client.getWorldType());
+		// the world type set is built anew on each call, and can't change without hopping worlds anyway
+		int world = client.getWorld();
+		if (world != prevWorld)
+		{
+			this.isPVP = WorldType.isPvpWorld(client.getWorldType());
+			this.prevWorld = world;
+		}
 		boolean isInstanced = client.isInInstancedRegion();
 		
 		if (isInstanced)
 			position = WorldPoint.fromLocalInstance(client, LocalPoint.fromWorld(client, position));
 		
-		// populate the packet body
-		// 8 bitflags for game command
-		// 1 bit isPVP
-		// 1 bit isInstanced
-		// 6 bits reserved
-		// 14 bits world
-		// 2 bits plane
-		coreData[0] = MEGASERVER_MOVEMENT_UPDATE_CMD & 0xFF;// 8/32 bits
-		coreData[0] |= (isPVP ? 0x1 : 0x0) << 8;			// 9/32 bits
-		coreData[0] |= (isInstanced ? 0x1 : 0x0) << 9;		// 10/32 bits
-		coreData[0] |= (0x0 & 0x3F) << 10;					// 16/32 bits
-		coreData[0] |= (client.getWorld() & 0x3FFF) << 16;	// 30/32 bits
-		coreData[0] |= (client.getPlane() & 0x3) << 30;		// 32/32 bits
-		
-		// 16 bits world X position
-		// 16 bits world Y position
-		coreData[1] = position.getX() & 0xFFFF;				// 16/32 bits
-		coreData[1] |= (position.getY() & 0xFFFF) << 16;	// 32/32 bits
-		
-		// 5 bits reserved
-		// 5 bits playerCapeID
-		// 6 bits packedOrientation
-		// 14 bits animationID
-		// 1 bit isInteracting
-		// 1 bit isPoseAnimation
-		coreData[2] = (0x0 & 0x3FF) << 5;					// 5/32 bits
-		coreData[2] |= (playerCapeID & 0x1F) << 5;			// 10/32 bits
-		coreData[2] |= (packedOrientation & 0x3F) << 10;	// 16/32 bits
-		coreData[2] |= (animationID & 0x3FFF) << 16;		// 30/32 bits
-		coreData[2] |= (isInteracting ? 0x1 : 0x0) << 30;	// 31/32 bits
-		coreData[2] |= (isPoseAnimation ? 0x1 : 0x0) << 31;	// 32/32 bits
+		// populate the packet body; see JebScapeProtocol for the layout
+		coreData[0] = JebScapeBitCodec.pack(CoreWorld.CMD_FLAGS, MEGASERVER_MOVEMENT_UPDATE_CMD);
+		coreData[0] |= JebScapeBitCodec.pack(CoreWorld.IS_PVP, isPVP);
+		coreData[0] |= JebScapeBitCodec.pack(CoreWorld.IS_INSTANCED, isInstanced);
+		coreData[0] |= JebScapeBitCodec.pack(CoreWorld.INTEREST_RADIUS, interestRadius);
+		coreData[0] |= JebScapeBitCodec.pack(CoreWorld.WORLD, world);
+		coreData[0] |= JebScapeBitCodec.pack(CoreWorld.PLANE, client.getPlane());
+		
+		coreData[1] = JebScapeBitCodec.pack(CorePosition.X, position.getX());
+		coreData[1] |= JebScapeBitCodec.pack(CorePosition.Y, position.getY());
+		
+		int numGhostPacketsWanted = Math.min(MAX_GHOST_PACKETS_PER_TICK, (maxRenderedGhosts + GHOSTS_PER_PACKET - 1) / GHOSTS_PER_PACKET);
+		coreData[2] = JebScapeBitCodec.pack(CoreAnimation.GHOST_PACKETS_WANTED, numGhostPacketsWanted);
+		coreData[2] |= JebScapeBitCodec.pack(CoreAnimation.CAPE_ID, playerCapeID);
+		coreData[2] |= JebScapeBitCodec.pack(CoreAnimation.ORIENTATION, packedOrientation);
+		coreData[2] |= JebScapeBitCodec.pack(CoreAnimation.ANIMATION_ID, animationID);
+		coreData[2] |= JebScapeBitCodec.pack(CoreAnimation.IS_INTERACTING, isInteracting);
+		coreData[2] |= JebScapeBitCodec.pack(CoreAnimation.IS_POSE_ANIMATION, isPoseAnimation);
 		
 		// get player models and send them across as well
 		PlayerComposition playerComposition = player.getPlayerComposition();
@@ -712,7 +553,7 @@ public class MegaserverMod
 
 		if (hairID >= 0)
 		{
-			int hairPartID = JebScapeModelLoader.kitIDtoBodyPartMap[hairID];
+			int hairPartID = modelLoader.getBodyPartID(hairID);
 
 			if (isFemale == 1)
 				this.defaultFemaleHairPartID = hairPartID;
@@ -728,7 +569,7 @@ public class MegaserverMod
 
 		if (jawID >= 0)
 		{
-			int jawPartID = JebScapeModelLoader.kitIDtoBodyPartMap[jawID];
+			int jawPartID = modelLoader.getBodyPartID(jawID);
 
 			if (isFemale == 1)
 				this.defaultFemaleJawPartID = jawPartID;
@@ -742,9 +583,9 @@ public class MegaserverMod
 			}
 		}
 
-		bodyPartIDs[0] = hairID >= 0 ? JebScapeModelLoader.kitIDtoBodyPartMap[hairID] : (isFemale == 1 ? defaultFemaleHairPartID : defaultMaleHairPartID);
-		bodyPartIDs[1] = jawID >= 0 ? JebScapeModelLoader.kitIDtoBodyPartMap[jawID] : (isFemale == 1 ? defaultFemaleJawPartID : defaultMaleJawPartID);
-		bodyPartIDs[2] = armsID >= 0 ? JebScapeModelLoader.kitIDtoBodyPartMap[armsID] : 0;
+		bodyPartIDs[0] = hairID >= 0 ? modelLoader.getBodyPartID(hairID) : (isFemale == 1 ? defaultFemaleHairPartID : defaultMaleHairPartID);
+		bodyPartIDs[1] = jawID >= 0 ? modelLoader.getBodyPartID(jawID) : (isFemale == 1 ? defaultFemaleJawPartID : defaultMaleJawPartID);
+		bodyPartIDs[2] = armsID >= 0 ? modelLoader.getBodyPartID(armsID) : 0;
 
 		if (showSelfGhost)
 		{
@@ -780,26 +621,17 @@ public class MegaserverMod
 			selfGhost.despawn();
 		}
 		
-		// 16 bits per equipment ID (2x)
-		gameSubData[0] = equipmentIDs[0] & 0xFFFF;			// 16/32 bits
-		gameSubData[0] |= (equipmentIDs[1] & 0xFFFF) << 16;	// 32/32 bits
-		
-		// 16 bits per equipment ID (2x)
-		gameSubData[1] = equipmentIDs[2] & 0xFFFF;			// 16/32 bits
-		gameSubData[1] |= (equipmentIDs[3] & 0xFFFF) << 16;	// 32/32 bits
-		
-		// 16 bits per equipment ID (2x)
-		gameSubData[2] = equipmentIDs[4] & 0xFFFF;			// 16/32 bits
-		gameSubData[2] |= (equipmentIDs[5] & 0xFFFF) << 16;	// 32/32 bits
+		for (int i = 0; i < 3; i++)
+		{
+			gameSubData[i] = JebScapeBitCodec.pack(EquipmentPair.FIRST, equipmentIDs[i * 2]);
+			gameSubData[i] |= JebScapeBitCodec.pack(EquipmentPair.SECOND, equipmentIDs[i * 2 + 1]);
+		}
 		
-		// 16 bits equipment ID
-		// 15 bits packed body part IDs
-		// 1 bit isFemale
-		gameSubData[3] = equipmentIDs[6] & 0xFFFF;												// 16/32 bits
-		gameSubData[3] |= (modelLoader.packBodyParts(bodyPartIDs, isFemale) & 0x7FFF) << 16;	// 31/32 bits
-		gameSubData[3] |= (isFemale == 1 ? 1 : 0) << 31;										// 32/32 bits
+		gameSubData[3] = JebScapeBitCodec.pack(EquipmentBody.EQUIPMENT_ID, equipmentIDs[6]);
+		gameSubData[3] |= JebScapeBitCodec.pack(EquipmentBody.BODY_PARTS, modelLoader.packBodyParts(bodyPartIDs, isFemale));
+		gameSubData[3] |= JebScapeBitCodec.pack(EquipmentBody.IS_FEMALE, isFemale == 1);
 
-		byte[] extraChatData = new byte[96];
+		Arrays.fill(extraChatData, (byte)0);
 		
 		if (!chatMessageToSend.isEmpty()) // check if we've recently sent a chat message
 		{
@@ -817,7 +649,13 @@ public class MegaserverMod
 			}
 			else
 			{
-				extraChatData = chatMessageToSend.getBytes(StandardCharsets.UTF_8);
+				// encoded straight into the buffer we send from; anything past 96 bytes is cut short as before
+				chatChars.clear();
+				chatChars.put(chatMessageToSend, 0, Math.min(chatMessageToSend.length(), chatChars.capacity()));
+				chatChars.flip();
+				extraChatBuffer.clear();
+				chatEncoder.reset();
+				chatEncoder.encode(chatChars, extraChatBuffer, true);
 			}
 			
 			this.chatMessageToSend = "";
@@ -834,17 +672,16 @@ public class MegaserverMod
 			// we are going to pack these slightly differently, with 1 bit per skill
 			int userInputDataA = 0; // reserved for custom JebScape skill
 			int userInputDataB = 0; // reserved for upper bits of custom JebScape skill & monitored player data
-			int userInputDataC = startRankToTrack & 0x1FFFF;	// 17/24 bits
-			userInputDataC |= (skillType & 0x7F) << 17;			// 24/24 bits
+			int userInputDataC = JebScapeBitCodec.pack(HiscoresRequest.START_RANK, startRankToTrack);
+			userInputDataC |= JebScapeBitCodec.pack(HiscoresRequest.SKILL_TYPE, skillType);
 			
 			if (!server.isChatGuest()) // authenticated
 			{
 				// if we're not sending a chat message this tick, then let's send a stat update for the hiscores
-				Skill skills[] = Skill.values();
-				final int numSkills = skills.length;
+				final int numSkills = SKILLS.length;
 				for (int i = 0; i < numSkills; i++)
 				{
-					int xp = client.getSkillExperience(skills[i]);
+					int xp = client.getSkillExperience(SKILLS[i]);
 					if (xp == 200000000) // if maxed out
 					{
 						// let's include our accumulated fake xp drops; clamp it to be safe from buffer overflows
@@ -860,25 +697,387 @@ public class MegaserverMod
 						}
 					}
 					
-					xp = (xp & 0x1FFFFFFF); // use only 29 bits
-					
-					extraChatData[i * 4] = (byte)(xp);          	// 8/32 bits
-					extraChatData[i * 4 + 1] = (byte)(xp >>> 8);	// 16/32 bits
-					extraChatData[i * 4 + 2] = (byte)(xp >>> 16);	// 24/32 bits
-					extraChatData[i * 4 + 3] = (byte)(xp >>> 24);	// 29/32 bits
+					PackedBytes.toBytes(JebScapeBitCodec.pack(SkillXp.XP, xp), extraChatData, i * 4);
 				}
 			}
 			
 			for (int i = 0; i < NUM_SKILLS; i++)
 			{
 				// we have 3 bits to spare per skill, let's pack them in one at a time
-				extraChatData[i * 4 + 3] |= (byte)(((userInputDataA >>> i) & 0x1) << 5);    // 30/32 bits
-				extraChatData[i * 4 + 3] |= (byte)(((userInputDataB >>> i) & 0x1) << 6);    // 31/32 bits
-				extraChatData[i * 4 + 3] |= (byte)(((userInputDataC >>> i) & 0x1) << 7);    // 32/32 bits
+				int spareBits = JebScapeBitCodec.pack(SkillXp.USER_INPUT_A, (userInputDataA >>> i) & 0x1);
+				spareBits |= JebScapeBitCodec.pack(SkillXp.USER_INPUT_B, (userInputDataB >>> i) & 0x1);
+				spareBits |= JebScapeBitCodec.pack(SkillXp.USER_INPUT_C, (userInputDataC >>> i) & 0x1);
+				extraChatData[i * 4 + 3] |= (byte)(spareBits >>> 24);
 			}
 		}
 		
-		return server.sendGameData(coreData, gameSubData, extraChatData) ? 12 : 0; // TODO: Why are we returning 12 here?
+		return server.sendGameData(coreData, gameSubData, extraChatData);
+	}
+	
+	// applies whichever server ticks the connection has handed over to be played out
+	// runs once per game tick, and also on client ticks when server data is processed as soon as it arrives
+	public void processChatServerData()
+	{
+		JebScapeServerData[][] chatServerData = server.getRecentChatServerData();
+		int[] numChatPacketsSent = server.getNumChatServerPacketsSent();
+		int currentChatTick = server.getCurrentChatTick();
+		int numGhostPackets = server.getChatServerPacketCapacity();
+		ensureGhostCapacity(numGhostPackets * GHOSTS_PER_PACKET);
+		
+		// this will update up to 256 ghosts with up to 16 past ticks' worth of data
+		// doing this makes us more resilient to unpredictable network delays with either the OSRS server or JebScape server
+		// we start with the oldest data first...
+		for (int i = 0; i < server.TICKS_UNTIL_LOGOUT; i++)
+		{
+			// start the cycle from the earliest tick we might have data on
+			int chatTick = (currentChatTick + i) % server.TICKS_UNTIL_LOGOUT;
+
+			// only bother if we've received any packets for this tick
+			if (server.isChatTickReady(chatTick))
+			{
+				// unpack everything first, then play it out on our actors
+				ghostFrame.decode(chatServerData[chatTick], numGhostPackets, numChatPacketsSent[chatTick], server.getChatServerPacketsReceived(chatTick), chatTick);
+				applyGhostFrame(ghostFrame);
+			}
+		}
+	}
+	
+	// drives the actors, overlays and chat from a decoded tick, packet by packet in the order the server sent them
+	private void applyGhostFrame(JebScapeGhostFrame frame)
+	{
+		int chatTick = frame.chatTick;
+		boolean isFirstPacket = true;
+		for (int packetID = 0; packetID < frame.numPackets; packetID++)
+		{
+			int firstGhostID = packetID * GHOSTS_PER_PACKET;
+			
+			// all data outside the total range must necessarily have despawned ghosts
+			if (packetID >= frame.numPacketsSent)
+			{
+				for (int ghostID = firstGhostID; ghostID < firstGhostID + GHOSTS_PER_PACKET; ghostID++)
+					despawnGhost(ghostID);
+				continue;
+			}
+			
+			// packets lost or yet to arrive leave their ghosts carrying on from their last known state
+			if (!frame.isPacketReceived(packetID))
+				continue;
+			
+			int cmdFlags = frame.cmdFlags[packetID]; // bitflags, so let's just test the one bit
+			boolean containsMegaserverCmd = (cmdFlags & MEGASERVER_MOVEMENT_UPDATE_CMD) != 0;
+			boolean containsLiveHiscoresCmd = (cmdFlags & LIVE_HISCORES_STATS_UPDATE_CMD) != 0;
+			int playerWorldLocationX = frame.playerX[packetID];
+			int playerWorldLocationY = frame.playerY[packetID];
+			int playerWorldLocationPlane = frame.playerPlane[packetID];
+			int playerFlags = frame.playerFlags[packetID];
+			boolean isInstanced = (playerFlags & JebScapeGhostFrame.IS_INSTANCED) != 0;
+
+			// experimental implementation for instances
+			if (client.isInInstancedRegion() && isInstanced)
+			{
+				// find the difference between the instance positions
+				WorldPoint currentPlayerWorldPosition = client.getLocalPlayer().getWorldLocation();
+				WorldPoint currentPlayerInstancePosition = WorldPoint.fromLocalInstance(client, LocalPoint.fromWorld(client, currentPlayerWorldPosition));
+				int dx = playerWorldLocationX - currentPlayerInstancePosition.getX();
+				int dy = playerWorldLocationY - currentPlayerInstancePosition.getY();
+
+				// add this difference to where our player happens to be located in normal world space
+				playerWorldLocationX = currentPlayerWorldPosition.getX() + dx;
+				playerWorldLocationY = currentPlayerWorldPosition.getY() + dy;
+				playerWorldLocationPlane = currentPlayerWorldPosition.getPlane();
+			}
+
+			// profile stats:
+			/*
+			if (packetID == 0)
+			{
+				int coreTickTime = data.getBlock(26, 0);
+				int totalTickTime = data.getBlock(26, 1);
+				int postTickTime = data.getBlock(26, 2);
+				int playerCount = data.getBlock(26, 3);
+				client.addChatMessage(ChatMessageType.TENSECTIMEOUT, "", "Core: " + coreTickTime + " Total: " + totalTickTime + " Post: " + postTickTime + " Players: " + playerCount, null);
+			}
+			//*/
+
+			if (frame.playerWorld[packetID] != client.getWorld())
+				continue;
+			
+			if (isFirstPacket && showSelfGhost && prevChatTick != chatTick)
+			{
+				// handle updating self ghost here
+				selfGhost.moveTo(playerWorldLocationX, playerWorldLocationY, playerWorldLocationPlane, frame.playerOrientation[packetID] * JAU_PACKING_RATIO, frame.playerAnimationID[packetID],
+						(playerFlags & JebScapeGhostFrame.IS_INTERACTING) != 0, (playerFlags & JebScapeGhostFrame.IS_POSE_ANIMATION) != 0, isInstanced, chatTick);
+				this.prevChatTick = chatTick; // this prevents packets with the same server gameTick across two different client gameTicks from repeating the same moveTo destination
+				isFirstPacket = false;
+			}
+
+			// all ghost positional data within a packet is relative to 15 tiles SW of where the server believes the player to be
+			playerWorldLocationX -= 15;
+			playerWorldLocationY -= 15;
+
+			for (int ghostID = firstGhostID; ghostID < firstGhostID + GHOSTS_PER_PACKET; ghostID++)
+			{
+				if (frame.state[ghostID] == JebScapeGhostFrame.DESPAWNED)
+				{
+					despawnGhost(ghostID);
+					continue;
+				}
+				
+				int dx = frame.dx[ghostID];
+				int dy = frame.dy[ghostID];
+				
+				// offsets are from 15 tiles SW of the player, so this is how many tiles away the ghost is
+				int distance = Math.max(Math.abs(dx - 15), Math.abs(dy - 15));
+				interestManager.onGhostSeen(ghostID, distance, gameTickCount);
+				if (!interestManager.tryAdmit(ghostID))
+					continue;
+				rebuildQueue.setDistance(ghostID, distance);
+
+				int ghostFlags = frame.flags[ghostID];
+				ghosts[ghostID].moveTo(playerWorldLocationX + dx, playerWorldLocationY + dy, playerWorldLocationPlane, frame.orientation[ghostID] * JAU_PACKING_RATIO, frame.animationID[ghostID],
+						(ghostFlags & JebScapeGhostFrame.IS_INTERACTING) != 0, (ghostFlags & JebScapeGhostFrame.IS_POSE_ANIMATION) != 0, isInstanced, chatTick);
+				
+				if (frame.hasAppearance)
+					applyGhostAppearance(frame, ghostID, distance);
+				else
+					applyGhostName(frame, ghostID, distance);
+			}
+
+			if (containsMegaserverCmd) // contains chat messages (TODO: fix naming and how this command works so there's only 1 bit ever used)
+			{
+				// extract chat message
+				int ghostWorld = frame.getExtraBlock(packetID, 28, 0);
+
+				if (ghostWorld != 0)
+				{
+					// a chat message exists, so let's see if we can find the corresponding ghost for it
+					// the sender's name is packed just as the ghost's was, so it's looked up as is without decoding it
+					int ghostID = nameIndex.get(ghostWorld, frame.getExtraBlock(packetID, 28, 1), frame.getExtraBlock(packetID, 28, 2), frame.getExtraBlock(packetID, 28, 3));
+					if (ghostID >= 0 && ghosts[ghostID].isActive() && ghosts[ghostID].getWorld() == ghostWorld)
+					{
+						// we found our ghost, let's proceed
+						int index = 0;
+						for (int j = 29; j < 34; j++)
+						{
+							for (int k = 0; k < 4; k++)
+							{
+								PackedBytes.toBytes(frame.getExtraBlock(packetID, j, k), chatBytes, index);
+								index += 4;
+							}
+						}
+
+						ghosts[ghostID].setChatMessage(decodeChatMessage());
+					}
+				}
+			}
+			else if (containsLiveHiscoresCmd) // contains live hiscores data instead
+			{
+				// player coreData contains info on the current monitored player rather than oneself
+
+				// unpack the sub data; the ranks we pass down are offset by startRank
+				int ranksWord = frame.getExtraBlock(packetID, 28, 0);
+				int monitoredPlayerRankOffset = JebScapeBitCodec.get(HiscoresRanks.MONITORED_RANK_OFFSET, ranksWord);
+				int startRank = JebScapeBitCodec.get(HiscoresRanks.START_RANK, ranksWord);
+				liveHiscoresLevels[0] = JebScapeBitCodec.get(HiscoresRanks.LEVEL, ranksWord);
+				liveHiscoresLevels[1] = JebScapeBitCodec.get(HiscoresLevels.FIRST_LEVEL, frame.getExtraBlock(packetID, 28, 1));
+				liveHiscoresLevels[2] = JebScapeBitCodec.get(HiscoresLevels.SECOND_LEVEL, frame.getExtraBlock(packetID, 28, 1));
+				liveHiscoresLevels[3] = JebScapeBitCodec.get(HiscoresLevels.FIRST_LEVEL, frame.getExtraBlock(packetID, 28, 2));
+				liveHiscoresLevels[4] = JebScapeBitCodec.get(HiscoresLevels.SECOND_LEVEL, frame.getExtraBlock(packetID, 28, 2));
+
+				int skillWord = frame.getExtraBlock(packetID, 28, 3);
+				int skillType = JebScapeBitCodec.get(HiscoresSkill.SKILL_TYPE, skillWord);
+				for (int j = 0; j < NUM_RANKS; j++)
+				{
+					int blockIdx = j + 29;
+					int entryWord = frame.getExtraBlock(packetID, blockIdx, 0);
+					liveHiscoresXPs[j] = (long)JebScapeBitCodec.get(HiscoresSkill.UPPER_XP[j], skillWord) << 31;
+					liveHiscoresXPs[j] |= JebScapeBitCodec.get(HiscoresEntry.XP, entryWord);
+					liveHiscoresOnlineStatuses[j] = JebScapeBitCodec.isSet(HiscoresEntry.IS_ONLINE, entryWord);
+
+					int packedName0 = frame.getExtraBlock(packetID, blockIdx, 1);
+					int packedName1 = frame.getExtraBlock(packetID, blockIdx, 2);
+					int packedName2 = frame.getExtraBlock(packetID, blockIdx, 3);
+					int[] nameData = liveHiscoresNameData[j];
+					if (liveHiscoresPlayerNames[j] == null || !isSamePackedName(packedName0, packedName1, packedName2, nameData))
+					{
+						nameData[0] = packedName0;
+						nameData[1] = packedName1;
+						nameData[2] = packedName2;
+						
+						// no world is shown alongside hiscores names, and they're kept out of the ghosts' cache
+						liveHiscoresPlayerNames[j] = nameCache.decodeName(packedName0, packedName1, packedName2);
+					}
+				}
+
+				liveHiscoresOverlay.updateSkillHiscoresData(skillType, startRank, liveHiscoresPlayerNames, liveHiscoresLevels, liveHiscoresXPs, liveHiscoresOnlineStatuses);
+
+				if (startRank == 1 && liveHiscoresPlayerNames[0].contentEquals(client.getLocalPlayer().getName()))
+				{
+					// if our player is rank 1 in a skill, let's update their capeID accordingly
+					// set to female max cape if rank 1 Overall is female
+					this.playerCapeID = (skillType == 0 && client.getLocalPlayer().getPlayerComposition().getGender() == 1) ? JebScapeModelLoader.femaleMaxCapeID : skillType;
+				}
+			}
+		}
+	}
+	
+	// odd ticks: queue the ghost's model to be rebuilt if its equipment, cape or body has changed since
+	// it keeps showing whichever model it had until then, which is the default model if it's only just turned up
+	private void applyGhostAppearance(JebScapeGhostFrame frame, int ghostID, int distance)
+	{
+		int[] appearance = frame.appearance;
+		int appearanceIdx = ghostID * 4;
+		int[] prevModelData = prevGhostModelData[ghostID];
+		boolean modelDataChanged = appearance[appearanceIdx] != prevModelData[0];
+		modelDataChanged = modelDataChanged || (appearance[appearanceIdx + 1] != prevModelData[1]);
+		modelDataChanged = modelDataChanged || (appearance[appearanceIdx + 2] != prevModelData[2]);
+		modelDataChanged = modelDataChanged || (appearance[appearanceIdx + 3] != prevModelData[3]);
+		modelDataChanged = modelDataChanged || ghostCapeID[ghostID] != prevGhostCapeID[ghostID];
+		
+		// a model built from how they looked last time is kept if it turns out they still look that way
+		if (isGhostAppearanceGuessed[ghostID])
+		{
+			this.isGhostAppearanceGuessed[ghostID] = false;
+			if (!modelDataChanged)
+				this.numAppearancesGuessedRight++;
+		}
+		
+		// only remembered once we know whose appearance it is
+		int[] nameData = ghostNameData[ghostID];
+		if (modelDataChanged && (nameData[1] | nameData[2] | nameData[3]) != 0)
+			appearanceCache.put(nameData[1], nameData[2], nameData[3], appearance, appearanceIdx, ghostCapeID[ghostID]);
+		
+		modelDataChanged = modelDataChanged || ghostsDirty[ghostID];
+
+		System.arraycopy(appearance, appearanceIdx, prevModelData, 0, 4);
+		this.prevGhostCapeID[ghostID] = ghostCapeID[ghostID];
+		ghostsDirty[ghostID] = false;
+
+		if (modelDataChanged)
+			rebuildQueue.request(ghostID, distance, System.nanoTime());
+	}
+	
+	// loading a model can take a few milliseconds, so only so many are rebuilt each client tick, nearest ghosts first
+	private void processModelRebuilds()
+	{
+		long startNanos = System.nanoTime();
+		long nowNanos = startNanos;
+		do
+		{
+			int ghostID = rebuildQueue.poll();
+			if (ghostID < 0)
+				break;
+			
+			rebuildGhostModel(ghostID);
+			nowNanos = System.nanoTime();
+			rebuildQueue.onRebuilt(ghostID, nowNanos);
+		}
+		while (nowNanos - startNanos < MODEL_REBUILD_BUDGET_NANOS);
+		
+		// whatever time is left goes on building the regulars' models, so they're already shared by the time they turn up
+		while (numWarmupEntries > 0 && nowNanos - startNanos < MODEL_REBUILD_BUDGET_NANOS)
+		{
+			int entry = warmupEntries[--numWarmupEntries];
+			appearanceCache.getAppearance(entry, warmupAppearance, 0);
+			loadGhostModel(warmupAppearance, appearanceCache.getCapeID(entry));
+			nowNanos = System.nanoTime();
+		}
+	}
+	
+	// built from the latest appearance received, which may have changed again since the ghost was queued
+	private void rebuildGhostModel(int ghostID)
+	{
+		ghosts[ghostID].setModel(loadGhostModel(prevGhostModelData[ghostID], prevGhostCapeID[ghostID]));
+	}
+	
+	private Model loadGhostModel(int[] modelData, int capeID)
+	{
+		// extract ghost model data
+		for (int k = 0; k < 3; k++)
+		{
+			equipmentIDs[k * 2] = JebScapeBitCodec.get(EquipmentPair.FIRST, modelData[k]);
+			equipmentIDs[k * 2 + 1] = JebScapeBitCodec.get(EquipmentPair.SECOND, modelData[k]);
+		}
+
+		equipmentIDs[6] = JebScapeBitCodec.get(EquipmentBody.EQUIPMENT_ID, modelData[3]);
+		int isFemale = JebScapeBitCodec.get(EquipmentBody.IS_FEMALE, modelData[3]);
+		bodyPartIDs = modelLoader.unpackBodyParts(JebScapeBitCodec.get(EquipmentBody.BODY_PARTS, modelData[3]), isFemale);
+
+		return modelLoader.loadPlayerGhostRenderable(equipmentIDs, bodyPartIDs, isFemale, capeID);
+	}
+	
+	// even ticks: the ghost's world, cape and name
+	private void applyGhostName(JebScapeGhostFrame frame, int ghostID, int distance)
+	{
+		int ghostWorld = frame.world[ghostID];
+		ghosts[ghostID].setWorld(ghostWorld);
+		this.ghostCapeID[ghostID] = frame.capeID[ghostID];
+
+		// the ghost is only handed a name again if it or the world shown alongside it has changed
+		// the ghost itself forgets its name whenever it despawns, such as after walking out of view
+		int nameKeyIdx = ghostID * 3;
+		int packedName0 = frame.nameKey[nameKeyIdx];
+		int packedName1 = frame.nameKey[nameKeyIdx + 1];
+		int packedName2 = frame.nameKey[nameKeyIdx + 2];
+		int[] nameData = ghostNameData[ghostID];
+		String name = ghosts[ghostID].getName();
+		if (name == null || name.isEmpty() || nameData[0] != ghostWorld || !isSamePackedName(packedName0, packedName1, packedName2, nameData))
+		{
+			nameIndex.remove(ghostID, nameData[0], nameData[1], nameData[2], nameData[3]);
+			nameData[0] = ghostWorld;
+			nameData[1] = packedName0;
+			nameData[2] = packedName1;
+			nameData[3] = packedName2;
+			
+			nameIndex.put(ghostID, ghostWorld, packedName0, packedName1, packedName2);
+			
+			int entry = nameCache.lookup(ghostWorld, packedName0, packedName1, packedName2);
+			ghosts[ghostID].setName(nameCache.getName(entry), nameCache.getOverheadText(entry));
+			
+			int[] prevModelData = prevGhostModelData[ghostID];
+			boolean isAppearanceKnown = (prevModelData[0] | prevModelData[1] | prevModelData[2] | prevModelData[3]) != 0;
+			int appearanceEntry = appearanceCache.find(packedName0, packedName1, packedName2);
+			if (appearanceEntry >= 0)
+			{
+				appearanceCache.onSeen(appearanceEntry);
+				
+				// no appearance yet, so build them as they last looked rather than show the default model until the next odd tick
+				if (!isAppearanceKnown)
+				{
+					appearanceCache.getAppearance(appearanceEntry, prevModelData, 0);
+					this.prevGhostCapeID[ghostID] = ghostCapeID[ghostID];
+					this.isGhostAppearanceGuessed[ghostID] = true;
+					this.numAppearancesGuessed++;
+					rebuildQueue.request(ghostID, distance, System.nanoTime());
+				}
+			}
+			
+			// the appearance came first, before we knew whose it was
+			if (isAppearanceKnown)
+				appearanceCache.put(packedName0, packedName1, packedName2, prevModelData, 0, ghostCapeID[ghostID]);
+		}
+	}
+	
+	// decoded through buffers kept for the purpose, so that the one String made is the one the ghost is handed
+	private String decodeChatMessage()
+	{
+		chatByteBuffer.clear();
+		chatMessageChars.clear();
+		chatDecoder.reset();
+		chatDecoder.decode(chatByteBuffer, chatMessageChars, true);
+		chatDecoder.flush(chatMessageChars);
+		chatMessageChars.flip();
+		
+		// trimmed as String.trim() would, which takes off the padding too
+		int start = 0;
+		int end = chatMessageChars.limit();
+		while (start < end && chatMessageChars.get(start) <= ' ')
+			start++;
+		while (end > start && chatMessageChars.get(end - 1) <= ' ')
+			end--;
+		chatMessageChars.limit(end);
+		chatMessageChars.position(start);
+		return chatMessageChars.toString();
 	}
 	
 	public void onClientTick(ClientTick clientTick)
@@ -889,12 +1088,104 @@ public class MegaserverMod
 		// never unset dirty here
 		boolean result = !selfGhost.onClientTick();
 		this.selfGhostDirty = selfGhostDirty ? true : result;
-		for (int i = 0; i < MAX_GHOSTS; i++)
+		for (int i = 0; i < numGhostSlots; i++)
 		{
 			// update local position and orientation
 			result = !ghosts[i].onClientTick();
 			this.ghostsDirty[i] = ghostsDirty[i] ? true : result;
 		}
+		
+		processModelRebuilds();
+	}
+	
+	// slots past those the server sent are despawned again every tick, so there's no calling into the client for those already hidden
+	private void despawnGhost(int ghostID)
+	{
+		if (!isGhostHidden(ghostID))
+			hideGhost(ghostID);
+		interestManager.onGhostDespawned(ghostID);
+	}
+	
+	// whether there's nothing left for hideGhost to reset
+	private boolean isGhostHidden(int ghostID)
+	{
+		int[] prevModelData = prevGhostModelData[ghostID];
+		int[] nameData = ghostNameData[ghostID];
+		return !ghosts[ghostID].isActive()
+				&& prevModelData[0] == 0 && prevModelData[1] == 0 && prevModelData[2] == 0 && prevModelData[3] == 0
+				&& nameData[0] == 0 && nameData[1] == 0 && nameData[2] == 0 && nameData[3] == 0
+				&& !rebuildQueue.isPending(ghostID) && prevGhostCapeID[ghostID] == 31 && ghostCapeID[ghostID] == 31 && !isGhostAppearanceGuessed[ghostID];
+	}
+	
+	// leaves the interest manager still knowing of the ghost, so that it may be shown again once it ranks highly enough
+	private void hideGhost(int ghostID)
+	{
+		ghosts[ghostID].despawn();
+		this.prevGhostModelData[ghostID][0] = 0;
+		this.prevGhostModelData[ghostID][1] = 0;
+		this.prevGhostModelData[ghostID][2] = 0;
+		this.prevGhostModelData[ghostID][3] = 0;
+		int[] nameData = ghostNameData[ghostID];
+		nameIndex.remove(ghostID, nameData[0], nameData[1], nameData[2], nameData[3]);
+		Arrays.fill(nameData, 0);
+		rebuildQueue.cancel(ghostID);
+		this.prevGhostCapeID[ghostID] = 31;
+		this.ghostCapeID[ghostID] = 31;
+		this.isGhostAppearanceGuessed[ghostID] = false;
+	}
+	
+	// call on logging out or shutting down; snapshotted here and written in the background, so neither waits on the disk
+	// loading screens come far too often to save on, and nothing is written if no one's been seen since the last save
+	public void saveAppearanceCache()
+	{
+		if (!isAppearanceCacheLoaded || !appearanceCache.isDirty() || appearanceCacheExecutor == null)
+			return;
+		
+		ByteBuffer file = appearanceCache.encode(client.getRevision());
+		appearanceCacheExecutor.execute(() ->
+		{
+			try
+			{
+				JebScapeAppearanceCache.write(getAppearanceCachePath(), file);
+			}
+			catch (IOException e)
+			{
+				log.warn("Unable to save JebScape appearances", e);
+			}
+		});
+	}
+	
+	// call as the plugin shuts down, after the last saveAppearanceCache(); waits a little while for it to finish
+	public void shutDownAppearanceCache()
+	{
+		if (appearanceCacheExecutor == null)
+			return;
+		
+		appearanceCacheExecutor.shutdown();
+		try
+		{
+			if (!appearanceCacheExecutor.awaitTermination(APPEARANCE_CACHE_SHUTDOWN_MS, TimeUnit.MILLISECONDS))
+				log.warn("Timed out saving JebScape appearances");
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		this.appearanceCacheExecutor = null;
+	}
+	
+	private static Path getAppearanceCachePath()
+	{
+		return RuneLite.RUNELITE_DIR.toPath().resolve("jebscape").resolve("appearances.bin");
+	}
+	
+	// compares a packed name against the last 3 entries of nameData
+	private static boolean isSamePackedName(int packedName0, int packedName1, int packedName2, int[] nameData)
+	{
+		int offset = nameData.length - 3;
+		return packedName0 == nameData[offset]
+				&& packedName1 == nameData[offset + 1]
+				&& packedName2 == nameData[offset + 2];
 	}
 	
 	private void loadGhostRenderables()
@@ -903,7 +1194,7 @@ public class MegaserverMod
 
 		selfGhost.setDefaultModel(defaultGhostModel);
 		selfGhost.setPoseAnimations(client.getLocalPlayer());
-		for (int i = 0; i < MAX_GHOSTS; i++)
+		for (int i = 0; i < numGhostSlots; i++)
 		{
 			ghosts[i].setDefaultModel(defaultGhostModel);
 			ghosts[i].setPoseAnimations(client.getLocalPlayer());
@@ -213,6 +213,37 @@ public class RuneLiteInputStream extends java.io.InputStream
 		return sb.toString();
 	}
 	
+	// moves past a string without building it
+	public void skipString()
+	{
+		while (this.readByte() != 0)
+		{
+		}
+	}
+	
+	public void skipParams()
+	{
+		int size = this.readUnsignedByte();
+		
+		for (int i = 0; i < size; ++i)
+		{
+			int type = this.readUnsignedByte();
+			this.skip(3); // param ID
+			if (type == 1)
+			{
+				this.skipString();
+			}
+			else if (type == 2)
+			{
+				this.skip(8);
+			}
+			else
+			{
+				this.skip(4);
+			}
+		}
+	}
+	
 	public String readString2()
 	{
 		if (this.readByte() != 0)
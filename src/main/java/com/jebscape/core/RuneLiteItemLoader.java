@@ -25,8 +25,72 @@
 
 package com.jebscape.core;
 
+import java.util.Arrays;
+
 public class RuneLiteItemLoader
 {
+	// which fields to decode when loading only some of them; everything else is skipped over without being built
+	public static final int WEAR_MODELS = 1;
+	public static final int HEAD_MODELS = 1 << 1;
+	public static final int RECOLORS = 1 << 2;
+	public static final int RETEXTURES = 1 << 3;
+	public static final int NAME = 1 << 4;
+	public static final int OTHER = 1 << 5;
+	public static final int ALL_FIELDS = WEAR_MODELS | HEAD_MODELS | RECOLORS | RETEXTURES | NAME | OTHER;
+	public static final int GHOST_FIELDS = WEAR_MODELS | RECOLORS | RETEXTURES; // all that's needed to build a ghost
+	
+	// how to move past each opcode's value when it isn't wanted
+	private static final byte SKIP_BYTES = 0; // a fixed number of bytes, given by OPCODE_LENGTHS
+	private static final byte SKIP_STRING = 1;
+	private static final byte SKIP_COLOR_LIST = 2;
+	private static final byte SKIP_SUBOPS = 3;
+	private static final byte SKIP_SUBOP = 4;
+	private static final byte SKIP_CONDITIONAL_OP = 5;
+	private static final byte SKIP_CONDITIONAL_SUBOP = 6;
+	private static final byte SKIP_PARAMS = 7;
+	
+	private static final int[] OPCODE_FIELDS = new int[256];
+	private static final byte[] OPCODE_SKIPS = new byte[256];
+	private static final byte[] OPCODE_LENGTHS = new byte[256]; // unknown opcodes are taken to have no value, as decodeValues does
+	
+	static
+	{
+		Arrays.fill(OPCODE_FIELDS, OTHER);
+		
+		setOpcodes(WEAR_MODELS, 3, 23, 25);
+		setOpcodes(WEAR_MODELS, 2, 24, 26, 78, 79);
+		setOpcodes(WEAR_MODELS, 5, 45, 48);
+		setOpcodes(WEAR_MODELS, 4, 46, 47, 49, 50);
+		setOpcodes(HEAD_MODELS, 4, 51, 52, 53, 54);
+		setOpcodes(HEAD_MODELS, 2, 90, 91, 92, 93);
+		setOpcodes(NAME, 0, 2);
+		OPCODE_SKIPS[2] = SKIP_STRING;
+		setOpcodes(RECOLORS, 0, 40);
+		OPCODE_SKIPS[40] = SKIP_COLOR_LIST;
+		setOpcodes(RETEXTURES, 0, 41);
+		OPCODE_SKIPS[41] = SKIP_COLOR_LIST;
+		
+		setOpcodes(OTHER, 1, 13, 14, 27, 42, 113, 114, 115);
+		setOpcodes(OTHER, 2, 1, 4, 5, 6, 7, 8, 75, 94, 95, 97, 98, 110, 111, 112, 139, 140, 148, 149);
+		setOpcodes(OTHER, 4, 12, 44, 100, 101, 102, 103, 104, 105, 106, 107, 108, 109);
+		for (int opcode : new int[] { 3, 9, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39 })
+			OPCODE_SKIPS[opcode] = SKIP_STRING;
+		OPCODE_SKIPS[43] = SKIP_SUBOPS;
+		OPCODE_SKIPS[200] = SKIP_SUBOP;
+		OPCODE_SKIPS[201] = SKIP_CONDITIONAL_OP;
+		OPCODE_SKIPS[202] = SKIP_CONDITIONAL_SUBOP;
+		OPCODE_SKIPS[249] = SKIP_PARAMS;
+	}
+	
+	private static void setOpcodes(int field, int length, int... opcodes)
+	{
+		for (int opcode : opcodes)
+		{
+			OPCODE_FIELDS[opcode] = field;
+			OPCODE_LENGTHS[opcode] = (byte) length;
+		}
+	}
+	
 	private RuneLiteEntityOpsLoader entityOpsLoader = new RuneLiteEntityOpsLoader();
 	
 	public RuneLiteItemDefinition load(int id, byte[] b)
@@ -50,6 +114,73 @@ public class RuneLiteItemLoader
 		return def;
 	}
 	
+	// decodes only the given fields, leaving the rest as they are by default
+	public RuneLiteItemDefinition load(int id, byte[] b, int fields)
+	{
+		RuneLiteItemDefinition def = new RuneLiteItemDefinition(id);
+		RuneLiteInputStream is = new RuneLiteInputStream(b);
+		
+		while (true)
+		{
+			int opcode = is.readUnsignedByte();
+			if (opcode == 0)
+			{
+				break;
+			}
+			
+			if ((OPCODE_FIELDS[opcode] & fields) != 0)
+			{
+				this.decodeValues(opcode, def, is);
+			}
+			else
+			{
+				skipValues(opcode, is);
+			}
+		}
+		
+		post(def);
+		
+		return def;
+	}
+	
+	private static void skipValues(int opcode, RuneLiteInputStream stream)
+	{
+		switch (OPCODE_SKIPS[opcode])
+		{
+			case SKIP_BYTES:
+				stream.skip(OPCODE_LENGTHS[opcode]);
+				break;
+			case SKIP_STRING:
+				stream.skipString();
+				break;
+			case SKIP_COLOR_LIST:
+				stream.skip(stream.readUnsignedByte() * 4);
+				break;
+			case SKIP_SUBOPS:
+				stream.skip(1); // op ID
+				while (stream.readUnsignedByte() != 0) // sub op ID + 1
+				{
+					stream.skipString();
+				}
+				break;
+			case SKIP_SUBOP:
+				stream.skip(2);
+				stream.skipString();
+				break;
+			case SKIP_CONDITIONAL_OP:
+				stream.skip(1 + 2 + 2 + 4 + 4);
+				stream.skipString();
+				break;
+			case SKIP_CONDITIONAL_SUBOP:
+				stream.skip(1 + 2 + 2 + 2 + 4 + 4);
+				stream.skipString();
+				break;
+			case SKIP_PARAMS:
+				stream.skipParams();
+				break;
+		}
+	}
+	
 	private void decodeValues(int opcode, RuneLiteItemDefinition def, RuneLiteInputStream stream)
 	{
 		if (opcode == 1)
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.runelite.api.*;
+import net.runelite.api.coords.*;
+import net.runelite.client.callback.ClientThread;
+import net.runelite.client.config.ConfigManager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// a steady game tick must allocate nothing: receiving and decoding every ghost the test server sends, names included,
+// playing them out through MegaserverMod onto their actors, then encoding and sending our own game data
+// the client is stood in for by proxies that hand back values boxed ahead of time, rather than boxing them on each call
+// what a proxy still allocates is the array, and any boxes, it wraps its arguments in; whether the JIT compiles those away
+// changes from run to run, so they're instead always made to escape, and their bytes are taken back out of each tick's count
+// client ticks aren't included, as moving a RuneLiteObject along takes a new LocalPoint each step
+public class JebScapeAllocationTest
+{
+	private static final int TICK_MILLIS = 5;
+	private static final int NUM_GHOSTS = 48; // fewer than the ghost slots, so that none are ever moved between them
+	private static final int NUM_TICKS = 200; // in a row, once warmed up
+	private static final int MAX_TICKS = 4000; // for the JIT to have compiled away what's left over from warming up
+	private static final int MAX_STUB_ARGS = 8;
+	private static final int PLAYER_X = 3222;
+	private static final int PLAYER_Y = 3218;
+	
+	private final List<StubObject> objects = new ArrayList<>();
+	
+	// what the proxies have allocated in wrapping up their arguments so far
+	private static final long[] argsArrayBytes = new long[MAX_STUB_ARGS + 1];
+	private static long boxedIntegerBytes;
+	private static long stubAllocatedBytes;
+	private static Object escapedArgs;
+	
+	@Test
+	public void gameTickAllocatesNothing() throws Exception
+	{
+		checkGameTicks(JebScapeTestServer.PROTOCOL_VERSION, false);
+	}
+	
+	@Test
+	public void gameTickAllocatesNothingWithCompactFramesAndParity() throws Exception
+	{
+		checkGameTicks(JebScapeTestServer.COMPACT_PROTOCOL_VERSION, true);
+	}
+	
+	private void checkGameTicks(int protocolVersion, boolean useParity) throws Exception
+	{
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS, "--chat=0", "--ghosts=" + NUM_GHOSTS);
+		JebScapeConnection server = new JebScapeConnection();
+		server.init(new InetSocketAddress(InetAddress.getLoopbackAddress(), testServer.getPort()));
+		server.setPreferredProtocolVersion(protocolVersion);
+		server.setUseParity(useParity);
+		server.connect();
+		
+		MegaserverMod megaserverMod = new MegaserverMod(new StubModelLoader());
+		megaserverMod.init(newClient(), null, server, new JebScapeActorIndicatorOverlay(), new JebScapeMinimapOverlay(), new JebScapeLiveHiscoresOverlay(), null, newConfigManager());
+		
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadID = Thread.currentThread().getId();
+		measureStubArgs(threadBean, threadID);
+		long allocatedBytes = 0;
+		long maxTickAllocatedBytes = 0;
+		int numTicksMeasured = 0;
+		int gameDataBytesSent = 0;
+		try
+		{
+			for (int i = 0; i < MAX_TICKS && numTicksMeasured < NUM_TICKS; i++)
+			{
+				Thread.sleep(TICK_MILLIS);
+				
+				// as JebScapePlugin drives it each game tick
+				long stubAllocatedBefore = stubAllocatedBytes;
+				long allocatedBefore = threadBean.getThreadAllocatedBytes(threadID);
+				server.onGameTick();
+				boolean isLoggedIn = server.isChatLoggedIn();
+				if (isLoggedIn && megaserverMod.isActive())
+					gameDataBytesSent = megaserverMod.onGameTick();
+				long tickAllocatedBytes = threadBean.getThreadAllocatedBytes(threadID) - allocatedBefore - (stubAllocatedBytes - stubAllocatedBefore);
+				
+				if (!isLoggedIn)
+				{
+					server.login(1L, 0L, false, "Allocation");
+					numTicksMeasured = 0;
+					continue;
+				}
+				else if (!megaserverMod.isActive())
+				{
+					megaserverMod.start();
+					continue;
+				}
+				
+				// start over until a full run of ticks goes by without allocating
+				if (tickAllocatedBytes != 0)
+				{
+					allocatedBytes = tickAllocatedBytes;
+					maxTickAllocatedBytes = Math.max(maxTickAllocatedBytes, tickAllocatedBytes);
+					numTicksMeasured = 0;
+					continue;
+				}
+				numTicksMeasured++;
+			}
+		}
+		finally
+		{
+			server.disconnect();
+			testServer.stop();
+		}
+		
+		assertTrue(gameDataBytesSent > 0);
+		assertTrue(megaserverMod.getNameCache().getNumLookups() >= NUM_GHOSTS);
+		assertTrue(getNumActive() >= NUM_GHOSTS);
+		assertEquals("still allocating after " + MAX_TICKS + " ticks; last " + allocatedBytes + " bytes, " + maxTickAllocatedBytes + " bytes max", NUM_TICKS, numTicksMeasured);
+	}
+	
+	// how much an array of each length takes up, and a boxed Integer outside of those cached
+	private static void measureStubArgs(com.sun.management.ThreadMXBean threadBean, long threadID)
+	{
+		for (int numArgs = 0; numArgs <= MAX_STUB_ARGS; numArgs++)
+		{
+			long allocatedBefore = threadBean.getThreadAllocatedBytes(threadID);
+			escapedArgs = new Object[numArgs];
+			argsArrayBytes[numArgs] = threadBean.getThreadAllocatedBytes(threadID) - allocatedBefore;
+		}
+		
+		int uncachedValue = 1 << 20;
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadID);
+		escapedArgs = Integer.valueOf(uncachedValue);
+		boxedIntegerBytes = threadBean.getThreadAllocatedBytes(threadID) - allocatedBefore;
+		stubAllocatedBytes = 0;
+	}
+	
+	// every stub passes its arguments through here first; once they've escaped, they're always allocated
+	// only Integer is boxed by anything the game tick calls, so it's the only box counted
+	private static void onStubCall(Object[] args)
+	{
+		if (args == null)
+			return;
+		
+		escapedArgs = args;
+		stubAllocatedBytes += argsArrayBytes[args.length];
+		for (Object arg : args)
+		{
+			if (arg instanceof Integer)
+			{
+				int value = (Integer)arg;
+				if (value < -128 || value > 127)
+					stubAllocatedBytes += boxedIntegerBytes;
+			}
+		}
+	}
+	
+	private int getNumActive()
+	{
+		int numActive = 0;
+		for (StubObject object : objects)
+			if (object.isActive)
+				numActive++;
+		return numActive;
+	}
+	
+	// standing in Lumbridge with nothing equipped, as a player who isn't animating
+	private Client newClient()
+	{
+		PlayerComposition composition = newStub(PlayerComposition.class,
+				"getGender", 0,
+				"getEquipmentIds", new int[12],
+				"getKitId", -1);
+		
+		Player player = newStub(Player.class,
+				"getPlayerComposition", composition,
+				"getWorldLocation", new WorldPoint(PLAYER_X, PLAYER_Y, 0),
+				"getName", "Allocation",
+				"getAnimation", -1,
+				"getOrientation", 0,
+				"getIdlePoseAnimation", 808,
+				"getWalkAnimation", 819,
+				"getRunAnimation", 824,
+				"getWalkRotate180", 820,
+				"getWalkRotateLeft", 821,
+				"getWalkRotateRight", 822,
+				"getIdleRotateLeft", 823,
+				"getIdleRotateRight", 823);
+		
+		Map<String, Object> values = newValues(
+				"getLocalPlayer", player,
+				"getWorld", 301,
+				"getWorldType", EnumSet.noneOf(WorldType.class),
+				"getPlane", 0,
+				"isInInstancedRegion", false,
+				"getSkillExperience", 1234567,
+				"getBaseX", PLAYER_X - Perspective.SCENE_SIZE / 2,
+				"getBaseY", PLAYER_Y - Perspective.SCENE_SIZE / 2,
+				"getRevision", 0);
+		return (Client)Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[] { Client.class }, (proxy, method, args) ->
+		{
+			onStubCall(args);
+			
+			// each actor holds on to a RuneLiteObject of its own
+			if (method.getName().equals("createRuneLiteObject"))
+			{
+				StubObject object = new StubObject();
+				objects.add(object);
+				return Proxy.newProxyInstance(RuneLiteObject.class.getClassLoader(), new Class<?>[] { RuneLiteObject.class }, object);
+			}
+			return values.get(method.getName());
+		});
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> T newStub(Class<T> type, Object... namesAndValues)
+	{
+		Map<String, Object> values = newValues(namesAndValues);
+		return (T)Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) ->
+		{
+			onStubCall(args);
+			return values.get(method.getName());
+		});
+	}
+	
+	// boxed here, once, rather than on each call
+	private static Map<String, Object> newValues(Object... namesAndValues)
+	{
+		Map<String, Object> values = new HashMap<>();
+		for (int i = 0; i < namesAndValues.length; i += 2)
+			values.put((String)namesAndValues[i], namesAndValues[i + 1]);
+		return values;
+	}
+	
+	// ConfigManager is a class rather than an interface, so one is made without running its constructor
+	// it then has no RuneScape profile to read the remembered hair and jaw from, as before first logging in
+	private static ConfigManager newConfigManager() throws Exception
+	{
+		Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+		field.setAccessible(true);
+		Object unsafe = field.get(null);
+		return (ConfigManager)unsafe.getClass().getMethod("allocateInstance", Class.class).invoke(unsafe, ConfigManager.class);
+	}
+	
+	// only what MegaserverMod plays out on it each game tick
+	private static class StubObject implements InvocationHandler
+	{
+		private static final Integer ZERO = 0;
+		private boolean isActive;
+		private LocalPoint location;
+		private Integer orientation = ZERO;
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+		{
+			onStubCall(args);
+			switch (method.getName())
+			{
+				case "isActive":
+					return isActive;
+				case "setActive":
+					this.isActive = (Boolean)args[0];
+					return null;
+				case "getLocation":
+					return location;
+				case "setLocation":
+					this.location = (LocalPoint)args[0];
+					return null;
+				case "getOrientation":
+					return orientation;
+				case "setOrientation":
+					this.orientation = (Integer)args[0];
+					return null;
+				default:
+					return null;
+			}
+		}
+	}
+	
+	// the kit maps are read from the game cache, so the body parts they'd pack are left as 0
+	private static class StubModelLoader extends JebScapeModelLoader
+	{
+		@Override
+		public void init(Client client, ClientThread clientThread)
+		{
+		}
+		
+		@Override
+		public boolean isKitMapsReady()
+		{
+			return true;
+		}
+		
+		@Override
+		public int packBodyParts(int[] bodyPartIDs, int gender)
+		{
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeAppearanceCacheTest
+{
+	private static final int REVISION = 230;
+	private static final int CAPACITY = 512;
+	private static final int NUM_PLAYERS = 4000;
+	
+	private Path directory;
+	private Path path;
+	
+	@Before
+	public void createDirectory() throws IOException
+	{
+		this.directory = Files.createTempDirectory("jebscape-appearances");
+		this.path = directory.resolve("appearances.bin");
+	}
+	
+	@After
+	public void deleteFiles() throws IOException
+	{
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory))
+		{
+			for (Path file : paths)
+				Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+	
+	// who's kept once full, and what's remembered of them, against a LinkedHashMap kept in access order
+	@Test
+	public void keepsWhoALinkedHashMapWould()
+	{
+		JebScapeAppearanceCache appearanceCache = new JebScapeAppearanceCache(CAPACITY);
+		LinkedHashMap<Integer, int[]> reference = new LinkedHashMap<Integer, int[]>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest)
+			{
+				return size() > CAPACITY;
+			}
+		};
+		
+		Random random = new Random(25);
+		int[] appearance = new int[4];
+		int[] found = new int[4];
+		for (int op = 0; op < 200_000; op++)
+		{
+			int player = pickPlayer(random);
+			int entry = appearanceCache.find(packedName(player, 0), packedName(player, 1), packedName(player, 2));
+			int[] expected = reference.get(player);
+			assertEquals(expected != null, entry >= 0);
+			
+			if (entry >= 0)
+			{
+				appearanceCache.getAppearance(entry, found, 0);
+				assertArrayEquals(Arrays.copyOf(expected, 4), found);
+				assertEquals(expected[4], appearanceCache.getCapeID(entry));
+				assertEquals(expected[5], appearanceCache.getTimesSeen(entry));
+				appearanceCache.onSeen(entry);
+				expected[5]++;
+			}
+			
+			// most sightings are of someone looking the same as last time
+			if (entry < 0 || random.nextInt(8) == 0)
+			{
+				for (int i = 0; i < 4; i++)
+					appearance[i] = random.nextInt();
+				int capeID = random.nextInt(32);
+				appearanceCache.put(packedName(player, 0), packedName(player, 1), packedName(player, 2), appearance, 0, capeID);
+				int timesSeen = expected == null ? 0 : expected[5];
+				reference.put(player, new int[] { appearance[0], appearance[1], appearance[2], appearance[3], capeID, timesSeen });
+			}
+			
+			assertEquals(reference.size(), appearanceCache.size());
+		}
+		
+		// whoever's seen most should be the same, give or take those tied
+		int[] mostSeen = new int[16];
+		int numMostSeen = appearanceCache.getMostSeen(mostSeen);
+		List<Integer> referenceTimesSeen = new ArrayList<>();
+		for (int[] value : reference.values())
+			referenceTimesSeen.add(value[5]);
+		referenceTimesSeen.sort(Collections.reverseOrder());
+		assertEquals(mostSeen.length, numMostSeen);
+		for (int i = 0; i < numMostSeen; i++)
+			assertEquals((int)referenceTimesSeen.get(i), appearanceCache.getTimesSeen(mostSeen[i]));
+	}
+	
+	@Test
+	public void readsBackTheSame() throws IOException
+	{
+		JebScapeAppearanceCache appearanceCache = fill(new Random(2025));
+		JebScapeAppearanceCache.write(path, appearanceCache.encode(REVISION));
+		assertEquals(JebScapeAppearanceCache.HEADER_SIZE + appearanceCache.size() * JebScapeAppearanceCache.ENTRY_SIZE, Files.size(path));
+		
+		JebScapeAppearanceCache readCache = JebScapeAppearanceCache.read(path, REVISION, CAPACITY);
+		assertSame(appearanceCache, readCache, NUM_PLAYERS);
+		
+		// both should now make way for newcomers in the same order
+		int[] appearance = new int[4];
+		for (int i = 0; i < CAPACITY / 2; i++)
+		{
+			int newcomer = NUM_PLAYERS + i;
+			appearanceCache.put(packedName(newcomer, 0), packedName(newcomer, 1), packedName(newcomer, 2), appearance, 0, 0);
+			readCache.put(packedName(newcomer, 0), packedName(newcomer, 1), packedName(newcomer, 2), appearance, 0, 0);
+		}
+		assertSame(appearanceCache, readCache, NUM_PLAYERS + CAPACITY / 2);
+		
+		// merged into an empty cache, as when the file is read in after meeting a few people already
+		JebScapeAppearanceCache mergedCache = new JebScapeAppearanceCache(CAPACITY);
+		mergedCache.putAll(appearanceCache);
+		assertSame(appearanceCache, mergedCache, NUM_PLAYERS + CAPACITY / 2);
+	}
+	
+	@Test
+	public void turnsAwayFilesItCannotTrust() throws IOException
+	{
+		JebScapeAppearanceCache.write(path, fill(new Random(2025)).encode(REVISION));
+		assertEquals(0, JebScapeAppearanceCache.read(path, REVISION + 1, CAPACITY).size());
+		assertEquals(0, JebScapeAppearanceCache.read(directory.resolve("missing.bin"), REVISION, CAPACITY).size());
+		
+		byte[] fileBytes = Files.readAllBytes(path);
+		Path brokenPath = directory.resolve("broken.bin");
+		Files.write(brokenPath, Arrays.copyOf(fileBytes, fileBytes.length - 6));
+		assertEquals(0, JebScapeAppearanceCache.read(brokenPath, REVISION, CAPACITY).size());
+		
+		byte[] tamperedBytes = fileBytes.clone();
+		ByteBuffer.wrap(tamperedBytes).order(ByteOrder.LITTLE_ENDIAN).putInt(0, 0);
+		Files.write(brokenPath, tamperedBytes);
+		assertEquals(0, JebScapeAppearanceCache.read(brokenPath, REVISION, CAPACITY).size());
+	}
+	
+	// nothing to save until someone's seen, and nothing again once encoded until someone else is
+	@Test
+	public void isDirtyOnlyOnceChanged() throws IOException
+	{
+		JebScapeAppearanceCache appearanceCache = new JebScapeAppearanceCache(CAPACITY);
+		assertFalse(appearanceCache.isDirty());
+		
+		int[] appearance = { 1, 2, 3, 4 };
+		appearanceCache.put(packedName(1, 0), packedName(1, 1), packedName(1, 2), appearance, 0, 31);
+		assertTrue(appearanceCache.isDirty());
+		JebScapeAppearanceCache.write(path, appearanceCache.encode(REVISION));
+		assertFalse(appearanceCache.isDirty());
+		
+		// a lookup alone changes nothing
+		int entry = appearanceCache.find(packedName(1, 0), packedName(1, 1), packedName(1, 2));
+		assertFalse(appearanceCache.isDirty());
+		appearanceCache.onSeen(entry);
+		assertTrue(appearanceCache.isDirty());
+		
+		// freshly read is the same as what's on disk
+		JebScapeAppearanceCache readCache = JebScapeAppearanceCache.read(path, REVISION, CAPACITY);
+		assertEquals(1, readCache.size());
+		assertFalse(readCache.isDirty());
+		readCache.putAll(new JebScapeAppearanceCache(CAPACITY));
+		assertFalse(readCache.isDirty());
+		readCache.putAll(appearanceCache);
+		assertTrue(readCache.isDirty());
+	}
+	
+	// writes that overlap each go through a file of their own, so whichever lands last is whole and nothing is left beside it
+	@Test
+	public void overlappingWritesLeaveAWholeFile() throws Exception
+	{
+		JebScapeAppearanceCache appearanceCache = fill(new Random(2025));
+		List<Thread> threads = new ArrayList<>();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+		for (int i = 0; i < 8; i++)
+		{
+			ByteBuffer file = appearanceCache.encode(REVISION);
+			Thread thread = new Thread(() ->
+			{
+				try
+				{
+					for (int k = 0; k < 20; k++)
+						JebScapeAppearanceCache.write(path, file.duplicate());
+				}
+				catch (Throwable e)
+				{
+					failures.add(e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		
+		assertEquals(Collections.emptyList(), failures);
+		assertSame(appearanceCache, JebScapeAppearanceCache.read(path, REVISION, CAPACITY), NUM_PLAYERS);
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory))
+		{
+			for (Path file : paths)
+				assertEquals(path.getFileName(), file.getFileName());
+		}
+	}
+	
+	// each session meets a mix of regulars and passers by; after the first, most regulars are known as soon as their names turn up
+	@Test
+	public void remembersRegularsAcrossSessions() throws IOException
+	{
+		Random random = new Random(7);
+		int numRegulars = NUM_PLAYERS / 16;
+		for (int session = 0; session < 5; session++)
+		{
+			JebScapeAppearanceCache appearanceCache = JebScapeAppearanceCache.read(path, REVISION, CAPACITY);
+			int numRegularsSeen = 0;
+			int numRegularsKnown = 0;
+			for (int spawn = 0; spawn < 500; spawn++)
+			{
+				int player = pickPlayer(random);
+				int entry = appearanceCache.find(packedName(player, 0), packedName(player, 1), packedName(player, 2));
+				if (player < numRegulars)
+				{
+					numRegularsSeen++;
+					if (entry >= 0)
+						numRegularsKnown++;
+				}
+				if (entry >= 0)
+					appearanceCache.onSeen(entry);
+				appearanceCache.put(packedName(player, 0), packedName(player, 1), packedName(player, 2), new int[] { player, 0, 0, 0 }, 0, 31);
+			}
+			
+			if (session > 0)
+				assertTrue(numRegularsKnown * 100 / numRegularsSeen >= 80);
+			JebScapeAppearanceCache.write(path, appearanceCache.encode(REVISION));
+		}
+	}
+	
+	private static JebScapeAppearanceCache fill(Random random)
+	{
+		JebScapeAppearanceCache appearanceCache = new JebScapeAppearanceCache(CAPACITY);
+		int[] appearance = new int[4];
+		for (int i = 0; i < CAPACITY * 3; i++)
+		{
+			int player = pickPlayer(random);
+			int entry = appearanceCache.find(packedName(player, 0), packedName(player, 1), packedName(player, 2));
+			if (entry >= 0)
+			{
+				appearanceCache.onSeen(entry);
+				continue;
+			}
+			for (int k = 0; k < 4; k++)
+				appearance[k] = random.nextInt();
+			appearanceCache.put(packedName(player, 0), packedName(player, 1), packedName(player, 2), appearance, 0, random.nextInt(32));
+		}
+		return appearanceCache;
+	}
+	
+	// a few hundred regulars make up most sightings; the rest are passers by
+	private static int pickPlayer(Random random)
+	{
+		if (random.nextInt(100) < 70)
+			return random.nextInt(NUM_PLAYERS / 16);
+		return random.nextInt(NUM_PLAYERS);
+	}
+	
+	// spread out like real packed names, which share no simple pattern
+	private static int packedName(int player, int word)
+	{
+		return JebScapeNameCache.hash(word, player, player * 31, word + 7);
+	}
+	
+	private static void assertSame(JebScapeAppearanceCache expected, JebScapeAppearanceCache actual, int numPlayers)
+	{
+		assertEquals(expected.size(), actual.size());
+		int[] expectedAppearance = new int[4];
+		int[] actualAppearance = new int[4];
+		for (int player = 0; player < numPlayers; player++)
+		{
+			int expectedEntry = expected.find(packedName(player, 0), packedName(player, 1), packedName(player, 2));
+			int actualEntry = actual.find(packedName(player, 0), packedName(player, 1), packedName(player, 2));
+			assertEquals(expectedEntry >= 0, actualEntry >= 0);
+			if (expectedEntry < 0)
+				continue;
+			
+			expected.getAppearance(expectedEntry, expectedAppearance, 0);
+			actual.getAppearance(actualEntry, actualAppearance, 0);
+			assertArrayEquals(expectedAppearance, actualAppearance);
+			assertEquals(expected.getCapeID(expectedEntry), actual.getCapeID(actualEntry));
+			assertEquals(expected.getTimesSeen(expectedEntry), actual.getTimesSeen(actualEntry));
+		}
+	}
+}
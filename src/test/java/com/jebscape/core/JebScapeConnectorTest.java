@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.nio.channels.*;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeConnectorTest
+{
+	private static final long BASE_MS = 500;
+	private static final long MAX_MS = 30_000;
+	private static final long TIMEOUT_MS = 5000;
+	private static final String THREAD_NAME = "JebScape Connector";
+	
+	// each attempt waits a random time between half and all of its limit, which doubles until it reaches the max
+	@Test
+	public void backsOffWithinHalfToAllOfTheLimit()
+	{
+		for (int attempt = 0; attempt < 64; attempt++)
+		{
+			long limit = Math.min(MAX_MS, BASE_MS << Math.min(attempt, 30));
+			long minDelay = Long.MAX_VALUE;
+			long maxDelay = 0;
+			for (int i = 0; i < 1000; i++)
+			{
+				long delay = JebScapeConnector.getBackoffDelay(attempt, BASE_MS, MAX_MS);
+				assertTrue("attempt " + attempt + " waited " + delay, delay >= limit / 2 && delay <= limit);
+				minDelay = Math.min(minDelay, delay);
+				maxDelay = Math.max(maxDelay, delay);
+			}
+			
+			// spread across the range, rather than bunched up at either end of it
+			assertTrue(minDelay < limit / 2 + limit / 8);
+			assertTrue(maxDelay > limit - limit / 8);
+		}
+		
+		assertTrue(JebScapeConnector.getBackoffDelay(Integer.MAX_VALUE, BASE_MS, MAX_MS) <= MAX_MS);
+	}
+	
+	@Test
+	public void resolvesConnectsAndReconnects() throws Exception
+	{
+		Set<Thread> threadsBefore = getConnectorThreads();
+		JebScapeConnector connector = new JebScapeConnector("127.0.0.1", 43595);
+		try
+		{
+			assertEquals(JebScapeConnector.State.DISCONNECTED, connector.getState());
+			assertNull(connector.getChannel());
+			assertNull(connector.getAddress());
+			
+			connector.connect();
+			waitFor(() -> connector.getState() == JebScapeConnector.State.READY);
+			DatagramChannel channel = connector.getChannel();
+			assertNotNull(channel);
+			assertTrue(channel.isConnected());
+			assertFalse(channel.isBlocking());
+			assertEquals(43595, connector.getAddress().getPort());
+			
+			// already connected, so nothing changes
+			connector.connect();
+			assertSame(channel, connector.getChannel());
+			
+			// the old channel is closed and a new one opened in its place
+			connector.reconnect();
+			waitFor(() -> connector.getState() == JebScapeConnector.State.READY && connector.getChannel() != channel);
+			assertNotSame(channel, connector.getChannel());
+			assertFalse(channel.isOpen());
+			
+			// a channel failing in use is replaced after backing off; reports of one already replaced are ignored
+			DatagramChannel failedChannel = connector.getChannel();
+			connector.onChannelError(channel);
+			assertSame(failedChannel, connector.getChannel());
+			connector.onChannelError(failedChannel);
+			assertEquals(JebScapeConnector.State.BACKOFF, connector.getState());
+			assertNull(connector.getChannel());
+			waitFor(() -> connector.getState() == JebScapeConnector.State.READY);
+			assertFalse(failedChannel.isOpen());
+			assertTrue(connector.getChannel().isConnected());
+			
+			Set<Thread> threads = getConnectorThreads();
+			threads.removeAll(threadsBefore);
+			assertEquals(1, threads.size());
+			Thread thread = threads.iterator().next();
+			
+			// closing shuts down the executor along with the channel, and nothing brings it back
+			DatagramChannel lastChannel = connector.getChannel();
+			connector.close();
+			assertEquals(JebScapeConnector.State.CLOSED, connector.getState());
+			assertNull(connector.getChannel());
+			assertFalse(lastChannel.isOpen());
+			thread.join(TIMEOUT_MS);
+			assertFalse(thread.isAlive());
+			
+			connector.connect();
+			connector.reconnect();
+			assertEquals(JebScapeConnector.State.CLOSED, connector.getState());
+		}
+		finally
+		{
+			connector.close();
+		}
+	}
+	
+	@Test
+	public void backsOffWhileTheHostWontResolve() throws Exception
+	{
+		JebScapeConnector connector = new JebScapeConnector("jebscape.invalid", 43595);
+		try
+		{
+			connector.connect();
+			waitFor(() -> connector.getState() == JebScapeConnector.State.BACKOFF);
+			assertNull(connector.getChannel());
+			assertNull(connector.getAddress());
+		}
+		finally
+		{
+			connector.close();
+		}
+		assertEquals(JebScapeConnector.State.CLOSED, connector.getState());
+	}
+	
+	private static void waitFor(BooleanSupplier condition) throws Exception
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (!condition.getAsBoolean())
+		{
+			assertTrue("timed out", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+	
+	private static Set<Thread> getConnectorThreads()
+	{
+		Set<Thread> threads = new HashSet<>();
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+			if (thread.getName().equals(THREAD_NAME) && thread.isAlive())
+				threads.add(thread);
+		return threads;
+	}
+}
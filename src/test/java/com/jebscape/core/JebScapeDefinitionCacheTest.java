@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// made-up item and kit definitions laid out as the game cache has them, with names, options and params around the few fields ghosts need
+public class JebScapeDefinitionCacheTest
+{
+	private static final int NUM_ITEMS = 2000;
+	private static final int NUM_KITS = 200;
+	
+	private final RuneLiteItemLoader itemLoader = new RuneLiteItemLoader();
+	private final RuneLiteKitLoader kitLoader = new RuneLiteKitLoader();
+	
+	@Test
+	public void keepsWhatAFullDecodeHas()
+	{
+		Random random = new Random(21);
+		JebScapeDefinitionCache definitionCache = new JebScapeDefinitionCache();
+		definitionCache.validate(1);
+		for (int itemID = 0; itemID < NUM_ITEMS; itemID++)
+		{
+			byte[] data = random.nextInt(50) == 0 ? null : encodeItem(random, itemID);
+			RuneLiteItemDefinition definition = data != null ? itemLoader.load(itemID, data) : null;
+			assertFalse(definitionCache.hasItem(itemID));
+			definitionCache.putItem(itemID, definition, 0);
+			assertTrue(definitionCache.hasItem(itemID));
+			if (definition == null)
+			{
+				assertTrue(definitionCache.isItemMissing(itemID));
+				continue;
+			}
+			
+			assertFalse(definitionCache.isItemMissing(itemID));
+			int[] models = { definition.maleModel0, definition.maleModel1, definition.maleModel2, definition.femaleModel0, definition.femaleModel1, definition.femaleModel2 };
+			for (int i = 0; i < models.length; i++)
+				assertEquals(models[i], definitionCache.getItemModel(itemID, i / JebScapeDefinitionCache.MODELS_PER_GENDER, i % JebScapeDefinitionCache.MODELS_PER_GENDER));
+			assertArrayEquals(definition.colorFind, definitionCache.getItemColorFind(itemID));
+			assertArrayEquals(definition.colorReplace, definitionCache.getItemColorReplace(itemID));
+			assertArrayEquals(definition.textureFind, definitionCache.getItemTextureFind(itemID));
+			assertArrayEquals(definition.textureReplace, definitionCache.getItemTextureReplace(itemID));
+		}
+		
+		for (int kitID = 0; kitID < NUM_KITS; kitID++)
+		{
+			RuneLiteKitDefinition definition = kitLoader.load(kitID, encodeKit(random, kitID));
+			assertFalse(definitionCache.hasKit(kitID));
+			definitionCache.putKit(kitID, definition, 0);
+			assertTrue(definitionCache.hasKit(kitID));
+			assertFalse(definitionCache.isKitMissing(kitID));
+			assertEquals(definition.bodyPartId, definitionCache.getKitBodyPart(kitID));
+			assertArrayEquals(definition.models, definitionCache.getKitModels(kitID));
+			assertArrayEquals(definition.recolorToFind, definitionCache.getKitColorFind(kitID));
+			assertArrayEquals(definition.recolorToReplace, definitionCache.getKitColorReplace(kitID));
+			assertArrayEquals(definition.retextureToFind, definitionCache.getKitTextureFind(kitID));
+			assertArrayEquals(definition.retextureToReplace, definitionCache.getKitTextureReplace(kitID));
+		}
+		
+		assertEquals(NUM_ITEMS + NUM_KITS, definitionCache.getNumDecodes());
+	}
+	
+	@Test
+	public void revisionChangeClearsTheCache()
+	{
+		Random random = new Random(21);
+		JebScapeDefinitionCache definitionCache = new JebScapeDefinitionCache();
+		definitionCache.validate(1);
+		definitionCache.putItem(1, itemLoader.load(1, encodeItem(random, 1)), 0);
+		definitionCache.putKit(1, kitLoader.load(1, encodeKit(random, 1)), 0);
+		
+		assertTrue(definitionCache.validate(1));
+		assertTrue(definitionCache.hasItem(1));
+		assertFalse(definitionCache.validate(2));
+		assertFalse(definitionCache.hasItem(1));
+		assertFalse(definitionCache.hasKit(1));
+	}
+	
+	// roughly what a piece of wearable gear carries: a name, its 2d sprite placement, options, models, recolours and a handful of params
+	static byte[] encodeItem(Random random, int itemID)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeOp(out, 1); writeShort(out, random.nextInt(60000));
+		writeOp(out, 2); writeString(out, "Made-up item " + itemID);
+		writeOp(out, 4); writeShort(out, 800 + random.nextInt(2000));
+		writeOp(out, 5); writeShort(out, random.nextInt(2048));
+		writeOp(out, 6); writeShort(out, random.nextInt(2048));
+		writeOp(out, 7); writeShort(out, random.nextInt(65536));
+		writeOp(out, 8); writeShort(out, random.nextInt(65536));
+		writeOp(out, 12); writeInt(out, random.nextInt(1_000_000));
+		writeOp(out, 13); out.write(random.nextInt(14));
+		if (random.nextBoolean())
+			writeOp(out, 16);
+		
+		if (random.nextBoolean())
+		{
+			writeOp(out, 23); writeShort(out, random.nextInt(60000)); out.write(0);
+			writeOp(out, 25); writeShort(out, random.nextInt(60000)); out.write(0);
+			if (random.nextBoolean())
+			{
+				writeOp(out, 24); writeShort(out, random.nextInt(60000));
+				writeOp(out, 26); writeShort(out, random.nextInt(60000));
+			}
+		}
+		else
+		{
+			writeOp(out, 45); writeInt(out, 60000 + random.nextInt(10000)); out.write(0);
+			writeOp(out, 48); writeInt(out, 60000 + random.nextInt(10000)); out.write(0);
+		}
+		
+		writeOp(out, 35); writeString(out, "Wield");
+		writeOp(out, 38); writeString(out, "Check");
+		if (random.nextInt(3) != 0)
+		{
+			int numColors = 1 + random.nextInt(6);
+			writeOp(out, 40); out.write(numColors);
+			for (int i = 0; i < numColors; i++)
+			{
+				writeShort(out, random.nextInt(65536));
+				writeShort(out, random.nextInt(65536));
+			}
+		}
+		if (random.nextInt(5) == 0)
+		{
+			writeOp(out, 41); out.write(1);
+			writeShort(out, random.nextInt(100));
+			writeShort(out, random.nextInt(100));
+		}
+		writeOp(out, 65);
+		writeOp(out, 75); writeShort(out, random.nextInt(5000));
+		writeOp(out, 94); writeShort(out, random.nextInt(1000));
+		
+		int numParams = 3 + random.nextInt(8);
+		writeOp(out, 249); out.write(numParams);
+		for (int i = 0; i < numParams; i++)
+		{
+			boolean isString = random.nextInt(4) == 0;
+			out.write(isString ? 1 : 0);
+			int paramID = random.nextInt(2000);
+			out.write(paramID >>> 16); out.write(paramID >>> 8); out.write(paramID);
+			if (isString)
+				writeString(out, "param " + paramID);
+			else
+				writeInt(out, random.nextInt());
+		}
+		out.write(0);
+		return out.toByteArray();
+	}
+	
+	static byte[] encodeKit(Random random, int kitID)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeOp(out, 1); out.write(kitID % 14);
+		int numModels = 1 + random.nextInt(3);
+		writeOp(out, 2); out.write(numModels);
+		for (int i = 0; i < numModels; i++)
+			writeShort(out, random.nextInt(60000));
+		if (random.nextBoolean())
+		{
+			writeOp(out, 40); out.write(2);
+			for (int i = 0; i < 4; i++)
+				writeShort(out, random.nextInt(32768));
+		}
+		for (int i = 0; i < 5; i++)
+		{
+			writeOp(out, 60 + i); writeShort(out, random.nextInt(60000));
+		}
+		out.write(0);
+		return out.toByteArray();
+	}
+	
+	private static void writeOp(ByteArrayOutputStream out, int opcode)
+	{
+		out.write(opcode);
+	}
+	
+	private static void writeShort(ByteArrayOutputStream out, int value)
+	{
+		out.write(value >>> 8);
+		out.write(value);
+	}
+	
+	private static void writeInt(ByteArrayOutputStream out, int value)
+	{
+		writeShort(out, value >>> 16);
+		writeShort(out, value);
+	}
+	
+	private static void writeString(ByteArrayOutputStream out, String value)
+	{
+		for (int i = 0; i < value.length(); i++)
+			out.write(value.charAt(i));
+		out.write(0);
+	}
+}
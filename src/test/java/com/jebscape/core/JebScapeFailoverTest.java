@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeFailoverTest
+{
+	private static final int TICK_MILLIS = 200; // the probe window is 1.2s whatever the tick length
+	private static final int MAX_TICKS = 60;
+	
+	@Test
+	public void failsOverToTheOtherEndpointAndKeepsDecoding() throws Exception
+	{
+		JebScapeTestServer[] testServers = new JebScapeTestServer[2];
+		for (int i = 0; i < testServers.length; i++)
+			testServers[i] = JebScapeLoopbackClient.startTestServer(TICK_MILLIS, "--seed=" + (i + 1));
+		
+		// a little extra latency on the second so that the first is the one chosen to begin with
+		testServers[1].delayMillis = 5;
+		
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServers);
+		JebScapeEndpointManager endpoints = client.server.getEndpoints();
+		try
+		{
+			client.server.connect();
+			int tick = 0;
+			while (tick < MAX_TICKS && (!client.server.isChatLoggedIn() || endpoints.isProbing()))
+			{
+				Thread.sleep(TICK_MILLIS);
+				client.runGameTick();
+				tick++;
+			}
+			assertTrue(client.server.isChatLoggedIn());
+			assertEquals(0, endpoints.getActiveIndex());
+			
+			testServers[0].lossPercent = 100;
+			while (tick < MAX_TICKS && endpoints.getActiveIndex() == 0)
+			{
+				Thread.sleep(TICK_MILLIS);
+				client.runGameTick();
+				tick++;
+			}
+			assertEquals(1, endpoints.getActiveIndex());
+			
+			// from here on, what's decoded must match what the second endpoint sent
+			client.testServer = testServers[1];
+			client.numReadyTicks = 0;
+			client.numMismatches = 0;
+			for (int i = 0; i < 10; i++)
+			{
+				Thread.sleep(TICK_MILLIS);
+				client.runGameTick();
+			}
+			assertTrue(client.server.isChatLoggedIn());
+			assertTrue(client.numReadyTicks > 0);
+			assertEquals(0, client.numMismatches);
+		}
+		finally
+		{
+			client.stop();
+			for (JebScapeTestServer testServer : testServers)
+				testServer.stop();
+		}
+	}
+}
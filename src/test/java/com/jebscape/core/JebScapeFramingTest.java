@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.nio.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeFramingTest
+{
+	private static final int TICK_MILLIS = 25;
+	private static final int NUM_TICKS = 60;
+	
+	@Test
+	public void compactFramesDecodeTheSameAsFixedPackets() throws Exception
+	{
+		long v4Bytes = run(JebScapeTestServer.PROTOCOL_VERSION, JebScapeTestServer.COMPACT_PROTOCOL_VERSION, 16);
+		long v5Bytes = run(JebScapeTestServer.COMPACT_PROTOCOL_VERSION, JebScapeTestServer.COMPACT_PROTOCOL_VERSION, 16);
+		assertTrue(v5Bytes < v4Bytes);
+	}
+	
+	@Test
+	public void fallsBackToFixedPacketsOnAnOlderServer() throws Exception
+	{
+		run(JebScapeTestServer.COMPACT_PROTOCOL_VERSION, JebScapeTestServer.PROTOCOL_VERSION, 64);
+	}
+	
+	@Test
+	public void expandsAFrameIntoTheFixedLayout()
+	{
+		ByteBuffer frame = newFrame();
+		putCore(frame);
+		putGhosts(frame, 0x0003, 0x0002); // two ghosts present, only the second with its block
+		frame.putShort(4, (short)frame.position());
+		
+		JebScapeFrameDecoder decoder = new JebScapeFrameDecoder();
+		ByteBuffer packet = newPacket();
+		assertTrue(decoder.expand(frame, frame.position(), packet));
+		assertEquals(0x00000102, packet.getInt(0));
+		for (int i = 1; i < 4; i++)
+			assertEquals(i * 11, getBlock(packet, 0, i));
+		assertEquals(100, getBlock(packet, 1, 0));
+		assertEquals(101, getBlock(packet, 1, 1));
+		assertEquals(JebScapeProtocol.GhostMovement.DESPAWNED, getBlock(packet, 1, 2));
+		assertEquals(JebScapeProtocol.GhostMovement.DESPAWNED, getBlock(packet, 6, 0));
+		for (int k = 0; k < 4; k++)
+		{
+			assertEquals(0, getBlock(packet, 2, k)); // never sent for the first ghost
+			assertEquals(200 + k, getBlock(packet, 3, k));
+		}
+		
+		// the second ghost's block carries over to the next frame of the same parity that leaves it out
+		frame = newFrame();
+		putGhosts(frame, 0x0002, 0x0000);
+		frame.putShort(4, (short)frame.position());
+		assertTrue(decoder.expand(frame, frame.position(), packet));
+		for (int k = 0; k < 4; k++)
+			assertEquals(200 + k, getBlock(packet, 3, k));
+	}
+	
+	@Test
+	public void rejectsMalformedFrames()
+	{
+		JebScapeFrameDecoder decoder = new JebScapeFrameDecoder();
+		ByteBuffer packet = newPacket();
+		
+		// a length that doesn't match the datagram's
+		ByteBuffer frame = newFrame();
+		putCore(frame);
+		frame.putShort(4, (short)(frame.position() + 1));
+		assertFalse(decoder.expand(frame, frame.position(), packet));
+		
+		// a core section of the wrong size
+		frame = newFrame();
+		JebScapeTestServer.putSectionHeader(frame, JebScapeFrameDecoder.SECTION_CORE, 8);
+		frame.putLong(0L);
+		frame.putShort(4, (short)frame.position());
+		assertFalse(decoder.expand(frame, frame.position(), packet));
+		
+		// a section running past the end of the frame
+		frame = newFrame();
+		JebScapeTestServer.putSectionHeader(frame, JebScapeFrameDecoder.SECTION_EXTRA, JebScapeFrameDecoder.NUM_EXTRA_BLOCKS * 16);
+		frame.putInt(1);
+		frame.putShort(4, (short)frame.position());
+		assertFalse(decoder.expand(frame, frame.position(), packet));
+		
+		// a cut off section header
+		frame = newFrame();
+		frame.put((byte)JebScapeFrameDecoder.SECTION_CORE);
+		frame.putShort(4, (short)frame.position());
+		assertFalse(decoder.expand(frame, frame.position(), packet));
+	}
+	
+	// returns the bytes sent per tick
+	private static long run(int preferredVersion, int serverVersion, int numGhosts) throws Exception
+	{
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS, "--ghosts=" + numGhosts, "--protocol=" + serverVersion);
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServer);
+		client.checkGhostBlocks = true;
+		client.server.setPreferredProtocolVersion(preferredVersion);
+		try
+		{
+			client.server.connect();
+			assertTrue(client.run(NUM_TICKS));
+			assertEquals(Math.min(preferredVersion, serverVersion), client.server.getProtocolVersion());
+			assertTrue(client.numGhostsChecked > 0);
+			assertEquals(0, client.numMismatches);
+			return testServer.numBytesSent / Math.max(1, testServer.getTotalTicks());
+		}
+		finally
+		{
+			client.stop();
+			testServer.stop();
+		}
+	}
+	
+	private static ByteBuffer newFrame()
+	{
+		ByteBuffer frame = ByteBuffer.allocate(JebScapeServerData.PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		frame.putInt(0x00000102);
+		frame.putShort((short)0);
+		return frame;
+	}
+	
+	private static ByteBuffer newPacket()
+	{
+		return ByteBuffer.allocateDirect(JebScapeServerData.PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	private static void putCore(ByteBuffer frame)
+	{
+		JebScapeTestServer.putSectionHeader(frame, JebScapeFrameDecoder.SECTION_CORE, 12);
+		for (int i = 1; i < 4; i++)
+			frame.putInt(i * 11);
+	}
+	
+	// ghosts in slot order, movement 100 + slot, blocks 200 + word
+	private static void putGhosts(ByteBuffer frame, int presentMask, int blockMask)
+	{
+		JebScapeTestServer.putSectionHeader(frame, JebScapeFrameDecoder.SECTION_GHOSTS, 4 + Integer.bitCount(presentMask) * 4 + Integer.bitCount(blockMask) * 16);
+		frame.putShort((short)presentMask);
+		frame.putShort((short)blockMask);
+		for (int i = 0; i < 16; i++)
+			if (((presentMask >>> i) & 0x1) == 0x1)
+				frame.putInt(100 + i);
+		for (int i = 0; i < 16; i++)
+			if (((blockMask >>> i) & 0x1) == 0x1)
+				for (int k = 0; k < 4; k++)
+					frame.putInt(200 + k);
+	}
+	
+	private static int getBlock(ByteBuffer packet, int blockIdx, int index)
+	{
+		return packet.getInt((blockIdx * JebScapeServerData.DATA_BLOCK_SIZE + index) * 4);
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeGhostCapacityTest
+{
+	private static final int TICK_MILLIS = 25;
+	
+	@Test
+	public void everyoneFitsWithinALargeEnoughBudget()
+	{
+		JebScapeInterestManager interestManager = new JebScapeInterestManager();
+		interestManager.ensureCapacity(32);
+		for (int ghostID = 0; ghostID < 20; ghostID++)
+			interestManager.onGhostSeen(ghostID, 30 - ghostID, 1);
+		
+		assertEquals(20, interestManager.allocate(64, 1));
+		for (int ghostID = 0; ghostID < 32; ghostID++)
+			assertEquals(ghostID < 20, interestManager.isInBudget(ghostID));
+	}
+	
+	@Test
+	public void theNearestGetTheBudget()
+	{
+		JebScapeInterestManager interestManager = new JebScapeInterestManager();
+		interestManager.ensureCapacity(40);
+		for (int ghostID = 0; ghostID < 40; ghostID++)
+			interestManager.onGhostSeen(ghostID, (ghostID * 7) % 40, 1);
+		
+		assertEquals(10, interestManager.allocate(10, 1));
+		for (int ghostID = 0; ghostID < 40; ghostID++)
+			assertEquals((ghostID * 7) % 40 < 10, interestManager.isInBudget(ghostID));
+		
+		// nobody gets in past a full budget until the next ranking
+		interestManager.onGhostDespawned(0);
+		assertEquals(9, interestManager.getNumInBudget());
+		assertTrue(interestManager.tryAdmit(39));
+		assertFalse(interestManager.tryAdmit(38));
+	}
+	
+	@Test
+	public void thoseGoneQuietFallBehind()
+	{
+		JebScapeInterestManager interestManager = new JebScapeInterestManager();
+		interestManager.ensureCapacity(2);
+		interestManager.onGhostSeen(0, 1, 1);
+		interestManager.onGhostSeen(1, 4, 5);
+		
+		// four ticks unheard counts as eight tiles further away
+		interestManager.allocate(1, 5);
+		assertFalse(interestManager.isInBudget(0));
+		assertTrue(interestManager.isInBudget(1));
+	}
+	
+	@Test
+	public void theRenderedKeepTheirPlaceOverATie()
+	{
+		JebScapeInterestManager interestManager = new JebScapeInterestManager();
+		interestManager.ensureCapacity(2);
+		interestManager.onGhostSeen(1, 5, 1);
+		interestManager.allocate(1, 1);
+		assertTrue(interestManager.isInBudget(1));
+		
+		// ghost 0 would win a tie on its id, but ghost 1 is already shown
+		interestManager.onGhostSeen(0, 5, 2);
+		interestManager.onGhostSeen(1, 5, 2);
+		interestManager.allocate(1, 2);
+		assertFalse(interestManager.isInBudget(0));
+		assertTrue(interestManager.isInBudget(1));
+	}
+	
+	@Test
+	public void growingKeepsWhatWasKnown()
+	{
+		JebScapeInterestManager interestManager = new JebScapeInterestManager();
+		interestManager.ensureCapacity(16);
+		interestManager.onGhostSeen(3, 2, 1);
+		interestManager.allocate(4, 1);
+		interestManager.ensureCapacity(1024);
+		assertEquals(1024, interestManager.getCapacity());
+		assertTrue(interestManager.isInBudget(3));
+		assertEquals(1, interestManager.allocate(4, 1));
+	}
+	
+	@Test
+	public void capacityGrowsWithACrowdedServer() throws Exception
+	{
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS, "--ghosts=256", "--chat=0");
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServer);
+		client.coreData[0] |= JebScapeInterestManager.MAX_INTEREST_RADIUS << 10;
+		client.coreData[2] = JebScapeConnection.MAX_CHAT_SERVER_PACKETS_PER_TICK; // as many ghosts as the server will send
+		try
+		{
+			client.server.connect();
+			assertTrue(client.run(60));
+			assertTrue(client.server.getChatServerPacketCapacity() * JebScapeTestServer.GHOSTS_PER_PACKET > 64);
+			assertTrue(client.numGhostsChecked > client.numReadyTicks * 64);
+			assertEquals(0, client.numMismatches);
+		}
+		finally
+		{
+			client.stop();
+			testServer.stop();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import com.jebscape.core.JebScapeProtocol.GhostMovement;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// checks JebScapeGhostFrame against what the test server generated for every ghost it sent, without a client anywhere
+public class JebScapeGhostFrameTest
+{
+	private static final int TICK_MILLIS = 20;
+	private static final int NUM_TICKS = 60;
+	private static final int NUM_GHOSTS = 256;
+	
+	@Test
+	public void decodesEveryGhostSent() throws Exception
+	{
+		check(JebScapeTestServer.PROTOCOL_VERSION);
+	}
+	
+	@Test
+	public void decodesEveryGhostSentInCompactFrames() throws Exception
+	{
+		check(JebScapeTestServer.COMPACT_PROTOCOL_VERSION);
+	}
+	
+	// packets lost on the way must leave their ghosts absent rather than despawned
+	@Test
+	public void decodesAroundLostPackets() throws Exception
+	{
+		check(JebScapeTestServer.PROTOCOL_VERSION, "--loss=20");
+	}
+	
+	private void check(int protocolVersion, String... args) throws Exception
+	{
+		String[] serverArgs = new String[args.length + 1];
+		serverArgs[0] = "--ghosts=" + NUM_GHOSTS;
+		System.arraycopy(args, 0, serverArgs, 1, args.length);
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS, serverArgs);
+		JebScapeConnection server = new JebScapeConnection();
+		server.init(new InetSocketAddress(InetAddress.getLoopbackAddress(), testServer.getPort()));
+		server.setPreferredProtocolVersion(protocolVersion);
+		server.connect();
+		
+		int[] coreData = new int[3];
+		int[] gameSubData = new int[4];
+		byte[] extraChatData = new byte[96];
+		coreData[0] = MegaserverMod.MEGASERVER_MOVEMENT_UPDATE_CMD | (301 << 16); // world 301
+		coreData[1] = 3222 | (3218 << 16); // Lumbridge
+		coreData[2] = JebScapeBitCodec.pack(JebScapeProtocol.CoreAnimation.GHOST_PACKETS_WANTED, JebScapeConnection.MAX_CHAT_SERVER_PACKETS_PER_TICK); // as many as the server will send
+		
+		JebScapeGhostFrame frame = new JebScapeGhostFrame();
+		int numGhostsChecked = 0;
+		int numNamesChecked = 0;
+		try
+		{
+			for (int i = 0; i < NUM_TICKS; i++)
+			{
+				Thread.sleep(TICK_MILLIS);
+				server.onGameTick();
+				if (!server.isChatLoggedIn())
+				{
+					server.login(1L, 0L, false, "GhostFrame");
+					continue;
+				}
+				
+				JebScapeServerData[][] chatServerData = server.getRecentChatServerData();
+				int[] numChatPacketsSent = server.getNumChatServerPacketsSent();
+				for (int tick = 0; tick < JebScapeConnection.TICKS_UNTIL_LOGOUT; tick++)
+				{
+					if (!server.isChatTickReady(tick))
+						continue;
+					
+					int numPackets = server.getChatServerPacketCapacity();
+					frame.decode(chatServerData[tick], numPackets, numChatPacketsSent[tick], server.getChatServerPacketsReceived(tick), tick);
+					for (int slot = 0; slot < numPackets * JebScapeGhostFrame.GHOSTS_PER_PACKET; slot++)
+					{
+						int packetID = slot / JebScapeGhostFrame.GHOSTS_PER_PACKET;
+						int ghostID = testServer.getGhostInSlot(tick, slot);
+						int state = frame.state[slot];
+						if (!frame.isPacketReceived(packetID))
+						{
+							assertEquals("slot " + slot, packetID < numChatPacketsSent[tick] ? JebScapeGhostFrame.ABSENT : JebScapeGhostFrame.DESPAWNED, state);
+							continue;
+						}
+						else if (ghostID < 0)
+						{
+							assertEquals("slot " + slot, JebScapeGhostFrame.DESPAWNED, state);
+							continue;
+						}
+						
+						numGhostsChecked++;
+						int expected = JebScapeTestServer.getGhostMovement(tick, ghostID);
+						assertEquals(JebScapeGhostFrame.PRESENT, state);
+						assertEquals(JebScapeBitCodec.get(GhostMovement.DX, expected), frame.dx[slot]);
+						assertEquals(JebScapeBitCodec.get(GhostMovement.DY, expected), frame.dy[slot]);
+						assertEquals(JebScapeBitCodec.get(GhostMovement.ORIENTATION, expected), frame.orientation[slot]);
+						assertEquals(JebScapeBitCodec.get(GhostMovement.ANIMATION_ID, expected), frame.animationID[slot]);
+						if (!frame.hasAppearance)
+						{
+							numNamesChecked++;
+							assertEquals(JebScapeTestServer.getGhostName(ghostID), decodeName(frame, slot));
+						}
+					}
+				}
+				
+				server.sendGameData(coreData, gameSubData, extraChatData);
+			}
+		}
+		finally
+		{
+			server.disconnect();
+			testServer.stop();
+		}
+		
+		assertTrue(numGhostsChecked > 0);
+		assertTrue(numNamesChecked > 0);
+	}
+	
+	private static String decodeName(JebScapeGhostFrame frame, int slot)
+	{
+		byte[] nameBytes = new byte[12];
+		for (int k = 0; k < 3; k++)
+			JebScapeProtocol.PackedBytes.toBytes(frame.nameKey[slot * 3 + k], nameBytes, k * 4);
+		return new String(nameBytes, StandardCharsets.UTF_8).trim();
+	}
+}
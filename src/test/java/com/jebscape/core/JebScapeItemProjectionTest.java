@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// made-up items with their opcodes in a random order, so that a value skipped by the wrong length throws off everything after it
+public class JebScapeItemProjectionTest
+{
+	private static final int NUM_ITEMS = 5000;
+	
+	@Test
+	public void ghostFieldsMatchAFullDecode()
+	{
+		RuneLiteItemLoader itemLoader = new RuneLiteItemLoader();
+		Random random = new Random(24);
+		for (int itemID = 0; itemID < NUM_ITEMS; itemID++)
+		{
+			byte[] itemData = encodeItem(random, itemID);
+			RuneLiteItemDefinition full = itemLoader.load(itemID, itemData);
+			assertTrue("item " + itemID, isSameGhostFields(full, itemLoader.load(itemID, itemData, RuneLiteItemLoader.GHOST_FIELDS)));
+		}
+	}
+	
+	@Test
+	public void allFieldsMatchAFullDecode()
+	{
+		RuneLiteItemLoader itemLoader = new RuneLiteItemLoader();
+		Random random = new Random(24);
+		for (int itemID = 0; itemID < NUM_ITEMS; itemID++)
+		{
+			byte[] itemData = encodeItem(random, itemID);
+			RuneLiteItemDefinition full = itemLoader.load(itemID, itemData);
+			assertTrue("item " + itemID, isSameFields(full, itemLoader.load(itemID, itemData, RuneLiteItemLoader.ALL_FIELDS)));
+		}
+	}
+	
+	private static boolean isSameGhostFields(RuneLiteItemDefinition a, RuneLiteItemDefinition b)
+	{
+		return a.maleModel0 == b.maleModel0 && a.maleModel1 == b.maleModel1 && a.maleModel2 == b.maleModel2 && a.maleOffset == b.maleOffset
+				&& a.femaleModel0 == b.femaleModel0 && a.femaleModel1 == b.femaleModel1 && a.femaleModel2 == b.femaleModel2 && a.femaleOffset == b.femaleOffset
+				&& Arrays.equals(a.colorFind, b.colorFind) && Arrays.equals(a.colorReplace, b.colorReplace)
+				&& Arrays.equals(a.textureFind, b.textureFind) && Arrays.equals(a.textureReplace, b.textureReplace);
+	}
+	
+	// field by field, so as not to lean on generated equals methods
+	private static boolean isSameFields(RuneLiteItemDefinition a, RuneLiteItemDefinition b)
+	{
+		return isSameGhostFields(a, b)
+				&& Objects.equals(a.name, b.name) && Objects.equals(a.examine, b.examine) && Objects.equals(a.unknown1, b.unknown1)
+				&& a.inventoryModel == b.inventoryModel && a.zoom2d == b.zoom2d && a.xan2d == b.xan2d && a.yan2d == b.yan2d && a.zan2d == b.zan2d
+				&& a.xOffset2d == b.xOffset2d && a.yOffset2d == b.yOffset2d && a.cost == b.cost && a.stackable == b.stackable && a.members == b.members
+				&& a.isTradeable == b.isTradeable && a.weight == b.weight && a.wearPos1 == b.wearPos1 && a.wearPos2 == b.wearPos2 && a.wearPos3 == b.wearPos3
+				&& a.maleHeadModel == b.maleHeadModel && a.maleHeadModel2 == b.maleHeadModel2 && a.femaleHeadModel == b.femaleHeadModel && a.femaleHeadModel2 == b.femaleHeadModel2
+				&& a.category == b.category && a.notedID == b.notedID && a.notedTemplate == b.notedTemplate && a.shiftClickDropIndex == b.shiftClickDropIndex
+				&& Arrays.equals(a.countObj, b.countObj) && Arrays.equals(a.countCo, b.countCo) && a.resizeX == b.resizeX && a.resizeY == b.resizeY && a.resizeZ == b.resizeZ
+				&& a.ambient == b.ambient && a.contrast == b.contrast && a.team == b.team && a.boughtId == b.boughtId && a.boughtTemplateId == b.boughtTemplateId
+				&& a.placeholderId == b.placeholderId && a.placeholderTemplateId == b.placeholderTemplateId
+				&& Arrays.equals(a.interfaceOptions, b.interfaceOptions) && Arrays.deepEquals(a.subops, b.subops) && Objects.equals(a.params, b.params);
+	}
+	
+	// a name and examine text, 2d sprite placement, ground and inventory options, sub ops, a few params and so on around the wear models and recolours,
+	// in a random order; one in three items is something that's never worn
+	static byte[] encodeItem(Random random, int itemID)
+	{
+		List<byte[]> values = new ArrayList<>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		out.write(2); writeString(out, "Made-up item " + itemID); values.add(flush(out));
+		out.write(3); writeString(out, "It's an item, made up for testing."); values.add(flush(out));
+		out.write(1); writeShort(out, random.nextInt(60000)); values.add(flush(out));
+		for (int opcode = 4; opcode <= 8; opcode++)
+		{
+			out.write(opcode); writeShort(out, random.nextInt(65536)); values.add(flush(out));
+		}
+		out.write(12); writeInt(out, random.nextInt(1_000_000)); values.add(flush(out));
+		if (random.nextBoolean())
+		{
+			out.write(11); values.add(flush(out));
+		}
+		if (random.nextBoolean())
+		{
+			out.write(16); values.add(flush(out));
+		}
+		out.write(65); values.add(flush(out));
+		out.write(75); writeShort(out, random.nextInt(5000)); values.add(flush(out));
+		out.write(94); writeShort(out, random.nextInt(1000)); values.add(flush(out));
+		out.write(30 + random.nextInt(5)); writeString(out, random.nextInt(10) == 0 ? "Hidden" : "Light"); values.add(flush(out));
+		out.write(35); writeString(out, "Wear"); values.add(flush(out));
+		out.write(38); writeString(out, "Check"); values.add(flush(out));
+		if (random.nextInt(4) == 0)
+		{
+			out.write(43); out.write(random.nextInt(5));
+			for (int i = 0; i < 1 + random.nextInt(3); i++)
+			{
+				out.write(1 + random.nextInt(20)); writeString(out, "Teleport " + i);
+			}
+			out.write(0);
+			values.add(flush(out));
+		}
+		if (random.nextInt(8) == 0)
+		{
+			out.write(200); out.write(random.nextInt(5)); out.write(random.nextInt(20)); writeString(out, "Rub"); values.add(flush(out));
+			out.write(201); out.write(random.nextInt(5)); writeShort(out, 100); writeShort(out, 200); writeInt(out, 0); writeInt(out, 5); writeString(out, "Empty"); values.add(flush(out));
+			out.write(202); out.write(random.nextInt(5)); writeShort(out, 3); writeShort(out, 100); writeShort(out, 200); writeInt(out, 0); writeInt(out, 5); writeString(out, "Fill"); values.add(flush(out));
+		}
+		if (random.nextInt(10) == 0)
+		{
+			for (int i = 0; i < 3; i++)
+			{
+				out.write(100 + i); writeShort(out, random.nextInt(30000)); writeShort(out, 2 + i); values.add(flush(out));
+			}
+		}
+		if (random.nextInt(5) == 0)
+		{
+			out.write(97); writeShort(out, random.nextInt(30000)); values.add(flush(out));
+			out.write(98); writeShort(out, 799); values.add(flush(out));
+		}
+		if (random.nextInt(20) == 0)
+		{
+			out.write(17); values.add(flush(out)); // an opcode nobody knows of, taken to have no value
+		}
+		
+		if (random.nextInt(3) != 0)
+		{
+			out.write(13); out.write(random.nextInt(14)); values.add(flush(out));
+			out.write(113); out.write(random.nextInt(256)); values.add(flush(out));
+			out.write(114); out.write(random.nextInt(256)); values.add(flush(out));
+			if (random.nextBoolean())
+			{
+				out.write(23); writeShort(out, random.nextInt(60000)); out.write(random.nextInt(10)); values.add(flush(out));
+				out.write(25); writeShort(out, random.nextInt(60000)); out.write(random.nextInt(10)); values.add(flush(out));
+				out.write(24); writeShort(out, random.nextInt(60000)); values.add(flush(out));
+				out.write(79); writeShort(out, random.nextInt(60000)); values.add(flush(out));
+				out.write(90); writeShort(out, random.nextInt(60000)); values.add(flush(out));
+			}
+			else
+			{
+				out.write(45); writeInt(out, 60000 + random.nextInt(10000)); out.write(random.nextInt(10)); values.add(flush(out));
+				out.write(48); writeInt(out, 60000 + random.nextInt(10000)); out.write(random.nextInt(10)); values.add(flush(out));
+				out.write(47); writeInt(out, 60000 + random.nextInt(10000)); values.add(flush(out));
+				out.write(51); writeInt(out, 60000 + random.nextInt(10000)); values.add(flush(out));
+			}
+			if (random.nextInt(3) != 0)
+			{
+				int numColors = 1 + random.nextInt(6);
+				out.write(40); out.write(numColors);
+				for (int i = 0; i < numColors * 2; i++)
+					writeShort(out, random.nextInt(65536));
+				values.add(flush(out));
+			}
+			if (random.nextInt(5) == 0)
+			{
+				out.write(41); out.write(1); writeShort(out, random.nextInt(100)); writeShort(out, random.nextInt(100)); values.add(flush(out));
+			}
+		}
+		
+		int numParams = random.nextInt(8);
+		if (numParams > 0)
+		{
+			out.write(249); out.write(numParams);
+			for (int i = 0; i < numParams; i++)
+			{
+				int type = random.nextInt(6) == 0 ? 1 : (random.nextInt(10) == 0 ? 2 : 0);
+				out.write(type);
+				int paramID = random.nextInt(2000);
+				out.write(paramID >>> 16); out.write(paramID >>> 8); out.write(paramID);
+				if (type == 1)
+					writeString(out, "param " + paramID);
+				else if (type == 2)
+				{
+					writeInt(out, random.nextInt()); writeInt(out, random.nextInt());
+				}
+				else
+					writeInt(out, random.nextInt());
+			}
+			values.add(flush(out));
+		}
+		
+		Collections.shuffle(values, random);
+		for (byte[] value : values)
+			out.write(value, 0, value.length);
+		out.write(0);
+		return out.toByteArray();
+	}
+	
+	private static byte[] flush(ByteArrayOutputStream out)
+	{
+		byte[] value = out.toByteArray();
+		out.reset();
+		return value;
+	}
+	
+	private static void writeShort(ByteArrayOutputStream out, int value)
+	{
+		out.write(value >>> 8);
+		out.write(value);
+	}
+	
+	private static void writeInt(ByteArrayOutputStream out, int value)
+	{
+		writeShort(out, value >>> 16);
+		writeShort(out, value);
+	}
+	
+	private static void writeString(ByteArrayOutputStream out, String value)
+	{
+		for (int i = 0; i < value.length(); i++)
+			out.write(value.charAt(i));
+		out.write(0);
+	}
+}
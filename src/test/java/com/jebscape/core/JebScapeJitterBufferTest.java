@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// each server tick arrives some interval after the last; the lateness sampled is how far that interval strays from 600ms
+public class JebScapeJitterBufferTest
+{
+	private static final long MILLIS = 1_000_000L;
+	private static final int NUM_TICKS = JebScapeConnection.TICKS_UNTIL_LOGOUT;
+	private static final int NUM_SAMPLES = 64;
+	
+	private int tick;
+	private long arrivalNanos;
+	
+	@Test
+	public void needsNoDelayOnASteadyCadence()
+	{
+		JebScapeJitterBuffer jitterBuffer = newJitterBuffer();
+		arrive(jitterBuffer, NUM_SAMPLES, 600);
+		assertEquals(0, jitterBuffer.getJitterNanos());
+		assertEquals(0, jitterBuffer.getPlayoutDelayTicks());
+		
+		// early is as bad as late, as the next tick is then late in turn
+		arrive(jitterBuffer, NUM_SAMPLES, 480);
+		assertEquals(120 * MILLIS, jitterBuffer.getJitterNanos());
+		assertEquals(1, jitterBuffer.getPlayoutDelayTicks());
+	}
+	
+	// 95% of 64 samples is 61, so up to 3 stragglers are ridden out and a 4th is waited on
+	@Test
+	public void coversThe95thPercentile()
+	{
+		JebScapeJitterBuffer jitterBuffer = newJitterBuffer();
+		arrive(jitterBuffer, 61, 600);
+		arrive(jitterBuffer, 3, 600 + 250);
+		assertEquals(0, jitterBuffer.getJitterNanos());
+		assertEquals(0, jitterBuffer.getPlayoutDelayTicks());
+		
+		// the oldest on-time sample makes way for the 4th straggler
+		arrive(jitterBuffer, 1, 600 + 250);
+		assertEquals(250 * MILLIS, jitterBuffer.getJitterNanos());
+		assertEquals(1, jitterBuffer.getPlayoutDelayTicks());
+		
+		// measured to the 10ms bucket, then rounded up to whole ticks
+		arrive(jitterBuffer, NUM_SAMPLES, 600 + 607);
+		assertEquals(600 * MILLIS, jitterBuffer.getJitterNanos());
+		assertEquals(1, jitterBuffer.getPlayoutDelayTicks());
+		arrive(jitterBuffer, NUM_SAMPLES, 600 + 615);
+		assertEquals(610 * MILLIS, jitterBuffer.getJitterNanos());
+		assertEquals(2, jitterBuffer.getPlayoutDelayTicks());
+	}
+	
+	@Test
+	public void capsTheDelayAtThreeTicks()
+	{
+		JebScapeJitterBuffer jitterBuffer = newJitterBuffer();
+		arrive(jitterBuffer, NUM_SAMPLES, 600 + 1750);
+		assertEquals(1750 * MILLIS, jitterBuffer.getJitterNanos());
+		assertEquals(3, jitterBuffer.getPlayoutDelayTicks());
+		
+		// stalls far longer than that still wait no more than 3 ticks
+		arrive(jitterBuffer, NUM_SAMPLES, 600 + 5000);
+		assertEquals(1800 * MILLIS, jitterBuffer.getJitterNanos());
+		assertEquals(3, jitterBuffer.getPlayoutDelayTicks());
+	}
+	
+	@Test
+	public void fallsBackOnceTheJitterSubsides()
+	{
+		JebScapeJitterBuffer jitterBuffer = newJitterBuffer();
+		arrive(jitterBuffer, NUM_SAMPLES, 600 + 1000);
+		assertEquals(2, jitterBuffer.getPlayoutDelayTicks());
+		
+		// the late samples age out of the window one at a time, until too few are left to reach the 95th percentile
+		arrive(jitterBuffer, 60, 600);
+		assertEquals(2, jitterBuffer.getPlayoutDelayTicks());
+		arrive(jitterBuffer, 1, 600);
+		assertEquals(0, jitterBuffer.getPlayoutDelayTicks());
+	}
+	
+	// ticks arriving out of order or repeated are left out, as they're measured against the tick before them
+	@Test
+	public void samplesOnlyTicksMovingForward()
+	{
+		JebScapeJitterBuffer jitterBuffer = newJitterBuffer();
+		arrive(jitterBuffer, NUM_SAMPLES, 600);
+		jitterBuffer.onTickArrived(Math.floorMod(tick - 2, NUM_TICKS), arrivalNanos + 2000 * MILLIS);
+		jitterBuffer.onTickArrived(tick, arrivalNanos + 3000 * MILLIS);
+		assertEquals(0, jitterBuffer.getPlayoutDelayTicks());
+		
+		// after a gap, lateness is measured against however many ticks have gone by
+		this.tick = (tick + 4) % NUM_TICKS;
+		this.arrivalNanos += 4 * 600 * MILLIS;
+		jitterBuffer.onTickArrived(tick, arrivalNanos);
+		assertEquals(0, jitterBuffer.getJitterNanos());
+	}
+	
+	private JebScapeJitterBuffer newJitterBuffer()
+	{
+		this.tick = 0;
+		this.arrivalNanos = 1000 * MILLIS;
+		JebScapeJitterBuffer jitterBuffer = new JebScapeJitterBuffer(NUM_TICKS);
+		jitterBuffer.onTickArrived(tick, arrivalNanos);
+		return jitterBuffer;
+	}
+	
+	// the next numArrivals ticks, each intervalMillis after the last
+	private void arrive(JebScapeJitterBuffer jitterBuffer, int numArrivals, long intervalMillis)
+	{
+		for (int i = 0; i < numArrivals; i++)
+		{
+			this.tick = (tick + 1) % NUM_TICKS;
+			this.arrivalNanos += intervalMillis * MILLIS;
+			jitterBuffer.onTickArrived(tick, arrivalNanos);
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeKitMapsTest
+{
+	private static final int NUM_KIT_IDS = 2048 - 256; // as between PlayerComposition's kit and item offsets
+	private static final int NUM_KITS = 700;
+	private static final int REVISION = 230;
+	
+	private Path directory;
+	private Path path;
+	private JebScapeKitMaps builtKitMaps;
+	
+	@Before
+	public void buildAndWrite() throws IOException
+	{
+		Random random = new Random(23);
+		byte[][] kitData = new byte[NUM_KIT_IDS][];
+		for (int kitID = 0; kitID < NUM_KITS; kitID++)
+			kitData[kitID] = random.nextInt(20) == 0 ? null : encodeKit(random, kitID);
+		
+		this.directory = Files.createTempDirectory("jebscape-kitmaps");
+		this.path = directory.resolve("kitmaps-" + REVISION + ".bin");
+		this.builtKitMaps = JebScapeModelLoader.buildKitMaps(kitData);
+		builtKitMaps.write(path, REVISION);
+	}
+	
+	@After
+	public void deleteFiles() throws IOException
+	{
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory))
+		{
+			for (Path file : paths)
+				Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+	
+	@Test
+	public void listsEachStyleInKitIDOrder()
+	{
+		for (int gender = JebScapeKitMaps.MALE; gender <= JebScapeKitMaps.FEMALE; gender++)
+		{
+			assertTrue(builtKitMaps.numHairKits[gender] > 1);
+			assertTrue(builtKitMaps.numJawKits[gender] > 1);
+			
+			// arms can be left bare
+			assertEquals(-1, builtKitMaps.armsKits[gender][0]);
+			assertTrue(builtKitMaps.numArmsKits[gender] > 1);
+			
+			for (int i = 0; i < builtKitMaps.numHairKits[gender]; i++)
+			{
+				int kitID = builtKitMaps.hairKits[gender][i];
+				assertEquals(i, builtKitMaps.kitIDtoBodyPart[kitID]);
+				if (i > 0)
+					assertTrue(kitID > builtKitMaps.hairKits[gender][i - 1]);
+			}
+			for (int i = 1; i < builtKitMaps.numArmsKits[gender]; i++)
+				assertEquals(i, builtKitMaps.kitIDtoBodyPart[builtKitMaps.armsKits[gender][i]]);
+		}
+	}
+	
+	@Test
+	public void readsBackWhatWasBuilt()
+	{
+		JebScapeKitMaps readKitMaps = JebScapeKitMaps.read(path, REVISION, NUM_KIT_IDS);
+		assertNotNull(readKitMaps);
+		for (int gender = JebScapeKitMaps.MALE; gender <= JebScapeKitMaps.FEMALE; gender++)
+		{
+			assertEquals(builtKitMaps.numHairKits[gender], readKitMaps.numHairKits[gender]);
+			assertEquals(builtKitMaps.numJawKits[gender], readKitMaps.numJawKits[gender]);
+			assertEquals(builtKitMaps.numArmsKits[gender], readKitMaps.numArmsKits[gender]);
+			assertArrayEquals(builtKitMaps.hairKits[gender], readKitMaps.hairKits[gender]);
+			assertArrayEquals(builtKitMaps.jawKits[gender], readKitMaps.jawKits[gender]);
+			assertArrayEquals(builtKitMaps.armsKits[gender], readKitMaps.armsKits[gender]);
+		}
+		assertArrayEquals(builtKitMaps.kitIDtoBodyPart, readKitMaps.kitIDtoBodyPart);
+		
+		// nothing is left beside it once written
+		assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".tmp")));
+	}
+	
+	@Test
+	public void turnsAwayFilesItCannotTrust() throws IOException
+	{
+		assertNull(JebScapeKitMaps.read(path, REVISION + 1, NUM_KIT_IDS));
+		assertNull(JebScapeKitMaps.read(path, REVISION, NUM_KIT_IDS + 1));
+		assertNull(JebScapeKitMaps.read(directory.resolve("missing.bin"), REVISION, NUM_KIT_IDS));
+		
+		byte[] fileBytes = Files.readAllBytes(path);
+		Path brokenPath = directory.resolve("broken.bin");
+		Files.write(brokenPath, Arrays.copyOf(fileBytes, fileBytes.length - 6));
+		assertNull(JebScapeKitMaps.read(brokenPath, REVISION, NUM_KIT_IDS));
+		Files.write(brokenPath, Arrays.copyOf(fileBytes, JebScapeKitMaps.HEADER_SIZE - 1));
+		assertNull(JebScapeKitMaps.read(brokenPath, REVISION, NUM_KIT_IDS));
+		
+		// a kit ID out of range
+		byte[] tamperedBytes = fileBytes.clone();
+		ByteBuffer.wrap(tamperedBytes).order(ByteOrder.LITTLE_ENDIAN).putInt(JebScapeKitMaps.HEADER_SIZE, NUM_KIT_IDS + 5);
+		Files.write(brokenPath, tamperedBytes);
+		assertNull(JebScapeKitMaps.read(brokenPath, REVISION, NUM_KIT_IDS));
+		
+		// a list longer than any could be
+		tamperedBytes = fileBytes.clone();
+		ByteBuffer.wrap(tamperedBytes).order(ByteOrder.LITTLE_ENDIAN).putInt(16, 1000);
+		Files.write(brokenPath, tamperedBytes);
+		assertNull(JebScapeKitMaps.read(brokenPath, REVISION, NUM_KIT_IDS));
+		
+		tamperedBytes = fileBytes.clone();
+		tamperedBytes[0] ^= 1;
+		Files.write(brokenPath, tamperedBytes);
+		assertNull(JebScapeKitMaps.read(brokenPath, REVISION, NUM_KIT_IDS));
+	}
+	
+	// a body part, a few models, recolours for most, and chathead models, as player kits have
+	// hair is by far the most varied; jaws and arms come in a couple of dozen styles at most, and the other body parts make up the rest
+	static byte[] encodeKit(Random random, int kitID)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(1);
+		int roll = random.nextInt(100);
+		if (roll < 12)
+			out.write(0); // male hair
+		else if (roll < 24)
+			out.write(7); // female hair
+		else if (roll < 27)
+			out.write(1); // male jaw
+		else if (roll < 29)
+			out.write(8); // female jaw
+		else if (roll < 32)
+			out.write(3); // male arms
+		else if (roll < 35)
+			out.write(10); // female arms
+		else
+		{
+			int[] otherBodyParts = { 2, 4, 5, 6, 9, 11, 12, 13 };
+			out.write(otherBodyParts[random.nextInt(otherBodyParts.length)]);
+		}
+		int numModels = 1 + random.nextInt(3);
+		out.write(2);
+		out.write(numModels);
+		for (int i = 0; i < numModels; i++)
+			writeShort(out, random.nextInt(60000));
+		if (random.nextInt(3) != 0)
+		{
+			out.write(40);
+			out.write(2);
+			for (int i = 0; i < 4; i++)
+				writeShort(out, random.nextInt(32768));
+		}
+		if (random.nextInt(4) == 0)
+			out.write(3);
+		for (int i = 0; i < 2; i++)
+		{
+			out.write(60 + i);
+			writeShort(out, random.nextInt(60000));
+		}
+		out.write(0);
+		return out.toByteArray();
+	}
+	
+	private static void writeShort(ByteArrayOutputStream out, int value)
+	{
+		out.write(value >>> 8);
+		out.write(value);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+// drives a JebScapeConnection against one or more local JebScapeTestServers without RuneLite, as MegaserverMod would each game tick
+// every ghost decoded is checked against what the test server that's being listened to generated
+public class JebScapeLoopbackClient
+{
+	public final JebScapeConnection server = new JebScapeConnection();
+	public final int[] coreData = new int[3];
+	public final int[] gameSubData = { 0x00010002, 0x00030004, 0x00050006, 0x00070008 }; // what we're wearing, as echoed back to us
+	public final byte[] extraChatData = new byte[96];
+	public JebScapeTestServer testServer; // whichever one the ghosts decoded are checked against
+	public boolean checkGhostBlocks; // each ghost's appearance or world and name too, not just its movement
+	private int numTicksLoggedIn;
+	private final int[] expectedName = new int[3];
+	
+	// stats
+	public long numGameTicks;
+	public long numReadyTicks;
+	public long numPacketsDecoded;
+	public long numGhostsChecked;
+	public long numMismatches;
+	
+	public JebScapeLoopbackClient(JebScapeTestServer... testServers) throws Exception
+	{
+		InetSocketAddress[] addresses = new InetSocketAddress[testServers.length];
+		for (int i = 0; i < testServers.length; i++)
+			addresses[i] = new InetSocketAddress(InetAddress.getLoopbackAddress(), testServers[i].getPort());
+		this.testServer = testServers[0];
+		server.init(addresses);
+		
+		coreData[0] = MegaserverMod.MEGASERVER_MOVEMENT_UPDATE_CMD | (301 << 16); // world 301
+		coreData[1] = 3222 | (3218 << 16); // Lumbridge
+	}
+	
+	// a test server on an ephemeral port, accelerated to the given tick length
+	public static JebScapeTestServer startTestServer(int tickMillis, String... args) throws Exception
+	{
+		JebScapeTestServer testServer = new JebScapeTestServer();
+		testServer.port = 0;
+		testServer.tickMillis = tickMillis;
+		testServer.parseArgs(args);
+		testServer.start();
+		return testServer;
+	}
+	
+	// runs game ticks paced by the test server's, logging in whenever logged out; returns false if never logged in
+	public boolean run(int numTicks) throws Exception
+	{
+		boolean hasLoggedIn = false;
+		for (int i = 0; i < numTicks; i++)
+		{
+			Thread.sleep(testServer.tickMillis);
+			hasLoggedIn |= runGameTick();
+		}
+		return hasLoggedIn;
+	}
+	
+	// returns whether we were logged in for this tick
+	public boolean runGameTick()
+	{
+		numGameTicks++;
+		server.onGameTick();
+		if (!server.isChatLoggedIn())
+		{
+			server.login(1L, 0L, false, "Loopback");
+			this.numTicksLoggedIn = 0;
+			return false;
+		}
+		
+		numTicksLoggedIn++;
+		decodeReadyTicks();
+		server.sendGameData(coreData, gameSubData, extraChatData);
+		return true;
+	}
+	
+	// a minimal stand-in for MegaserverMod's decode, checking ghost movement against what the server sent
+	public void decodeReadyTicks()
+	{
+		JebScapeServerData[][] chatServerData = server.getRecentChatServerData();
+		int[] numChatPacketsSent = server.getNumChatServerPacketsSent();
+		for (int tick = 0; tick < JebScapeConnection.TICKS_UNTIL_LOGOUT; tick++)
+		{
+			if (!server.isChatTickReady(tick))
+				continue;
+			
+			numReadyTicks++;
+			int packetsReceived = server.getChatServerPacketsReceived(tick);
+			for (int packetID = 0; packetID < numChatPacketsSent[tick]; packetID++)
+			{
+				if (((packetsReceived >>> packetID) & 0x1) == 0)
+					continue;
+				
+				numPacketsDecoded++;
+				JebScapeServerData data = chatServerData[tick][packetID];
+				for (int slot = 0; slot < JebScapeTestServer.GHOSTS_PER_PACKET; slot++)
+				{
+					int ghostID = testServer.getGhostInSlot(tick, packetID * JebScapeTestServer.GHOSTS_PER_PACKET + slot);
+					int expected = ghostID >= 0 ? JebScapeTestServer.getGhostMovement(tick, ghostID) : 0x3FF;
+					if (ghostID >= 0)
+						numGhostsChecked++;
+					int ghostDataBlockIdx = (slot / 4) * 5 + 1;
+					if (data.getBlock(ghostDataBlockIdx, slot % 4) != expected)
+						numMismatches++;
+					
+					// the server only learns our world and what we're wearing once our first game data reaches it
+					if (checkGhostBlocks && ghostID >= 0 && numTicksLoggedIn > 2)
+						checkGhostBlock(data, ghostDataBlockIdx + slot % 4 + 1, tick, ghostID);
+				}
+			}
+		}
+	}
+	
+	// odd ticks carry the ghost's appearance, which the test server copies from ours; even ticks its world and name
+	private void checkGhostBlock(JebScapeServerData data, int blockIdx, int tick, int ghostID)
+	{
+		if ((tick & 0x1) == 0x1)
+		{
+			for (int k = 0; k < 4; k++)
+				if (data.getBlock(blockIdx, k) != gameSubData[k])
+					numMismatches++;
+			return;
+		}
+		
+		packName(JebScapeTestServer.getGhostName(ghostID), expectedName);
+		if (data.getBlock(blockIdx, 0) != 301)
+			numMismatches++;
+		for (int k = 0; k < 3; k++)
+			if (data.getBlock(blockIdx, k + 1) != expectedName[k])
+				numMismatches++;
+	}
+	
+	// names are padded out to 12 bytes with spaces
+	public static void packName(String name, int[] packed)
+	{
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		for (int k = 0; k < 3; k++)
+		{
+			packed[k] = 0;
+			for (int b = 0; b < 4; b++)
+			{
+				int i = k * 4 + b;
+				packed[k] |= ((i < nameBytes.length ? nameBytes[i] : (byte)' ') & 0xFF) << (b * 8);
+			}
+		}
+	}
+	
+	public void stop() throws Exception
+	{
+		server.disconnect();
+	}
+}
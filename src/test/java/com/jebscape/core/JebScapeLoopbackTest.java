@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeLoopbackTest
+{
+	private static final int TICK_MILLIS = 25;
+	private static final int NUM_TICKS = 60;
+	
+	@Test
+	public void decodesEveryGhostOnACleanLink() throws Exception
+	{
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS);
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServer);
+		try
+		{
+			client.server.connect();
+			assertTrue(client.run(NUM_TICKS));
+			assertTrue(client.numReadyTicks > NUM_TICKS / 2);
+			assertTrue(client.numGhostsChecked > 0);
+			assertEquals(0, client.numMismatches);
+			assertEquals(0, testServer.numPacketsDropped);
+		}
+		finally
+		{
+			client.stop();
+			testServer.stop();
+		}
+	}
+	
+	// whatever does get through must still decode to exactly what was sent
+	@Test
+	public void decodesCorrectlyUnderLossReorderingAndDuplication() throws Exception
+	{
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS, "--loss=10", "--reorder=10", "--dup=10", "--delay=5", "--delay-jitter=5");
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServer);
+		try
+		{
+			client.server.connect();
+			assertTrue(client.run(NUM_TICKS * 2));
+			assertTrue(client.numPacketsDecoded > 0);
+			assertTrue(testServer.numPacketsDropped > 0);
+			assertTrue(testServer.numPacketsDuplicated > 0);
+			assertEquals(0, client.numMismatches);
+		}
+		finally
+		{
+			client.stop();
+			testServer.stop();
+		}
+	}
+	
+	@Test
+	public void answersLoginWithTheGhostsAsked() throws Exception
+	{
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS, "--ghosts=16");
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServer);
+		try
+		{
+			client.server.connect();
+			assertTrue(client.run(NUM_TICKS / 2));
+			assertTrue(client.server.isChatLoggedIn());
+			assertTrue(testServer.numPacketsReceived > 0);
+			
+			// 16 ghosts fit in one packet; the rest of the slots go out as despawned
+			int tick = client.server.getLastReceivedChatTick();
+			int numGhosts = 0;
+			for (int slot = 0; slot < JebScapeTestServer.MAX_SLOTS; slot++)
+				if (testServer.getGhostInSlot(tick, slot) >= 0)
+					numGhosts++;
+			assertEquals(16, numGhosts);
+		}
+		finally
+		{
+			client.stop();
+			testServer.stop();
+		}
+	}
+}
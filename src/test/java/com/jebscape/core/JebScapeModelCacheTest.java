@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeModelCacheTest
+{
+	// the same count and byte limits as a LinkedHashMap kept in access order, evicting the eldest to fit
+	@Test
+	public void evictsAsALinkedHashMapWould()
+	{
+		final int maxEntries = 32;
+		final long maxBytes = 20_000;
+		JebScapeModelCache<Long> modelCache = new JebScapeModelCache<>(maxEntries, maxBytes);
+		LinkedHashMap<Long, Integer> expected = new LinkedHashMap<>(16, 0.75f, true); // key to size
+		Random random = new Random(20);
+		long expectedBytes = 0;
+		for (int i = 0; i < 500_000; i++)
+		{
+			long key = random.nextInt(96) * 0x100000001L; // keys alike in their low bits, to lean on the probing
+			if (random.nextBoolean())
+			{
+				Long value = modelCache.get(key);
+				Integer size = expected.get(key);
+				assertEquals(size == null ? null : key, value);
+			}
+			else
+			{
+				int size = 100 + random.nextInt(1500);
+				modelCache.put(key, key, size);
+				Integer prevSize = expected.remove(key);
+				if (prevSize != null)
+					expectedBytes -= prevSize;
+				Iterator<Map.Entry<Long, Integer>> iterator = expected.entrySet().iterator();
+				while (expected.size() == maxEntries || expectedBytes + size > maxBytes)
+				{
+					expectedBytes -= iterator.next().getValue();
+					iterator.remove();
+				}
+				expected.put(key, size);
+				expectedBytes += size;
+			}
+			
+			assertEquals(expected.size(), modelCache.size());
+			assertEquals(expectedBytes, modelCache.getNumBytes());
+		}
+		
+		// every entry left should still be found
+		for (Long key : expected.keySet().toArray(new Long[0]))
+			assertEquals(key, modelCache.get(key));
+	}
+	
+	@Test
+	public void shrinkingTheBudgetEvictsStraightAway()
+	{
+		JebScapeModelCache<String> modelCache = new JebScapeModelCache<>(8, 1000);
+		for (int i = 0; i < 4; i++)
+			modelCache.put(i, "model " + i, 200);
+		modelCache.get(0);
+		
+		modelCache.setMaxBytes(500);
+		assertEquals(500, modelCache.getMaxBytes());
+		assertEquals(2, modelCache.size());
+		assertEquals(400, modelCache.getNumBytes());
+		assertEquals(2, modelCache.getNumEvictions());
+		assertEquals("model 0", modelCache.get(0));
+		assertEquals("model 3", modelCache.get(3));
+		assertNull(modelCache.get(1));
+		
+		// too large to ever fit, so not held at all
+		modelCache.put(9, "model 9", 600);
+		assertNull(modelCache.get(9));
+		assertEquals(2, modelCache.size());
+		
+		modelCache.clear();
+		assertEquals(0, modelCache.size());
+		assertEquals(0, modelCache.getNumBytes());
+		assertNull(modelCache.get(0));
+	}
+	
+	// as the part cache is when its cap is lowered in the config: a thousand parts down to what 1MB holds, keeping the newest
+	@Test
+	public void partCacheShrinksToALowerCap()
+	{
+		JebScapeModelCache<int[]> partCache = new JebScapeModelCache<>(1024, 4L * 1024 * 1024);
+		for (int partID = 0; partID < 1000; partID++)
+			partCache.put(partID, new int[] { partID }, 4000);
+		assertEquals(1000 * 4000, partCache.getNumBytes());
+		
+		partCache.setMaxBytes(1024 * 1024);
+		assertTrue(partCache.getNumBytes() <= 1024 * 1024);
+		assertEquals(1024 * 1024 / 4000, partCache.size());
+		assertNotNull(partCache.get(999));
+		assertNull(partCache.get(0));
+	}
+	
+	@Test
+	public void countsHitsAndLookups()
+	{
+		JebScapeModelCache<String> modelCache = new JebScapeModelCache<>(4, 1000);
+		assertNull(modelCache.get(1));
+		modelCache.put(1, "model", 10);
+		assertEquals("model", modelCache.get(1));
+		assertEquals("model", modelCache.get(1));
+		assertEquals(3, modelCache.getNumLookups());
+		assertEquals(2, modelCache.getNumHits());
+		assertEquals(66, modelCache.getHitRate());
+		
+		modelCache.resetStats();
+		assertEquals(0, modelCache.getNumLookups());
+		assertEquals(0, modelCache.getHitRate());
+	}
+	
+	// ghosts dressed differently must never share a model, whichever slot an item is worn in
+	@Test
+	public void appearancesDoNotCollide()
+	{
+		HashMap<Long, String> appearances = new HashMap<>();
+		Random random = new Random(20);
+		int[] equipment = new int[7];
+		int[] bodyParts = new int[3];
+		for (int i = 0; i < 200_000; i++)
+		{
+			for (int k = 0; k < equipment.length; k++)
+				equipment[k] = random.nextInt(4) == 0 ? 0 : 2048 + random.nextInt(30000);
+			for (int k = 0; k < bodyParts.length; k++)
+				bodyParts[k] = random.nextInt(8);
+			int gender = random.nextInt(2);
+			int capeID = random.nextInt(32);
+			
+			long key = JebScapeModelLoader.hashAppearance(equipment, bodyParts, gender, capeID);
+			String appearance = Arrays.toString(equipment) + Arrays.toString(bodyParts) + gender + "/" + capeID;
+			String prevAppearance = appearances.putIfAbsent(key, appearance);
+			if (prevAppearance != null)
+				assertEquals(prevAppearance, appearance);
+		}
+		
+		int[] swapped = { 0, 2048 + 5, 0, 0, 0, 0, 0 };
+		int[] unswapped = { 2048 + 5, 0, 0, 0, 0, 0, 0 };
+		assertNotEquals(JebScapeModelLoader.hashAppearance(swapped, bodyParts, 0, 0), JebScapeModelLoader.hashAppearance(unswapped, bodyParts, 0, 0));
+		assertNotEquals(JebScapeModelLoader.hashAppearance(unswapped, bodyParts, 0, 0), JebScapeModelLoader.hashAppearance(unswapped, bodyParts, 1, 0));
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeNameCacheTest
+{
+	@Test
+	public void hitsHandBackTheSameStrings()
+	{
+		JebScapeNameCache nameCache = new JebScapeNameCache(JebScapeNameCache.DEFAULT_CAPACITY);
+		int[] packed = packName("Ghost 1");
+		
+		int entry = nameCache.lookup(301, packed[0], packed[1], packed[2]);
+		String name = nameCache.getName(entry);
+		String overheadText = nameCache.getOverheadText(entry);
+		assertEquals("Ghost 1", name);
+		assertEquals("[W301] Ghost 1", overheadText);
+		
+		entry = nameCache.lookup(301, packed[0], packed[1], packed[2]);
+		assertSame(name, nameCache.getName(entry));
+		assertSame(overheadText, nameCache.getOverheadText(entry));
+		assertEquals(2, nameCache.getNumLookups());
+		assertEquals(1, nameCache.getNumHits());
+		assertEquals(50, nameCache.getHitRate());
+	}
+	
+	@Test
+	public void worldsAreKeptApart()
+	{
+		JebScapeNameCache nameCache = new JebScapeNameCache(JebScapeNameCache.DEFAULT_CAPACITY);
+		int[] packed = packName("Ghost 1");
+		
+		assertEquals("[W301] Ghost 1", nameCache.getOverheadText(nameCache.lookup(301, packed[0], packed[1], packed[2])));
+		assertEquals("[W302] Ghost 1", nameCache.getOverheadText(nameCache.lookup(302, packed[0], packed[1], packed[2])));
+		assertEquals("Ghost 1", nameCache.getOverheadText(nameCache.lookup(0, packed[0], packed[1], packed[2])));
+		assertEquals(0, nameCache.getNumHits());
+	}
+	
+	@Test
+	public void namesAreTrimmedOfTheirPadding()
+	{
+		JebScapeNameCache nameCache = new JebScapeNameCache(JebScapeNameCache.DEFAULT_CAPACITY);
+		int[] spaced = packName("A");
+		assertEquals("A", nameCache.getName(nameCache.lookup(301, spaced[0], spaced[1], spaced[2])));
+		
+		// a full 12 bytes has no padding at all
+		int[] full = packName("Twelve Bytes");
+		assertEquals("Twelve Bytes", nameCache.decodeName(full[0], full[1], full[2]));
+	}
+	
+	@Test
+	public void leastRecentlyUsedIsEvictedOnceFull()
+	{
+		// a single set of 4
+		JebScapeNameCache nameCache = new JebScapeNameCache(4);
+		assertEquals(4, nameCache.getCapacity());
+		int[][] packed = new int[5][];
+		for (int i = 0; i < packed.length; i++)
+			packed[i] = packName("Ghost " + i);
+		
+		for (int i = 0; i < 4; i++)
+			nameCache.lookup(301, packed[i][0], packed[i][1], packed[i][2]);
+		
+		// ghost 0 is used again, so ghost 1 is now the one used longest ago
+		nameCache.lookup(301, packed[0][0], packed[0][1], packed[0][2]);
+		assertEquals(0, nameCache.getNumEvictions());
+		
+		nameCache.lookup(301, packed[4][0], packed[4][1], packed[4][2]);
+		assertEquals(1, nameCache.getNumEvictions());
+		
+		nameCache.resetStats();
+		for (int i : new int[] { 0, 2, 3, 4 })
+			assertEquals("Ghost " + i, nameCache.getName(nameCache.lookup(301, packed[i][0], packed[i][1], packed[i][2])));
+		assertEquals(4, nameCache.getNumHits());
+		
+		// ghost 1 was the one pushed out, so it misses and pushes out another in turn
+		nameCache.lookup(301, packed[1][0], packed[1][1], packed[1][2]);
+		assertEquals(4, nameCache.getNumHits());
+		assertEquals(1, nameCache.getNumEvictions());
+	}
+	
+	@Test
+	public void decodedNamesTakeNoEntry()
+	{
+		JebScapeNameCache nameCache = new JebScapeNameCache(4);
+		for (int i = 0; i < 4; i++)
+		{
+			int[] packed = packName("Ghost " + i);
+			nameCache.lookup(301, packed[0], packed[1], packed[2]);
+		}
+		nameCache.resetStats();
+		
+		// as many hiscores names as there are ranks, none of which may push out a ghost
+		for (int i = 0; i < 50; i++)
+		{
+			int[] packed = packName("Rank " + i);
+			assertEquals("Rank " + i, nameCache.decodeName(packed[0], packed[1], packed[2]));
+		}
+		assertEquals(0, nameCache.getNumLookups());
+		assertEquals(0, nameCache.getNumEvictions());
+		
+		for (int i = 0; i < 4; i++)
+		{
+			int[] packed = packName("Ghost " + i);
+			nameCache.lookup(301, packed[0], packed[1], packed[2]);
+		}
+		assertEquals(4, nameCache.getNumHits());
+	}
+	
+	// packed just as the server sends them: up to 12 UTF-8 bytes, padded with spaces
+	private static int[] packName(String name)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int[] packed = new int[3];
+		for (int k = 0; k < 3; k++)
+			for (int b = 0; b < 4; b++)
+			{
+				int i = k * 4 + b;
+				packed[k] |= ((i < bytes.length ? bytes[i] : (byte)' ') & 0xFF) << (b * 8);
+			}
+		return packed;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeNameIndexTest
+{
+	private static final int NUM_WORLDS = 8;
+	
+	// chat must reach the same ghost that scanning every ghost's name would find, and no one when the sender is out of view
+	@Test
+	public void routesChatAsScanningWould()
+	{
+		for (int numGhosts : new int[] { 16, 64, 256 })
+		{
+			int[][] packedNames = new int[numGhosts][];
+			int[] worlds = new int[numGhosts];
+			String[] names = new String[numGhosts];
+			JebScapeNameIndex nameIndex = new JebScapeNameIndex(numGhosts);
+			for (int i = 0; i < numGhosts; i++)
+			{
+				names[i] = "Ghost " + i;
+				packedNames[i] = packName(names[i]);
+				worlds[i] = 301 + i % NUM_WORLDS;
+				nameIndex.put(i, worlds[i], packedNames[i][0], packedNames[i][1], packedNames[i][2]);
+			}
+			assertEquals(numGhosts, nameIndex.size());
+			
+			for (int i = 0; i < numGhosts; i++)
+			{
+				int[] packed = packedNames[i];
+				assertEquals(scan(worlds[i], packed, worlds, names), nameIndex.get(worlds[i], packed[0], packed[1], packed[2]));
+				assertEquals(i, nameIndex.get(worlds[i], packed[0], packed[1], packed[2]));
+				
+				// the same name on another world is someone else
+				int otherWorld = worlds[i] == 301 ? 302 : 301;
+				assertEquals(scan(otherWorld, packed, worlds, names), nameIndex.get(otherWorld, packed[0], packed[1], packed[2]));
+			}
+			
+			int[] stranger = packName("Stranger");
+			assertEquals(-1, nameIndex.get(301, stranger[0], stranger[1], stranger[2]));
+		}
+	}
+	
+	@Test
+	public void clearEmptiesTheIndex()
+	{
+		JebScapeNameIndex nameIndex = new JebScapeNameIndex(16);
+		int[] packed = packName("Ghost 1");
+		nameIndex.put(1, 301, packed[0], packed[1], packed[2]);
+		nameIndex.clear();
+		assertEquals(0, nameIndex.size());
+		assertEquals(-1, nameIndex.get(301, packed[0], packed[1], packed[2]));
+	}
+	
+	// hands names from a small pool to slots at random, growing the index part way through, just as ghosts come and go
+	@Test
+	public void churnMatchesAPlainMap()
+	{
+		final int numSlots = 64;
+		final int numNames = 96;
+		int[][] packedNames = new int[numNames][];
+		for (int i = 0; i < numNames; i++)
+			packedNames[i] = packName("Churn " + i);
+		
+		JebScapeNameIndex nameIndex = new JebScapeNameIndex(numSlots / 4);
+		HashMap<Integer, Integer> expected = new HashMap<>(); // name to slot
+		int[] slotNames = new int[numSlots];
+		Arrays.fill(slotNames, -1);
+		Random random = new Random(17);
+		for (int i = 0; i < 200_000; i++)
+		{
+			if (i == 50_000)
+				nameIndex.ensureCapacity(numSlots);
+			
+			int slot = random.nextInt(i < 50_000 ? numSlots / 4 : numSlots);
+			int oldName = slotNames[slot];
+			if (oldName >= 0)
+			{
+				int[] packed = packedNames[oldName];
+				nameIndex.remove(slot, 301, packed[0], packed[1], packed[2]);
+				expected.remove(oldName, slot);
+				slotNames[slot] = -1;
+			}
+			
+			// sometimes the slot just empties, otherwise it takes a name, possibly one another slot already holds
+			if (random.nextInt(4) != 0)
+			{
+				int name = random.nextInt(numNames);
+				int[] packed = packedNames[name];
+				Integer prevSlot = expected.put(name, slot);
+				if (prevSlot != null)
+					slotNames[prevSlot] = -1;
+				nameIndex.put(slot, 301, packed[0], packed[1], packed[2]);
+				slotNames[slot] = name;
+			}
+			
+			for (int name = 0; name < numNames; name++)
+			{
+				int[] packed = packedNames[name];
+				Integer slotExpected = expected.get(name);
+				assertEquals(slotExpected == null ? -1 : (int)slotExpected, nameIndex.get(301, packed[0], packed[1], packed[2]));
+			}
+			assertEquals(expected.size(), nameIndex.size());
+		}
+	}
+	
+	// what MegaserverMod did for every chat message before the index
+	private static int scan(int world, int[] packedName, int[] worlds, String[] names)
+	{
+		byte[] nameBytes = new byte[12];
+		for (int k = 0; k < 3; k++)
+			JebScapeProtocol.PackedBytes.toBytes(packedName[k], nameBytes, k * 4);
+		String senderName = new String(nameBytes, StandardCharsets.UTF_8).trim();
+		for (int ghostID = 0; ghostID < names.length; ghostID++)
+			if (worlds[ghostID] == world && names[ghostID].contentEquals(senderName))
+				return ghostID;
+		return -1;
+	}
+	
+	// packed just as the server sends them: up to 12 UTF-8 bytes, padded with spaces
+	private static int[] packName(String name)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int[] packed = new int[3];
+		for (int k = 0; k < 3; k++)
+			for (int b = 0; b < 4; b++)
+			{
+				int i = k * 4 + b;
+				packed[k] |= ((i < bytes.length ? bytes[i] : (byte)' ') & 0xFF) << (b * 8);
+			}
+		return packed;
+	}
+}
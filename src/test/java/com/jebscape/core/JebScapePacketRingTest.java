@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapePacketRingTest
+{
+	private static final int PACKET_SIZE = 16;
+	
+	@Test
+	public void turnsAwayTheProducerOnceFull()
+	{
+		JebScapePacketRing ring = new JebScapePacketRing(4, PACKET_SIZE);
+		for (int i = 0; i < 4; i++)
+		{
+			assertNotNull(ring.claim());
+			ring.publish();
+		}
+		assertNull(ring.claim());
+		assertEquals(4, ring.size());
+		
+		// one slot handed back makes room for exactly one more
+		assertNotNull(ring.peek());
+		ring.release();
+		assertNotNull(ring.claim());
+		ring.publish();
+		assertNull(ring.claim());
+	}
+	
+	@Test
+	public void handsBackPacketsInOrderAcrossManyWraps()
+	{
+		JebScapePacketRing ring = new JebScapePacketRing(4, PACKET_SIZE);
+		assertNull(ring.peek());
+		
+		int numProduced = 0;
+		int numConsumed = 0;
+		for (int round = 0; round < 100; round++)
+		{
+			// a different number each time, so that head and tail land on every slot
+			for (int i = 0; i < round % 4 + 1; i++)
+			{
+				JebScapePacket packet = ring.claim();
+				packet.buffer.clear();
+				packet.buffer.putInt(numProduced++);
+				packet.buffer.flip();
+				ring.publish();
+			}
+			
+			JebScapePacket packet;
+			while ((packet = ring.peek()) != null)
+			{
+				assertEquals(numConsumed++, packet.buffer.getInt(0));
+				ring.release();
+			}
+			assertEquals(0, ring.size());
+		}
+		assertEquals(numProduced, numConsumed);
+	}
+	
+	// the consumer keeps the packet it was handed, and the producer fills the one given in its place next time around
+	@Test
+	public void replaceSwapsTheSlotsPacket()
+	{
+		JebScapePacketRing ring = new JebScapePacketRing(2, PACKET_SIZE);
+		JebScapePacket replacement = new JebScapePacket();
+		replacement.init(PACKET_SIZE);
+		
+		JebScapePacket first = ring.claim();
+		ring.publish();
+		assertSame(first, ring.peek());
+		ring.replace(replacement);
+		ring.release();
+		
+		assertNotSame(first, ring.claim());
+		ring.publish();
+		ring.peek();
+		ring.release();
+		
+		assertSame(replacement, ring.claim());
+		ring.publish();
+		assertSame(replacement, ring.peek());
+	}
+	
+	@Test
+	public void handsOverEveryPacketInOrderBetweenThreads() throws Exception
+	{
+		final int numPackets = 200000;
+		JebScapePacketRing ring = new JebScapePacketRing(8, PACKET_SIZE);
+		Thread producer = new Thread(() ->
+		{
+			for (int i = 0; i < numPackets; i++)
+			{
+				JebScapePacket packet;
+				while ((packet = ring.claim()) == null)
+					Thread.yield();
+				packet.buffer.clear();
+				packet.buffer.putInt(i);
+				packet.buffer.flip();
+				ring.publish();
+			}
+		});
+		producer.setDaemon(true);
+		producer.start();
+		
+		// the consumer swaps out every other packet, as JebScapeConnection does with those it holds on to
+		JebScapePacket spare = new JebScapePacket();
+		spare.init(PACKET_SIZE);
+		long deadline = System.nanoTime() + 30_000_000_000L;
+		int numConsumed = 0;
+		while (numConsumed < numPackets)
+		{
+			assertTrue("timed out after " + numConsumed + " packets", System.nanoTime() < deadline);
+			JebScapePacket packet = ring.peek();
+			if (packet == null)
+			{
+				Thread.yield();
+				continue;
+			}
+			
+			assertEquals(numConsumed, packet.buffer.getInt(0));
+			if ((numConsumed & 0x1) == 0x1)
+			{
+				ring.replace(spare);
+				spare = packet;
+			}
+			ring.release();
+			numConsumed++;
+		}
+		
+		producer.join(1000);
+		assertFalse(producer.isAlive());
+		assertNull(ring.peek());
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.nio.*;
+import java.util.Random;
+
+import org.junit.Test;
+import com.jebscape.core.JebScapeProtocol.ServerHeader;
+
+import static org.junit.Assert.*;
+
+public class JebScapeParityTest
+{
+	private static final int TICK_MILLIS = 25;
+	
+	@Test
+	public void rebuildsTheOneMissingPacket()
+	{
+		int[] lengths = { JebScapeServerData.PACKET_SIZE, JebScapeServerData.PACKET_SIZE, JebScapeServerData.PACKET_SIZE };
+		ByteBuffer[] packets = newPackets(5, lengths, false);
+		ByteBuffer parity = newParity(5, packets, lengths);
+		
+		JebScapeParityDecoder parityDecoder = new JebScapeParityDecoder();
+		assertFalse(parityDecoder.add(packets[0], lengths[0], packets[0].getInt(0)));
+		assertFalse(parityDecoder.add(packets[0], lengths[0], packets[0].getInt(0))); // duplicates are ignored
+		assertFalse(parityDecoder.add(packets[2], lengths[2], packets[2].getInt(0)));
+		assertTrue(JebScapeParityDecoder.isParityPacket(parity.getInt(0)));
+		assertTrue(parityDecoder.add(parity, JebScapeServerData.PACKET_SIZE, parity.getInt(0)));
+		
+		ByteBuffer recovered = ByteBuffer.allocate(JebScapeServerData.PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(JebScapeServerData.PACKET_SIZE, parityDecoder.recover(5, recovered, false));
+		assertEquals(packets[1], recovered);
+		assertEquals(1, parityDecoder.getNumPacketsRecovered());
+		
+		// nothing's left to recover once it has been
+		assertEquals(0, parityDecoder.recover(5, recovered, false));
+	}
+	
+	@Test
+	public void rebuildsACompactFrameToItsOwnLength()
+	{
+		int[] lengths = { 120, 300, 64 };
+		ByteBuffer[] packets = newPackets(9, lengths, true);
+		ByteBuffer parity = newParity(9, packets, lengths);
+		
+		JebScapeParityDecoder parityDecoder = new JebScapeParityDecoder();
+		parityDecoder.add(parity, 300, parity.getInt(0));
+		parityDecoder.add(packets[0], lengths[0], packets[0].getInt(0));
+		assertTrue(parityDecoder.add(packets[2], lengths[2], packets[2].getInt(0)));
+		
+		ByteBuffer recovered = ByteBuffer.allocate(JebScapeServerData.PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(300, parityDecoder.recover(9, recovered, true));
+		for (int i = 0; i < 300; i++)
+			assertEquals(packets[1].get(i), recovered.get(i));
+	}
+	
+	@Test
+	public void cannotRebuildTwoMissingPackets()
+	{
+		int[] lengths = { JebScapeServerData.PACKET_SIZE, JebScapeServerData.PACKET_SIZE, JebScapeServerData.PACKET_SIZE };
+		ByteBuffer[] packets = newPackets(3, lengths, false);
+		ByteBuffer parity = newParity(3, packets, lengths);
+		
+		JebScapeParityDecoder parityDecoder = new JebScapeParityDecoder();
+		assertFalse(parityDecoder.add(packets[0], lengths[0], packets[0].getInt(0)));
+		assertFalse(parityDecoder.add(parity, JebScapeServerData.PACKET_SIZE, parity.getInt(0)));
+		assertEquals(0, parityDecoder.recover(3, ByteBuffer.allocate(JebScapeServerData.PACKET_SIZE), false));
+	}
+	
+	@Test
+	public void recoversLostPacketsOverTheLoopback() throws Exception
+	{
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS, "--loss=10");
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServer);
+		client.server.setUseParity(true);
+		try
+		{
+			client.server.connect();
+			assertTrue(client.run(120));
+			assertTrue(testServer.numParityPacketsSent > 0);
+			assertTrue(client.server.getNumPacketsRecovered() > 0);
+			assertEquals(0, client.numMismatches);
+		}
+		finally
+		{
+			client.stop();
+			testServer.stop();
+		}
+	}
+	
+	// random bodies behind headers for the given tick; compact frames carry their length after the header
+	private static ByteBuffer[] newPackets(int tick, int[] lengths, boolean isCompact)
+	{
+		Random random = new Random(tick);
+		ByteBuffer[] packets = new ByteBuffer[lengths.length];
+		for (int packetID = 0; packetID < lengths.length; packetID++)
+		{
+			packets[packetID] = ByteBuffer.allocate(JebScapeServerData.PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 4; i < lengths[packetID]; i++)
+				packets[packetID].put(i, (byte)random.nextInt());
+			packets[packetID].putInt(0, getHeader(tick, lengths.length, packetID));
+			if (isCompact)
+				packets[packetID].putShort(4, (short)lengths[packetID]);
+		}
+		return packets;
+	}
+	
+	private static ByteBuffer newParity(int tick, ByteBuffer[] packets, int[] lengths)
+	{
+		ByteBuffer parity = ByteBuffer.allocate(JebScapeServerData.PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		for (int packetID = 0; packetID < packets.length; packetID++)
+			for (int i = 4; i < lengths[packetID]; i++)
+				parity.put(i, (byte)(parity.get(i) ^ packets[packetID].get(i)));
+		parity.putInt(0, getHeader(tick, packets.length, packets.length));
+		return parity;
+	}
+	
+	private static int getHeader(int tick, int numPacketsSent, int packetID)
+	{
+		int header = JebScapeBitCodec.set(ServerHeader.TICK, 0, tick);
+		header = JebScapeBitCodec.set(ServerHeader.NUM_PACKETS_SENT, header, numPacketsSent - 1);
+		return JebScapeBitCodec.set(ServerHeader.PACKET_ID, header, packetID);
+	}
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import com.jebscape.core.JebScapeProtocol.*;
+import java.lang.reflect.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// round trips every packet the client sends or reads through the fields declared in JebScapeProtocol
+// the test server builds and parses its packets with plain shifts, so it serves as an independent check on the schema
+public class JebScapeProtocolTest
+{
+	private static final int TICK_MILLIS = 25;
+	private static final int NUM_TICKS = 40;
+	private static final int LOGIN_PACKET = 0x1;
+	private static final int CHAT_PACKET = 0x3;
+	private static final int NUM_SKILLS = 24;
+	private static final int NUM_RANKS = 5;
+	
+	// what we send, at the top of each field's range wherever the test server lets us
+	private static final int WORLD = 0x3ABC;
+	private static final int PLANE = 3;
+	private static final int INTEREST_RADIUS = 40;
+	private static final int X = 0xFEDC;
+	private static final int Y = 0x1234;
+	private static final int CAPE_ID = 31;
+	private static final int ORIENTATION = 63;
+	private static final int ANIMATION_ID = 0x3FFF;
+	private static final int EQUIPMENT_ID = 0xFFFE;
+	private static final int BODY_PARTS = 0x7FFF;
+	
+	// each field must give back what was put in it and leave every other bit of the word alone
+	// the fields of each word must also cover all 32 bits exactly once
+	@Test
+	public void fieldsRoundTripAndCoverEveryWord() throws Exception
+	{
+		Random random = new Random(1);
+		int numWords = 0;
+		for (Class<?> word : JebScapeProtocol.class.getDeclaredClasses())
+		{
+			int coveredBits = 0;
+			for (Field declared : word.getDeclaredFields())
+			{
+				if (!Modifier.isPublic(declared.getModifiers()))
+					continue;
+				
+				int[] fields;
+				if (declared.getType() == int.class)
+					fields = new int[] { declared.getInt(null) };
+				else if (declared.getType() == int[].class)
+					fields = (int[])declared.get(null);
+				else
+					continue;
+				
+				if (declared.getType() == int.class && !isField(fields[0]))
+					continue;
+				
+				String name = word.getSimpleName() + "." + declared.getName();
+				for (int field : fields)
+				{
+					int bits = JebScapeBitCodec.fill(field);
+					assertEquals(name + " overlaps another field", 0, coveredBits & bits);
+					coveredBits |= bits;
+					
+					for (int i = 0; i < 1000; i++)
+					{
+						int before = random.nextInt();
+						int value = random.nextInt() & JebScapeBitCodec.mask(field);
+						int after = JebScapeBitCodec.set(field, before, value);
+						assertEquals(name, value, JebScapeBitCodec.get(field, after));
+						assertEquals(name, before & ~bits, after & ~bits);
+						assertEquals(name, after & bits, JebScapeBitCodec.pack(field, value));
+					}
+				}
+			}
+			
+			assertEquals(word.getSimpleName() + " leaves bits unaccounted for", 0xFFFFFFFF, coveredBits);
+			numWords++;
+		}
+		assertTrue(numWords > 0);
+	}
+	
+	// logs in and plays a session against the test server with capture on, then reads back every packet that went either way
+	@Test
+	public void packetsRoundTripThroughTheTestServer() throws Exception
+	{
+		Path path = Files.createTempFile("capture", ".bin");
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS, "--chat=3");
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServer);
+		client.coreData[0] = newCoreWorld();
+		client.coreData[1] = newCorePosition();
+		client.coreData[2] = newCoreAnimation();
+		client.gameSubData[0] = JebScapeBitCodec.pack(EquipmentPair.FIRST, 0xFFFF) | JebScapeBitCodec.pack(EquipmentPair.SECOND, 0x8001);
+		client.gameSubData[1] = newEquipmentBody(false);
+		client.gameSubData[2] = newEquipmentBody(true);
+		client.gameSubData[3] = JebScapeBitCodec.pack(EquipmentPair.FIRST, 1) | JebScapeBitCodec.pack(EquipmentPair.SECOND, 0xFFFF);
+		try
+		{
+			client.server.connect();
+			client.server.startCapture(path);
+			assertTrue(client.run(NUM_TICKS));
+			client.server.stopCapture();
+		}
+		finally
+		{
+			client.stop();
+			testServer.stop();
+		}
+		
+		ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+		Files.deleteIfExists(path);
+		assertEquals(JebScapePacketCapture.MAGIC, log.getInt(0));
+		log.limit(Math.toIntExact(log.getLong(JebScapePacketCapture.END_OFFSET_POSITION)));
+		log.position(JebScapePacketCapture.HEADER_SIZE);
+		
+		int sessionID = -1;
+		int numLogins = 0, numChatsSent = 0, numChatsRead = 0, numAppearances = 0, numNames = 0, numMessages = 0;
+		while (log.hasRemaining())
+		{
+			int direction = log.get();
+			log.get(); // tick
+			int length = log.getShort() & 0xFFFF;
+			log.getLong(); // nanos
+			ByteBuffer packet = log.slice().order(ByteOrder.LITTLE_ENDIAN);
+			packet.limit(length);
+			log.position(log.position() + length);
+			
+			int header = packet.getInt(0);
+			if (direction == JebScapePacketCapture.DIRECTION_OUT && JebScapeBitCodec.get(LoginHeader.TYPE, header) == LOGIN_PACKET)
+			{
+				checkLogin(packet);
+				numLogins++;
+			}
+			else if (direction == JebScapePacketCapture.DIRECTION_OUT)
+			{
+				assertEquals(CHAT_PACKET, JebScapeBitCodec.get(ChatHeader.TYPE, header));
+				assertEquals(sessionID, JebScapeBitCodec.get(ChatHeader.SESSION_ID, header));
+				assertFalse(JebScapeBitCodec.isSet(ChatHeader.IS_USING_KEY, header));
+				assertEquals(JebScapeBitCodec.fill(ChatHeader.RESERVED), header & JebScapeBitCodec.fill(ChatHeader.RESERVED));
+				checkChat(packet, client);
+				numChatsSent++;
+			}
+			else if (JebScapeBitCodec.get(ServerHeader.TYPE, header) == LOGIN_PACKET)
+			{
+				assertFalse(JebScapeBitCodec.isSet(ServerHeader.IS_USING_KEY, header));
+				sessionID = JebScapeBitCodec.get(ServerHeader.SESSION_ID, header);
+			}
+			else
+			{
+				assertEquals(JebScapeServerData.PACKET_SIZE, length);
+				assertEquals(CHAT_PACKET, JebScapeBitCodec.get(ServerHeader.TYPE, header));
+				assertEquals(sessionID, JebScapeBitCodec.get(ServerHeader.SESSION_ID, header));
+				assertEquals(JebScapeConnection.CHAT_SERVER_PACKETS_PER_TICK, JebScapeBitCodec.get(ServerHeader.NUM_PACKETS_SENT, header) + 1);
+				assertTrue(JebScapeBitCodec.get(ServerHeader.PACKET_ID, header) < JebScapeConnection.CHAT_SERVER_PACKETS_PER_TICK);
+				
+				// the server only echoes us once our first game data has reached it
+				if (getBlock(packet, 0, 2) == 0)
+					continue;
+				
+				checkEcho(packet);
+				boolean hasAppearance = (JebScapeBitCodec.get(ServerHeader.TICK, header) & 0x1) == 0x1;
+				for (int slot = 0; slot < JebScapeGhostFrame.GHOSTS_PER_PACKET; slot++)
+				{
+					int ghostDataBlockIdx = (slot / 4) * 5 + 1;
+					int ghostData = getBlock(packet, ghostDataBlockIdx, slot % 4);
+					if (GhostMovement.isDespawned(ghostData))
+						continue;
+					
+					int blockIdx = ghostDataBlockIdx + slot % 4 + 1;
+					assertEquals(819, JebScapeBitCodec.get(GhostMovement.ANIMATION_ID, ghostData));
+					assertFalse(JebScapeBitCodec.isSet(GhostMovement.IS_INTERACTING, ghostData));
+					if (hasAppearance)
+					{
+						checkAppearance(packet, blockIdx, client.gameSubData);
+						numAppearances++;
+					}
+					else
+					{
+						int worldWord = getBlock(packet, blockIdx, 0);
+						assertEquals(WORLD, JebScapeBitCodec.get(GhostWorld.WORLD, worldWord));
+						assertEquals(CAPE_ID, JebScapeBitCodec.get(GhostWorld.CAPE_ID, worldWord));
+						assertEquals(0, worldWord & JebScapeBitCodec.fill(GhostWorld.RESERVED));
+						assertTrue(unpackString(packet, blockIdx, 1, 3).startsWith("Ghost "));
+						numNames++;
+					}
+				}
+				
+				if (getBlock(packet, 28, 0) != 0)
+				{
+					assertEquals(WORLD, getBlock(packet, 28, 0));
+					assertTrue(unpackString(packet, 28, 1, 3).startsWith("Ghost "));
+					assertTrue(unpackString(packet, 29, 0, 20).startsWith("Test message "));
+					numMessages++;
+				}
+				numChatsRead++;
+			}
+		}
+		
+		assertTrue(numLogins > 0);
+		assertTrue(numChatsSent > NUM_TICKS / 2);
+		assertTrue(numChatsRead > NUM_TICKS / 2);
+		assertTrue(numAppearances > 0);
+		assertTrue(numNames > 0);
+		assertTrue(numMessages > 0);
+	}
+	
+	// laid out as the server sends it and read back as MegaserverMod does, including the xp split across two words
+	@Test
+	public void hiscoresRoundTrip()
+	{
+		long[] xps = { 0xFFFFFFFFFL, 200000000L, 0x80000000L, 0x7FFFFFFFL, 0L };
+		boolean[] onlineStatuses = { true, false, true, false, true };
+		String[] names = { "Zezima", "Lynx Titan", "Ab", "123456789012", "Hey Jase" };
+		int[] levels = { 2376, 99, 4095, 1, 0 };
+		
+		JebScapePacket packet = new JebScapePacket();
+		packet.init(JebScapeServerData.PACKET_SIZE);
+		int ranksWord = JebScapeBitCodec.pack(HiscoresRanks.MONITORED_RANK_OFFSET, HiscoresRanks.NOT_MONITORED);
+		ranksWord |= JebScapeBitCodec.pack(HiscoresRanks.START_RANK, 0x1FFFF);
+		ranksWord |= JebScapeBitCodec.pack(HiscoresRanks.LEVEL, levels[0]);
+		setBlock(packet.buffer, 28, 0, ranksWord);
+		setBlock(packet.buffer, 28, 1, JebScapeBitCodec.pack(HiscoresLevels.FIRST_LEVEL, levels[1]) | JebScapeBitCodec.pack(HiscoresLevels.SECOND_LEVEL, levels[2]));
+		setBlock(packet.buffer, 28, 2, JebScapeBitCodec.pack(HiscoresLevels.FIRST_LEVEL, levels[3]) | JebScapeBitCodec.pack(HiscoresLevels.SECOND_LEVEL, levels[4]));
+		int skillWord = JebScapeBitCodec.pack(HiscoresSkill.SKILL_TYPE, 23);
+		for (int j = 0; j < NUM_RANKS; j++)
+		{
+			skillWord |= JebScapeBitCodec.pack(HiscoresSkill.UPPER_XP[j], (int)(xps[j] >>> 31));
+			setBlock(packet.buffer, j + 29, 0, JebScapeBitCodec.pack(HiscoresEntry.XP, (int)xps[j]) | JebScapeBitCodec.pack(HiscoresEntry.IS_ONLINE, onlineStatuses[j]));
+			byte[] nameBytes = names[j].getBytes(StandardCharsets.UTF_8);
+			for (int i = 0; i < 12; i++)
+				packet.buffer.put(((j + 29) * 4 + 1) * 4 + i, i < nameBytes.length ? nameBytes[i] : (byte)' ');
+		}
+		setBlock(packet.buffer, 28, 3, skillWord);
+		
+		JebScapeServerData data = new JebScapeServerData();
+		data.swapData(packet);
+		
+		ranksWord = data.getBlock(28, 0);
+		assertEquals(HiscoresRanks.NOT_MONITORED, JebScapeBitCodec.get(HiscoresRanks.MONITORED_RANK_OFFSET, ranksWord));
+		assertEquals(0x1FFFF, JebScapeBitCodec.get(HiscoresRanks.START_RANK, ranksWord));
+		assertEquals(levels[0], JebScapeBitCodec.get(HiscoresRanks.LEVEL, ranksWord));
+		assertEquals(levels[1], JebScapeBitCodec.get(HiscoresLevels.FIRST_LEVEL, data.getBlock(28, 1)));
+		assertEquals(levels[2], JebScapeBitCodec.get(HiscoresLevels.SECOND_LEVEL, data.getBlock(28, 1)));
+		assertEquals(levels[3], JebScapeBitCodec.get(HiscoresLevels.FIRST_LEVEL, data.getBlock(28, 2)));
+		assertEquals(levels[4], JebScapeBitCodec.get(HiscoresLevels.SECOND_LEVEL, data.getBlock(28, 2)));
+		
+		skillWord = data.getBlock(28, 3);
+		assertEquals(23, JebScapeBitCodec.get(HiscoresSkill.SKILL_TYPE, skillWord));
+		byte[] nameBytes = new byte[12];
+		for (int j = 0; j < NUM_RANKS; j++)
+		{
+			int entryWord = data.getBlock(j + 29, 0);
+			long upperXp = JebScapeBitCodec.get(HiscoresSkill.UPPER_XP[j], skillWord);
+			long xp = upperXp << 31 | JebScapeBitCodec.get(HiscoresEntry.XP, entryWord);
+			assertEquals(xps[j], xp);
+			assertEquals(onlineStatuses[j], JebScapeBitCodec.isSet(HiscoresEntry.IS_ONLINE, entryWord));
+			
+			for (int k = 0; k < 3; k++)
+				PackedBytes.toBytes(data.getBlock(j + 29, k + 1), nameBytes, k * 4);
+			assertEquals(names[j], new String(nameBytes, StandardCharsets.UTF_8).trim());
+		}
+	}
+	
+	// our stats go up one skill per word, with the hiscores request spread across their spare bits one bit per skill
+	@Test
+	public void statsUpdateRoundTrips()
+	{
+		int[] xps = new int[NUM_SKILLS];
+		Random random = new Random(3);
+		for (int i = 0; i < NUM_SKILLS; i++)
+			xps[i] = random.nextInt(JebScapeBitCodec.mask(SkillXp.XP) + 1);
+		xps[0] = JebScapeBitCodec.mask(SkillXp.XP);
+		xps[1] = 200000000;
+		
+		// as MegaserverMod packs it
+		byte[] extraChatData = new byte[96];
+		int userInputDataC = JebScapeBitCodec.pack(HiscoresRequest.START_RANK, 0x1FFFF);
+		userInputDataC |= JebScapeBitCodec.pack(HiscoresRequest.SKILL_TYPE, 23);
+		for (int i = 0; i < NUM_SKILLS; i++)
+			PackedBytes.toBytes(JebScapeBitCodec.pack(SkillXp.XP, xps[i]), extraChatData, i * 4);
+		for (int i = 0; i < NUM_SKILLS; i++)
+		{
+			int spareBits = JebScapeBitCodec.pack(SkillXp.USER_INPUT_C, (userInputDataC >>> i) & 0x1);
+			extraChatData[i * 4 + 3] |= (byte)(spareBits >>> 24);
+		}
+		
+		// and as the server reads it back
+		ByteBuffer buffer = ByteBuffer.wrap(extraChatData).order(ByteOrder.LITTLE_ENDIAN);
+		int request = 0;
+		for (int i = 0; i < NUM_SKILLS; i++)
+		{
+			int word = buffer.getInt(i * 4);
+			assertEquals(xps[i], JebScapeBitCodec.get(SkillXp.XP, word));
+			assertFalse(JebScapeBitCodec.isSet(SkillXp.USER_INPUT_A, word));
+			assertFalse(JebScapeBitCodec.isSet(SkillXp.USER_INPUT_B, word));
+			request |= JebScapeBitCodec.get(SkillXp.USER_INPUT_C, word) << i;
+		}
+		assertEquals(0x1FFFF, JebScapeBitCodec.get(HiscoresRequest.START_RANK, request));
+		assertEquals(23, JebScapeBitCodec.get(HiscoresRequest.SKILL_TYPE, request));
+		assertEquals(0, request & JebScapeBitCodec.fill(HiscoresRequest.UNUSED));
+		
+		// the rest of the extra chat data is left alone
+		for (int i = NUM_SKILLS * 4; i < extraChatData.length; i++)
+			assertEquals(0, extraChatData[i]);
+	}
+	
+	private static void checkLogin(ByteBuffer packet)
+	{
+		int header = packet.getInt(0);
+		assertFalse(JebScapeBitCodec.isSet(LoginHeader.IS_USING_KEY, header));
+		assertEquals(4, JebScapeBitCodec.get(LoginHeader.PROTOCOL_VERSION, header));
+		assertTrue(JebScapeBitCodec.isSet(LoginHeader.NO_PARITY, header));
+		assertEquals(JebScapeBitCodec.fill(LoginHeader.RESERVED), header & JebScapeBitCodec.fill(LoginHeader.RESERVED));
+		assertEquals(1L, packet.getLong(4));
+		assertEquals(0L, packet.getLong(12));
+		
+		byte[] nameBytes = new byte[12];
+		for (int i = 0; i < 12; i++)
+			nameBytes[i] = packet.get(20 + i);
+		assertEquals("Loopback", new String(nameBytes, StandardCharsets.UTF_8).trim());
+		for (int i = 32; i < packet.limit(); i += 8)
+			assertEquals(-1L, packet.getLong(i));
+	}
+	
+	// what we put in is read straight back out of the packet that went out
+	private static void checkChat(ByteBuffer packet, JebScapeLoopbackClient client)
+	{
+		assertEquals(1L, packet.getLong(4));
+		for (int i = 0; i < 3; i++)
+			assertEquals(client.coreData[i], packet.getInt(20 + i * 4));
+		for (int i = 0; i < 4; i++)
+			assertEquals(client.gameSubData[i], packet.getInt(32 + i * 4));
+		
+		int worldWord = packet.getInt(20);
+		assertEquals(MegaserverMod.MEGASERVER_MOVEMENT_UPDATE_CMD, JebScapeBitCodec.get(CoreWorld.CMD_FLAGS, worldWord));
+		assertTrue(JebScapeBitCodec.isSet(CoreWorld.IS_PVP, worldWord));
+		assertFalse(JebScapeBitCodec.isSet(CoreWorld.IS_INSTANCED, worldWord));
+		assertEquals(INTEREST_RADIUS, JebScapeBitCodec.get(CoreWorld.INTEREST_RADIUS, worldWord));
+		assertEquals(WORLD, JebScapeBitCodec.get(CoreWorld.WORLD, worldWord));
+		assertEquals(PLANE, JebScapeBitCodec.get(CoreWorld.PLANE, worldWord));
+	}
+	
+	// block 0 carries our own core data back, with the server's command flags in place of ours
+	private static void checkEcho(ByteBuffer packet)
+	{
+		int worldWord = getBlock(packet, 0, 1);
+		assertEquals(MegaserverMod.MEGASERVER_MOVEMENT_UPDATE_CMD, JebScapeBitCodec.get(CoreWorld.CMD_FLAGS, worldWord));
+		assertTrue(JebScapeBitCodec.isSet(CoreWorld.IS_PVP, worldWord));
+		assertFalse(JebScapeBitCodec.isSet(CoreWorld.IS_INSTANCED, worldWord));
+		assertEquals(INTEREST_RADIUS, JebScapeBitCodec.get(CoreWorld.INTEREST_RADIUS, worldWord));
+		assertEquals(WORLD, JebScapeBitCodec.get(CoreWorld.WORLD, worldWord));
+		assertEquals(PLANE, JebScapeBitCodec.get(CoreWorld.PLANE, worldWord));
+		
+		int positionWord = getBlock(packet, 0, 2);
+		assertEquals(X, JebScapeBitCodec.get(CorePosition.X, positionWord));
+		assertEquals(Y, JebScapeBitCodec.get(CorePosition.Y, positionWord));
+		
+		int animationWord = getBlock(packet, 0, 3);
+		assertEquals(0, JebScapeBitCodec.get(CoreAnimation.GHOST_PACKETS_WANTED, animationWord));
+		assertEquals(CAPE_ID, JebScapeBitCodec.get(CoreAnimation.CAPE_ID, animationWord));
+		assertEquals(ORIENTATION, JebScapeBitCodec.get(CoreAnimation.ORIENTATION, animationWord));
+		assertEquals(ANIMATION_ID, JebScapeBitCodec.get(CoreAnimation.ANIMATION_ID, animationWord));
+		assertFalse(JebScapeBitCodec.isSet(CoreAnimation.IS_INTERACTING, animationWord));
+		assertTrue(JebScapeBitCodec.isSet(CoreAnimation.IS_POSE_ANIMATION, animationWord));
+	}
+	
+	// ghosts wear whatever we're wearing
+	private static void checkAppearance(ByteBuffer packet, int blockIdx, int[] gameSubData)
+	{
+		for (int k = 0; k < 4; k++)
+		{
+			int word = getBlock(packet, blockIdx, k);
+			if (k == 1 || k == 2)
+			{
+				assertEquals(EQUIPMENT_ID, JebScapeBitCodec.get(EquipmentBody.EQUIPMENT_ID, word));
+				assertEquals(BODY_PARTS, JebScapeBitCodec.get(EquipmentBody.BODY_PARTS, word));
+				assertEquals(k == 2, JebScapeBitCodec.isSet(EquipmentBody.IS_FEMALE, word));
+			}
+			else
+			{
+				assertEquals(JebScapeBitCodec.get(EquipmentPair.FIRST, gameSubData[k]), JebScapeBitCodec.get(EquipmentPair.FIRST, word));
+				assertEquals(JebScapeBitCodec.get(EquipmentPair.SECOND, gameSubData[k]), JebScapeBitCodec.get(EquipmentPair.SECOND, word));
+			}
+		}
+	}
+	
+	private static int newCoreWorld()
+	{
+		int word = JebScapeBitCodec.pack(CoreWorld.CMD_FLAGS, MegaserverMod.MEGASERVER_MOVEMENT_UPDATE_CMD);
+		word |= JebScapeBitCodec.pack(CoreWorld.IS_PVP, true);
+		word |= JebScapeBitCodec.pack(CoreWorld.IS_INSTANCED, false);
+		word |= JebScapeBitCodec.pack(CoreWorld.INTEREST_RADIUS, INTEREST_RADIUS);
+		word |= JebScapeBitCodec.pack(CoreWorld.WORLD, WORLD);
+		word |= JebScapeBitCodec.pack(CoreWorld.PLANE, PLANE);
+		return word;
+	}
+	
+	private static int newCorePosition()
+	{
+		return JebScapeBitCodec.pack(CorePosition.X, X) | JebScapeBitCodec.pack(CorePosition.Y, Y);
+	}
+	
+	private static int newCoreAnimation()
+	{
+		int word = JebScapeBitCodec.pack(CoreAnimation.GHOST_PACKETS_WANTED, 0);
+		word |= JebScapeBitCodec.pack(CoreAnimation.CAPE_ID, CAPE_ID);
+		word |= JebScapeBitCodec.pack(CoreAnimation.ORIENTATION, ORIENTATION);
+		word |= JebScapeBitCodec.pack(CoreAnimation.ANIMATION_ID, ANIMATION_ID);
+		word |= JebScapeBitCodec.pack(CoreAnimation.IS_INTERACTING, false);
+		word |= JebScapeBitCodec.pack(CoreAnimation.IS_POSE_ANIMATION, true);
+		return word;
+	}
+	
+	private static int newEquipmentBody(boolean isFemale)
+	{
+		int word = JebScapeBitCodec.pack(EquipmentBody.EQUIPMENT_ID, EQUIPMENT_ID);
+		word |= JebScapeBitCodec.pack(EquipmentBody.BODY_PARTS, BODY_PARTS);
+		word |= JebScapeBitCodec.pack(EquipmentBody.IS_FEMALE, isFemale);
+		return word;
+	}
+	
+	// names and chat messages are left as packed bytes, as MegaserverMod unpacks them
+	private static String unpackString(ByteBuffer packet, int blockIdx, int index, int numWords)
+	{
+		byte[] bytes = new byte[numWords * 4];
+		for (int i = 0; i < numWords; i++)
+		{
+			int word = packet.getInt(((blockIdx * 4 + index) + i) * 4);
+			PackedBytes.toBytes(word, bytes, i * 4);
+		}
+		return new String(bytes, StandardCharsets.UTF_8).trim();
+	}
+	
+	private static int getBlock(ByteBuffer packet, int blockIdx, int index)
+	{
+		return packet.getInt((blockIdx * 4 + index) * 4);
+	}
+	
+	private static void setBlock(ByteBuffer buffer, int blockIdx, int index, int value)
+	{
+		buffer.putInt((blockIdx * 4 + index) * 4, value);
+	}
+	
+	// plain constants such as GhostMovement.DESPAWNED never make a valid shift and width; were one to, it would show up as an overlap
+	private static boolean isField(int field)
+	{
+		return JebScapeBitCodec.width(field) > 0 && JebScapeBitCodec.shift(field) + JebScapeBitCodec.width(field) <= 32;
+	}
+}
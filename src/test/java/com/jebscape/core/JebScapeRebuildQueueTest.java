@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeRebuildQueueTest
+{
+	@Test
+	public void handsOutNearestFirstThenLongestWaiting()
+	{
+		JebScapeRebuildQueue rebuildQueue = new JebScapeRebuildQueue(4);
+		rebuildQueue.request(0, 5, 0);
+		rebuildQueue.request(1, 3, 2);
+		rebuildQueue.request(2, 3, 1);
+		rebuildQueue.request(3, 9, 0);
+		assertEquals(4, rebuildQueue.getNumPending());
+		
+		assertEquals(2, rebuildQueue.poll());
+		assertEquals(1, rebuildQueue.poll());
+		assertEquals(0, rebuildQueue.poll());
+		assertEquals(3, rebuildQueue.poll());
+		assertEquals(-1, rebuildQueue.poll());
+	}
+	
+	// ghosts that despawn whilst waiting must never be handed out
+	@Test
+	public void cancelledGhostsAreNeverHandedOut()
+	{
+		JebScapeRebuildQueue rebuildQueue = new JebScapeRebuildQueue(4);
+		rebuildQueue.request(0, 5, 0);
+		rebuildQueue.request(1, 3, 0);
+		rebuildQueue.request(2, 3, 1);
+		rebuildQueue.cancel(1);
+		assertFalse(rebuildQueue.isPending(1));
+		rebuildQueue.ensureCapacity(8);
+		rebuildQueue.request(7, 9, 0);
+		
+		assertEquals(2, rebuildQueue.poll());
+		assertEquals(0, rebuildQueue.poll());
+		assertEquals(7, rebuildQueue.poll());
+		assertEquals(-1, rebuildQueue.poll());
+	}
+	
+	@Test
+	public void waitingGhostsKeepTheirPlaceButNotTheirDistance()
+	{
+		JebScapeRebuildQueue rebuildQueue = new JebScapeRebuildQueue(4);
+		rebuildQueue.request(0, 4, 0);
+		rebuildQueue.request(1, 4, 5);
+		
+		// asked for again, ghost 0 still counts as having waited since 0
+		rebuildQueue.request(0, 4, 10);
+		assertEquals(2, rebuildQueue.getNumPending());
+		
+		// but it has since wandered off
+		rebuildQueue.setDistance(0, 8);
+		assertEquals(1, rebuildQueue.poll());
+		rebuildQueue.onRebuilt(1, 5);
+		assertEquals(0, rebuildQueue.poll());
+		rebuildQueue.onRebuilt(0, 3_000_000L);
+		assertEquals(2, rebuildQueue.getNumRebuilds());
+		assertEquals(3_000_000L, rebuildQueue.getLatencyPercentileNanos(100));
+	}
+	
+	@Test
+	public void clearForgetsWhoIsWaiting()
+	{
+		JebScapeRebuildQueue rebuildQueue = new JebScapeRebuildQueue(4);
+		rebuildQueue.request(0, 1, 0);
+		rebuildQueue.request(1, 1, 0);
+		rebuildQueue.clear();
+		assertEquals(0, rebuildQueue.getNumPending());
+		assertFalse(rebuildQueue.isPending(0));
+		assertEquals(-1, rebuildQueue.poll());
+		assertFalse(rebuildQueue.isPending(100));
+	}
+	
+	@Test
+	public void percentilesCoverTheLast256Rebuilds()
+	{
+		JebScapeRebuildQueue rebuildQueue = new JebScapeRebuildQueue(1);
+		assertEquals(0, rebuildQueue.getLatencyPercentileNanos(50));
+		
+		// 100 slow rebuilds, then 256 that wait 1ms to 256ms, which push every slow one out
+		for (int i = 0; i < 100; i++)
+		{
+			rebuildQueue.request(0, 0, 0);
+			rebuildQueue.onRebuilt(rebuildQueue.poll(), 5_000_000_000L);
+		}
+		assertEquals(1000 * 1_000_000L, rebuildQueue.getLatencyPercentileNanos(50));
+		
+		for (int i = 1; i <= 256; i++)
+		{
+			rebuildQueue.request(0, 0, 0);
+			rebuildQueue.onRebuilt(rebuildQueue.poll(), i * 1_000_000L);
+		}
+		assertEquals(128 * 1_000_000L, rebuildQueue.getLatencyPercentileNanos(50));
+		assertEquals(244 * 1_000_000L, rebuildQueue.getLatencyPercentileNanos(95));
+		assertEquals(256 * 1_000_000L, rebuildQueue.getLatencyPercentileNanos(100));
+	}
+	
+	// ghosts wandering about and changing gear in bursts, drained a few per frame as MegaserverMod.processModelRebuilds() does
+	@Test
+	public void eachFrameRebuildsNearestFirst()
+	{
+		final int numGhosts = 64;
+		final int rebuildsPerFrame = 4;
+		JebScapeRebuildQueue rebuildQueue = new JebScapeRebuildQueue(numGhosts);
+		int[] distances = new int[numGhosts];
+		Random random = new Random(19);
+		long numRequested = 0;
+		for (int tick = 0; tick < 200; tick++)
+		{
+			for (int ghostID = 0; ghostID < numGhosts; ghostID++)
+			{
+				distances[ghostID] = Math.max(0, Math.min(15, distances[ghostID] + random.nextInt(3) - 1 + (tick == 0 ? random.nextInt(16) : 0)));
+				rebuildQueue.setDistance(ghostID, distances[ghostID]);
+				if (tick % 25 == 0 || random.nextInt(50) == 0)
+				{
+					if (!rebuildQueue.isPending(ghostID))
+						numRequested++;
+					rebuildQueue.request(ghostID, distances[ghostID], tick);
+				}
+			}
+			
+			for (int frame = 0; frame < 30; frame++)
+			{
+				int prevDistance = -1;
+				for (int i = 0; i < rebuildsPerFrame; i++)
+				{
+					int ghostID = rebuildQueue.poll();
+					if (ghostID < 0)
+						break;
+					
+					assertTrue(distances[ghostID] >= prevDistance);
+					prevDistance = distances[ghostID];
+					rebuildQueue.onRebuilt(ghostID, tick + 1);
+				}
+			}
+		}
+		
+		assertEquals(0, rebuildQueue.getNumPending());
+		assertEquals(numRequested, rebuildQueue.getNumRebuilds());
+	}
+}
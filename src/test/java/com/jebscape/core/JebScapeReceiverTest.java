@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeReceiverTest
+{
+	private static final int PACKET_SIZE = 16;
+	private static final int TICK_MILLIS = 25;
+	private static final int NUM_TICKS = 60;
+	
+	@Test
+	public void stopsProducingOnceStopped() throws Exception
+	{
+		DatagramChannel sender = DatagramChannel.open();
+		DatagramChannel channel = newChannel(sender);
+		JebScapePacketRing ring = new JebScapePacketRing(64, PACKET_SIZE);
+		try
+		{
+			JebScapeReceiver receiver = new JebScapeReceiver(channel, ring, PACKET_SIZE);
+			assertTrue(receiver.start());
+			assertTrue(receiver.isRunning());
+			send(sender, 0, 10);
+			assertEquals(10, consume(ring, 0, 10));
+			
+			// stop() returns only once the thread has gone, so nothing it reads can turn up afterwards
+			receiver.stop();
+			assertFalse(receiver.isRunning());
+			assertFalse(isReceiverThreadAlive());
+			send(sender, 10, 10);
+			Thread.sleep(100);
+			assertEquals(0, ring.size());
+		}
+		finally
+		{
+			channel.close();
+			sender.close();
+		}
+	}
+	
+	// as JebScapeConnection does whenever its receiver dies or its channel is replaced
+	@Test
+	public void picksUpWhereTheLastReceiverLeftOff() throws Exception
+	{
+		DatagramChannel sender = DatagramChannel.open();
+		DatagramChannel channel = newChannel(sender);
+		JebScapePacketRing ring = new JebScapePacketRing(64, PACKET_SIZE);
+		try
+		{
+			int numSent = 0;
+			int next = 0;
+			for (int i = 0; i < 5; i++)
+			{
+				JebScapeReceiver receiver = new JebScapeReceiver(channel, ring, PACKET_SIZE);
+				assertTrue(receiver.start());
+				send(sender, numSent, 10);
+				numSent += 10;
+				next = consume(ring, next, numSent - next);
+				receiver.stop();
+				
+				// a packet left unread on the socket is picked up by the next receiver
+				send(sender, numSent++, 1);
+			}
+			
+			JebScapeReceiver receiver = new JebScapeReceiver(channel, ring, PACKET_SIZE);
+			assertTrue(receiver.start());
+			assertEquals(55, consume(ring, next, numSent - next));
+			receiver.stop();
+			assertEquals(0, receiver.getNumPacketsDropped());
+		}
+		finally
+		{
+			channel.close();
+			sender.close();
+		}
+	}
+	
+	@Test
+	public void decodesEveryGhostThroughTheReceiveThread() throws Exception
+	{
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS);
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServer);
+		try
+		{
+			client.server.setUseReceiveThread(true);
+			client.server.connect();
+			assertTrue(client.run(NUM_TICKS));
+			assertTrue(client.server.isUsingReceiveThread());
+			assertTrue(client.numReadyTicks > NUM_TICKS / 2);
+			assertTrue(client.numGhostsChecked > 0);
+			assertEquals(0, client.numMismatches);
+			
+			client.server.setUseReceiveThread(false);
+			assertFalse(client.server.isUsingReceiveThread());
+			assertFalse(isReceiverThreadAlive());
+			long numReadyTicks = client.numReadyTicks;
+			assertTrue(client.run(NUM_TICKS / 2));
+			assertTrue(client.numReadyTicks > numReadyTicks);
+			assertEquals(0, client.numMismatches);
+		}
+		finally
+		{
+			client.stop();
+			testServer.stop();
+		}
+	}
+	
+	// non-blocking, as JebScapeConnector opens them, and connected to the sender
+	private static DatagramChannel newChannel(DatagramChannel sender) throws Exception
+	{
+		sender.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		channel.configureBlocking(false);
+		channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		channel.connect(sender.getLocalAddress());
+		sender.connect(channel.getLocalAddress());
+		return channel;
+	}
+	
+	private static void send(DatagramChannel sender, int first, int count) throws Exception
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = first; i < first + count; i++)
+		{
+			buffer.clear();
+			buffer.putInt(i);
+			buffer.flip();
+			sender.write(buffer);
+		}
+	}
+	
+	// waits for the given number of packets, checking each is the next in line; returns the next one expected
+	private static int consume(JebScapePacketRing ring, int next, int count) throws Exception
+	{
+		long deadline = System.nanoTime() + 5_000_000_000L;
+		int last = next + count;
+		while (next < last)
+		{
+			assertTrue("timed out waiting for packet " + next, System.nanoTime() < deadline);
+			JebScapePacket packet = ring.peek();
+			if (packet == null)
+			{
+				Thread.sleep(1);
+				continue;
+			}
+			
+			assertEquals(next++, packet.buffer.getInt(0));
+			assertTrue(packet.receivedNanos > 0);
+			ring.release();
+		}
+		return next;
+	}
+	
+	private static boolean isReceiverThreadAlive()
+	{
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+			if (thread.getName().equals("JebScape Receiver") && thread.isAlive())
+				return true;
+		return false;
+	}
+}
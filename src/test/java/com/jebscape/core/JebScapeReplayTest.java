@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeReplayTest
+{
+	private static final int TICK_MILLIS = 25;
+	private static final int NUM_TICKS = 60;
+	
+	@Test
+	public void replayDecodesWhatWasCaptured() throws Exception
+	{
+		Path path = Files.createTempFile("capture", ".bin");
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS, "--loss=5", "--reorder=5");
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServer);
+		List<Long> captured = new ArrayList<>();
+		try
+		{
+			client.server.connect();
+			client.server.startCapture(path);
+			for (int i = 0; i < NUM_TICKS; i++)
+			{
+				Thread.sleep(TICK_MILLIS);
+				if (client.runGameTick())
+					captured.add(hashReadyTicks(client.server));
+			}
+			assertTrue(client.server.getCapture().getNumRecords() > 0);
+			assertEquals(0, client.server.getCapture().getNumRecordsDropped());
+			client.server.stopCapture();
+		}
+		finally
+		{
+			client.stop();
+			testServer.stop();
+		}
+		
+		List<Long> replayed = replay(path);
+		assertEquals(replayed, replay(path));
+		
+		// replay picks the session up from the login response, so it can see a tick or so the live client spent logging in
+		List<Long> loggedIn = captured.subList(1, captured.size());
+		assertTrue(loggedIn.size() > NUM_TICKS / 2);
+		assertTrue(Collections.indexOfSubList(replayed, loggedIn) >= 0);
+		Files.deleteIfExists(path);
+	}
+	
+	// what each tick decodes, one hash per game tick; compared rather than kept, since packets are reused
+	private static List<Long> replay(Path path) throws Exception
+	{
+		JebScapeReplayDriver replay = new JebScapeReplayDriver(path);
+		replay.setSpeed(0);
+		JebScapeConnection server = new JebScapeConnection();
+		server.init(new InetSocketAddress(InetAddress.getLoopbackAddress(), JebScapeConnection.DEFAULT_CHAT_SERVER_PORT));
+		server.startReplay(replay, 1L);
+		
+		List<Long> replayed = new ArrayList<>();
+		int[] coreData = new int[3];
+		int[] gameSubData = new int[4];
+		byte[] extraChatData = new byte[96];
+		while (server.isReplaying() && replayed.size() < NUM_TICKS * 2)
+		{
+			server.onGameTick();
+			if (!replay.isFinished() || server.getReadyChatTicks() != 0)
+				replayed.add(hashReadyTicks(server));
+			if (server.isChatLoggedIn())
+				server.sendGameData(coreData, gameSubData, extraChatData);
+		}
+		return replayed;
+	}
+	
+	private static long hashReadyTicks(JebScapeConnection server)
+	{
+		long hash = 17;
+		JebScapeServerData[][] chatServerData = server.getRecentChatServerData();
+		for (int tick = 0; tick < JebScapeConnection.TICKS_UNTIL_LOGOUT; tick++)
+		{
+			if (!server.isChatTickReady(tick))
+				continue;
+			
+			int packetsReceived = server.getChatServerPacketsReceived(tick);
+			hash = hash * 31 + tick * 1024 + packetsReceived;
+			for (int packetID = 0; packetID < server.getNumChatServerPacketsSent()[tick]; packetID++)
+			{
+				if (((packetsReceived >>> packetID) & 0x1) == 0)
+					continue;
+				for (int block = 0; block < JebScapeServerData.NUM_DATA_BLOCKS; block++)
+					for (int index = 0; index < JebScapeServerData.DATA_BLOCK_SIZE; index++)
+						hash = hash * 31 + chatServerData[tick][packetID].getBlock(block, index);
+			}
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JebScapeServerDataTest
+{
+	@Test
+	public void readsBlocksStraightFromThePacket()
+	{
+		JebScapePacket packet = new JebScapePacket();
+		packet.init(JebScapeServerData.PACKET_SIZE);
+		for (int i = 0; i < JebScapeServerData.PACKET_SIZE / 4; i++)
+			packet.buffer.putInt(i * 0x01010101 + 7);
+		
+		JebScapeServerData serverData = new JebScapeServerData();
+		assertTrue(serverData.isEmpty());
+		serverData.swapData(packet);
+		assertFalse(serverData.isEmpty());
+		
+		for (int block = 0; block < JebScapeServerData.NUM_DATA_BLOCKS; block++)
+			for (int index = 0; index < JebScapeServerData.DATA_BLOCK_SIZE; index++)
+				assertEquals((block * JebScapeServerData.DATA_BLOCK_SIZE + index) * 0x01010101 + 7, serverData.getBlock(block, index));
+		
+		// nothing is copied, so writes to the packet show through
+		packet.buffer.putInt(0, 42);
+		assertEquals(42, serverData.getBlock(0, 0));
+	}
+	
+	@Test
+	public void swapHandsBackThePreviousPacket()
+	{
+		JebScapeServerData serverData = new JebScapeServerData();
+		JebScapePacket first = new JebScapePacket();
+		first.init(JebScapeServerData.PACKET_SIZE);
+		JebScapePacket second = new JebScapePacket();
+		second.init(JebScapeServerData.PACKET_SIZE);
+		
+		JebScapePacket initial = serverData.swapData(first);
+		assertNotNull(initial);
+		assertNotSame(first, initial);
+		assertSame(first, serverData.swapData(second));
+		
+		serverData.clear();
+		assertTrue(serverData.isEmpty());
+		assertSame(second, serverData.swapData(first));
+	}
+}
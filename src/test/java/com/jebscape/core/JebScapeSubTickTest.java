@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// with sub-tick processing, a server tick is handed over on the first client tick after it arrives, rather than waiting on the next game tick
+public class JebScapeSubTickTest
+{
+	private static final int TICK_MILLIS = 100;
+	private static final int CLIENT_TICK_MILLIS = 5;
+	private static final int NUM_TICKS = JebScapeConnection.TICKS_UNTIL_LOGOUT;
+	private static final int NUM_GAME_TICKS = 40;
+	private static final int MAX_LOGIN_TICKS = 60;
+	
+	@Test
+	public void handsOverEachTickOnceOnTheClientTickAfterItArrives() throws Exception
+	{
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS);
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServer);
+		JebScapeConnection server = client.server;
+		try
+		{
+			server.setUseSubTickProcessing(true);
+			server.connect();
+			for (int i = 0; i < MAX_LOGIN_TICKS && !client.runGameTick(); i++)
+				Thread.sleep(TICK_MILLIS);
+			assertTrue(server.isChatLoggedIn());
+			assertTrue(server.isUsingSubTickProcessing());
+			
+			List<Integer> ticksHandedOver = new ArrayList<>();
+			int numOnClientTicks = 0;
+			long[] receivedNanos = new long[NUM_TICKS];
+			for (int gameTick = 0; gameTick < NUM_GAME_TICKS; gameTick++)
+			{
+				for (int clientTick = 0; clientTick < TICK_MILLIS / CLIENT_TICK_MILLIS - 1; clientTick++)
+				{
+					Thread.sleep(CLIENT_TICK_MILLIS);
+					int prevReadyTicks = getReadyTicks(server);
+					snapshotReceivedNanos(server, receivedNanos);
+					
+					boolean isHandedOver = server.onClientTick();
+					int readyTicks = getReadyTicks(server);
+					assertEquals(isHandedOver, readyTicks != 0);
+					
+					// only ticks that have arrived in full are handed over; the rest may have had packets swapped in, but no more
+					for (int tick = 0; tick < NUM_TICKS; tick++)
+					{
+						boolean isReady = ((readyTicks >>> tick) & 0x1) == 0x1;
+						boolean wasReady = ((prevReadyTicks >>> tick) & 0x1) == 0x1;
+						if (isReady)
+							assertEquals(0, server.getChatServerPacketsLost(tick));
+						else if (!wasReady && server.getChatServerPacketsLost(tick) == 0)
+							assertEquals(receivedNanos[tick], getLatestReceivedNanos(server, tick));
+					}
+					
+					if (isHandedOver)
+					{
+						numOnClientTicks += addTicksHandedOver(readyTicks, ticksHandedOver);
+						client.decodeReadyTicks();
+					}
+				}
+				
+				// the game tick only picks up what arrived after the last client tick, if anything
+				Thread.sleep(CLIENT_TICK_MILLIS);
+				assertTrue(client.runGameTick());
+				addTicksHandedOver(getReadyTicks(server), ticksHandedOver);
+			}
+			
+			// each tick in turn, exactly once, on a clean link
+			assertTrue(ticksHandedOver.size() >= NUM_GAME_TICKS - 2);
+			for (int i = 1; i < ticksHandedOver.size(); i++)
+				assertEquals("handed over " + ticksHandedOver, (ticksHandedOver.get(i - 1) + 1) % NUM_TICKS, (int)ticksHandedOver.get(i));
+			
+			// only those landing in the last few ms before a game tick are left for it
+			assertTrue(numOnClientTicks + " of " + ticksHandedOver.size() + " on client ticks", numOnClientTicks >= ticksHandedOver.size() * 3 / 4);
+			assertTrue(client.numGhostsChecked > 0);
+			assertEquals(0, client.numMismatches);
+		}
+		finally
+		{
+			client.stop();
+			testServer.stop();
+		}
+	}
+	
+	// with it off, client ticks hand nothing over and leave it all to the game tick
+	@Test
+	public void leavesEverythingToTheGameTickWhenOff() throws Exception
+	{
+		JebScapeTestServer testServer = JebScapeLoopbackClient.startTestServer(TICK_MILLIS);
+		JebScapeLoopbackClient client = new JebScapeLoopbackClient(testServer);
+		JebScapeConnection server = client.server;
+		try
+		{
+			server.connect();
+			for (int i = 0; i < MAX_LOGIN_TICKS && !client.runGameTick(); i++)
+				Thread.sleep(TICK_MILLIS);
+			assertTrue(server.isChatLoggedIn());
+			
+			for (int gameTick = 0; gameTick < NUM_GAME_TICKS / 4; gameTick++)
+			{
+				for (int clientTick = 0; clientTick < TICK_MILLIS / CLIENT_TICK_MILLIS - 1; clientTick++)
+				{
+					Thread.sleep(CLIENT_TICK_MILLIS);
+					assertFalse(server.onClientTick());
+					assertEquals(0, getReadyTicks(server));
+				}
+				Thread.sleep(CLIENT_TICK_MILLIS);
+				assertTrue(client.runGameTick());
+			}
+			assertTrue(client.numReadyTicks > 0);
+			assertEquals(0, client.numMismatches);
+		}
+		finally
+		{
+			client.stop();
+			testServer.stop();
+		}
+	}
+	
+	private static int getReadyTicks(JebScapeConnection server)
+	{
+		int readyTicks = 0;
+		for (int tick = 0; tick < NUM_TICKS; tick++)
+			if (server.isChatTickReady(tick))
+				readyTicks |= 0x1 << tick;
+		return readyTicks;
+	}
+	
+	private static void snapshotReceivedNanos(JebScapeConnection server, long[] receivedNanos)
+	{
+		for (int tick = 0; tick < NUM_TICKS; tick++)
+			receivedNanos[tick] = getLatestReceivedNanos(server, tick);
+	}
+	
+	// when the newest of a tick's packets was received
+	private static long getLatestReceivedNanos(JebScapeConnection server, int tick)
+	{
+		JebScapeServerData[] tickData = server.getRecentChatServerData()[tick];
+		long latestNanos = 0;
+		for (int packetID = 0; packetID < server.getChatServerPacketCapacity(); packetID++)
+			latestNanos = Math.max(latestNanos, tickData[packetID].getReceivedNanos());
+		return latestNanos;
+	}
+	
+	// oldest first, counting on from the last one handed over
+	private static int addTicksHandedOver(int readyTicks, List<Integer> ticksHandedOver)
+	{
+		int firstTick = ticksHandedOver.isEmpty() ? 0 : ticksHandedOver.get(ticksHandedOver.size() - 1) + 1;
+		int numAdded = 0;
+		for (int i = 0; i < NUM_TICKS; i++)
+		{
+			int tick = (firstTick + i) % NUM_TICKS;
+			if (((readyTicks >>> tick) & 0x1) == 0x1)
+			{
+				ticksHandedOver.add(tick);
+				numAdded++;
+			}
+		}
+		return numAdded;
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// every timestamp is handed in, counted from the first server tick and spaced 600ms apart unless a test says otherwise
+public class JebScapeTelemetryTest
+{
+	private static final long MILLIS = 1_000_000L;
+	private static final long TICK_NANOS = 600 * MILLIS;
+	private static final int NUM_TICKS = JebScapeConnection.TICKS_UNTIL_LOGOUT;
+	private static final int GRACE_TICKS = NUM_TICKS / 2;
+	
+	@Test
+	public void talliesLossOnlyOnceTheGracePeriodIsOver()
+	{
+		JebScapeTelemetry telemetry = new JebScapeTelemetry();
+		
+		// packet 2 of 4 goes missing on the first tick
+		receive(telemetry, 0, 4, 0b1011);
+		for (int i = 1; i < GRACE_TICKS; i++)
+			receive(telemetry, i, 4, 0b1111);
+		assertEquals(0, telemetry.getNumPacketsExpected());
+		assertEquals(0, telemetry.getLossHistory().size());
+		
+		receive(telemetry, GRACE_TICKS, 4, 0b1111);
+		assertEquals(4, telemetry.getNumPacketsExpected());
+		assertEquals(1, telemetry.getNumPacketsLost());
+		assertEquals(25, telemetry.getLossHistory().getLatest());
+		
+		receive(telemetry, GRACE_TICKS + 1, 4, 0b1111);
+		assertEquals(8, telemetry.getNumPacketsExpected());
+		assertEquals(1, telemetry.getNumPacketsLost());
+		assertEquals(12, telemetry.getRecentLossPercent());
+	}
+	
+	@Test
+	public void countsPacketsThatTurnUpLateWithinTheGracePeriod()
+	{
+		JebScapeTelemetry telemetry = new JebScapeTelemetry();
+		receive(telemetry, 0, 2, 0b01);
+		for (int i = 1; i < GRACE_TICKS; i++)
+		{
+			receive(telemetry, i, 2, 0b11);
+			if (i == GRACE_TICKS - 1)
+				telemetry.onChatPacketReceived(0, 2, 1, i * TICK_NANOS);
+		}
+		
+		// once tallied, it's too late to count
+		receive(telemetry, GRACE_TICKS, 2, 0b01);
+		for (int i = GRACE_TICKS + 1; i <= GRACE_TICKS * 2; i++)
+			receive(telemetry, i, 2, 0b11);
+		telemetry.onChatPacketReceived(GRACE_TICKS, 2, 1, GRACE_TICKS * 2 * TICK_NANOS);
+		
+		assertEquals(GRACE_TICKS * 2 + 1 - GRACE_TICKS, telemetry.getLossHistory().size());
+		assertEquals(0, telemetry.getLossHistory().get(0));
+		assertEquals(50, telemetry.getLossHistory().get(GRACE_TICKS));
+		assertEquals(1, telemetry.getNumPacketsLost());
+	}
+	
+	// skipped over entirely, so there's no knowing how many packets it had
+	@Test
+	public void countsTicksThatNeverArrived()
+	{
+		JebScapeTelemetry telemetry = new JebScapeTelemetry();
+		receive(telemetry, 0, 3, 0b111);
+		for (int i = 2; i <= GRACE_TICKS + 1; i++)
+			receive(telemetry, i, 3, 0b111);
+		
+		assertEquals(1, telemetry.getNumTicksLost());
+		assertEquals(0, telemetry.getNumPacketsLost());
+		assertEquals(100, telemetry.getLossHistory().getLatest());
+	}
+	
+	// RFC 6298: the first sample sets SRTT to itself and RTTVAR to half of it, then each is smoothed by 1/8 and 1/4
+	@Test
+	public void smoothsRoundTripTimesAsTcpDoes()
+	{
+		JebScapeTelemetry telemetry = new JebScapeTelemetry();
+		telemetry.onChatPacketSent(1, TICK_NANOS - 100 * MILLIS);
+		receive(telemetry, 1, 1, 0b1);
+		assertEquals(100 * MILLIS, telemetry.getSmoothedRttNanos());
+		assertEquals(50 * MILLIS, telemetry.getRttVarianceNanos());
+		
+		telemetry.onChatPacketSent(2, 2 * TICK_NANOS - 180 * MILLIS);
+		receive(telemetry, 2, 1, 0b1);
+		assertEquals(110 * MILLIS, telemetry.getSmoothedRttNanos());
+		assertEquals(57_500_000L, telemetry.getRttVarianceNanos());
+		
+		// only the first packet of a tick is matched, and only once
+		telemetry.onChatPacketReceived(2, 1, 0, 2 * TICK_NANOS + 500 * MILLIS);
+		assertEquals(110 * MILLIS, telemetry.getSmoothedRttNanos());
+		
+		// longer than the grace period, so likely matched against a tick sent a whole cycle of tick numbers ago
+		telemetry.onChatPacketSent(4, 4 * TICK_NANOS - GRACE_TICKS * TICK_NANOS);
+		receive(telemetry, 3, 1, 0b1);
+		receive(telemetry, 4, 1, 0b1);
+		assertEquals(110 * MILLIS, telemetry.getSmoothedRttNanos());
+		telemetry.onChatPacketSent(5, 5 * TICK_NANOS - GRACE_TICKS * TICK_NANOS + 1);
+		receive(telemetry, 5, 1, 0b1);
+		assertTrue(telemetry.getSmoothedRttNanos() > 110 * MILLIS);
+		
+		telemetry.onLoginSent(5 * MILLIS);
+		telemetry.onLoginAck(45 * MILLIS);
+		telemetry.onLoginAck(90 * MILLIS);
+		assertEquals(40 * MILLIS, telemetry.getLoginRttNanos());
+	}
+	
+	// RFC 3550: J += (|D| - J) / 16, where D is how far the gap between ticks strays from the ticks elapsed
+	@Test
+	public void estimatesInterArrivalJitter()
+	{
+		JebScapeTelemetry telemetry = new JebScapeTelemetry();
+		telemetry.onChatPacketReceived(0, 1, 0, 0);
+		assertEquals(0, telemetry.getJitterNanos());
+		
+		telemetry.onChatPacketReceived(1, 1, 0, TICK_NANOS + 160 * MILLIS);
+		assertEquals(10 * MILLIS, telemetry.getJitterNanos());
+		
+		telemetry.onChatPacketReceived(2, 1, 0, 2 * TICK_NANOS + 160 * MILLIS);
+		assertEquals(9_375_000L, telemetry.getJitterNanos());
+		
+		// a skipped tick stretches the gap expected; early counts the same as late
+		telemetry.onChatPacketReceived(4, 1, 0, 4 * TICK_NANOS);
+		assertEquals(9_375_000L + (160 * MILLIS - 9_375_000L) / 16, telemetry.getJitterNanos());
+		
+		// further packets of the same tick aren't inter-arrival samples
+		long jitterNanos = telemetry.getJitterNanos();
+		telemetry.onChatPacketReceived(4, 1, 0, 5 * TICK_NANOS);
+		assertEquals(jitterNanos, telemetry.getJitterNanos());
+	}
+	
+	@Test
+	public void keepsBytesPerChannelEachGameTick()
+	{
+		JebScapeTelemetry telemetry = new JebScapeTelemetry();
+		telemetry.onBytesReceived(JebScapeTelemetry.CHANNEL_MOVEMENT, 100);
+		telemetry.onBytesReceived(JebScapeTelemetry.CHANNEL_MOVEMENT, 20);
+		telemetry.onBytesReceived(JebScapeTelemetry.CHANNEL_CHAT, 7);
+		telemetry.onBytesSent(JebScapeTelemetry.CHANNEL_ADMIN, 30);
+		telemetry.onGameTick();
+		
+		assertEquals(120, telemetry.getBytesInHistory(JebScapeTelemetry.CHANNEL_MOVEMENT).getLatest());
+		assertEquals(7, telemetry.getBytesInHistory(JebScapeTelemetry.CHANNEL_CHAT).getLatest());
+		assertEquals(0, telemetry.getBytesInHistory(JebScapeTelemetry.CHANNEL_LIVE_HISCORES).getLatest());
+		assertEquals(0, telemetry.getBytesInHistory(JebScapeTelemetry.CHANNEL_ADMIN).getLatest());
+		assertEquals(30, telemetry.getBytesOutHistory(JebScapeTelemetry.CHANNEL_ADMIN).getLatest());
+		assertEquals(0, telemetry.getBytesOutHistory(JebScapeTelemetry.CHANNEL_MOVEMENT).getLatest());
+		
+		// each tick starts from nothing
+		telemetry.onGameTick();
+		assertEquals(0, telemetry.getBytesInHistory(JebScapeTelemetry.CHANNEL_MOVEMENT).getLatest());
+		assertEquals(2, telemetry.getBytesInHistory(JebScapeTelemetry.CHANNEL_MOVEMENT).size());
+		assertEquals(120 * 1000 / 1200, telemetry.getBytesInPerSecond(JebScapeTelemetry.CHANNEL_MOVEMENT));
+		
+		assertEquals(JebScapeTelemetry.CHANNEL_ADMIN, JebScapeTelemetry.getExtraDataChannel(MegaserverMod.ADMIN_CONTROL_CMD | MegaserverMod.LIVE_HISCORES_STATS_UPDATE_CMD));
+		assertEquals(JebScapeTelemetry.CHANNEL_LIVE_HISCORES, JebScapeTelemetry.getExtraDataChannel(MegaserverMod.LIVE_HISCORES_STATS_UPDATE_CMD));
+		assertEquals(JebScapeTelemetry.CHANNEL_CHAT, JebScapeTelemetry.getExtraDataChannel(0));
+	}
+	
+	// once full, the oldest sample makes way, and the sum keeps up with it
+	@Test
+	public void historyHoldsOnlyTheLatestMinute()
+	{
+		JebScapeTelemetry telemetry = new JebScapeTelemetry();
+		for (int i = 1; i <= JebScapeTelemetry.HISTORY_SIZE + 10; i++)
+		{
+			telemetry.onBytesSent(JebScapeTelemetry.CHANNEL_CHAT, i);
+			telemetry.onGameTick();
+		}
+		
+		JebScapeMetricRing history = telemetry.getBytesOutHistory(JebScapeTelemetry.CHANNEL_CHAT);
+		assertEquals(JebScapeTelemetry.HISTORY_SIZE, history.size());
+		assertEquals(11, history.get(0));
+		assertEquals(JebScapeTelemetry.HISTORY_SIZE + 10, history.getLatest());
+		assertEquals(JebScapeTelemetry.HISTORY_SIZE + 10, history.getMax());
+		long sum = 0;
+		for (int i = 11; i <= JebScapeTelemetry.HISTORY_SIZE + 10; i++)
+			sum += i;
+		assertEquals(sum, history.getSum());
+		
+		history.clear();
+		assertEquals(0, history.size());
+		assertEquals(0, history.getLatest());
+	}
+	
+	// the packets of server tick n whose bits are set in receivedMask, all arriving at n ticks in
+	private static void receive(JebScapeTelemetry telemetry, int n, int numPacketsSent, int receivedMask)
+	{
+		for (int packetID = 0; packetID < numPacketsSent; packetID++)
+			if (((receivedMask >>> packetID) & 0x1) == 0x1)
+				telemetry.onChatPacketReceived(n % NUM_TICKS, numPacketsSent, packetID, n * TICK_NANOS);
+	}
+}
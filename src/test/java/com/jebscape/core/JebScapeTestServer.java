@@ -0,0 +1,718 @@
+/*
+ * Copyright (c) 2023, Justin Ead (Jebrim) <jebscapeplugin@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jebscape.core;
+
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// stand-in for the JebScape chat server speaking protocol version 4 (and the compact version 5 when asked) on localhost
+// it answers logins and streams synthetic ghosts to every logged in client, with optional loss, reordering, duplication and delay
+// run directly, then point the plugin at it with -Djebscape.chatServer=localhost:43597
+public class JebScapeTestServer implements Runnable
+{
+	public static final int PROTOCOL_VERSION = 4;
+	public static final int COMPACT_PROTOCOL_VERSION = JebScapeFrameDecoder.PROTOCOL_VERSION;
+	public static final int LOGIN_PACKET = 0x1;
+	public static final int CHAT_PACKET = 0x3;
+	public static final int CLIENT_PACKET_SIZE = 144;
+	public static final int SERVER_PACKET_SIZE = 544;
+	public static final int TICKS = 16;
+	public static final int MAX_GHOSTS = 1024;
+	public static final int GHOSTS_PER_PACKET = 16;
+	public static final int MAX_SLOTS = JebScapeConnection.MAX_CHAT_SERVER_PACKETS_PER_TICK * GHOSTS_PER_PACKET;
+	public static final int MAX_INTEREST_RADIUS = JebScapeInterestManager.MAX_INTEREST_RADIUS;
+	
+	// network conditions and load; all may be changed before calling start()
+	public int port = JebScapeConnection.DEFAULT_CHAT_SERVER_PORT;
+	public int tickMillis = 600;
+	public int numGhosts = 64;
+	public int maxPacketsPerTick = JebScapeConnection.MAX_CHAT_SERVER_PACKETS_PER_TICK; // most we'll send anyone, whatever they ask for
+	public int defaultPacketsPerTick = JebScapeConnection.CHAT_SERVER_PACKETS_PER_TICK; // for clients that leave it up to us
+	public volatile int lossPercent = 0;
+	public volatile int reorderPercent = 0; // chance of a packet being held back behind the ones after it
+	public volatile int duplicatePercent = 0;
+	public volatile int delayMillis = 0;
+	public volatile int delayJitterMillis = 0;
+	public int chatIntervalTicks = 5; // how often a ghost says something; 0 for never
+	public int maxProtocolVersion = COMPACT_PROTOCOL_VERSION; // logins asking for anything newer go unanswered, as with a v4 server
+	public long seed = 1;
+	
+	private static class Session
+	{
+		SocketAddress address;
+		int sessionID;
+		long accountHash;
+		long key;
+		boolean isUsingKey;
+		int protocolVersion;
+		boolean wantsParity;
+		int[] coreData = new int[3];
+		int[] gameSubData = new int[4];
+		
+		// the ghost blocks last sent per slot and tick parity, so that v5 frames can leave out those unchanged
+		int[] sentGhostBlocks = new int[MAX_SLOTS * 2 * 4];
+		boolean[] hasSentGhostBlock = new boolean[MAX_SLOTS * 2];
+		int[] numGhostBlockRepeats = new int[MAX_SLOTS * 2];
+		
+		// which ghost each slot holds (-1 for none) and the reverse; ghosts keep their slots for as long as they stay in range
+		int[] slotGhosts = new int[MAX_SLOTS];
+		int[] ghostSlots = new int[MAX_GHOSTS];
+		int[][] slotGhostHistory = new int[TICKS][MAX_SLOTS];
+		
+		Session()
+		{
+			Arrays.fill(slotGhosts, -1);
+			Arrays.fill(ghostSlots, -1);
+			for (int[] slots : slotGhostHistory)
+				Arrays.fill(slots, -1);
+		}
+	}
+	
+	// a changed ghost block goes out this many times in a row so that a single loss doesn't leave it stale until the next key frame
+	private static final int GHOST_BLOCK_REPEATS = 3;
+	
+	private static class Datagram
+	{
+		long sendAtNanos;
+		long sequence; // keeps ordering stable between datagrams due at the same time
+		SocketAddress address;
+		ByteBuffer buffer;
+	}
+	
+	private DatagramChannel channel;
+	private Selector selector;
+	private Thread thread;
+	private volatile boolean isRunning;
+	private Random random;
+	private final Map<SocketAddress, Session> sessions = new HashMap<>();
+	private final PriorityQueue<Datagram> outgoing = new PriorityQueue<>((a, b) ->
+			a.sendAtNanos != b.sendAtNanos ? Long.compare(a.sendAtNanos, b.sendAtNanos) : Long.compare(a.sequence, b.sequence));
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(CLIENT_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private int nextSessionID = 1;
+	private long sequence;
+	private Session lastSession;
+	private final boolean[] isGhostSelected = new boolean[MAX_GHOSTS];
+	private final int[] scoreCounts = new int[MAX_INTEREST_RADIUS + 2];
+	private volatile long totalTicks;
+	private final long[] tickNanos = new long[TICKS];
+	private int tick;
+	
+	// stats
+	public volatile long numPacketsSent;
+	public volatile long numPacketsDropped;
+	public volatile long numPacketsDuplicated;
+	public volatile long numPacketsReordered;
+	public volatile long numPacketsReceived;
+	public volatile long numBytesSent;
+	public volatile long numParityPacketsSent;
+	
+	public static void main(String[] args) throws Exception
+	{
+		JebScapeTestServer server = new JebScapeTestServer();
+		server.parseArgs(args);
+		server.start();
+		System.out.println("JebScape test server listening on port " + server.getPort() + " with " + server.numGhosts + " ghosts");
+		server.thread.join();
+	}
+	
+	// accepts --name=value pairs matching the public settings, e.g. --loss=5 --delay=40; anything else is ignored
+	public void parseArgs(String[] args)
+	{
+		for (String arg : args)
+		{
+			int separatorIndex = arg.indexOf('=');
+			if (!arg.startsWith("--") || separatorIndex < 0 || !arg.substring(separatorIndex + 1).matches("-?\\d+"))
+				continue;
+			
+			String name = arg.substring(2, separatorIndex);
+			int value = Integer.parseInt(arg.substring(separatorIndex + 1));
+			switch (name)
+			{
+				case "port": port = value; break;
+				case "tick-ms": tickMillis = value; break;
+				case "ghosts": numGhosts = Math.max(0, Math.min(MAX_GHOSTS, value)); break;
+				case "loss": lossPercent = value; break;
+				case "reorder": reorderPercent = value; break;
+				case "dup": duplicatePercent = value; break;
+				case "delay": delayMillis = value; break;
+				case "delay-jitter": delayJitterMillis = value; break;
+				case "chat": chatIntervalTicks = value; break;
+				case "seed": seed = value; break;
+				case "protocol": maxProtocolVersion = value; break;
+				case "max-packets": maxPacketsPerTick = Math.max(1, Math.min(JebScapeConnection.MAX_CHAT_SERVER_PACKETS_PER_TICK, value)); break;
+			}
+		}
+	}
+	
+	public void start() throws Exception
+	{
+		this.random = new Random(seed);
+		this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		channel.configureBlocking(false);
+		channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		this.selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+		
+		this.isRunning = true;
+		this.thread = new Thread(this, "JebScape Test Server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	public void stop() throws Exception
+	{
+		this.isRunning = false;
+		selector.wakeup();
+		thread.join();
+		selector.close();
+		channel.close();
+	}
+	
+	public long getTotalTicks()
+	{
+		return totalTicks;
+	}
+	
+	// when the given tick's data was put together; shares System.nanoTime() with the client when run in the same process
+	public long getTickNanos(int tick)
+	{
+		return tickNanos[tick];
+	}
+	
+	// which ghost went out in the given slot on the given tick to the client that logged in last, or -1 for none
+	// the tests only ever log in one client, so this is what they check what they've decoded against
+	public int getGhostInSlot(int tick, int slot)
+	{
+		Session session = lastSession;
+		return session == null ? -1 : session.slotGhostHistory[tick][slot];
+	}
+	
+	// the actual port bound, in case 0 was requested
+	public int getPort() throws Exception
+	{
+		return ((InetSocketAddress)channel.getLocalAddress()).getPort();
+	}
+	
+	@Override
+	public void run()
+	{
+		long tickNanos = tickMillis * 1_000_000L;
+		long nextTickNanos = System.nanoTime() + tickNanos;
+		
+		try
+		{
+			while (isRunning)
+			{
+				long now = System.nanoTime();
+				if (now >= nextTickNanos)
+				{
+					onTick(now);
+					nextTickNanos += tickNanos;
+				}
+				
+				while (!outgoing.isEmpty() && outgoing.peek().sendAtNanos <= now)
+				{
+					Datagram datagram = outgoing.poll();
+					numBytesSent += channel.send(datagram.buffer, datagram.address);
+					numPacketsSent++;
+				}
+				
+				long wakeAtNanos = outgoing.isEmpty() ? nextTickNanos : Math.min(nextTickNanos, outgoing.peek().sendAtNanos);
+				long timeoutMillis = Math.max(1, (wakeAtNanos - System.nanoTime()) / 1_000_000L);
+				if (selector.select(timeoutMillis) > 0)
+				{
+					selector.selectedKeys().clear();
+					receiveAll();
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	private void receiveAll() throws Exception
+	{
+		SocketAddress address;
+		while (true)
+		{
+			receiveBuffer.clear();
+			address = channel.receive(receiveBuffer);
+			if (address == null)
+				break;
+			
+			numPacketsReceived++;
+			if (receiveBuffer.position() != CLIENT_PACKET_SIZE)
+				continue;
+			
+			receiveBuffer.flip();
+			int header = receiveBuffer.getInt();
+			int packetType = header & 0x3;
+			if (packetType == LOGIN_PACKET)
+				onLogin(address, header);
+			else if (packetType == CHAT_PACKET)
+				onChat(address, header);
+		}
+	}
+	
+	private void onLogin(SocketAddress address, int header)
+	{
+		int version = (header >>> 20) & 0xFF;
+		if ((version != PROTOCOL_VERSION && version != COMPACT_PROTOCOL_VERSION) || version > maxProtocolVersion)
+			return;
+		
+		Session session = sessions.get(address);
+		if (session == null)
+		{
+			session = new Session();
+			session.address = address;
+			session.sessionID = nextSessionID++ & 0x1FFFF;
+			sessions.put(address, session);
+		}
+		this.lastSession = session;
+		
+		session.protocolVersion = version;
+		session.wantsParity = ((header >>> 28) & 0x1) == 0;
+		Arrays.fill(session.hasSentGhostBlock, false);
+		session.accountHash = receiveBuffer.getLong();
+		long key = receiveBuffer.getLong();
+		
+		// hand out a new key to anyone asking to use one but without one yet
+		session.isUsingKey = ((header >>> 19) & 0x1) == 0x1;
+		session.key = session.isUsingKey ? (key != 0 ? key : random.nextLong()) : 0;
+		
+		ByteBuffer buffer = newServerPacket(LOGIN_PACKET, session, 0, 0);
+		buffer.putLong(4, session.key);
+		buffer.putInt(12, version);
+		buffer.putInt((26 * 4 + 3) * 4, sessions.size() + numGhosts);
+		enqueue(buffer, address);
+	}
+	
+	private void onChat(SocketAddress address, int header)
+	{
+		Session session = sessions.get(address);
+		if (session == null || session.sessionID != ((header >>> 2) & 0x1FFFF))
+			return;
+		
+		receiveBuffer.getLong(); // account hash
+		receiveBuffer.getLong(); // key
+		for (int i = 0; i < 3; i++)
+			session.coreData[i] = receiveBuffer.getInt();
+		for (int i = 0; i < 4; i++)
+			session.gameSubData[i] = receiveBuffer.getInt();
+	}
+	
+	private void onTick(long now)
+	{
+		this.tick = (tick + 1) % TICKS;
+		this.totalTicks++;
+		this.tickNanos[tick] = now;
+		
+		for (Session session : sessions.values())
+		{
+			int numPackets = assignSlots(session);
+			
+			// the parity packet takes the next packet id along, so there's no room for it after a full 16
+			ByteBuffer parity = null;
+			int parityLength = 4;
+			if (session.wantsParity && numPackets < JebScapeConnection.MAX_CHAT_SERVER_PACKETS_PER_TICK)
+				parity = newServerPacket(CHAT_PACKET, session, numPackets, numPackets);
+			
+			for (int packetID = 0; packetID < numPackets; packetID++)
+			{
+				ByteBuffer buffer = newServerPacket(CHAT_PACKET, session, numPackets, packetID);
+				writeChatPacket(buffer, session, packetID);
+				if (session.protocolVersion == COMPACT_PROTOCOL_VERSION)
+					buffer = encodeFrame(buffer, session, packetID);
+				
+				if (parity != null)
+				{
+					for (int i = 4; i < buffer.limit(); i++)
+						parity.put(i, (byte)(parity.get(i) ^ buffer.get(i)));
+					parityLength = Math.max(parityLength, buffer.limit());
+				}
+				enqueue(buffer, session.address);
+			}
+			
+			if (parity != null)
+			{
+				parity.limit(parityLength);
+				enqueue(parity, session.address);
+				numParityPacketsSent++;
+			}
+		}
+	}
+	
+	// picks the nearest ghosts within the client's interest radius, up to as many packets' worth as it asked for
+	// those already holding a slot win ties so that the selection doesn't churn; returns how many packets are needed
+	private int assignSlots(Session session)
+	{
+		int interestRadius = (session.coreData[0] >>> 10) & 0x3F;
+		int numPacketsWanted = session.coreData[2] & 0x1F;
+		interestRadius = interestRadius == 0 ? MAX_INTEREST_RADIUS : Math.min(MAX_INTEREST_RADIUS, interestRadius);
+		int numSlots = Math.min(maxPacketsPerTick, numPacketsWanted == 0 ? defaultPacketsPerTick : numPacketsWanted) * GHOSTS_PER_PACKET;
+		
+		Arrays.fill(scoreCounts, 0);
+		int numInRange = 0;
+		for (int ghostID = 0; ghostID < numGhosts; ghostID++)
+		{
+			int distance = getGhostDistance(tick, ghostID);
+			if (distance > interestRadius)
+				continue;
+			
+			scoreCounts[getSlotScore(session, ghostID, distance)]++;
+			numInRange++;
+		}
+		
+		int cutoffScore = scoreCounts.length;
+		int numAtCutoff = 0;
+		if (numInRange > numSlots)
+		{
+			int numBelowCutoff = 0;
+			cutoffScore = 0;
+			while (numBelowCutoff + scoreCounts[cutoffScore] < numSlots)
+				numBelowCutoff += scoreCounts[cutoffScore++];
+			numAtCutoff = numSlots - numBelowCutoff;
+		}
+		
+		for (int ghostID = 0; ghostID < numGhosts; ghostID++)
+		{
+			int distance = getGhostDistance(tick, ghostID);
+			int score = getSlotScore(session, ghostID, distance);
+			isGhostSelected[ghostID] = distance <= interestRadius && (score < cutoffScore || (score == cutoffScore && numAtCutoff-- > 0));
+		}
+		
+		// let go of anyone who's dropped out, or who sits beyond a budget that's since shrunk
+		for (int slot = 0; slot < MAX_SLOTS; slot++)
+		{
+			int ghostID = session.slotGhosts[slot];
+			if (ghostID >= 0 && (ghostID >= numGhosts || !isGhostSelected[ghostID] || slot >= numSlots))
+			{
+				session.slotGhosts[slot] = -1;
+				session.ghostSlots[ghostID] = -1;
+			}
+		}
+		
+		// newcomers take the lowest free slots
+		int freeSlot = 0;
+		for (int ghostID = 0; ghostID < numGhosts; ghostID++)
+		{
+			if (!isGhostSelected[ghostID] || session.ghostSlots[ghostID] >= 0)
+				continue;
+			
+			while (session.slotGhosts[freeSlot] >= 0)
+				freeSlot++;
+			session.slotGhosts[freeSlot] = ghostID;
+			session.ghostSlots[ghostID] = freeSlot;
+		}
+		
+		int highestSlot = -1;
+		for (int slot = 0; slot < MAX_SLOTS; slot++)
+			if (session.slotGhosts[slot] >= 0)
+				highestSlot = slot;
+		System.arraycopy(session.slotGhosts, 0, session.slotGhostHistory[tick], 0, MAX_SLOTS);
+		
+		return Math.max(1, highestSlot / GHOSTS_PER_PACKET + 1);
+	}
+	
+	private static int getSlotScore(Session session, int ghostID, int distance)
+	{
+		return distance + (session.ghostSlots[ghostID] >= 0 ? 0 : 1);
+	}
+	
+	private ByteBuffer newServerPacket(int packetType, Session session, int numPackets, int packetID)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(SERVER_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		int header = packetType & 0x3;								// 2/32 bits
+		header |= (session.sessionID & 0x1FFFF) << 2;				// 19/32 bits
+		header |= (session.isUsingKey ? 0x1 : 0x0) << 19;			// 20/32 bits
+		header |= (tick & 0xF) << 20;								// 24/32 bits
+		header |= ((Math.max(1, numPackets) - 1) & 0xF) << 24;		// 28/32 bits
+		header |= (packetID & 0xF) << 28;							// 32/32 bits
+		buffer.putInt(0, header);
+		return buffer;
+	}
+	
+	private void writeChatPacket(ByteBuffer buffer, Session session, int packetID)
+	{
+		// echo the player's own core data back as the frame of reference for the ghosts
+		int cmdFlags = MegaserverMod.MEGASERVER_MOVEMENT_UPDATE_CMD;
+		setBlock(buffer, 0, 1, (session.coreData[0] & ~0xFF) | cmdFlags);
+		setBlock(buffer, 0, 2, session.coreData[1]);
+		setBlock(buffer, 0, 3, session.coreData[2]);
+		
+		int world = (session.coreData[0] >>> 16) & 0x3FFF;
+		int capeID = (session.coreData[2] >>> 5) & 0x1F;
+		for (int sectionID = 0; sectionID < 4; sectionID++)
+		{
+			int ghostDataBlockIdx = sectionID * 5 + 1;
+			for (int j = 0; j < 4; j++)
+			{
+				int ghostID = session.slotGhosts[packetID * GHOSTS_PER_PACKET + sectionID * 4 + j];
+				int blockIdx = ghostDataBlockIdx + j + 1;
+				if (ghostID < 0)
+				{
+					setBlock(buffer, ghostDataBlockIdx, j, 0x3FF); // despawned
+					continue;
+				}
+				
+				setBlock(buffer, ghostDataBlockIdx, j, getGhostMovement(tick, ghostID));
+				if ((tick & 0x1) == 0x1)
+				{
+					// ghosts wear whatever the player is wearing
+					for (int k = 0; k < 4; k++)
+						setBlock(buffer, blockIdx, k, session.gameSubData[k]);
+				}
+				else
+				{
+					setBlock(buffer, blockIdx, 0, (world & 0x3FFF) | (capeID & 0x1F) << 14);
+					writeName(buffer, blockIdx, 1, getGhostName(ghostID));
+				}
+			}
+		}
+		
+		// server stats
+		setBlock(buffer, 26, 3, sessions.size() + numGhosts);
+		
+		// now and then one of the ghosts speaks up
+		if (packetID == 0 && chatIntervalTicks > 0 && numGhosts > 0 && totalTicks % chatIntervalTicks == 0)
+		{
+			int ghostID = (int)((totalTicks / chatIntervalTicks) % numGhosts);
+			setBlock(buffer, 28, 0, world);
+			writeName(buffer, 28, 1, getGhostName(ghostID));
+			byte[] message = ("Test message " + totalTicks).getBytes(StandardCharsets.UTF_8);
+			for (int i = 0; i < message.length && i < 80; i++)
+				buffer.put(29 * 16 + i, message[i]);
+		}
+	}
+	
+	// a section's type, then the length of what follows it
+	public static void putSectionHeader(ByteBuffer frame, int section, int length)
+	{
+		frame.put((byte)section);
+		frame.putShort((short)length);
+	}
+	
+	// re-encodes a packet in the v4 layout as a v5 frame, as laid out in JebScapeFrameDecoder
+	private ByteBuffer encodeFrame(ByteBuffer packet, Session session, int packetID)
+	{
+		ByteBuffer frame = ByteBuffer.allocate(SERVER_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		frame.putInt(packet.getInt(0));
+		frame.putShort((short)0); // length, filled in at the end
+		
+		putSectionHeader(frame, JebScapeFrameDecoder.SECTION_CORE, 12);
+		for (int i = 1; i < 4; i++)
+			frame.putInt(getBlock(packet, 0, i));
+		
+		// every ghost block goes out in full on the first two ticks of the cycle, in case the client has missed any
+		boolean isKeyFrame = tick < 2;
+		int parity = tick & 0x1;
+		int presentMask = 0;
+		int blockMask = 0;
+		for (int i = 0; i < GHOSTS_PER_PACKET; i++)
+		{
+			int slot = packetID * GHOSTS_PER_PACKET + i;
+			int cacheIdx = slot * 2 + parity;
+			int blockIdx = (i / 4) * 5 + 1;
+			if (getBlock(packet, blockIdx, i % 4) == 0x3FF)
+			{
+				session.hasSentGhostBlock[slot * 2] = false;
+				session.hasSentGhostBlock[slot * 2 + 1] = false;
+				continue;
+			}
+			
+			presentMask |= 0x1 << i;
+			boolean isChanged = !session.hasSentGhostBlock[cacheIdx];
+			for (int k = 0; k < 4; k++)
+			{
+				int value = getBlock(packet, blockIdx + i % 4 + 1, k);
+				isChanged |= session.sentGhostBlocks[cacheIdx * 4 + k] != value;
+				session.sentGhostBlocks[cacheIdx * 4 + k] = value;
+			}
+			session.hasSentGhostBlock[cacheIdx] = true;
+			if (isChanged)
+				session.numGhostBlockRepeats[cacheIdx] = GHOST_BLOCK_REPEATS;
+			if (session.numGhostBlockRepeats[cacheIdx] > 0 || isKeyFrame)
+			{
+				session.numGhostBlockRepeats[cacheIdx] = Math.max(0, session.numGhostBlockRepeats[cacheIdx] - 1);
+				blockMask |= 0x1 << i;
+			}
+		}
+		
+		if (presentMask != 0)
+		{
+			putSectionHeader(frame, JebScapeFrameDecoder.SECTION_GHOSTS, 4 + Integer.bitCount(presentMask) * 4 + Integer.bitCount(blockMask) * 16);
+			frame.putShort((short)presentMask);
+			frame.putShort((short)blockMask);
+			for (int i = 0; i < GHOSTS_PER_PACKET; i++)
+				if (((presentMask >>> i) & 0x1) == 0x1)
+					frame.putInt(getBlock(packet, (i / 4) * 5 + 1, i % 4));
+			for (int i = 0; i < GHOSTS_PER_PACKET; i++)
+				if (((blockMask >>> i) & 0x1) == 0x1)
+					for (int k = 0; k < 4; k++)
+						frame.putInt(getBlock(packet, (i / 4) * 5 + i % 4 + 2, k));
+		}
+		
+		// anything else outside of the ghost sections and the chat, such as the server stats
+		int sectionStart = frame.position();
+		for (int blockIdx = 21; blockIdx < JebScapeFrameDecoder.EXTRA_BLOCK_IDX; blockIdx++)
+		{
+			if (isBlockEmpty(packet, blockIdx))
+				continue;
+			
+			if (frame.position() == sectionStart)
+			{
+				putSectionHeader(frame, JebScapeFrameDecoder.SECTION_BLOCKS, 0); // length filled in once we know it
+			}
+			frame.put((byte)blockIdx);
+			for (int k = 0; k < 4; k++)
+				frame.putInt(getBlock(packet, blockIdx, k));
+		}
+		if (frame.position() != sectionStart)
+			frame.putShort(sectionStart + 1, (short)(frame.position() - sectionStart - 3));
+		
+		boolean hasExtra = false;
+		for (int i = 0; i < JebScapeFrameDecoder.NUM_EXTRA_BLOCKS; i++)
+			hasExtra |= !isBlockEmpty(packet, JebScapeFrameDecoder.EXTRA_BLOCK_IDX + i);
+		if (hasExtra)
+		{
+			putSectionHeader(frame, JebScapeFrameDecoder.SECTION_EXTRA, JebScapeFrameDecoder.NUM_EXTRA_BLOCKS * 16);
+			for (int i = 0; i < JebScapeFrameDecoder.NUM_EXTRA_BLOCKS; i++)
+				for (int k = 0; k < 4; k++)
+					frame.putInt(getBlock(packet, JebScapeFrameDecoder.EXTRA_BLOCK_IDX + i, k));
+		}
+		
+		frame.putShort(4, (short)frame.position());
+		frame.flip();
+		return frame;
+	}
+	
+	private static boolean isBlockEmpty(ByteBuffer buffer, int blockIdx)
+	{
+		for (int k = 0; k < 4; k++)
+			if (getBlock(buffer, blockIdx, k) != 0)
+				return false;
+		return true;
+	}
+	
+	// deterministic so that clients can verify what they've decoded
+	// ghosts are scattered up to 15 tiles around the player, pacing back and forth in a loop that repeats every 16 ticks
+	public static int getGhostMovement(int tick, int ghostID)
+	{
+		int phase = (tick + ghostID) % TICKS;
+		int dx = 15 + getGhostHomeX(ghostID) + (phase < 8 ? phase : 16 - phase) - 4;
+		int dy = 15 + getGhostHomeY(ghostID);
+		int packedOrientation = (phase < 8 ? 16 : 48);
+		int animationID = 819; // walk
+		
+		int ghostData = dx & 0x1F;								// 5/32 bits
+		ghostData |= (dy & 0x1F) << 5;							// 10/32 bits
+		ghostData |= (packedOrientation & 0x3F) << 10;			// 16/32 bits
+		ghostData |= (animationID & 0x3FFF) << 16;				// 30/32 bits
+		ghostData |= 0x0 << 30;									// 31/32 bits
+		ghostData |= 0x0 << 31;									// 32/32 bits
+		return ghostData;
+	}
+	
+	// how many tiles from the player the ghost is on the given tick
+	public static int getGhostDistance(int tick, int ghostID)
+	{
+		int ghostData = getGhostMovement(tick, ghostID);
+		return Math.max(Math.abs((ghostData & 0x1F) - 15), Math.abs(((ghostData >>> 5) & 0x1F) - 15));
+	}
+	
+	private static int getGhostHomeX(int ghostID)
+	{
+		return (ghostID * 7) % 23 - 11;
+	}
+	
+	private static int getGhostHomeY(int ghostID)
+	{
+		return (ghostID * 5 + ghostID / 23) % 23 - 11;
+	}
+	
+	public static String getGhostName(int ghostID)
+	{
+		return "Ghost " + ghostID;
+	}
+	
+	private void writeName(ByteBuffer buffer, int blockIdx, int index, String name)
+	{
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		int offset = (blockIdx * 4 + index) * 4;
+		for (int i = 0; i < 12; i++)
+			buffer.put(offset + i, i < nameBytes.length ? nameBytes[i] : (byte)' ');
+	}
+	
+	private static void setBlock(ByteBuffer buffer, int blockIdx, int index, int value)
+	{
+		buffer.putInt((blockIdx * 4 + index) * 4, value);
+	}
+	
+	private static int getBlock(ByteBuffer buffer, int blockIdx, int index)
+	{
+		return buffer.getInt((blockIdx * 4 + index) * 4);
+	}
+	
+	private void enqueue(ByteBuffer buffer, SocketAddress address)
+	{
+		if (random.nextInt(100) < lossPercent)
+		{
+			numPacketsDropped++;
+			return;
+		}
+		
+		long delayNanos = delayMillis * 1_000_000L;
+		if (delayJitterMillis > 0)
+			delayNanos += random.nextInt(delayJitterMillis) * 1_000_000L;
+		if (random.nextInt(100) < reorderPercent)
+		{
+			// hold it back long enough for the rest of the tick to overtake it
+			delayNanos += tickMillis * 1_000_000L / 4;
+			numPacketsReordered++;
+		}
+		
+		addDatagram(buffer, address, delayNanos);
+		if (random.nextInt(100) < duplicatePercent)
+		{
+			addDatagram(buffer.duplicate(), address, delayNanos + random.nextInt(Math.max(1, tickMillis / 4)) * 1_000_000L);
+			numPacketsDuplicated++;
+		}
+	}
+	
+	private void addDatagram(ByteBuffer buffer, SocketAddress address, long delayNanos)
+	{
+		Datagram datagram = new Datagram();
+		datagram.sendAtNanos = System.nanoTime() + delayNanos;
+		datagram.sequence = sequence++;
+		datagram.address = address;
+		datagram.buffer = buffer;
+		outgoing.add(datagram);
+	}
+}